@@ -0,0 +1,156 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package dnp;
+
+import edu.mines.jtk.util.Parallel;
+import edu.mines.jtk.util.Stopwatch;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Benchmarks iterations of conjugate gradients with 3D vectors.
+ * Compares reference iterations, with one pass over vectors for each
+ * vector operation, to those of {@link CgSolver}, which updates solution
+ * and residual vectors and computes the norm of residuals in one fused
+ * pass. The linear operator is a 7-point Laplacian plus a small multiple
+ * of the identity, applied in parallel, and the preconditioner (if any)
+ * is Jacobi. For a fixed number of iterations, reports times per
+ * iteration and the maximum difference between solutions.
+ * <p>
+ * Usage: CgBench [n1 n2 n3]. The default grid has 201^3 samples.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class CgBench {
+
+  public static void main(String[] args) {
+    int n1 = 201, n2 = 201, n3 = 201;
+    if (args.length>2) {
+      n1 = Integer.parseInt(args[0]);
+      n2 = Integer.parseInt(args[1]);
+      n3 = Integer.parseInt(args[2]);
+    }
+    trace("n1="+n1+" n2="+n2+" n3="+n3);
+    float[][][] b = randfloat(n1,n2,n3);
+    for (int iter=0; iter<3; ++iter) {
+      bench(false,b);
+      bench(true,b);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int NITER = 50;
+  private static final float EPS = 0.01f; // multiple of identity
+
+  private static void bench(boolean precon, float[][][] b) {
+    int n1 = b[0][0].length;
+    int n2 = b[0].length;
+    int n3 = b.length;
+    CgSolver.A a = new Laplacian();
+    CgSolver.A m = precon?new Jacobi():null;
+    VecArrayFloat3 vb = new VecArrayFloat3(b);
+    VecArrayFloat3 vr = new VecArrayFloat3(n1,n2,n3);
+    VecArrayFloat3 vx = new VecArrayFloat3(n1,n2,n3);
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    solveReference(a,m,vb,vr);
+    sw.stop();
+    double tr = sw.time()/NITER;
+    CgSolver cs = new CgSolver(0.0,NITER);
+    sw.restart();
+    if (precon) {
+      cs.solve(a,m,vb,vx);
+    } else {
+      cs.solve(a,vb,vx);
+    }
+    sw.stop();
+    double tx = sw.time()/NITER;
+    float dmax = max(abs(sub(vr.getArray(),vx.getArray())));
+    trace(String.format(
+      "%s: reference = %6.3f s  fused = %6.3f s  per iteration"+
+      "  speedup = %4.2f  dmax = %g",
+      precon?"pcg":" cg",tr,tx,tr/tx,dmax));
+  }
+
+  // Reference CG iterations, with x = 0 initially and one pass over
+  // vectors for each vector operation. With a preconditioner, the norm
+  // of the solution is computed in every iteration, as it was in
+  // CgSolver before vector operations were fused.
+  private static void solveReference(
+    CgSolver.A a, CgSolver.A m, Vec b, Vec x)
+  {
+    x.zero();
+    Vec q = b.clone();
+    Vec r = b.clone();
+    Vec s = r.clone();
+    if (m!=null)
+      m.apply(r,s); // s = Mr
+    Vec d = s.clone();
+    double rsnorm = r.dot(s);
+    for (int iter=0; iter<NITER; ++iter) {
+      a.apply(d,q); // q = Ad
+      double alpha = rsnorm/d.dot(q);
+      x.add(1.0,d,alpha); // x = x+alpha*d
+      r.add(1.0,q,-alpha); // r = r-alpha*q
+      double rnorm = r.norm2(); // ||r||
+      double rsnormOld = rsnorm;
+      if (m!=null) {
+        x.norm2(); // ||x||
+        m.apply(r,s); // s = Mr
+        rsnorm = r.dot(s); // r'Mr
+      } else {
+        s = r;
+        rsnorm = rnorm*rnorm; // r'r
+      }
+      d.add(rsnorm/rsnormOld,s,1.0); // d = s+beta*d
+    }
+  }
+
+  // Applies 7-point Laplacian plus EPS times the identity.
+  private static class Laplacian implements CgSolver.A {
+    public void apply(Vec vx, Vec vy) {
+      final float[][][] x = ((VecArrayFloat3)vx).getArray();
+      final float[][][] y = ((VecArrayFloat3)vy).getArray();
+      final int n1 = x[0][0].length;
+      final int n2 = x[0].length;
+      final int n3 = x.length;
+      Parallel.loop(n3,new Parallel.LoopInt() {
+      public void compute(int i3) {
+        for (int i2=0; i2<n2; ++i2) {
+          float[] x00 = x[i3][i2];
+          float[] xm0 = (i2>0)?x[i3][i2-1]:null;
+          float[] xp0 = (i2<n2-1)?x[i3][i2+1]:null;
+          float[] x0m = (i3>0)?x[i3-1][i2]:null;
+          float[] x0p = (i3<n3-1)?x[i3+1][i2]:null;
+          float[] y00 = y[i3][i2];
+          for (int i1=0; i1<n1; ++i1) {
+            float t = (6.0f+EPS)*x00[i1];
+            if (i1>0) t -= x00[i1-1];
+            if (i1<n1-1) t -= x00[i1+1];
+            if (xm0!=null) t -= xm0[i1];
+            if (xp0!=null) t -= xp0[i1];
+            if (x0m!=null) t -= x0m[i1];
+            if (x0p!=null) t -= x0p[i1];
+            y00[i1] = t;
+          }
+        }
+      }});
+    }
+  }
+
+  // Jacobi preconditioner, the inverse of the diagonal of the Laplacian.
+  private static class Jacobi implements CgSolver.A {
+    public void apply(Vec vx, Vec vy) {
+      vy.add(0.0,vx,1.0/(6.0+EPS));
+    }
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
@@ -99,6 +99,23 @@ public class CgSolver {
     _maxi = maxi;
   }
 
+  /**
+   * Sets vectors to be used as work space by this solver.
+   * By default, this solver clones the right-hand-side vector b for work
+   * vectors each time it solves a system of equations. Work vectors
+   * specified here are instead used for every solve. Their types may
+   * differ from that of b, if vector operations permit, so that (for
+   * example) some work vectors may be stored with less precision.
+   * @param q vector for products Ad of the operator A.
+   * @param r vector for residuals.
+   * @param d vector for search directions.
+   * @param s vector for preconditioned residuals; null, if no
+   *  preconditioner will be used.
+   */
+  public void setWorkVectors(Vec q, Vec r, Vec d, Vec s) {
+    _work = new Vec[]{q,r,d,s};
+  }
+
   /**
    * Solves the system of equation Ax = b with CG iterations.
    * @param a the linear operator that represents the matrix A.
@@ -152,11 +169,11 @@ public class CgSolver {
    * @param x the solution vector.
    */
   public Info solve(Stopper stopper, double anorm, A a, Vec b, Vec x) {
-    Vec q = b.clone();
+    Vec q = copy(0,b);
     a.apply(x,q); // q = Ax
-    Vec r = b.clone();
+    Vec r = copy(1,b);
     r.add(1.0,q,-1.0); // r = b-Ax
-    Vec d = r.clone();
+    Vec d = copy(2,r);
     double bnorm = b.norm2();
     double rnorm = r.norm2();
     double xnorm = x.norm2();
@@ -173,19 +190,19 @@ public class CgSolver {
       a.apply(d,q);
       double dq = d.dot(q);
       double alpha = rrnorm/dq;
-      x.add(1.0,d,alpha);
-      if (anorm>0.0)
-        xnorm = x.norm2();
+      double rrnormOld = rrnorm;
       if (iter%50==49) { // if accumulated rounding error may be large, ...
+        x.add(1.0,d,alpha); // x += alpha*d
         a.apply(x,q); // q = Ax
         r.add(0.0,b,1.0); // r = b
         r.add(1.0,q,-1.0); // r = b-Ax
+        rrnorm = r.dot(r);
       } else { // otherwise, use shortcut to update residual
-        r.add(1.0,q,-alpha); // r -= alpha*q
+        rrnorm = x.addBoth(alpha,d,r,-alpha,q); // x += alpha*d, r -= alpha*q
       }
-      double rrnormOld = rrnorm;
-      rnorm = r.norm2();
-      rrnorm = rnorm*rnorm;
+      if (anorm>0.0)
+        xnorm = x.norm2();
+      rnorm = Math.sqrt(rrnorm);
       double beta = rrnorm/rrnormOld;
       d.add(beta,r,1.0);
     }
@@ -207,13 +224,13 @@ public class CgSolver {
    * @param x the solution vector.
    */
   public Info solve(Stopper stopper, double anorm, A a, A m, Vec b, Vec x) {
-    Vec q = b.clone();
+    Vec q = copy(0,b);
     a.apply(x,q); // q = Ax
-    Vec r = b.clone();
+    Vec r = copy(1,b);
     r.add(1.0,q,-1.0); // r = r-q = b-Ax
-    Vec s = r.clone();
+    Vec s = copy(3,r);
     m.apply(r,s); // s = Mr
-    Vec d = s.clone(); // d = s
+    Vec d = copy(2,s); // d = s
     double rsnorm = r.dot(s); // r's = r'Mr
     double bnorm = b.norm2();
     double rnorm = r.norm2();
@@ -230,16 +247,18 @@ public class CgSolver {
       a.apply(d, q); // q = Ad
       double dq = d.dot(q); // d'q
       double alpha = rsnorm/dq; // alpha = r'Mr/d'q
-      x.add(1.0,d, alpha); // x = x+alpha*d
-      xnorm = x.norm2(); // ||x||
       if (iter%50==49) { // if accumulated rounding error may be large, ...
+        x.add(1.0,d,alpha); // x = x+alpha*d
         a.apply(x,q); // q = Ax
         r.add(0.0,b,1.0); // r = b
         r.add(1.0,q,-1.0); // r = b-Ax
+        rnorm = r.norm2(); // ||r||
       } else { // otherwise, use shortcut to update residual
-        r.add(1.0,q,-alpha); // r = r-alpha*q
+        double rr = x.addBoth(alpha,d,r,-alpha,q); // x += alpha*d, r -= alpha*q
+        rnorm = Math.sqrt(rr); // ||r||
       }
-      rnorm = r.norm2(); // ||r||
+      if (anorm>0.0)
+        xnorm = x.norm2(); // ||x||
       m.apply(r,s); // s = Mr
       double rsnormOld = rsnorm;
       rsnorm = r.dot(s); // r's = r'Mr
@@ -259,6 +278,17 @@ public class CgSolver {
 
   private double _tiny; // converged: norm(r)<tiny*(norm(A)*norm(x)+norm(b))
   private int _maxi; // upper limit on number of iterations
+  private Vec[] _work; // work vectors q, r, d and s; null, if none
+
+  // Returns a copy of the vector v, either the work vector with specified
+  // index or, if none, a clone of v.
+  private Vec copy(int index, Vec v) {
+    Vec w = (_work!=null)?_work[index]:null;
+    if (w==null)
+      return v.clone();
+    w.add(0.0,v,1.0);
+    return w;
+  }
 
   // Returns non-null info if user stops CG iterations.
   private Info userStop(
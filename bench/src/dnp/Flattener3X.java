@@ -181,6 +181,26 @@ public class Flattener3X {
   public Mappings getMappingsFromSlopes(
     Sampling s1, Sampling s2, Sampling s3,
     float[][][] p2, float[][][] p3, float[][][] ep) 
+  {
+    return getMappingsFromSlopes(s1,s2,s3,p2,p3,ep,null);
+  }
+
+  /**
+   * Gets mappings computed from specified slopes and planarities.
+   * Temporary arrays required to compute the mappings are retained in
+   * the specified work space, which may be reused in subsequent calls
+   * for images with the same dimensions.
+   * @param s1 sampling of 1st dimension.
+   * @param s2 sampling of 2nd dimension.
+   * @param s3 sampling of 3rd dimension.
+   * @param p2 array of slopes of image features in 2nd dimension.
+   * @param p3 array of slopes of image features in 3rd dimension.
+   * @param ep array of planarities of image features.
+   * @param ws work space; if null, a temporary work space is used.
+   */
+  public Mappings getMappingsFromSlopes(
+    Sampling s1, Sampling s2, Sampling s3,
+    float[][][] p2, float[][][] p3, float[][][] ep, Workspace3 ws) 
   {
     // Sampling parameters.
     final int n1 = s1.getCount();
@@ -197,17 +217,24 @@ public class Flattener3X {
     if (d1!=d3)
       p3 = mul(d3/d1,p3);
 
+    // Work space.
+    if (ws==null) {
+      ws = new Workspace3(n1,n2,n3);
+    } else {
+      ws.check(n1,n2,n3);
+    }
+
     // Compute u(x1,x2,x3), in samples.
-    float[][][] b = new float[n3][n2][n1]; // right-hand side
+    float[][][] b = ws.getArray(); // right-hand side
     float[][][] u = rampfloat(0.0f,1.0f,0.0f,0.0f,n1,n2,n3); // u, in samples
-    VecArrayFloat3 vb = new VecArrayFloat3(b);
-    VecArrayFloat3 vu = new VecArrayFloat3(u);
     Smoother3 smoother3 = new Smoother3(n1,n2,n3,_sigma1,_sigma2,_sigma3,ep);
-    A3 a3 = new A3(smoother3,ep,p2,p3);
-    double anorm = 1.0/vu.norm2();
-    CgSolver cs = new CgSolver(_small,_niter);
     makeRhs(ep,p2,p3,b);
     smoother3.applyTranspose(b);
+    Vec vb = ws.getRhs(b);
+    VecArrayFloat3 vu = new VecArrayFloat3(u);
+    A3 a3 = new A3(smoother3,ep,p2,p3,b);
+    double anorm = 1.0/vu.norm2();
+    CgSolver cs = ws.getSolver(_small,_niter);
     cs.solve(null,anorm,a3,vb,vu);
     smoother3.apply(u);
     cleanShifts(u);
@@ -222,8 +249,8 @@ public class Flattener3X {
       }
     }
 
-    // Compute x1(u1,u2).
-    final float[][][] x1 = b;
+    // Compute x1(u1,u2), in the array taken from the work space.
+    final float[][][] x1 = ws.takeArray();
     final InverseInterpolator ii = new InverseInterpolator(s1,s1);
     Parallel.loop(n3,new Parallel.LoopInt() {
     public void compute(int i3) {
@@ -245,20 +272,21 @@ public class Flattener3X {
 
   // Conjugate-gradient operators.
   private static class A3 implements CgSolver.A {
-    A3(Smoother3 s3, float[][][] wp, float[][][] p2, float[][][] p3) 
+    A3(Smoother3 s3, float[][][] wp, float[][][] p2, float[][][] p3,
+       float[][][] z) 
     {
       _s3 = s3;
       _wp = wp;
       _p2 = p2;
       _p3 = p3;
+      _z = z;
       //testSpd();
     }
     public void apply(Vec vx, Vec vy) {
-      VecArrayFloat3 v3x = (VecArrayFloat3)vx;
       VecArrayFloat3 v3y = (VecArrayFloat3)vy;
-      float[][][] x = v3x.getArray();
       float[][][] y = v3y.getArray();
-      float[][][] z = copy(x);
+      float[][][] z = _z;
+      Workspace3.copy(vx,z);
       _s3.apply(z);
       applyLhs(_wp,_p2,_p3,z,y);
       _s3.applyTranspose(y);
@@ -267,6 +295,7 @@ public class Flattener3X {
     private float[][][] _wp;
     private float[][][] _p2;
     private float[][][] _p3;
+    private float[][][] _z; // temporary array, from work space
     public void testSpd() {
       // symmetric: y'Ax = x'(A'y) = x'Ay
       // positive-semidefinite: x'Ax >= 0
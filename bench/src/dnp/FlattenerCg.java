@@ -70,19 +70,41 @@ public class FlattenerCg {
 
   public float[][][] findShifts(
     float[][][] p2, float[][][] p3, float[][][] ep) 
+  {
+    return findShifts(p2,p3,ep,null);
+  }
+
+  /**
+   * Finds shifts using temporary arrays retained in a work space.
+   * The work space may be reused in subsequent calls for images
+   * with the same dimensions.
+   * @param p2 array of slopes of image features in 2nd dimension.
+   * @param p3 array of slopes of image features in 3rd dimension.
+   * @param ep array of planarities of image features; may be null.
+   * @param ws work space; if null, a temporary work space is used.
+   * @return array of shifts.
+   */
+  public float[][][] findShifts(
+    float[][][] p2, float[][][] p3, float[][][] ep, Workspace3 ws) 
   {
     int n1 = p2[0][0].length;
     int n2 = p2[0].length;
     int n3 = p2.length;
-    float[][][] r = new float[n3][n2][n1]; // right-hand side
+    if (ws==null) {
+      ws = new Workspace3(n1,n2,n3);
+    } else {
+      ws.check(n1,n2,n3);
+    }
+    float[][][] r = ws.getArray(); // right-hand side
     float[][][] s = new float[n3][n2][n1]; // the shifts
-    VecArrayFloat3 vr = new VecArrayFloat3(r);
-    VecArrayFloat3 vs = new VecArrayFloat3(s);
     Smoother3 s3 = new Smoother3(n1,n2,n3,_sigma1,_sigma2,_sigma2,ep);
-    A3 a3 = new A3(_epsilon,s3,p2,p3,ep);
-    CgSolver cs = new CgSolver(_small,_niter);
+    zero(r);
     makeRhs(p2,p3,ep,r);
     s3.applyTranspose(r);
+    Vec vr = ws.getRhs(r);
+    VecArrayFloat3 vs = new VecArrayFloat3(s);
+    A3 a3 = new A3(_epsilon,s3,p2,p3,ep,r);
+    CgSolver cs = ws.getSolver(_small,_niter);
     cs.solve(a3,vr,vs);
     s3.apply(s);
     invertShifts(s);
@@ -160,33 +182,33 @@ public class FlattenerCg {
   }
   private static class A3 implements CgSolver.A {
     A3(float epsilon, Smoother3 s3,
-       float[][][] p2, float[][][] p3, float[][][] ep) 
+       float[][][] p2, float[][][] p3, float[][][] ep, float[][][] z) 
     {
       _epsilon = epsilon;
       _s3 = s3;
       _p2 = p2;
       _p3 = p3;
       _ep = ep;
+      _z = z;
     }
     public void apply(Vec vx, Vec vy) {
-      VecArrayFloat3 v3x = (VecArrayFloat3)vx;
       VecArrayFloat3 v3y = (VecArrayFloat3)vy;
-      VecArrayFloat3 v3z = v3x.clone();
       v3y.zero();
-      float[][][] x = v3x.getArray();
       float[][][] y = v3y.getArray();
-      float[][][] z = v3z.getArray();
+      float[][][] z = _z;
+      Workspace3.copy(vx,z);
       _s3.apply(z);
       applyLhs(_p2,_p3,_ep,z,y);
       _s3.applyTranspose(y);
       if (_epsilon>0.0f)
-        v3y.add(1.0,v3x,_epsilon*_epsilon);
+        v3y.add(1.0,vx,_epsilon*_epsilon);
     }
     private float _epsilon;
     private Smoother3 _s3;
     private float[][][] _p2;
     private float[][][] _p3;
     private float[][][] _ep;
+    private float[][][] _z; // temporary array, from work space
   }
 
   // Smoothers used as preconditioners.
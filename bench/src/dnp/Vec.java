@@ -60,4 +60,19 @@ public interface Vec {
    * @param sthat factor by which to scale that vector.
    */
   public void add(double sthis, Vec vthat, double sthat);
+
+  /**
+   * Updates this vector and a vector y with one pass over all vectors,
+   * by computing vthis = vthis + vthat*sthat and vy = vy + vz*sz, and
+   * returns the dot product y'y of the updated vector y. In iterations
+   * of conjugate gradients, this fused operation updates both solution
+   * and residual vectors, and computes the squared norm of residuals.
+   * @param sthat factor by which to scale that vector.
+   * @param vthat that vector.
+   * @param vy the vector y; must be distinct from this vector.
+   * @param sz factor by which to scale the vector z.
+   * @param vz the vector z.
+   * @return the dot product y'y.
+   */
+  public double addBoth(double sthat, Vec vthat, Vec vy, double sz, Vec vz);
 }
@@ -92,6 +92,23 @@ public class VecArrayDouble1 implements Vec {
       athis[i1] = athis[i1]*sthis+athat[i1]*sthat;
   }
 
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    double[] ax = _a;
+    double[] ad = ((VecArrayDouble1)vthat)._a;
+    double[] ay = ((VecArrayDouble1)vy)._a;
+    double[] az = ((VecArrayDouble1)vz)._a;
+    double sum = 0.0;
+    for (int i1=0; i1<_n1; ++i1) {
+      ax[i1] += ad[i1]*sthat;
+      double yi = ay[i1]+az[i1]*sz;
+      ay[i1] = yi;
+      sum += yi*yi;
+    }
+    return sum;
+  }
+
   private double[] _a;
   private int _n1;
 }
@@ -124,6 +124,27 @@ public class VecArrayDouble2 implements Vec {
     }
   }
 
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    double[][] ax = _a;
+    double[][] ad = ((VecArrayDouble2)vthat)._a;
+    double[][] ay = ((VecArrayDouble2)vy)._a;
+    double[][] az = ((VecArrayDouble2)vz)._a;
+    double sum = 0.0;
+    for (int i2=0; i2<_n2; ++i2) {
+      double[] ax2 = ax[i2], ad2 = ad[i2];
+      double[] ay2 = ay[i2], az2 = az[i2];
+      for (int i1=0; i1<_n1; ++i1) {
+        ax2[i1] += ad2[i1]*sthat;
+        double yi = ay2[i1]+az2[i1]*sz;
+        ay2[i1] = yi;
+        sum += yi*yi;
+      }
+    }
+    return sum;
+  }
+
   private double[][] _a;
   private int _n1,_n2;
 }
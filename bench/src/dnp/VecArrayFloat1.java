@@ -94,6 +94,25 @@ public class VecArrayFloat1 implements Vec {
       athis[i1] = athis[i1]*fthis+athat[i1]*fthat;
   }
 
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    float[] ax = _a;
+    float[] ad = ((VecArrayFloat1)vthat)._a;
+    float[] ay = ((VecArrayFloat1)vy)._a;
+    float[] az = ((VecArrayFloat1)vz)._a;
+    float fthat = (float)sthat;
+    float fz = (float)sz;
+    double sum = 0.0;
+    for (int i1=0; i1<_n1; ++i1) {
+      ax[i1] += ad[i1]*fthat;
+      float yi = ay[i1]+az[i1]*fz;
+      ay[i1] = yi;
+      sum += yi*yi;
+    }
+    return sum;
+  }
+
   private float[] _a;
   private int _n1;
 }
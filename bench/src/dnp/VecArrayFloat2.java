@@ -6,6 +6,8 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 ****************************************************************************/
 package dnp;
 
+import edu.mines.jtk.util.Parallel;
+
 /**
  * A vector represented by a 2D array[n2][n1] of floats.
  * @author Dave Hale, Colorado School of Mines
@@ -126,6 +128,35 @@ public class VecArrayFloat2 implements Vec {
     }
   }
 
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    final float[][] ax = _a;
+    final float[][] ad = ((VecArrayFloat2)vthat)._a;
+    final float[][] ay = ((VecArrayFloat2)vy)._a;
+    final float[][] az = ((VecArrayFloat2)vz)._a;
+    final float fthat = (float)sthat;
+    final float fz = (float)sz;
+    final int n1 = _n1;
+    return Parallel.reduce(_n2,new Parallel.ReduceInt<Double>() {
+      public Double compute(int i2) {
+        float[] ax2 = ax[i2], ad2 = ad[i2];
+        float[] ay2 = ay[i2], az2 = az[i2];
+        double sum = 0.0;
+        for (int i1=0; i1<n1; ++i1) {
+          ax2[i1] += ad2[i1]*fthat;
+          float yi = ay2[i1]+az2[i1]*fz;
+          ay2[i1] = yi;
+          sum += yi*yi;
+        }
+        return sum;
+      }
+      public Double combine(Double a, Double b) {
+        return a+b;
+      }
+    });
+  }
+
   private float[][] _a;
   private int _n1,_n2;
 }
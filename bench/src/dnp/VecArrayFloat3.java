@@ -11,6 +11,8 @@ import static edu.mines.jtk.util.Parallel.*;
 
 /**
  * A vector represented by a 3D array[n3][n2][n1] of floats.
+ * Operations with this vector may use vectors of packed shorts
+ * {@link VecArrayShort3} with the same dimensions.
  * @author Dave Hale, Colorado School of Mines
  * @version 2013.01.29
  */
@@ -83,6 +85,8 @@ public class VecArrayFloat3 implements Vec {
   }
 
   public double dot(Vec vthat) {
+    if (!(vthat instanceof VecArrayFloat3))
+      return VecArrayShort3.dotMixed(this,vthat);
     float[][][] athis = _a;
     float[][][] athat = ((VecArrayFloat3)vthat)._a;
     return sdot(athis,athat);
@@ -103,6 +107,10 @@ public class VecArrayFloat3 implements Vec {
   public void add(double sthis, Vec vthat, double sthat) {
     float fthis = (float)sthis;
     float fthat = (float)sthat;
+    if (!(vthat instanceof VecArrayFloat3)) {
+      VecArrayShort3.addMixed(this,fthis,vthat,fthat);
+      return;
+    }
     float[][][] athis = _a;
     float[][][] athat = ((VecArrayFloat3)vthat)._a;
     if (fthis==1.0f) {
@@ -114,6 +122,21 @@ public class VecArrayFloat3 implements Vec {
     }
   }
 
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    if (!(vthat instanceof VecArrayFloat3) ||
+        !(vy instanceof VecArrayFloat3) ||
+        !(vz instanceof VecArrayFloat3))
+      return VecArrayShort3.addBothMixed(
+        this,(float)sthat,vthat,vy,(float)sz,vz);
+    float[][][] ax = _a;
+    float[][][] ad = ((VecArrayFloat3)vthat)._a;
+    float[][][] ay = ((VecArrayFloat3)vy)._a;
+    float[][][] az = ((VecArrayFloat3)vz)._a;
+    return saxpy2(ad,(float)sthat,ax,az,(float)sz,ay);
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // private
 
@@ -259,4 +282,43 @@ public class VecArrayFloat3 implements Vec {
       saxpby(a,x[i3],b,y[i3]);
     }});
   }
+
+  // Computes x = x + a*d and y = y + b*z, and returns y'y, in one pass.
+  private double saxpy2(
+    float[] d, float a, float[] x, float[] z, float b, float[] y)
+  {
+    int n1 = x.length;
+    double yy = 0.0;
+    for (int i1=0; i1<n1; ++i1) {
+      x[i1] += a*d[i1];
+      float yi = y[i1]+b*z[i1];
+      y[i1] = yi;
+      yy += yi*yi;
+    }
+    return yy;
+  }
+  private double saxpy2(
+    float[][] d, float a, float[][] x, float[][] z, float b, float[][] y)
+  {
+    int n2 = x.length;
+    double yy = 0.0;
+    for (int i2=0; i2<n2; ++i2)
+      yy += saxpy2(d[i2],a,x[i2],z[i2],b,y[i2]);
+    return yy;
+  }
+  private double saxpy2(
+    final float[][][] d, final float a, final float[][][] x,
+    final float[][][] z, final float b, final float[][][] y)
+  {
+    int n3 = x.length;
+    double yy = reduce(n3,new ReduceInt<Double>() {
+      public Double compute(int i3) {
+        return saxpy2(d[i3],a,x[i3],z[i3],b,y[i3]);
+      }
+      public Double combine(Double p, Double q) {
+        return p+q;
+      }
+    });
+    return yy;
+  }
 }
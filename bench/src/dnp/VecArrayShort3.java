@@ -0,0 +1,310 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package dnp;
+
+import static edu.mines.jtk.util.Parallel.*;
+
+/**
+ * A vector represented by a 3D array[n3][n2][n1] of packed shorts.
+ * Each short contains the 16 most significant bits of a float, rounded
+ * to nearest even; this format is sometimes called bfloat16. Elements
+ * have the range of floats, but only 8 bits of precision, and require
+ * half the memory of floats.
+ * <p>
+ * Arithmetic is performed with floats, and dot products and norms are
+ * accumulated in double precision. Operations with vectors of this
+ * class may use vectors of class {@link VecArrayFloat3} with the same
+ * dimensions, and vice versa, so that a solver may store some of its
+ * vectors in floats and others in shorts.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class VecArrayShort3 implements Vec {
+
+  /**
+   * Constructs a zero vector with specified dimensions.
+   * @param n1 the number of elements in the 1st dimension.
+   * @param n2 the number of elements in the 2nd dimension.
+   * @param n3 the number of elements in the 3rd dimension.
+   */
+  public VecArrayShort3(int n1, int n2, int n3) {
+    _a = new short[n3][n2][n1];
+    _n1 = n1;
+    _n2 = n2;
+    _n3 = n3;
+  }
+
+  /**
+   * Constructs a vector with elements packed from an array of floats.
+   * @param a the array of floats, which is not referenced by this vector.
+   */
+  public VecArrayShort3(float[][][] a) {
+    this(a[0][0].length,a[0].length,a.length);
+    set(a);
+  }
+
+  /**
+   * Gets the number of elements in the 1st array dimension.
+   * @return the number of elements in the 1st dimension.
+   */
+  public int getN1() {
+    return _n1;
+  }
+
+  /**
+   * Gets the number of elements in the 2nd array dimension.
+   * @return the number of elements in the 2nd dimension.
+   */
+  public int getN2() {
+    return _n2;
+  }
+
+  /**
+   * Gets the number of elements in the 3rd array dimension.
+   * @return the number of elements in the 3rd dimension.
+   */
+  public int getN3() {
+    return _n3;
+  }
+
+  /**
+   * Unpacks the elements of this vector into the specified array.
+   * @param a array[n3][n2][n1] of floats.
+   */
+  public void get(final float[][][] a) {
+    loop(_n3,new LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<_n2; ++i2)
+        unpack(_a[i3][i2],a[i3][i2]);
+    }});
+  }
+
+  /**
+   * Packs the elements of the specified array into this vector.
+   * @param a array[n3][n2][n1] of floats.
+   */
+  public void set(final float[][][] a) {
+    loop(_n3,new LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<_n2; ++i2)
+        pack(a[i3][i2],_a[i3][i2]);
+    }});
+  }
+
+  public double epsilon() {
+    return Math.ulp(1.0f)*65536.0;
+  }
+
+  public VecArrayShort3 clone() {
+    final VecArrayShort3 v = new VecArrayShort3(_n1,_n2,_n3);
+    loop(_n3,new LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<_n2; ++i2)
+        System.arraycopy(_a[i3][i2],0,v._a[i3][i2],0,_n1);
+    }});
+    return v;
+  }
+
+  public double dot(Vec vthat) {
+    return dotMixed(this,vthat);
+  }
+
+  public double norm2() {
+    return Math.sqrt(dotMixed(this,this));
+  }
+
+  public void zero() {
+    loop(_n3,new LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<_n2; ++i2)
+        java.util.Arrays.fill(_a[i3][i2],(short)0);
+    }});
+  }
+
+  public void scale(double s) {
+    addMixed(this,(float)s,this,0.0f);
+  }
+
+  public void add(double sthis, Vec vthat, double sthat) {
+    addMixed(this,(float)sthis,vthat,(float)sthat);
+  }
+
+  public double addBoth(
+    double sthat, Vec vthat, Vec vy, double sz, Vec vz)
+  {
+    return addBothMixed(this,(float)sthat,vthat,vy,(float)sz,vz);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  // Returns the dot product x'y, for vectors x and y that may be stored
+  // in floats or in shorts.
+  static double dotMixed(final Vec x, final Vec y) {
+    final int n1 = n1(x);
+    final int n2 = n2(x);
+    int n3 = n3(x);
+    return reduce(n3,new ReduceInt<Double>() {
+      public Double compute(int i3) {
+        float[] bx = new float[n1];
+        float[] by = new float[n1];
+        double d = 0.0;
+        for (int i2=0; i2<n2; ++i2) {
+          float[] xr = row(x,i2,i3,bx);
+          float[] yr = row(y,i2,i3,by);
+          for (int i1=0; i1<n1; ++i1)
+            d += xr[i1]*yr[i1];
+        }
+        return d;
+      }
+      public Double combine(Double a, Double b) {
+        return a+b;
+      }
+    });
+  }
+
+  // Computes y = sy*y + sx*x, for vectors x and y that may be stored in
+  // floats or in shorts.
+  static void addMixed(
+    final Vec y, final float sy, final Vec x, final float sx)
+  {
+    final int n1 = n1(y);
+    final int n2 = n2(y);
+    int n3 = n3(y);
+    loop(n3,new LoopInt() {
+    public void compute(int i3) {
+      float[] bx = new float[n1];
+      float[] by = new float[n1];
+      for (int i2=0; i2<n2; ++i2) {
+        float[] xr = row(x,i2,i3,bx);
+        float[] yr = row(y,i2,i3,by);
+        for (int i1=0; i1<n1; ++i1)
+          yr[i1] = sy*yr[i1]+sx*xr[i1];
+        store(yr,y,i2,i3);
+      }
+    }});
+  }
+
+  // Computes x = x + a*d and y = y + b*z, and returns y'y, in one pass,
+  // for vectors that may be stored in floats or in shorts.
+  static double addBothMixed(
+    final Vec x, final float a, final Vec d,
+    final Vec y, final float b, final Vec z)
+  {
+    final int n1 = n1(x);
+    final int n2 = n2(x);
+    int n3 = n3(x);
+    return reduce(n3,new ReduceInt<Double>() {
+      public Double compute(int i3) {
+        float[] bx = new float[n1];
+        float[] bd = new float[n1];
+        float[] by = new float[n1];
+        float[] bz = new float[n1];
+        double yy = 0.0;
+        for (int i2=0; i2<n2; ++i2) {
+          float[] xr = row(x,i2,i3,bx);
+          float[] dr = row(d,i2,i3,bd);
+          float[] yr = row(y,i2,i3,by);
+          float[] zr = row(z,i2,i3,bz);
+          for (int i1=0; i1<n1; ++i1) {
+            xr[i1] += a*dr[i1];
+            yr[i1] += b*zr[i1];
+          }
+          store(xr,x,i2,i3);
+          store(yr,y,i2,i3);
+          yy += dotRow(y,i2,i3,yr);
+        }
+        return yy;
+      }
+      public Double combine(Double p, Double q) {
+        return p+q;
+      }
+    });
+  }
+
+  // Packs floats into shorts, with rounding to nearest even. NaNs are
+  // not rounded, which could yield infinities or zeros; they remain
+  // NaNs, quiet ones, so that a diverging solver does not go unnoticed.
+  static void pack(float[] f, short[] s) {
+    int n = f.length;
+    for (int i=0; i<n; ++i) {
+      int b = Float.floatToRawIntBits(f[i]);
+      if ((b&0x7fffffff)>0x7f800000) {
+        s[i] = (short)((b>>>16)|0x40);
+      } else {
+        b += 0x7fff+((b>>>16)&1);
+        s[i] = (short)(b>>>16);
+      }
+    }
+  }
+
+  // Unpacks shorts into floats.
+  static void unpack(short[] s, float[] f) {
+    int n = s.length;
+    for (int i=0; i<n; ++i)
+      f[i] = Float.intBitsToFloat(s[i]<<16);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private short[][][] _a;
+  private int _n1,_n2,_n3;
+
+  private static int n1(Vec v) {
+    return (v instanceof VecArrayShort3) ?
+      ((VecArrayShort3)v)._n1 :
+      ((VecArrayFloat3)v).getN1();
+  }
+  private static int n2(Vec v) {
+    return (v instanceof VecArrayShort3) ?
+      ((VecArrayShort3)v)._n2 :
+      ((VecArrayFloat3)v).getN2();
+  }
+  private static int n3(Vec v) {
+    return (v instanceof VecArrayShort3) ?
+      ((VecArrayShort3)v)._n3 :
+      ((VecArrayFloat3)v).getN3();
+  }
+
+  // Returns the row [i3][i2] of the specified vector as floats. For a
+  // vector of floats, this is the row itself; otherwise, the row is
+  // unpacked into and returned in the specified buffer.
+  private static float[] row(Vec v, int i2, int i3, float[] buf) {
+    if (v instanceof VecArrayShort3) {
+      unpack(((VecArrayShort3)v)._a[i3][i2],buf);
+      return buf;
+    } else {
+      return ((VecArrayFloat3)v).getArray()[i3][i2];
+    }
+  }
+
+  // Stores a row returned by the method row. Rows of vectors of floats
+  // were modified in place, and need not be stored.
+  private static void store(float[] r, Vec v, int i2, int i3) {
+    if (v instanceof VecArrayShort3)
+      pack(r,((VecArrayShort3)v)._a[i3][i2]);
+  }
+
+  // Returns the sum of squares of elements in a stored row. For shorts,
+  // the sum is computed for the rounded values that were stored.
+  private static double dotRow(Vec v, int i2, int i3, float[] r) {
+    int n1 = r.length;
+    double d = 0.0;
+    if (v instanceof VecArrayShort3) {
+      short[] s = ((VecArrayShort3)v)._a[i3][i2];
+      for (int i1=0; i1<n1; ++i1) {
+        float ri = Float.intBitsToFloat(s[i1]<<16);
+        d += ri*ri;
+      }
+    } else {
+      for (int i1=0; i1<n1; ++i1)
+        d += r[i1]*r[i1];
+    }
+    return d;
+  }
+}
@@ -0,0 +1,183 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package dnp;
+
+import edu.mines.jtk.util.ArrayMath;
+import edu.mines.jtk.util.Check;
+
+/**
+ * Work space for conjugate-gradient solvers that flatten 3D images.
+ * Flatteners that solve large systems of equations require several
+ * temporary arrays with the same dimensions as the images flattened.
+ * Those arrays are allocated when first needed by a flattener, and are
+ * then retained in this work space, so that it may be passed to
+ * subsequent calls to flatten images with the same dimensions, without
+ * allocating new arrays for each call.
+ * <p>
+ * A compact work space stores vectors of residuals, search directions,
+ * and the right-hand side of the equations solved as 16-bit packed shorts
+ * {@link VecArrayShort3}, with float arithmetic and dot products computed
+ * in double precision. The solution vector, products of the linear
+ * operator, and temporary arrays for that operator remain floats. Compact
+ * storage requires 14 bytes per sample for work space; otherwise, 20
+ * bytes per sample are required. Because residuals are stored with only
+ * 8 bits of precision, compact storage is appropriate for equations solved
+ * only to within a small fraction (e.g., 0.01) of the initial residual.
+ *
+ * @author agent
+ * @version 2026.10.17
+ */
+public class Workspace3 {
+
+  /**
+   * Constructs a work space for images with specified dimensions.
+   * Vectors in this work space are stored as floats.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param n3 number of samples in 3rd dimension.
+   */
+  public Workspace3(int n1, int n2, int n3) {
+    this(n1,n2,n3,false);
+  }
+
+  /**
+   * Constructs a work space for images with specified dimensions.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param n3 number of samples in 3rd dimension.
+   * @param compact true, to store some vectors as 16-bit packed shorts;
+   *  false, to store all vectors as floats.
+   */
+  public Workspace3(int n1, int n2, int n3, boolean compact) {
+    _n1 = n1;
+    _n2 = n2;
+    _n3 = n3;
+    _compact = compact;
+  }
+
+  /**
+   * Determines whether this work space stores some vectors as shorts.
+   * @return true, if compact; false, otherwise.
+   */
+  public boolean isCompact() {
+    return _compact;
+  }
+
+  /**
+   * Returns the number of bytes in arrays currently in this work space.
+   * @return the number of bytes.
+   */
+  public long countBytes() {
+    long n = (long)_n1*_n2*_n3;
+    long nbytes = 0;
+    if (_w!=null) nbytes += 4*n;
+    if (_q!=null) nbytes += 4*n;
+    Vec[] vs = {_b,_r,_d};
+    for (Vec v:vs) {
+      if (v!=null)
+        nbytes += (v instanceof VecArrayShort3)?2*n:4*n;
+    }
+    return nbytes;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  /**
+   * Ensures that this work space has the specified dimensions.
+   */
+  void check(int n1, int n2, int n3) {
+    Check.argument(n1==_n1 && n2==_n2 && n3==_n3,
+      "dimensions of image equal those of work space");
+  }
+
+  /**
+   * Returns a temporary array of floats, for use by linear operators.
+   */
+  float[][][] getArray() {
+    if (_w==null)
+      _w = new float[_n3][_n2][_n1];
+    return _w;
+  }
+
+  /**
+   * Returns the temporary array of floats, which is then no longer in this
+   * work space. Used to return results without allocating another array.
+   */
+  float[][][] takeArray() {
+    float[][][] w = getArray();
+    _w = null;
+    return w;
+  }
+
+  /**
+   * Returns the right-hand-side vector with elements copied from b.
+   */
+  Vec getRhs(float[][][] b) {
+    if (_b==null)
+      _b = makeVec();
+    copy(b,_b);
+    return _b;
+  }
+
+  /**
+   * Returns a solver that uses work vectors in this work space.
+   * Products of linear operators computed by this solver are always
+   * vectors of floats {@link VecArrayFloat3}.
+   */
+  CgSolver getSolver(double small, int niter) {
+    if (_q==null) {
+      _q = new VecArrayFloat3(_n1,_n2,_n3);
+      _r = makeVec();
+      _d = makeVec();
+    }
+    CgSolver cs = new CgSolver(small,niter);
+    cs.setWorkVectors(_q,_r,_d,null);
+    return cs;
+  }
+
+  /**
+   * Copies elements of a vector v into an array a of floats.
+   */
+  static void copy(Vec v, float[][][] a) {
+    if (v instanceof VecArrayShort3) {
+      ((VecArrayShort3)v).get(a);
+    } else {
+      float[][][] b = ((VecArrayFloat3)v).getArray();
+      if (b!=a)
+        ArrayMath.copy(b,a);
+    }
+  }
+
+  /**
+   * Copies elements of an array a of floats into a vector v.
+   */
+  static void copy(float[][][] a, Vec v) {
+    if (v instanceof VecArrayShort3) {
+      ((VecArrayShort3)v).set(a);
+    } else {
+      float[][][] b = ((VecArrayFloat3)v).getArray();
+      if (b!=a)
+        ArrayMath.copy(a,b);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _n1,_n2,_n3; // image dimensions
+  private boolean _compact; // true, if some vectors are shorts
+  private float[][][] _w; // temporary array for linear operators
+  private VecArrayFloat3 _q; // products Ad
+  private Vec _b,_r,_d; // right-hand side, residuals, search directions
+
+  private Vec makeVec() {
+    return _compact ?
+      new VecArrayShort3(_n1,_n2,_n3) :
+      new VecArrayFloat3(_n1,_n2,_n3);
+  }
+}
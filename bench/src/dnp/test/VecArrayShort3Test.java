@@ -0,0 +1,221 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package dnp.test;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import dnp.*;
+
+/**
+ * Tests {@link dnp.VecArrayShort3}.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class VecArrayShort3Test extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(VecArrayShort3Test.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testRoundToNearestEven() {
+    int[] bits = {
+      0x3f800000, // 1.0, exact
+      0x3f807fff, // just below halfway, rounds down
+      0x3f808000, // halfway, even lsb, rounds down
+      0x3f808001, // just above halfway, rounds up
+      0x3f818000, // halfway, odd lsb, rounds up
+      0xbf818000, // same, but negative
+      0x3fffffff, // rounds up into next exponent
+      0x7f7fffff, // largest float, rounds up to infinity
+      0xff7fffff, // same, but negative
+      0x00000000, // +0
+      0x80000000, // -0
+      0x00000001, // smallest denormal, rounds to zero
+      0x00008000, // halfway denormal, even lsb, rounds to zero
+      0x00018000, // halfway denormal, odd lsb, rounds up
+      0x007fffff, // largest denormal, rounds up to smallest normal
+      0x7f800000, // +Inf
+      0xff800000, // -Inf
+    };
+    for (int b:bits)
+      assertBits(b,pack(Float.intBitsToFloat(b)));
+    Random r = new Random(31415);
+    for (int i=0; i<100000; ++i) {
+      float f = Float.intBitsToFloat(r.nextInt());
+      if (!Float.isNaN(f))
+        assertBits(Float.floatToRawIntBits(f),pack(f));
+    }
+  }
+
+  public void testNaN() {
+    int[] bits = {
+      0x7fc00000, // quiet NaN
+      0x7f800001, // signaling NaN with the smallest payload
+      0x7f80ffff, // signaling NaN with only low payload bits
+      0xff800001, // same, but negative
+      0xffffffff, // negative NaN with all bits set
+    };
+    for (int b:bits) {
+      float f = pack(Float.intBitsToFloat(b));
+      assertTrue("NaN 0x"+Integer.toHexString(b)+" packed to "+f,
+        Float.isNaN(f));
+    }
+  }
+
+  public void testMixed() {
+    int n1 = 7, n2 = 5, n3 = 3;
+    Random r = new Random(27182);
+    float[][][] x = rounded(randfloat(r,n1,n2,n3));
+    float[][][] y = randfloat(r,n1,n2,n3);
+    float[][][] z = rounded(randfloat(r,n1,n2,n3));
+    float[][][] d = randfloat(r,n1,n2,n3);
+    float sa = 0.7f, sb = -1.3f;
+
+    // dot
+    double dxy = 0.0;
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          dxy += x[i3][i2][i1]*y[i3][i2][i1];
+    VecArrayShort3 vxs = new VecArrayShort3(x);
+    VecArrayFloat3 vyf = new VecArrayFloat3(copy(y));
+    assertEquals(dxy,vxs.dot(vyf),1.0e-6*Math.abs(dxy));
+    assertEquals(dxy,vyf.dot(vxs),1.0e-6*Math.abs(dxy));
+
+    // add: shorts += floats, and floats += shorts
+    float[][][] yax = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          yax[i3][i2][i1] = sa*y[i3][i2][i1]+sb*x[i3][i2][i1];
+    VecArrayShort3 vxs2 = vxs.clone();
+    vxs2.add(sb,vyf,sa); // vxs2 = sb*x+sa*y, rounded
+    assertEquals(rounded(yax),get(vxs2));
+    vyf.add(sa,vxs,sb); // vyf = sa*y+sb*x
+    assertEquals(yax,vyf.getArray());
+
+    // addBoth, with y in floats and in shorts
+    float[][][] xad = new float[n3][n2][n1];
+    float[][][] ybz = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          xad[i3][i2][i1] = x[i3][i2][i1]+sa*d[i3][i2][i1];
+          ybz[i3][i2][i1] = y[i3][i2][i1]+sb*z[i3][i2][i1];
+        }
+      }
+    }
+    VecArrayShort3 vx = new VecArrayShort3(x);
+    VecArrayFloat3 vd = new VecArrayFloat3(copy(d));
+    VecArrayFloat3 vy = new VecArrayFloat3(copy(y));
+    VecArrayShort3 vz = new VecArrayShort3(z);
+    double yy = vx.addBoth(sa,vd,vy,sb,vz);
+    assertEquals(rounded(xad),get(vx));
+    assertEquals(ybz,vy.getArray());
+    assertEquals(sumsq(ybz),yy,1.0e-6*yy);
+    VecArrayFloat3 vxf = new VecArrayFloat3(copy(x));
+    VecArrayShort3 vd2 = new VecArrayShort3(d);
+    VecArrayShort3 vy2 = new VecArrayShort3(n1,n2,n3);
+    vy2.add(0.0,new VecArrayFloat3(copy(y)),1.0);
+    VecArrayFloat3 vzf = new VecArrayFloat3(copy(z));
+    yy = vxf.addBoth(sa,vd2,vy2,sb,vzf);
+    float[][][] ybz2 = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          ybz2[i3][i2][i1] = rounded(y[i3][i2][i1])+sb*z[i3][i2][i1];
+    ybz2 = rounded(ybz2);
+    assertEquals(ybz2,get(vy2));
+    assertEquals(sumsq(ybz2),yy,1.0e-6*yy);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  // Returns a float packed into and unpacked from a vector of shorts.
+  private static float pack(float f) {
+    VecArrayShort3 v = new VecArrayShort3(new float[][][]{{{f}}});
+    return get(v)[0][0][0];
+  }
+
+  // Rounds a finite float or infinity to the nearest even float with only
+  // 8 bits of precision. This reference does not manipulate bits. Where
+  // the integer ratio f/u is odd, the least significant of the 8 bits is
+  // one, because the implicit most significant bit (if any) is even.
+  private static float rounded(float f) {
+    if (Float.isInfinite(f))
+      return f;
+    double u = Math.ulp(f)*65536.0;
+    return (float)(Math.rint(f/u)*u);
+  }
+  private static float[][][] rounded(float[][][] x) {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    float[][][] y = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          y[i3][i2][i1] = rounded(x[i3][i2][i1]);
+    return y;
+  }
+
+  private static float[][][] randfloat(Random r, int n1, int n2, int n3) {
+    float[][][] x = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          x[i3][i2][i1] = (float)r.nextGaussian();
+    return x;
+  }
+
+  private static float[][][] copy(float[][][] x) {
+    int n2 = x[0].length;
+    int n3 = x.length;
+    float[][][] y = new float[n3][n2][];
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        y[i3][i2] = x[i3][i2].clone();
+    return y;
+  }
+
+  private static float[][][] get(VecArrayShort3 v) {
+    float[][][] x = new float[v.getN3()][v.getN2()][v.getN1()];
+    v.get(x);
+    return x;
+  }
+
+  private static double sumsq(float[][][] x) {
+    double s = 0.0;
+    for (float[][] x2:x)
+      for (float[] x1:x2)
+        for (float xi:x1)
+          s += xi*xi;
+    return s;
+  }
+
+  private static void assertBits(int b, float f) {
+    int eb = Float.floatToRawIntBits(rounded(Float.intBitsToFloat(b)));
+    int fb = Float.floatToRawIntBits(f);
+    assertTrue("0x"+Integer.toHexString(b)+" packed to 0x"+
+      Integer.toHexString(fb)+", not 0x"+Integer.toHexString(eb),fb==eb);
+  }
+
+  private static void assertEquals(float[][][] e, float[][][] a) {
+    int n1 = e[0][0].length;
+    int n2 = e[0].length;
+    int n3 = e.length;
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          assertEquals("["+i3+"]["+i2+"]["+i1+"]",
+            e[i3][i2][i1],a[i3][i2][i1],0.0f);
+  }
+}
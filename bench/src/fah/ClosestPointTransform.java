@@ -1,5 +1,6 @@
 package fah;
 
+import edu.mines.jtk.util.Check;
 import edu.mines.jtk.util.Parallel;
 import static edu.mines.jtk.util.ArrayMath.*;
 
@@ -59,6 +60,22 @@ public class ClosestPointTransform {
    * @param i output array of indices of nearest known value.
    */
   public void apply(float fnull, float[] f, float[] d, short[] i) {
+    int n = f.length;
+    checkShort(n);
+    int[] k = new int[n];
+    apply(fnull,f,d,k);
+    for (int j=0; j<n; ++j)
+      i[j] = (short)k[j];
+  }
+
+  /**
+   * Applies this transform for a specified 1D sequence.
+   * @param fnull value used to mark samples in f that are unknown.
+   * @param f input array of values with at least one value known.
+   * @param d output of distances to the nearest known value.
+   * @param i output array of indices of nearest known value.
+   */
+  public void apply(float fnull, float[] f, float[] d, int[] i) {
     int n = f.length;
     float[] g = new float[n];
     for (int j=0; j<n; ++j)
@@ -70,99 +87,277 @@ public class ClosestPointTransform {
 
   /**
    * Applies this transform for a specified 2D image.
+   * Indices are shorts, so that dimensions cannot exceed 32768.
+   * @param fnull value used to mark samples in f that are unknown.
+   * @param f input array of values with at least one value known.
+   * @param d output of distances to the nearest known value.
+   * @param i1 output array of 1st indices of nearest known value.
+   * @param i2 output array of 2nd indices of nearest known value.
+   */
+  public void apply(
+    float fnull, float[][] f, float[][] d, short[][] i1, short[][] i2) 
+  {
+    checkShort(f[0].length);
+    checkShort(f.length);
+    apply2(fnull,f,d,new ShortIndices2(i1),new ShortIndices2(i2));
+  }
+
+  /**
+   * Applies this transform for a specified 2D image.
+   * @param fnull value used to mark samples in f that are unknown.
+   * @param f input array of values with at least one value known.
+   * @param d output of distances to the nearest known value.
+   * @param i1 output array of 1st indices of nearest known value.
+   * @param i2 output array of 2nd indices of nearest known value.
+   */
+  public void apply(
+    float fnull, float[][] f, float[][] d, int[][] i1, int[][] i2) 
+  {
+    apply2(fnull,f,d,new IntIndices2(i1),new IntIndices2(i2));
+  }
+
+  /**
+   * Applies this transform for a specified 3D image.
+   * Indices are shorts, so that dimensions cannot exceed 32768.
+   * @param fnull value used to mark samples in f that are unknown.
+   * @param f input array of values with at least one value known.
+   * @param d output of distances to the nearest known value.
+   * @param i1 output array of 1st indices of nearest known value.
+   * @param i2 output array of 2nd indices of nearest known value.
+   * @param i3 output array of 3rd indices of nearest known value.
+   */
+  public void apply(
+    float fnull, float[][][] f, float[][][] d, 
+    short[][][] i1, short[][][] i2, short[][][] i3) 
+  {
+    checkShort(f[0][0].length);
+    checkShort(f[0].length);
+    checkShort(f.length);
+    apply3(fnull,f,d,
+      new ShortIndices3(i1),new ShortIndices3(i2),new ShortIndices3(i3));
+  }
+
+  /**
+   * Applies this transform for a specified 3D image.
    * @param fnull value used to mark samples in f that are unknown.
    * @param f input array of values with at least one value known.
    * @param d output of distances to the nearest known value.
    * @param i1 output array of 1st indices of nearest known value.
    * @param i2 output array of 2nd indices of nearest known value.
+   * @param i3 output array of 3rd indices of nearest known value.
    */
   public void apply(
+    float fnull, float[][][] f, float[][][] d, 
+    int[][][] i1, int[][][] i2, int[][][] i3) 
+  {
+    apply3(fnull,f,d,
+      new IntIndices3(i1),new IntIndices3(i2),new IntIndices3(i3));
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private float _s1,_s2,_s3;
+
+  private static float HUGE = 1.0e20f;
+
+  // Number of samples in blocks of adjacent lines gathered for transforms
+  // along the 2nd and 3rd dimensions. Gathering and scattering blocks of
+  // samples that are contiguous in the 1st dimension, instead of one
+  // sample per line, reduces cache misses for large images.
+  private static final int NBLOCK = 32;
+
+  private static void checkShort(int n) {
+    Check.argument(n<=32768,"dimensions do not exceed 32768 for shorts");
+  }
+
+  // Indices of nearest known values, stored in arrays of shorts or ints.
+  // Indices are copied to and from arrays of ints, m at a time, for
+  // adjacent samples in the 1st dimension.
+  private interface Indices2 {
+    public void get(int j2, int j1, int m, int[] k);
+    public void set(int j2, int j1, int m, int[] k);
+  }
+  private interface Indices3 {
+    public void get(int j3, int j2, int j1, int m, int[] k);
+    public void set(int j3, int j2, int j1, int m, int[] k);
+  }
+  private static class ShortIndices2 implements Indices2 {
+    ShortIndices2(short[][] i) {
+      _i = i;
+    }
+    public void get(int j2, int j1, int m, int[] k) {
+      short[] i2 = _i[j2];
+      for (int l=0; l<m; ++l)
+        k[l] = i2[j1+l];
+    }
+    public void set(int j2, int j1, int m, int[] k) {
+      short[] i2 = _i[j2];
+      for (int l=0; l<m; ++l)
+        i2[j1+l] = (short)k[l];
+    }
+    private short[][] _i;
+  }
+  private static class IntIndices2 implements Indices2 {
+    IntIndices2(int[][] i) {
+      _i = i;
+    }
+    public void get(int j2, int j1, int m, int[] k) {
+      System.arraycopy(_i[j2],j1,k,0,m);
+    }
+    public void set(int j2, int j1, int m, int[] k) {
+      System.arraycopy(k,0,_i[j2],j1,m);
+    }
+    private int[][] _i;
+  }
+  private static class ShortIndices3 implements Indices3 {
+    ShortIndices3(short[][][] i) {
+      _i = i;
+    }
+    public void get(int j3, int j2, int j1, int m, int[] k) {
+      short[] i32 = _i[j3][j2];
+      for (int l=0; l<m; ++l)
+        k[l] = i32[j1+l];
+    }
+    public void set(int j3, int j2, int j1, int m, int[] k) {
+      short[] i32 = _i[j3][j2];
+      for (int l=0; l<m; ++l)
+        i32[j1+l] = (short)k[l];
+    }
+    private short[][][] _i;
+  }
+  private static class IntIndices3 implements Indices3 {
+    IntIndices3(int[][][] i) {
+      _i = i;
+    }
+    public void get(int j3, int j2, int j1, int m, int[] k) {
+      System.arraycopy(_i[j3][j2],j1,k,0,m);
+    }
+    public void set(int j3, int j2, int j1, int m, int[] k) {
+      System.arraycopy(k,0,_i[j3][j2],j1,m);
+    }
+    private int[][][] _i;
+  }
+
+  // Transform for 2D images. Transforms along the 1st dimension are
+  // performed for blocks of NBLOCK lines, so that work arrays are
+  // allocated once per block. Transforms along the 2nd dimension are
+  // performed for blocks of NBLOCK adjacent lines, gathered into and
+  // scattered from contiguous arrays.
+  private void apply2(
     final float fnull, final float[][] f, final float[][] d, 
-    final short[][] i1, final short[][] i2) 
+    final Indices2 i1, final Indices2 i2)
   {
     final int n1 = f[0].length;
     final int n2 = f.length;
-    Parallel.loop(n2,new Parallel.LoopInt() { // axis 1
-    public void compute(int j2) {
+    final int nb2 = 1+(n2-1)/NBLOCK;
+    Parallel.loop(nb2,new Parallel.LoopInt() { // axis 1
+    public void compute(int ib2) {
       float[] f1 = new float[n1];
-      float[] d1 = new float[n1];
-      short[] k1 = new short[n1];
-      for (int j1=0; j1<n1; ++j1)
-        f1[j1] = (f[j2][j1]==fnull)?HUGE:0.0f;
-      dt(_s1,f1,d1,k1);
-      for (int j1=0; j1<n1; ++j1) {
-         d[j2][j1] = d1[j1];
-        i1[j2][j1] = k1[j1];
+      int[] k1 = new int[n1];
+      int[] v1 = new int[n1];
+      float[] z1 = new float[n1+1];
+      int j2b = ib2*NBLOCK;
+      int j2e = min(j2b+NBLOCK,n2);
+      for (int j2=j2b; j2<j2e; ++j2) {
+        for (int j1=0; j1<n1; ++j1)
+          f1[j1] = (f[j2][j1]==fnull)?HUGE:0.0f;
+        dt(_s1,f1,d[j2],k1,v1,z1);
+        i1.set(j2,0,n1,k1);
       }
     }});
-    Parallel.loop(n1,new Parallel.LoopInt() { // axis 2
-    public void compute(int j1) {
-      int[] ij = new int[n2];
-      float[] f2 = new float[n2];
-      float[] d2 = new float[n2];
-      short[] k1 = new short[n2];
-      short[] k2 = new short[n2];
-      for (int j2=0; j2<n2; ++j2)
-        f2[j2] = d[j2][j1];
-      dt(_s2,f2,d2,k2);
+    final int nb = 1+(n1-1)/NBLOCK;
+    Parallel.loop(nb,new Parallel.LoopInt() { // axis 2
+    public void compute(int ib) {
+      int j1b = ib*NBLOCK;
+      int mb = min(NBLOCK,n1-j1b);
+      float[][] fb = new float[mb][n2];
+      float[][] db = new float[mb][n2];
+      int[][] kb1 = new int[mb][n2];
+      int[][] kb2 = new int[mb][n2];
+      int[] ks = new int[mb];
+      int[] v2 = new int[n2];
+      float[] z2 = new float[n2+1];
       for (int j2=0; j2<n2; ++j2) {
-        d[j2][j1] = sqrt(d2[j2]);
-        k1[j2] = i1[k2[j2]][j1];
+        float[] d2 = d[j2];
+        i1.get(j2,j1b,mb,ks);
+        for (int lb=0; lb<mb; ++lb) {
+          fb[lb][j2] = d2[j1b+lb];
+          kb1[lb][j2] = ks[lb];
+        }
       }
+      for (int lb=0; lb<mb; ++lb)
+        dt(_s2,fb[lb],db[lb],kb2[lb],v2,z2);
       for (int j2=0; j2<n2; ++j2) {
-        i1[j2][j1] = k1[j2];
-        i2[j2][j1] = k2[j2];
+        float[] d2 = d[j2];
+        for (int lb=0; lb<mb; ++lb) {
+          d2[j1b+lb] = sqrt(db[lb][j2]);
+          ks[lb] = kb1[lb][kb2[lb][j2]];
+        }
+        i1.set(j2,j1b,mb,ks);
+        for (int lb=0; lb<mb; ++lb)
+          ks[lb] = kb2[lb][j2];
+        i2.set(j2,j1b,mb,ks);
       }
     }});
   }
 
-  /**
-   * Applies this transform for a specified 3D image.
-   * @param fnull value used to mark samples in f that are unknown.
-   * @param f input array of values with at least one value known.
-   * @param d output of distances to the nearest known value.
-   * @param i1 output array of 1st indices of nearest known value.
-   * @param i2 output array of 2nd indices of nearest known value.
-   * @param i3 output array of 3rd indices of nearest known value.
-   */
-  public void apply(
+  // Transform for 3D images. Transforms along the 2nd and 3rd dimensions
+  // are performed for blocks of NBLOCK adjacent lines, gathered into and
+  // scattered from contiguous arrays.
+  private void apply3(
     final float fnull, final float[][][] f, final float[][][] d, 
-    final short[][][] i1, final short[][][] i2, final short[][][] i3) 
+    final Indices3 i1, final Indices3 i2, final Indices3 i3)
   {
     final int n1 = f[0][0].length;
     final int n2 = f[0].length;
     final int n3 = f.length;
+    final int nb = 1+(n1-1)/NBLOCK;
     Parallel.loop(n3,new Parallel.LoopInt() {
     public void compute(int j3) {
       { // axis 1
         float[] f1 = new float[n1];
-        float[] d1 = new float[n1];
-        short[] k1 = new short[n1];
+        int[] k1 = new int[n1];
+        int[] v1 = new int[n1];
+        float[] z1 = new float[n1+1];
         for (int j2=0; j2<n2; ++j2) {
           for (int j1=0; j1<n1; ++j1)
-              f1[j1] = (f[j3][j2][j1]==fnull)?HUGE:0.0f;
-          dt(_s1,f1,d1,k1);
-          for (int j1=0; j1<n1; ++j1) {
-             d[j3][j2][j1] = d1[j1];
-            i1[j3][j2][j1] = k1[j1];
-          }
+            f1[j1] = (f[j3][j2][j1]==fnull)?HUGE:0.0f;
+          dt(_s1,f1,d[j3][j2],k1,v1,z1);
+          i1.set(j3,j2,0,n1,k1);
         }
       }
       { // axis 2
-        float[] f2 = new float[n2];
-        float[] d2 = new float[n2];
-        short[] k1 = new short[n2];
-        short[] k2 = new short[n2];
-        for (int j1=0; j1<n1; ++j1) {
-          for (int j2=0; j2<n2; ++j2)
-            f2[j2] = d[j3][j2][j1];
-          dt(_s2,f2,d2,k2);
-          for (int j2=0; j2<n2; ++j2)
-            k1[j2] = i1[j3][k2[j2]][j1];
+        float[][] fb = new float[NBLOCK][n2];
+        float[][] db = new float[NBLOCK][n2];
+        int[][] kb1 = new int[NBLOCK][n2];
+        int[][] kb2 = new int[NBLOCK][n2];
+        int[] ks = new int[NBLOCK];
+        int[] v2 = new int[n2];
+        float[] z2 = new float[n2+1];
+        for (int ib=0; ib<nb; ++ib) {
+          int j1b = ib*NBLOCK;
+          int mb = min(NBLOCK,n1-j1b);
           for (int j2=0; j2<n2; ++j2) {
-             d[j3][j2][j1] = d2[j2];
-            i1[j3][j2][j1] = k1[j2];
-            i2[j3][j2][j1] = k2[j2];
+            float[] d32 = d[j3][j2];
+            i1.get(j3,j2,j1b,mb,ks);
+            for (int lb=0; lb<mb; ++lb) {
+              fb[lb][j2] = d32[j1b+lb];
+              kb1[lb][j2] = ks[lb];
+            }
+          }
+          for (int lb=0; lb<mb; ++lb)
+            dt(_s2,fb[lb],db[lb],kb2[lb],v2,z2);
+          for (int j2=0; j2<n2; ++j2) {
+            float[] d32 = d[j3][j2];
+            for (int lb=0; lb<mb; ++lb) {
+              d32[j1b+lb] = db[lb][j2];
+              ks[lb] = kb1[lb][kb2[lb][j2]];
+            }
+            i1.set(j3,j2,j1b,mb,ks);
+            for (int lb=0; lb<mb; ++lb)
+              ks[lb] = kb2[lb][j2];
+            i2.set(j3,j2,j1b,mb,ks);
           }
         }
       }
@@ -170,36 +365,48 @@ public class ClosestPointTransform {
     Parallel.loop(n2,new Parallel.LoopInt() {
     public void compute(int j2) {
       // axis 3
-      float[] f3 = new float[n3];
-      float[] d3 = new float[n3];
-      short[] k1 = new short[n3];
-      short[] k2 = new short[n3];
-      short[] k3 = new short[n3];
-      for (int j1=0; j1<n1; ++j1) {
-        for (int j3=0; j3<n3; ++j3)
-          f3[j3] = d[j3][j2][j1];
-        dt(_s3,f3,d3,k3);
+      float[][] fb = new float[NBLOCK][n3];
+      float[][] db = new float[NBLOCK][n3];
+      int[][] kb1 = new int[NBLOCK][n3];
+      int[][] kb2 = new int[NBLOCK][n3];
+      int[][] kb3 = new int[NBLOCK][n3];
+      int[] ks = new int[NBLOCK];
+      int[] v3 = new int[n3];
+      float[] z3 = new float[n3+1];
+      for (int ib=0; ib<nb; ++ib) {
+        int j1b = ib*NBLOCK;
+        int mb = min(NBLOCK,n1-j1b);
         for (int j3=0; j3<n3; ++j3) {
-          k1[j3] = i1[k3[j3]][j2][j1];
-          k2[j3] = i2[k3[j3]][j2][j1];
+          float[] d32 = d[j3][j2];
+          for (int lb=0; lb<mb; ++lb)
+            fb[lb][j3] = d32[j1b+lb];
+          i1.get(j3,j2,j1b,mb,ks);
+          for (int lb=0; lb<mb; ++lb)
+            kb1[lb][j3] = ks[lb];
+          i2.get(j3,j2,j1b,mb,ks);
+          for (int lb=0; lb<mb; ++lb)
+            kb2[lb][j3] = ks[lb];
         }
+        for (int lb=0; lb<mb; ++lb)
+          dt(_s3,fb[lb],db[lb],kb3[lb],v3,z3);
         for (int j3=0; j3<n3; ++j3) {
-           d[j3][j2][j1] = sqrt(d3[j3]);
-          i1[j3][j2][j1] = k1[j3];
-          i2[j3][j2][j1] = k2[j3];
-          i3[j3][j2][j1] = k3[j3];
+          float[] d32 = d[j3][j2];
+          for (int lb=0; lb<mb; ++lb) {
+            d32[j1b+lb] = sqrt(db[lb][j3]);
+            ks[lb] = kb1[lb][kb3[lb][j3]];
+          }
+          i1.set(j3,j2,j1b,mb,ks);
+          for (int lb=0; lb<mb; ++lb)
+            ks[lb] = kb2[lb][kb3[lb][j3]];
+          i2.set(j3,j2,j1b,mb,ks);
+          for (int lb=0; lb<mb; ++lb)
+            ks[lb] = kb3[lb][j3];
+          i3.set(j3,j2,j1b,mb,ks);
         }
       }
     }});
   }
 
-  ///////////////////////////////////////////////////////////////////////////
-  // private
-
-  private float _s1,_s2,_s3;
-
-  private static float HUGE = 1.0e20f;
-
   /**
    * Algorithm DT(f) of Felzenszwalb and Huttenlocher (2004),
    * augmented to compute the index i of the nearest sample.
@@ -208,10 +415,21 @@ public class ClosestPointTransform {
    * @param d output array of distances squared to nearest samples.
    * @param i output array of indices of nearest samples.
    */
-  private static void dt(float s, float[] f, float[] d, short[] i) {
+  private static void dt(float s, float[] f, float[] d, int[] i) {
+    int n = f.length;
+    dt(s,f,d,i,new int[n],new float[n+1]);
+  }
+
+  /**
+   * The same algorithm DT(f), with specified work arrays, so that
+   * transforms of many sequences need not allocate them repeatedly.
+   * @param v work array of length at least n.
+   * @param z work array of length at least n+1.
+   */
+  private static void dt(
+    float s, float[] f, float[] d, int[] i, int[] v, float[] z) 
+  {
     int n = f.length;
-    int[] v = new int[n];
-    float[] z = new float[n+1];
     z[0] = -HUGE;
     z[1] =  HUGE;
     for (int q=1,k=0; q<n; ++q) {
@@ -230,7 +448,7 @@ public class ClosestPointTransform {
         ++k;
       float qv = s*(q-v[k]);
       d[q] = qv*qv+f[v[k]];
-      i[q] = (short)v[k];
+      i[q] = v[k];
     }
   }
 }
@@ -0,0 +1,413 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fah;
+
+import java.util.Random;
+
+import edu.mines.jtk.util.Parallel;
+import edu.mines.jtk.util.Stopwatch;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Benchmarks 2D and 3D closest-point transforms for fault images.
+ * Known samples in synthetic images lie on a few randomly oriented
+ * linear or planar faults; all other samples are unknown. Compares a
+ * reference transform, which gathers one sample per line for each
+ * transform along the 2nd and 3rd dimensions, with
+ * {@link ClosestPointTransform}, which gathers blocks of samples that
+ * are contiguous in the 1st dimension. Reports times for both, with
+ * short and int indices, and the numbers of samples for which distances
+ * or indices differ.
+ * <p>
+ * Usage: ClosestPointTransformBench [n1 n2 n3]. The default 3D image
+ * has 201^3 samples. The square 2D image has about as many samples as
+ * the 3D image. A 3D image with 1000^3 samples requires a Java heap of
+ * about 24 GB for int indices, or 14 GB for short indices only.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class ClosestPointTransformBench {
+
+  public static void main(String[] args) {
+    int n1 = 201, n2 = 201, n3 = 201;
+    if (args.length>2) {
+      n1 = Integer.parseInt(args[0]);
+      n2 = Integer.parseInt(args[1]);
+      n3 = Integer.parseInt(args[2]);
+    }
+    int m = (int)ceil(sqrt((double)n1*n2*n3));
+    trace("2D: n1="+m+" n2="+m);
+    float[][] f2 = makeFaultImage(m,m);
+    for (int iter=0; iter<3; ++iter)
+      bench(f2);
+    f2 = null;
+    trace("3D: n1="+n1+" n2="+n2+" n3="+n3);
+    float[][][] f3 = makeFaultImage(n1,n2,n3);
+    for (int iter=0; iter<3; ++iter)
+      bench(f3);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final float FNULL = 0.0f; // unknown samples
+  private static final int NFAULT = 8; // number of faults
+
+  private static void bench(float[][] f) {
+    int n1 = f[0].length;
+    int n2 = f.length;
+    ClosestPointTransform cpt = new ClosestPointTransform();
+    float[][] dr = new float[n2][n1];
+    float[][] ds = new float[n2][n1];
+    short[][] r1 = new short[n2][n1];
+    short[][] r2 = new short[n2][n1];
+    short[][] s1 = new short[n2][n1];
+    short[][] s2 = new short[n2][n1];
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    applyReference(f,dr,r1,r2);
+    sw.stop();
+    double tr = sw.time();
+    sw.restart();
+    cpt.apply(FNULL,f,ds,s1,s2);
+    sw.stop();
+    double ts = sw.time();
+    int nd = countDifferent(dr,ds);
+    int ni = countDifferent(r1,r2,s1,s2);
+    s1 = s2 = null;
+    float[][] di = ds;
+    int[][] k1 = new int[n2][n1];
+    int[][] k2 = new int[n2][n1];
+    sw.restart();
+    cpt.apply(FNULL,f,di,k1,k2);
+    sw.stop();
+    double ti = sw.time();
+    nd += countDifferent(dr,di);
+    ni += countDifferent(r1,r2,k1,k2);
+    trace(String.format(
+      "2D: reference = %6.2f s  short = %6.2f s  int = %6.2f s"+
+      "  speedup = %4.2f %4.2f  ndiff = %d %d",
+      tr,ts,ti,tr/ts,tr/ti,nd,ni));
+  }
+
+  private static void bench(float[][][] f) {
+    int n1 = f[0][0].length;
+    int n2 = f[0].length;
+    int n3 = f.length;
+    ClosestPointTransform cpt = new ClosestPointTransform();
+    float[][][] dr = new float[n3][n2][n1];
+    float[][][] ds = new float[n3][n2][n1];
+    short[][][] r1 = new short[n3][n2][n1];
+    short[][][] r2 = new short[n3][n2][n1];
+    short[][][] r3 = new short[n3][n2][n1];
+    short[][][] s1 = new short[n3][n2][n1];
+    short[][][] s2 = new short[n3][n2][n1];
+    short[][][] s3 = new short[n3][n2][n1];
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    applyReference(f,dr,r1,r2,r3);
+    sw.stop();
+    double tr = sw.time();
+    sw.restart();
+    cpt.apply(FNULL,f,ds,s1,s2,s3);
+    sw.stop();
+    double ts = sw.time();
+    int nd = countDifferent(dr,ds);
+    int ni = countDifferent(r1,r2,r3,s1,s2,s3);
+    s1 = s2 = s3 = null;
+    float[][][] di = ds;
+    int[][][] k1 = new int[n3][n2][n1];
+    int[][][] k2 = new int[n3][n2][n1];
+    int[][][] k3 = new int[n3][n2][n1];
+    sw.restart();
+    cpt.apply(FNULL,f,di,k1,k2,k3);
+    sw.stop();
+    double ti = sw.time();
+    nd += countDifferent(dr,di);
+    ni += countDifferent(r1,r2,r3,k1,k2,k3);
+    trace(String.format(
+      "3D: reference = %6.2f s  short = %6.2f s  int = %6.2f s"+
+      "  speedup = %4.2f %4.2f  ndiff = %d %d",
+      tr,ts,ti,tr/ts,tr/ti,nd,ni));
+  }
+
+  // Fault image, with samples near a few lines known (non-zero).
+  private static float[][] makeFaultImage(int n1, int n2) {
+    Random r = new Random(314159);
+    float[][] f = new float[n2][n1];
+    for (int ifault=0; ifault<NFAULT; ++ifault) {
+      double theta = toRadians(60.0+25.0*r.nextDouble());
+      if (r.nextBoolean())
+        theta = -theta;
+      double w1 = sin(theta-0.5*PI);
+      double w2 = cos(theta-0.5*PI);
+      double c1 = n1*r.nextDouble();
+      double c2 = n2*r.nextDouble();
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          double s = w1*(i1-c1)+w2*(i2-c2);
+          if (-0.5<=s && s<0.5)
+            f[i2][i1] = 1.0f;
+        }
+      }
+    }
+    return f;
+  }
+
+  // Fault image, with samples near a few planes known (non-zero).
+  private static float[][][] makeFaultImage(int n1, int n2, int n3) {
+    Random r = new Random(314159);
+    float[][][] f = new float[n3][n2][n1];
+    for (int ifault=0; ifault<NFAULT; ++ifault) {
+      double phi = 2.0*PI*r.nextDouble();
+      double theta = toRadians(60.0+25.0*r.nextDouble());
+      double w1 = sin(theta-0.5*PI);
+      double w2 = cos(theta-0.5*PI)*cos(phi);
+      double w3 = cos(theta-0.5*PI)*sin(phi);
+      double c1 = n1*r.nextDouble();
+      double c2 = n2*r.nextDouble();
+      double c3 = n3*r.nextDouble();
+      for (int i3=0; i3<n3; ++i3) {
+        for (int i2=0; i2<n2; ++i2) {
+          for (int i1=0; i1<n1; ++i1) {
+            double s = w1*(i1-c1)+w2*(i2-c2)+w3*(i3-c3);
+            if (-0.5<=s && s<0.5)
+              f[i3][i2][i1] = 1.0f;
+          }
+        }
+      }
+    }
+    return f;
+  }
+
+  // The 2D reference transform, with unit scale factors, which for each
+  // transform along the 2nd dimension gathers and scatters one sample
+  // per line.
+  private static void applyReference(
+    final float[][] f, final float[][] d, 
+    final short[][] i1, final short[][] i2)
+  {
+    final int n1 = f[0].length;
+    final int n2 = f.length;
+    Parallel.loop(n2,new Parallel.LoopInt() {
+    public void compute(int j2) {
+      // axis 1
+      float[] f1 = new float[n1];
+      float[] d1 = new float[n1];
+      int[] k1 = new int[n1];
+      for (int j1=0; j1<n1; ++j1)
+        f1[j1] = (f[j2][j1]==FNULL)?HUGE:0.0f;
+      dt(f1,d1,k1);
+      for (int j1=0; j1<n1; ++j1) {
+         d[j2][j1] = d1[j1];
+        i1[j2][j1] = (short)k1[j1];
+      }
+    }});
+    Parallel.loop(n1,new Parallel.LoopInt() {
+    public void compute(int j1) {
+      // axis 2
+      float[] f2 = new float[n2];
+      float[] d2 = new float[n2];
+      short[] k1 = new short[n2];
+      int[] k2 = new int[n2];
+      for (int j2=0; j2<n2; ++j2)
+        f2[j2] = d[j2][j1];
+      dt(f2,d2,k2);
+      for (int j2=0; j2<n2; ++j2)
+        k1[j2] = i1[k2[j2]][j1];
+      for (int j2=0; j2<n2; ++j2) {
+         d[j2][j1] = sqrt(d2[j2]);
+        i1[j2][j1] = k1[j2];
+        i2[j2][j1] = (short)k2[j2];
+      }
+    }});
+  }
+
+  // The 3D reference transform, with unit scale factors, which for each
+  // transform along the 2nd and 3rd dimensions gathers and scatters one
+  // sample per line.
+  private static void applyReference(
+    final float[][][] f, final float[][][] d,
+    final short[][][] i1, final short[][][] i2, final short[][][] i3)
+  {
+    final int n1 = f[0][0].length;
+    final int n2 = f[0].length;
+    final int n3 = f.length;
+    Parallel.loop(n3,new Parallel.LoopInt() {
+    public void compute(int j3) {
+      { // axis 1
+        float[] f1 = new float[n1];
+        float[] d1 = new float[n1];
+        int[] k1 = new int[n1];
+        for (int j2=0; j2<n2; ++j2) {
+          for (int j1=0; j1<n1; ++j1)
+              f1[j1] = (f[j3][j2][j1]==FNULL)?HUGE:0.0f;
+          dt(f1,d1,k1);
+          for (int j1=0; j1<n1; ++j1) {
+             d[j3][j2][j1] = d1[j1];
+            i1[j3][j2][j1] = (short)k1[j1];
+          }
+        }
+      }
+      { // axis 2
+        float[] f2 = new float[n2];
+        float[] d2 = new float[n2];
+        short[] k1 = new short[n2];
+        int[] k2 = new int[n2];
+        for (int j1=0; j1<n1; ++j1) {
+          for (int j2=0; j2<n2; ++j2)
+            f2[j2] = d[j3][j2][j1];
+          dt(f2,d2,k2);
+          for (int j2=0; j2<n2; ++j2)
+            k1[j2] = i1[j3][k2[j2]][j1];
+          for (int j2=0; j2<n2; ++j2) {
+             d[j3][j2][j1] = d2[j2];
+            i1[j3][j2][j1] = k1[j2];
+            i2[j3][j2][j1] = (short)k2[j2];
+          }
+        }
+      }
+    }});
+    Parallel.loop(n2,new Parallel.LoopInt() {
+    public void compute(int j2) {
+      // axis 3
+      float[] f3 = new float[n3];
+      float[] d3 = new float[n3];
+      short[] k1 = new short[n3];
+      short[] k2 = new short[n3];
+      int[] k3 = new int[n3];
+      for (int j1=0; j1<n1; ++j1) {
+        for (int j3=0; j3<n3; ++j3)
+          f3[j3] = d[j3][j2][j1];
+        dt(f3,d3,k3);
+        for (int j3=0; j3<n3; ++j3) {
+          k1[j3] = i1[k3[j3]][j2][j1];
+          k2[j3] = i2[k3[j3]][j2][j1];
+        }
+        for (int j3=0; j3<n3; ++j3) {
+           d[j3][j2][j1] = sqrt(d3[j3]);
+          i1[j3][j2][j1] = k1[j3];
+          i2[j3][j2][j1] = k2[j3];
+          i3[j3][j2][j1] = (short)k3[j3];
+        }
+      }
+    }});
+  }
+
+  private static float HUGE = 1.0e20f;
+
+  // Same as the 1D transform in ClosestPointTransform, for scale s = 1.
+  private static void dt(float[] f, float[] d, int[] i) {
+    int n = f.length;
+    int[] v = new int[n];
+    float[] z = new float[n+1];
+    z[0] = -HUGE;
+    z[1] =  HUGE;
+    for (int q=1,k=0; q<n; ++q) {
+      float r = ((f[q]+q*q)-(f[v[k]]+v[k]*v[k]))/(2*q-2*v[k]);
+      while (r<=z[k]) {
+        --k;
+        r = ((f[q]+q*q)-(f[v[k]]+v[k]*v[k]))/(2*q-2*v[k]);
+      }
+      ++k;
+      v[k] = q;
+      z[k] = r;
+      z[k+1] = HUGE;
+    }
+    for (int q=0,k=0; q<n; ++q) {
+      while (z[k+1]<q)
+        ++k;
+      float qv = q-v[k];
+      d[q] = qv*qv+f[v[k]];
+      i[q] = v[k];
+    }
+  }
+
+  private static int countDifferent(float[][] a, float[][] b) {
+    int n1 = a[0].length;
+    int n2 = a.length;
+    int nd = 0;
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        if (a[i2][i1]!=b[i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static int countDifferent(
+    short[][] a1, short[][] a2, short[][] b1, short[][] b2)
+  {
+    int n1 = a1[0].length;
+    int n2 = a1.length;
+    int nd = 0;
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        if (a1[i2][i1]!=b1[i2][i1] || a2[i2][i1]!=b2[i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static int countDifferent(
+    short[][] a1, short[][] a2, int[][] b1, int[][] b2)
+  {
+    int n1 = a1[0].length;
+    int n2 = a1.length;
+    int nd = 0;
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        if (a1[i2][i1]!=b1[i2][i1] || a2[i2][i1]!=b2[i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static int countDifferent(float[][][] a, float[][][] b) {
+    int n1 = a[0][0].length;
+    int n2 = a[0].length;
+    int n3 = a.length;
+    int nd = 0;
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          if (a[i3][i2][i1]!=b[i3][i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static int countDifferent(
+    short[][][] a1, short[][][] a2, short[][][] a3,
+    short[][][] b1, short[][][] b2, short[][][] b3)
+  {
+    int n1 = a1[0][0].length;
+    int n2 = a1[0].length;
+    int n3 = a1.length;
+    int nd = 0;
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          if (a1[i3][i2][i1]!=b1[i3][i2][i1] ||
+              a2[i3][i2][i1]!=b2[i3][i2][i1] ||
+              a3[i3][i2][i1]!=b3[i3][i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static int countDifferent(
+    short[][][] a1, short[][][] a2, short[][][] a3,
+    int[][][] b1, int[][][] b2, int[][][] b3)
+  {
+    int n1 = a1[0][0].length;
+    int n2 = a1[0].length;
+    int n3 = a1.length;
+    int nd = 0;
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          if (a1[i3][i2][i1]!=b1[i3][i2][i1] ||
+              a2[i3][i2][i1]!=b2[i3][i2][i1] ||
+              a3[i3][i2][i1]!=b3[i3][i2][i1]) ++nd;
+    return nd;
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
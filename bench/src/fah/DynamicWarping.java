@@ -595,14 +595,20 @@ public class DynamicWarping {
     final int nl = 1+_lmax-_lmin;
     final int n1 = f[0].length;
     final int n2 = f.length;
-    float[][] e = Parallel.reduce(n2,new Parallel.ReduceInt<float[][]>() {
-    public float[][] compute(int i2) {
+    final int nc = chunks(n2);
+    float[][] e = Parallel.reduce(nc,new Parallel.ReduceInt<float[][]>() {
+    public float[][] compute(int ic) {
       float[][] e = new float[n1][nl];
-      computeErrors(ff[i2],gf[i2],e);
+      float[][] ei = work(_ework,n1,nl);
+      for (int i2=chunk(ic,nc,n2); i2<chunk(ic+1,nc,n2); ++i2) {
+        computeErrors(ff[i2],gf[i2],ei);
+        add(e,ei,e);
+      }
       return e;
     }
     public float[][] combine(float[][] ea, float[][] eb) {
-      return add(ea,eb);
+      add(ea,eb,ea);
+      return ea;
     }});
     normalizeErrors(e);
     return e;
@@ -624,16 +630,23 @@ public class DynamicWarping {
     final int n1 = f[0][0].length;
     final int n2 = f[0].length;
     final int n3 = f.length;
-    float[][] e = Parallel.reduce(n2*n3,new Parallel.ReduceInt<float[][]>() {
-    public float[][] compute(int i23) {
-      int i2 = i23%n2;
-      int i3 = i23/n2;
+    final int n23 = n2*n3;
+    final int nc = chunks(n23);
+    float[][] e = Parallel.reduce(nc,new Parallel.ReduceInt<float[][]>() {
+    public float[][] compute(int ic) {
       float[][] e = new float[n1][nl];
-      computeErrors(ff[i3][i2],gf[i3][i2],e);
+      float[][] ei = work(_ework,n1,nl);
+      for (int i23=chunk(ic,nc,n23); i23<chunk(ic+1,nc,n23); ++i23) {
+        int i2 = i23%n2;
+        int i3 = i23/n2;
+        computeErrors(ff[i3][i2],gf[i3][i2],ei);
+        add(e,ei,e);
+      }
       return e;
     }
     public float[][] combine(float[][] ea, float[][] eb) {
-      return add(ea,eb);
+      add(ea,eb,ea);
+      return ea;
     }});
     normalizeErrors(e);
     return e;
@@ -1223,26 +1236,81 @@ public class DynamicWarping {
     int ib = (dir>0)?0:nim1;
     int ie = (dir>0)?ni:-1;
     int is = (dir>0)?1:-1;
+
+    // The first accumulated errors are simply the first errors.
     for (int il=0; il<nl; ++il)
-      d[ib][il] = 0.0f;
-    for (int ii=ib; ii!=ie; ii+=is) {
+      d[ib][il] = e[ib][il];
+
+    // For all other samples, the loops over lags below have no branches
+    // and no dependencies between iterations, so they may be vectorized.
+    // Minima are computed with Math.min, which the JIT compiles to
+    // vector instructions; its result equals that of min3 (above) for
+    // errors that are not NaN. For b>1, sums of accumulated errors and
+    // errors for the previous b samples are stored in a per-thread array.
+    float[] s = (b>1)?sums(nl):null;
+    int il1 = min(1,nlm1);
+    int ilm = max(0,nlm1-1);
+    for (int ii=ib+is; ii!=ie; ii+=is) {
       int ji = max(0,min(nim1,ii-is));
       int jb = max(0,min(nim1,ii-is*b));
-      for (int il=0; il<nl; ++il) {
-        int ilm1 = il-1; if (ilm1==-1) ilm1 = 0;
-        int ilp1 = il+1; if (ilp1==nl) ilp1 = nlm1;
-        float dm = d[jb][ilm1];
-        float di = d[ji][il  ];
-        float dp = d[jb][ilp1];
+      float[] dj = d[ji];
+      float[] ds = d[jb];
+      if (jb!=ji) {
+        for (int il=0; il<nl; ++il)
+          s[il] = ds[il];
         for (int kb=ji; kb!=jb; kb-=is) {
-          dm += e[kb][ilm1];
-          dp += e[kb][ilp1];
+          float[] ek = e[kb];
+          for (int il=0; il<nl; ++il)
+            s[il] += ek[il];
         }
-        d[ii][il] = min3(dm,di,dp)+e[ii][il];
+        ds = s;
       }
+      float[] di = d[ii];
+      float[] ei = e[ii];
+      di[0] = Math.min(dj[0],Math.min(ds[0],ds[il1]))+ei[0];
+      for (int il=1; il<nlm1; ++il)
+        di[il] = Math.min(dj[il],Math.min(ds[il-1],ds[il+1]))+ei[il];
+      di[nlm1] = Math.min(dj[nlm1],Math.min(ds[ilm],ds[nlm1]))+ei[nlm1];
     }
   }
 
+  // Per-thread arrays of sums used in accumulation.
+  private static final Parallel.Unsafe<float[]> _sums =
+    new Parallel.Unsafe<float[]>();
+  private static float[] sums(int n) {
+    float[] s = _sums.get();
+    if (s==null || s.length<n)
+      _sums.set(s=new float[n]);
+    return s;
+  }
+
+  // Per-thread arrays[n1][nl] of errors, for errors computed for one
+  // trace (_ework) and for errors accumulated forward (_efwork) and in
+  // reverse (_erwork) when smoothing.
+  private static final Parallel.Unsafe<float[][]> _ework =
+    new Parallel.Unsafe<float[][]>();
+  private static final Parallel.Unsafe<float[][]> _efwork =
+    new Parallel.Unsafe<float[][]>();
+  private static final Parallel.Unsafe<float[][]> _erwork =
+    new Parallel.Unsafe<float[][]>();
+  private static float[][] work(
+    Parallel.Unsafe<float[][]> w, int n1, int nl) 
+  {
+    float[][] a = w.get();
+    if (a==null || a.length!=n1 || a[0].length!=nl)
+      w.set(a=new float[n1][nl]);
+    return a;
+  }
+
+  // Number of chunks of n traces for which errors are summed in parallel,
+  // and the index of the first trace in chunk ic of nc chunks.
+  private static int chunks(int n) {
+    return max(1,min(n,Runtime.getRuntime().availableProcessors()));
+  }
+  private static int chunk(int ic, int nc, int n) {
+    return (int)((long)ic*n/nc);
+  }
+
   /**
    * Finds shifts by backtracking in accumulated alignment errors.
    * Backtracking must be performed in the direction opposite to
@@ -1359,8 +1427,8 @@ public class DynamicWarping {
   private static void smoothErrors1(int b, float[][] e, float[][] es) {
     int nl = e[0].length;
     int n1 = e.length;
-    float[][] ef = new float[n1][nl];
-    float[][] er = new float[n1][nl];
+    float[][] ef = work(_efwork,n1,nl);
+    float[][] er = work(_erwork,n1,nl);
     accumulate( 1,b,e,ef);
     accumulate(-1,b,e,er);
     for (int i1=0; i1<n1; ++i1)
@@ -7,9 +7,14 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 
 package fah;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import edu.mines.jtk.dsp.*;
+import edu.mines.jtk.util.Check;
 import edu.mines.jtk.util.Stopwatch;
 import static edu.mines.jtk.util.ArrayMath.*;
 import static edu.mines.jtk.util.Parallel.*;
@@ -244,6 +249,94 @@ public class FaultScanner {
     return scan(phiSampling,thetaSampling,snd);
   }
 
+  /**
+   * Scans an image stored in a file that may be too large for memory.
+   * Each of the files for the image and its slopes contains n1*n2*n3
+   * big-endian floats, as written for an array[n3][n2][n1]. Fault
+   * likelihoods, strikes and dips are written to files with the same
+   * layout, which are created or overwritten as necessary.
+   * <p>
+   * The image is scanned in slabs of m3 samples in the 3rd dimension.
+   * Each slab is padded on both sides with neighboring slices that are
+   * scanned but not written, so that smoothing along faults near the
+   * sides of the slab includes those neighbors. Rotations are centered
+   * on the entire image, not on each slab, so that rotated samples are
+   * the same for all slabs. Padding is many times the larger of the
+   * half-widths for smoothing along fault strike and dip, so that the
+   * truncated tails of the recursive smoothing filters have responses
+   * near float precision. Outputs therefore are not bit-for-bit equal
+   * to those computed by scanning the entire image at once, but differ
+   * only by small rounding errors. Where two strikes or dips have
+   * likelihoods that differ only by such errors, the strike or dip
+   * written may be either of them.
+   * Memory required is proportional to n1*n2*(m3+2*padding).
+   * @param phiSampling sampling of fault strikes, in degrees.
+   * @param thetaSampling sampling of fault dip angles, in degrees.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param n3 number of samples in 3rd dimension.
+   * @param m3 number of samples in 3rd dimension written per slab.
+   * @param p2File name of file with slopes in the 2nd dimension.
+   * @param p3File name of file with slopes in the 3rd dimension.
+   * @param gFile name of file with the image to be scanned.
+   * @param flFile name of file for fault likelihoods.
+   * @param fpFile name of file for fault strikes.
+   * @param ftFile name of file for fault dips.
+   */
+  public void scan(
+      Sampling phiSampling, Sampling thetaSampling,
+      int n1, int n2, int n3, int m3,
+      String p2File, String p3File, String gFile,
+      String flFile, String fpFile, String ftFile) {
+    Check.argument(m3>0,"m3>0");
+    int l3 = min(n3,slabPadding());
+    String[] inFiles = {p2File,p3File,gFile};
+    String[] outFiles = {flFile,fpFile,ftFile};
+    RandomAccessFile[] rafs = new RandomAccessFile[6];
+    try {
+      for (int i=0; i<3; ++i) {
+        rafs[i] = new RandomAccessFile(inFiles[i],"r");
+        Check.argument(rafs[i].length()>=4L*n1*n2*n3,
+          inFiles[i]+" contains n1*n2*n3 floats");
+      }
+      for (int i=0; i<3; ++i) {
+        rafs[3+i] = new RandomAccessFile(outFiles[i],"rw");
+        rafs[3+i].setLength(4L*n1*n2*n3);
+      }
+      for (int j3=0; j3<n3; j3+=m3) {
+        int k3 = min(m3,n3-j3);
+        int j3lo = max(0,j3-l3);
+        int j3hi = min(n3,j3+k3+l3);
+        trace("FaultScanner.scan: slab i3 = "+j3+" to "+(j3+k3-1));
+        float[][][] p2 = new float[j3hi-j3lo][n2][n1];
+        float[][][] p3 = new float[j3hi-j3lo][n2][n1];
+        float[][][] g = new float[j3hi-j3lo][n2][n1];
+        readSlab(rafs[0].getChannel(),j3lo,p2);
+        readSlab(rafs[1].getChannel(),j3lo,p3);
+        readSlab(rafs[2].getChannel(),j3lo,g);
+        float[][][][] snd = semblanceNumDen(p2,p3,g);
+        p2 = p3 = g = null;
+        double x3c = 0.5*(n3-1.0)-j3lo;
+        float[][][][] flpt = scan(phiSampling,thetaSampling,snd,x3c);
+        snd = null;
+        for (int i=0; i<3; ++i) {
+          float[][][] s = copy(n1,n2,k3,0,0,j3-j3lo,flpt[i]);
+          writeSlab(rafs[3+i].getChannel(),j3,s);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      for (RandomAccessFile raf:rafs) {
+        try {
+          if (raf!=null) raf.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
   /**
    * Thins fault images to include only ridges in fault likelihoods.
    * After thinning, may be only one voxel wide. Thinned fault strikes and
@@ -391,12 +484,80 @@ public class FaultScanner {
     System.out.println(s);
   }
 
+  // Number of slices added on each side of slabs scanned out of core.
+  // Smoothing filters decay exponentially with distance relative to their
+  // half-widths; beyond SLAB_PAD_SIGMAS half-widths their responses are
+  // near float precision. Horizontal extents of smoothing along strike
+  // and (after unshearing) dip are at most their half-widths. Sinc
+  // interpolation in each rotation, shear, unshear and unrotation
+  // extends HALF_LSINC more samples. The extra slice is for the semblance
+  // stencil.
+  private int slabPadding() {
+    double sigma = max(_sigmaPhi,_sigmaTheta);
+    return (int)ceil(SLAB_PAD_SIGMAS*sigma)+4*Rotator.HALF_LSINC+1;
+  }
+  private static final double SLAB_PAD_SIGMAS = 12.0;
+
+  // Reads big-endian floats for slices i3 = j3, j3+1, ... of a 3D array.
+  private static void readSlab(FileChannel fc, int j3, float[][][] x)
+    throws IOException
+  {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    ByteBuffer bb = ByteBuffer.allocate(4*n1*n2);
+    FloatBuffer fb = bb.asFloatBuffer();
+    for (int i3=0; i3<n3; ++i3) {
+      bb.clear();
+      long offset = 4L*n1*n2*(j3+i3);
+      while (bb.hasRemaining()) {
+        int n = fc.read(bb,offset);
+        if (n<0)
+          throw new EOFException();
+        offset += n;
+      }
+      fb.clear();
+      for (int i2=0; i2<n2; ++i2)
+        fb.get(x[i3][i2]);
+    }
+  }
+
+  // Writes big-endian floats for slices i3 = j3, j3+1, ... of a 3D array.
+  private static void writeSlab(FileChannel fc, int j3, float[][][] x)
+    throws IOException
+  {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    ByteBuffer bb = ByteBuffer.allocate(4*n1*n2);
+    FloatBuffer fb = bb.asFloatBuffer();
+    for (int i3=0; i3<n3; ++i3) {
+      fb.clear();
+      for (int i2=0; i2<n2; ++i2)
+        fb.put(x[i3][i2]);
+      bb.clear();
+      long offset = 4L*n1*n2*(j3+i3);
+      while (bb.hasRemaining())
+        offset += fc.write(bb,offset);
+    }
+  }
+
   // This scan smooths semblance numerators and denominators along fault
   // planes by first rotating and shearing those images before applying
   // fast recursive axis-aligned smoothing filters.
   private float[][][][] scan(
       Sampling phiSampling, Sampling thetaSampling,
       float[][][][] snd) {
+    int n3 = snd[0].length;
+    return scan(phiSampling,thetaSampling,snd,0.5*(n3-1.0));
+  }
+
+  // Scans with the specified coordinate x3c of the center of rotation.
+  // When scanning a slab of a larger image, this is the center of that
+  // image, so that rotated samples lie on the same grid for all slabs.
+  private float[][][][] scan(
+      Sampling phiSampling, Sampling thetaSampling,
+      float[][][][] snd, double x3c) {
     // Algorithm: given snum,sden (semblance numerators and denominators)
     // initialize f,p,t (fault likelihood, phi, and theta)
     // for all phi:
@@ -424,7 +585,7 @@ public class FaultScanner {
         int timeLeftSec = 1+(int)timeLeft;
         trace("FaultScanner.scan: done in "+timeLeftSec+" seconds");
       }
-      Rotator r = new Rotator(phi,n1,n2,n3);
+      Rotator r = new Rotator(phi,n1,n2,n3,x3c);
       float[][][][] rsnd = r.rotate(snd);
       smooth2(rsnd);
       float[][][][] rftp = scanTheta(thetaSampling,rsnd);
@@ -951,7 +1112,7 @@ public class FaultScanner {
 
   private static class Rotator {
 
-    Rotator(double phi, int n1, int n2, int n3) {
+    Rotator(double phi, int n1, int n2, int n3, double x3c) {
       _n1 = n1;
 
       // angle phi in radians, cosine and sine
@@ -961,7 +1122,7 @@ public class FaultScanner {
 
       // center of rotation
       _x2c = 0.5*(n2-1.0);
-      _x3c = 0.5*(n3-1.0);
+      _x3c = x3c;
 
       // input sampling
       _s2p = new Sampling(n2,1.0,0.0);
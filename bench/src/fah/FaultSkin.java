@@ -383,6 +383,28 @@ public class FaultSkin implements Iterable<FaultCell>,Serializable {
     }
   }
 
+  /**
+   * Returns all fault skins read from a file with specified name. The
+   * file must have the columnar format written by the method
+   * {@link #writeToFile(String,FaultSkin[])}.
+   * @param fileName the fault skins file name.
+   * @return array of fault skins.
+   */
+  public static FaultSkin[] readAllFromFile(String fileName) {
+    return new FaultSkinFile(fileName).getSkins();
+  }
+
+  /**
+   * Writes fault skins to one file with specified name. Uses the columnar
+   * format of {@link FaultSkinFile}, which is much faster than writing
+   * one file for each skin, and enables skins to be read lazily.
+   * @param fileName the fault skins file name.
+   * @param skins array of fault skins.
+   */
+  public static void writeToFile(String fileName, FaultSkin[] skins) {
+    FaultSkinFile.write(fileName,skins);
+  }
+
   public static FaultSkin readFromFileSlow(String fileName) {
     try {
       FileInputStream fis = new FileInputStream(fileName);
@@ -416,6 +438,22 @@ public class FaultSkin implements Iterable<FaultCell>,Serializable {
     _cellList = new ArrayList<FaultCell>();
   }
 
+  /**
+   * Constructs a skin with specified cells and seed. The cells must not
+   * already be in a skin, and their nabor links must already be set.
+   * @param cells array of cells in this skin.
+   * @param seed the seed cell; null, if no cells.
+   */
+  FaultSkin(FaultCell[] cells, FaultCell seed) {
+    _cellList = new ArrayList<FaultCell>(cells.length);
+    for (FaultCell cell:cells) {
+      assert cell.skin==null;
+      cell.skin = this;
+      _cellList.add(cell);
+    }
+    _seed = seed;
+  }
+
   /**
    * Adds the specified skinless cell to this skin.
    * @param cell the cell to be added.
@@ -0,0 +1,291 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fah;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+
+import edu.mines.jtk.util.*;
+
+/**
+ * A file of fault skins in a compact columnar format. One file contains
+ * any number of skins, and each property of cells is stored in a column,
+ * an array of values for all cells of all skins. Cells of each skin are
+ * contiguous in every column, so that the cells for any one skin can be
+ * read without reading those for other skins.
+ * <p>
+ * After a header and a table of skins, the file contains columns for cell
+ * coordinates x1, x2 and x3, fault likelihoods fl, strikes fp, dips ft,
+ * and dip-slip vectors s1, s2 and s3. Normal vectors w and other cell
+ * properties are computed from these when cells are constructed, and are
+ * not stored. These float columns are followed by int columns of links
+ * to cell nabors above, below, left and right. Each link is the index of
+ * the nabor in the same skin, or -1 if the cell has no such nabor. All
+ * values are big-endian.
+ * <p>
+ * Columns are memory-mapped when a file is opened, and skins are read
+ * lazily; methods that get skins do so from the mapped columns. Skins
+ * are written in parallel, and when getting all skins, they are read in
+ * parallel.
+ *
+ * @author agent
+ * @version 2026.10.17
+ */
+public class FaultSkinFile {
+
+  /**
+   * Writes the specified skins to a file with specified name.
+   * @param fileName the file name.
+   * @param skins array of skins to write.
+   */
+  public static void write(String fileName, final FaultSkin[] skins) {
+    int nskin = skins.length;
+    final int[] kskin = new int[nskin+1]; // index of first cell in skin
+    for (int iskin=0; iskin<nskin; ++iskin)
+      kskin[iskin+1] = kskin[iskin]+skins[iskin].size();
+    final int ncell = kskin[nskin];
+    try {
+      RandomAccessFile raf = new RandomAccessFile(fileName,"rw");
+      raf.setLength(0);
+      try {
+        final FileChannel fc = raf.getChannel();
+        final long hbytes = headerBytes(nskin);
+        final int[] iseed = new int[nskin]; // index of seed cell in skin
+        Parallel.loop(nskin,new Parallel.LoopInt() {
+          public void compute(int iskin) {
+            iseed[iskin] = writeSkin(fc,hbytes,ncell,kskin[iskin],skins[iskin]);
+          }
+        });
+        ByteBuffer bb = ByteBuffer.allocate((int)hbytes);
+        bb.putInt(MAGIC).putInt(VERSION).putInt(nskin).putInt(ncell);
+        for (int iskin=0; iskin<=nskin; ++iskin)
+          bb.putInt(kskin[iskin]);
+        for (int iskin=0; iskin<nskin; ++iskin)
+          bb.putInt(iseed[iskin]);
+        bb.flip();
+        writeFully(fc,bb,0L);
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Opens a file of fault skins with specified name.
+   * @param fileName the file name.
+   */
+  public FaultSkinFile(String fileName) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(fileName,"r");
+      try {
+        FileChannel fc = raf.getChannel();
+        ByteBuffer bb = ByteBuffer.allocate(16);
+        readFully(fc,bb,0L);
+        int magic = bb.getInt(0);
+        int version = bb.getInt(4);
+        if (magic!=MAGIC || version!=VERSION)
+          throw new IOException("not a fault skin file: "+fileName);
+        _nskin = bb.getInt(8);
+        _ncell = bb.getInt(12);
+        long hbytes = headerBytes(_nskin);
+        bb = ByteBuffer.allocate((int)hbytes);
+        readFully(fc,bb,0L);
+        _kskin = new int[_nskin+1];
+        _iseed = new int[_nskin];
+        for (int iskin=0,k=16; iskin<=_nskin; ++iskin,k+=4)
+          _kskin[iskin] = bb.getInt(k);
+        for (int iskin=0,k=20+4*_nskin; iskin<_nskin; ++iskin,k+=4)
+          _iseed[iskin] = bb.getInt(k);
+        _cols = new ByteBuffer[NCOL];
+        for (int icol=0; icol<NCOL; ++icol) {
+          long offset = hbytes+4L*_ncell*icol;
+          _cols[icol] = fc.map(FileChannel.MapMode.READ_ONLY,offset,4L*_ncell);
+          _cols[icol].order(ByteOrder.BIG_ENDIAN);
+        }
+      } finally {
+        raf.close(); // mapped buffers remain valid
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the number of skins in this file.
+   * @return the number of skins.
+   */
+  public int countSkins() {
+    return _nskin;
+  }
+
+  /**
+   * Returns the number of cells in the specified skin.
+   * @param iskin index of the skin.
+   * @return the number of cells.
+   */
+  public int countCells(int iskin) {
+    return _kskin[iskin+1]-_kskin[iskin];
+  }
+
+  /**
+   * Returns the total number of cells in all skins in this file.
+   * @return the number of cells.
+   */
+  public int countCells() {
+    return _ncell;
+  }
+
+  /**
+   * Reads and returns the specified skin.
+   * This method may be called by multiple threads.
+   * @param iskin index of the skin.
+   * @return the skin.
+   */
+  public FaultSkin getSkin(int iskin) {
+    int kcell = _kskin[iskin];
+    int ncell = _kskin[iskin+1]-kcell;
+    FaultCell[] cells = new FaultCell[ncell];
+    ByteBuffer x1 = _cols[X1], x2 = _cols[X2], x3 = _cols[X3];
+    ByteBuffer fl = _cols[FL], fp = _cols[FP], ft = _cols[FT];
+    ByteBuffer s1 = _cols[S1], s2 = _cols[S2], s3 = _cols[S3];
+    for (int icell=0,k=4*kcell; icell<ncell; ++icell,k+=4) {
+      FaultCell cell = new FaultCell(
+        x1.getFloat(k),x2.getFloat(k),x3.getFloat(k),
+        fl.getFloat(k),fp.getFloat(k),ft.getFloat(k));
+      cell.s1 = s1.getFloat(k);
+      cell.s2 = s2.getFloat(k);
+      cell.s3 = s3.getFloat(k);
+      cells[icell] = cell;
+    }
+    ByteBuffer ca = _cols[CA], cb = _cols[CB], cl = _cols[CL], cr = _cols[CR];
+    for (int icell=0,k=4*kcell; icell<ncell; ++icell,k+=4) {
+      FaultCell cell = cells[icell];
+      cell.ca = nabor(cells,ca.getInt(k));
+      cell.cb = nabor(cells,cb.getInt(k));
+      cell.cl = nabor(cells,cl.getInt(k));
+      cell.cr = nabor(cells,cr.getInt(k));
+    }
+    int iseed = _iseed[iskin];
+    return new FaultSkin(cells,(iseed>=0)?cells[iseed]:null);
+  }
+
+  /**
+   * Reads and returns all skins in this file.
+   * @return array of skins.
+   */
+  public FaultSkin[] getSkins() {
+    final FaultSkin[] skins = new FaultSkin[_nskin];
+    Parallel.loop(_nskin,new Parallel.LoopInt() {
+      public void compute(int iskin) {
+        skins[iskin] = getSkin(iskin);
+      }
+    });
+    return skins;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int MAGIC = 0x46534b4e; // "FSKN"
+  private static final int VERSION = 1;
+
+  // Indices of columns.
+  private static final int X1 = 0, X2 = 1, X3 = 2;
+  private static final int FL = 3, FP = 4, FT = 5;
+  private static final int S1 = 6, S2 = 7, S3 = 8;
+  private static final int CA = 9, CB = 10, CL = 11, CR = 12;
+  private static final int NCOL = 13;
+
+  private int _nskin; // number of skins
+  private int _ncell; // total number of cells in all skins
+  private int[] _kskin; // index of first cell in each skin, and ncell
+  private int[] _iseed; // index of seed cell in each skin; -1 if none
+  private ByteBuffer[] _cols; // mapped columns
+
+  // Bytes in magic, version, nskin, ncell, kskin[nskin+1], iseed[nskin].
+  private static long headerBytes(int nskin) {
+    return 16L+4L*(nskin+1)+4L*nskin;
+  }
+
+  private static FaultCell nabor(FaultCell[] cells, int inabor) {
+    return (inabor>=0)?cells[inabor]:null;
+  }
+
+  // Writes all columns for the cells of one skin, and returns the index
+  // of the seed cell in that skin, or -1 if none. Positional writes to a
+  // file channel may be performed concurrently by multiple threads.
+  private static int writeSkin(
+    FileChannel fc, long hbytes, int ncell, int kcell, FaultSkin skin)
+  {
+    FaultCell[] cells = skin.getCells();
+    int mcell = cells.length;
+    if (mcell==0)
+      return -1;
+    IdentityHashMap<FaultCell,Integer> index =
+      new IdentityHashMap<FaultCell,Integer>(mcell);
+    for (int icell=0; icell<mcell; ++icell)
+      index.put(cells[icell],icell);
+    ByteBuffer bb = ByteBuffer.allocate(4*mcell);
+    try {
+      for (int icol=0; icol<NCOL; ++icol) {
+        bb.clear();
+        for (FaultCell cell:cells) {
+          switch (icol) {
+          case X1: bb.putFloat(cell.x1); break;
+          case X2: bb.putFloat(cell.x2); break;
+          case X3: bb.putFloat(cell.x3); break;
+          case FL: bb.putFloat(cell.fl); break;
+          case FP: bb.putFloat(cell.fp); break;
+          case FT: bb.putFloat(cell.ft); break;
+          case S1: bb.putFloat(cell.s1); break;
+          case S2: bb.putFloat(cell.s2); break;
+          case S3: bb.putFloat(cell.s3); break;
+          case CA: bb.putInt(indexOf(index,cell.ca)); break;
+          case CB: bb.putInt(indexOf(index,cell.cb)); break;
+          case CL: bb.putInt(indexOf(index,cell.cl)); break;
+          case CR: bb.putInt(indexOf(index,cell.cr)); break;
+          }
+        }
+        bb.flip();
+        writeFully(fc,bb,hbytes+4L*((long)ncell*icol+kcell));
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return indexOf(index,skin.getSeed());
+  }
+
+  private static int indexOf(
+    IdentityHashMap<FaultCell,Integer> index, FaultCell cell)
+  {
+    Integer i = (cell!=null)?index.get(cell):null;
+    return (i!=null)?i:-1;
+  }
+
+  private static void writeFully(FileChannel fc, ByteBuffer bb, long offset)
+    throws IOException
+  {
+    while (bb.hasRemaining())
+      offset += fc.write(bb,offset);
+  }
+
+  private static void readFully(FileChannel fc, ByteBuffer bb, long offset)
+    throws IOException
+  {
+    while (bb.hasRemaining()) {
+      int n = fc.read(bb,offset);
+      if (n<0)
+        throw new EOFException();
+      offset += n;
+    }
+  }
+}
@@ -102,6 +102,14 @@ def writeSkins(basename,skins):
   for index,skin in enumerate(skins):
     writeSkin(basename,index,skin)
 
+def readSkinsFile(basename):
+  """ Reads all skins from one file with specified basename. """
+  return FaultSkin.readAllFromFile(seismicDir+basename+"all.dat")
+
+def writeSkinsFile(basename,skins):
+  """ Writes all skins to one file with specified basename. """
+  FaultSkin.writeToFile(seismicDir+basename+"all.dat",skins)
+
 from org.python.util import PythonObjectInputStream
 def readObject(name):
   fis = FileInputStream(seismicDir+name+".dat")
@@ -0,0 +1,141 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fah.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.io.ArrayInputStream;
+import edu.mines.jtk.io.ArrayOutputStream;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+import fah.FaultScanner;
+
+/**
+ * Tests {@link fah.FaultScanner}. An image scanned in slabs, with files
+ * for input and output, must yield the same fault likelihoods, strikes
+ * and dips, up to rounding errors, as the same image scanned in memory.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class FaultScannerTest extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(FaultScannerTest.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testSlabScan() throws IOException {
+    int n1 = 21, n2 = 32, n3 = 161, m3 = 7;
+    float[][][] g = makeFaultedImage(n1,n2,n3);
+    float[][][] p2 = new float[n3][n2][n1];
+    float[][][] p3 = new float[n3][n2][n1];
+    FaultScanner fs = new FaultScanner(SIGMA_PHI,SIGMA_THETA);
+    Sampling sp = fs.getPhiSampling(0.0,360.0);
+    Sampling st = fs.getThetaSampling(65.0,85.0);
+    float[][][][] flpt = fs.scan(sp,st,p2,p3,g);
+    File[] files = new File[6];
+    try {
+      for (int i=0; i<6; ++i)
+        files[i] = File.createTempFile("fst",".dat");
+      writeImage(files[0],p2);
+      writeImage(files[1],p3);
+      writeImage(files[2],g);
+      fs.scan(sp,st,n1,n2,n3,m3,
+        files[0].getPath(),files[1].getPath(),files[2].getPath(),
+        files[3].getPath(),files[4].getPath(),files[5].getPath());
+      float[][][] fl = readImage(files[3],n1,n2,n3);
+      float[][][] fp = readImage(files[4],n1,n2,n3);
+      float[][][] ft = readImage(files[5],n1,n2,n3);
+      float flmax = max(flpt[0]);
+      float dfmax = max(abs(sub(fl,flpt[0])));
+      assertTrue("faults found: flmax = "+flmax,flmax>FAULT);
+      assertTrue("max difference = "+dfmax,dfmax<TOLERANCE);
+      int nd = countDifferent(flpt,fl,fp,ft);
+      assertEquals("strikes and dips that differ for faults",0,nd);
+    } finally {
+      for (File file:files)
+        if (file!=null) file.delete();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final double SIGMA_PHI = 2.0;
+  private static final double SIGMA_THETA = 4.0;
+  private static final float TOLERANCE = 1.0e-6f;
+  private static final float FAULT = 0.5f; // likelihood for faults
+
+  // Sinusoidal layers offset by a dipping planar fault, plus noise.
+  private static float[][][] makeFaultedImage(int n1, int n2, int n3) {
+    Random r = new Random(314159);
+    float[][][] g = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          double s = 0.8*(i2-0.5*n2)+0.3*(i3-0.5*n3)+0.25*(i1-0.5*n1);
+          double x1 = (s<0.0)?i1:i1+4.0;
+          g[i3][i2][i1] = (float)(sin(0.6*x1)+0.1*r.nextGaussian());
+        }
+      }
+    }
+    return g;
+  }
+
+  // Number of samples with likelihoods that exceed that for faults for
+  // which either the strike or the dip in fp and ft differ from those in
+  // flpt. Where likelihoods are low, maximum likelihoods for different
+  // strikes and dips may differ only by rounding errors.
+  private static int countDifferent(
+    float[][][][] flpt, float[][][] fl, float[][][] fp, float[][][] ft)
+  {
+    int n1 = fl[0][0].length;
+    int n2 = fl[0].length;
+    int n3 = fl.length;
+    int nd = 0;
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          if (flpt[0][i3][i2][i1]>FAULT &&
+              (fp[i3][i2][i1]!=flpt[1][i3][i2][i1] ||
+               ft[i3][i2][i1]!=flpt[2][i3][i2][i1]))
+            ++nd;
+        }
+      }
+    }
+    return nd;
+  }
+
+  private static void writeImage(File file, float[][][] x)
+    throws IOException
+  {
+    ArrayOutputStream aos = new ArrayOutputStream(file);
+    try {
+      aos.writeFloats(x);
+    } finally {
+      aos.close();
+    }
+  }
+
+  private static float[][][] readImage(File file, int n1, int n2, int n3)
+    throws IOException
+  {
+    float[][][] x = new float[n3][n2][n1];
+    ArrayInputStream ais = new ArrayInputStream(file);
+    try {
+      ais.readFloats(x);
+    } finally {
+      ais.close();
+    }
+    return x;
+  }
+}
@@ -0,0 +1,164 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fah.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import edu.mines.jtk.io.ArrayOutputStream;
+import fah.FaultCell;
+import fah.FaultSkin;
+import fah.FaultSkinFile;
+
+/**
+ * Tests {@link fah.FaultSkinFile}. Skins written to and read from one
+ * columnar file must be the same as those written. Skins are compared
+ * by writing them in the one-skin-per-file format of
+ * {@link fah.FaultSkin#writeToFile(String,FaultSkin)}, which includes
+ * all stored cell properties and links, and comparing bytes.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class FaultSkinFileTest extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(FaultSkinFileTest.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testRoundTrip() throws IOException {
+    int nskin = 4;
+    FaultSkin[] skins = new FaultSkin[nskin];
+    Random r = new Random(314159);
+    for (int iskin=0; iskin<nskin; ++iskin)
+      skins[iskin] = makeSkin(r,3+iskin,5+2*iskin,10*iskin);
+    File file = tempFile();
+    try {
+      FaultSkinFile.write(file.getPath(),skins);
+      FaultSkinFile fsf = new FaultSkinFile(file.getPath());
+      assertEquals(nskin,fsf.countSkins());
+      assertEquals(FaultSkin.countCells(skins),fsf.countCells());
+      for (int iskin=0; iskin<nskin; ++iskin) {
+        assertEquals(skins[iskin].size(),fsf.countCells(iskin));
+        assertSameSkin(skins[iskin],fsf.getSkin(iskin));
+      }
+      FaultSkin[] skinr = FaultSkin.readAllFromFile(file.getPath());
+      assertEquals(nskin,skinr.length);
+      for (int iskin=0; iskin<nskin; ++iskin)
+        assertSameSkin(skins[iskin],skinr[iskin]);
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testNoSkins() throws IOException {
+    File file = tempFile();
+    try {
+      FaultSkinFile.write(file.getPath(),new FaultSkin[0]);
+      FaultSkinFile fsf = new FaultSkinFile(file.getPath());
+      assertEquals(0,fsf.countSkins());
+      assertEquals(0,fsf.countCells());
+      assertEquals(0,fsf.getSkins().length);
+    } finally {
+      file.delete();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int INULL = -Integer.MAX_VALUE; // null index
+
+  private static File tempFile() throws IOException {
+    return File.createTempFile("skins",".dat");
+  }
+
+  // Asserts that skins are the same, by comparing files written for them.
+  private static void assertSameSkin(FaultSkin sa, FaultSkin sb)
+    throws IOException
+  {
+    assertEquals(sa.size(),sb.size());
+    FaultCell[] ca = sa.getCells();
+    FaultCell[] cb = sb.getCells();
+    for (int icell=0; icell<ca.length; ++icell) {
+      assertTrue(Arrays.equals(ca[icell].getX(),cb[icell].getX()));
+      assertTrue(Arrays.equals(ca[icell].getW(),cb[icell].getW()));
+      assertEquals(ca[icell].getFl(),cb[icell].getFl());
+    }
+    File fa = tempFile();
+    File fb = tempFile();
+    try {
+      FaultSkin.writeToFile(fa.getPath(),sa);
+      FaultSkin.writeToFile(fb.getPath(),sb);
+      byte[] ba = Files.readAllBytes(fa.toPath());
+      byte[] bb = Files.readAllBytes(fb.toPath());
+      assertTrue(Arrays.equals(ba,bb));
+    } finally {
+      fa.delete();
+      fb.delete();
+    }
+  }
+
+  // Makes a skin with m1*m2 cells on a plane with constant x3. Cells are
+  // linked above and below in the 1st dimension, and left and right in
+  // the 2nd dimension. The skin is constructed by writing a file in the
+  // one-skin-per-file format and then reading that file.
+  private static FaultSkin makeSkin(Random r, int m1, int m2, int i3)
+    throws IOException
+  {
+    File file = tempFile();
+    try {
+      ArrayOutputStream aos = new ArrayOutputStream(file.getPath());
+      try {
+        aos.writeInt(m1*m2);
+        aos.writeInt(m1/2);
+        aos.writeInt(m2/2);
+        aos.writeInt(i3);
+        for (int i2=0; i2<m2; ++i2) {
+          for (int i1=0; i1<m1; ++i1) {
+            aos.writeFloat(i1+0.25f*r.nextFloat()); // x1
+            aos.writeFloat(i2+0.25f*r.nextFloat()); // x2
+            aos.writeFloat(i3+0.25f*r.nextFloat()); // x3
+            aos.writeFloat(r.nextFloat()); // fl
+            aos.writeFloat(360.0f*r.nextFloat()); // fp
+            aos.writeFloat(60.0f+30.0f*r.nextFloat()); // ft
+            aos.writeFloat(r.nextFloat()-0.5f); // s1
+            aos.writeFloat(r.nextFloat()-0.5f); // s2
+            aos.writeFloat(r.nextFloat()-0.5f); // s3
+          }
+        }
+        for (int i2=0; i2<m2; ++i2) {
+          for (int i1=0; i1<m1; ++i1) {
+            writeLink(aos,i1>0,i1-1,i2,i3); // above
+            writeLink(aos,i1<m1-1,i1+1,i2,i3); // below
+            writeLink(aos,i2>0,i1,i2-1,i3); // left
+            writeLink(aos,i2<m2-1,i1,i2+1,i3); // right
+          }
+        }
+      } finally {
+        aos.close();
+      }
+      return FaultSkin.readFromFile(file.getPath());
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void writeLink(
+    ArrayOutputStream aos, boolean linked, int i1, int i2, int i3)
+    throws IOException
+  {
+    aos.writeInt(linked?i1:INULL);
+    aos.writeInt(linked?i2:INULL);
+    aos.writeInt(linked?i3:INULL);
+  }
+}
@@ -6,9 +6,14 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 ****************************************************************************/
 package fault;
 
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import edu.mines.jtk.dsp.*;
+import edu.mines.jtk.util.Check;
 import static edu.mines.jtk.util.ArrayMath.*;
 import static edu.mines.jtk.util.Parallel.*;
 
@@ -42,6 +47,19 @@ import static edu.mines.jtk.util.Parallel.*;
  * applying fast recursive axis-aligned smoothing filters.
  * The other method uses rotated Gaussian filters implemented
  * with FFTs.
+ * <p>
+ * Scans over strikes are scheduled so that several strikes may be
+ * processed concurrently, as many as will fit within a memory budget.
+ * For each strike, all dips are scanned together, so that intermediate
+ * arrays (e.g., those rotated for that strike) are computed only once
+ * and shared by all dips. Optionally, a scan may be performed from 
+ * coarse to fine, first with coarsely sampled strikes and dips, and then
+ * with finely sampled strikes and dips near those for which the coarse
+ * scan found high fault likelihoods.
+ * <p>
+ * Semblance numerators and denominators stored in files that are too
+ * large for memory may be scanned in slabs, with a static method that
+ * reads and writes only the slices needed for each slab.
  *
  * @author Dave Hale, Colorado School of Mines
  * @version 2011.08.13
@@ -88,6 +106,7 @@ public class FaultScanner3 {
     _n1 = snd[0][0][0].length;
     _n2 = snd[0][0].length;
     _n3 = snd[0].length;
+    _x3c = 0.5*(_n3-1.0);
   }
 
   /**
@@ -125,10 +144,146 @@ public class FaultScanner3 {
    * @return array {f,p,t} of fault likelihoods, strikes, and dips.
    */
   public float[][][][] scan(Sampling phiSampling, Sampling thetaSampling) {
-    if (_snd!=null) {
-      return scanS(phiSampling,thetaSampling);
+    Sampling sp = phiSampling;
+    Sampling st = thetaSampling;
+    int n1 = _n1, n2 = _n2, n3 = _n3;
+    float[][][] f = new float[n3][n2][n1];
+    float[][][] p = new float[n3][n2][n1];
+    float[][][] t = new float[n3][n2][n1];
+    float[][][][] fpt = new float[][][][]{f,p,t};
+    if (_kphi>1 || _ktheta>1) {
+      Sampling spc = coarsen(sp,_kphi);
+      Sampling stc = coarsen(st,_ktheta);
+      scanStrikes(strikes(spc,stc),fpt);
+      scanStrikes(strikes(sp,st,spc,stc,fpt),fpt);
     } else {
-      return scanF(phiSampling,thetaSampling);
+      scanStrikes(strikes(sp,st),fpt);
+    }
+    return fpt;
+  }
+
+  /**
+   * Sets the maximum number of bytes used by concurrent scans of strikes.
+   * Each strike scanned requires a few arrays with the same size as the
+   * semblance numerators; the number of strikes scanned concurrently is
+   * the number for which those arrays fit within this budget, but is 
+   * never less than one. The default budget is half of the memory 
+   * available when a scan begins.
+   * @param nbytes the budget, in bytes; if zero, use the default.
+   */
+  public void setMemoryBudget(long nbytes) {
+    _maxBytes = nbytes;
+  }
+
+  /**
+   * Sets parameters for scans from coarse to fine strikes and dips.
+   * A coarse scan samples strikes and dips more coarsely than specified
+   * for the scan, by the specified factors. A fine scan then includes 
+   * only strikes within one coarse sampling interval of strikes found
+   * by the coarse scan for samples with likelihoods not less than a 
+   * specified minimum. For each such strike, the fine scan includes only
+   * the range of dips within one coarse sampling interval of the dips
+   * found for those same samples. The default factors are one, for which
+   * no coarse scan is performed.
+   * @param kphi factor for coarse sampling of strikes.
+   * @param ktheta factor for coarse sampling of dips.
+   * @param fmin minimum fault likelihood refined by the fine scan.
+   */
+  public void setCoarseToFine(int kphi, int ktheta, double fmin) {
+    Check.argument(kphi>=1,"kphi>=1");
+    Check.argument(ktheta>=1,"ktheta>=1");
+    _kphi = kphi;
+    _ktheta = ktheta;
+    _fmin = (float)fmin;
+  }
+
+  /**
+   * Scans semblance numerators and denominators stored in files that may
+   * be too large for memory. Each of the input files contains n1*n2*n3
+   * big-endian floats, as written for an array[n3][n2][n1]. Fault
+   * likelihoods, strikes and dips are written to files with the same
+   * layout, which are created or overwritten as necessary.
+   * <p>
+   * Numerators and denominators are scanned in slabs of m3 samples in the
+   * 3rd dimension, each padded on both sides with neighboring slices that
+   * are scanned but not written. Rotations are centered on the entire
+   * image, not on each slab. Padding is many times the largest horizontal
+   * extent of smoothing along fault strike and dip, so that outputs differ
+   * from those computed by scanning in memory only by small rounding
+   * errors. Where two strikes or dips have likelihoods that differ only by
+   * such errors, the strike or dip written may be either of them. Because
+   * horizontal extents of smoothing up-down dip increase with the tangent
+   * of the dip, padding is largest for dips near 90 degrees.
+   * <p>
+   * All strikes and dips are scanned, with smoothing by rotating and
+   * shearing; scans from coarse to fine are not performed.
+   * Memory required is proportional to n1*n2*(m3+2*padding).
+   * @param sigmaPhi half-width for smoothing along strike of fault planes.
+   * @param sigmaTheta half-width for smoothing up-down dip of fault planes.
+   * @param phiSampling sampling of fault strikes, in degrees.
+   * @param thetaSampling sampling of fault dip angles, in degrees.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param n3 number of samples in 3rd dimension.
+   * @param m3 number of samples in 3rd dimension written per slab.
+   * @param snFile name of file with semblance numerators.
+   * @param sdFile name of file with semblance denominators.
+   * @param fFile name of file for fault likelihoods.
+   * @param pFile name of file for fault strikes.
+   * @param tFile name of file for fault dips.
+   */
+  public static void scan(
+    double sigmaPhi, double sigmaTheta,
+    Sampling phiSampling, Sampling thetaSampling,
+    int n1, int n2, int n3, int m3,
+    String snFile, String sdFile,
+    String fFile, String pFile, String tFile)
+  {
+    Check.argument(m3>0,"m3>0");
+    int l3 = min(n3,slabPadding(sigmaPhi,sigmaTheta,thetaSampling));
+    String[] inFiles = {snFile,sdFile};
+    String[] outFiles = {fFile,pFile,tFile};
+    RandomAccessFile[] rafs = new RandomAccessFile[5];
+    try {
+      for (int i=0; i<2; ++i) {
+        rafs[i] = new RandomAccessFile(inFiles[i],"r");
+        Check.argument(rafs[i].length()>=4L*n1*n2*n3,
+          inFiles[i]+" contains n1*n2*n3 floats");
+      }
+      for (int i=0; i<3; ++i) {
+        rafs[2+i] = new RandomAccessFile(outFiles[i],"rw");
+        rafs[2+i].setLength(4L*n1*n2*n3);
+      }
+      for (int j3=0; j3<n3; j3+=m3) {
+        int k3 = min(m3,n3-j3);
+        int j3lo = max(0,j3-l3);
+        int j3hi = min(n3,j3+k3+l3);
+        trace("FaultScanner3.scan: slab i3 = "+j3+" to "+(j3+k3-1));
+        float[][][] sn = new float[j3hi-j3lo][n2][n1];
+        float[][][] sd = new float[j3hi-j3lo][n2][n1];
+        readSlab(rafs[0].getChannel(),j3lo,sn);
+        readSlab(rafs[1].getChannel(),j3lo,sd);
+        FaultScanner3 fs = new FaultScanner3(
+          sigmaPhi,sigmaTheta,new float[][][][]{sn,sd});
+        fs._x3c = 0.5*(n3-1.0)-j3lo;
+        sn = sd = null;
+        float[][][][] fpt = fs.scan(phiSampling,thetaSampling);
+        fs = null;
+        for (int i=0; i<3; ++i) {
+          float[][][] s = copy(n1,n2,k3,0,0,j3-j3lo,fpt[i]);
+          writeSlab(rafs[2+i].getChannel(),j3,s);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      for (RandomAccessFile raf:rafs) {
+        try {
+          if (raf!=null) raf.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
     }
   }
 
@@ -218,114 +373,292 @@ public class FaultScanner3 {
   private FaultPlaneSmoother _fps;
   private double _sigmaPhi,_sigmaTheta;
   private int _n1,_n2,_n3;
+  private double _x3c; // center of rotation in 3rd dimension
 
-  // This scan smooths semblance numerators and denominators along fault
-  // planes using Gaussian filters implemented with FFTs.
-  private float[][][][] scanF(Sampling phiSampling, Sampling thetaSampling) {
-    // Algorithm: given snum,sden (semblance numerators and denominators)
-    // construct fault plane smoother for snum,sden
-    // initialize f,p,t (fault likelihood, phi, and theta)
-    // for all phi:
-    //   for all theta:
-    //   use fault plane smoother to compute semblance
-    //   compute fault likelihood from semblance
-    //   update f,p,t for maximum likelihood
-    Sampling sp = phiSampling;
-    Sampling st = thetaSampling;
-    FaultSemblance fs = new FaultSemblance();
-    final int n1 = _n1;
-    final int n2 = _n2;
-    final int n3 = _n3;
-    final float[][][] f = new float[n3][n2][n1];
-    final float[][][] p = new float[n3][n2][n1];
-    final float[][][] t = new float[n3][n2][n1];
+  private long _maxBytes; // memory budget for strikes scanned concurrently
+  private int _kphi = 1, _ktheta = 1; // factors for coarse scans
+  private float _fmin; // minimum likelihood refined by fine scans
+
+  // One strike to be scanned, with a sampling of dips for that strike.
+  private static class Strike {
+    Strike(float phi, Sampling st) {
+      this.phi = phi;
+      this.st = st;
+    }
+    float phi;
+    Sampling st;
+  }
+
+  // Strikes for all phi, each with the same sampling of dips.
+  private static ArrayList<Strike> strikes(Sampling sp, Sampling st) {
+    ArrayList<Strike> strikes = new ArrayList<Strike>();
+    int np = sp.getCount();
+    for (int ip=0; ip<np; ++ip)
+      strikes.add(new Strike((float)sp.getValue(ip),st));
+    return strikes;
+  }
+
+  // Strikes for a fine scan, after a coarse scan with samplings spc and 
+  // stc that computed the likelihoods, strikes and dips in fpt. Includes
+  // only strikes and dips near those found by the coarse scan for samples
+  // with likelihoods not less than the minimum.
+  private ArrayList<Strike> strikes(
+    Sampling sp, Sampling st, Sampling spc, Sampling stc,
+    float[][][][] fpt)
+  {
+    final float[][][] f = fpt[0];
+    final float[][][] p = fpt[1];
+    final float[][][] t = fpt[2];
+    final int n1 = _n1, n2 = _n2, n3 = _n3;
+    final float dpc = (float)spc.getDelta();
+    final float dtc = (float)stc.getDelta();
+    final float fmin = _fmin;
+    ArrayList<Strike> strikes = new ArrayList<Strike>();
     int np = sp.getCount();
-    int nt = st.getCount();
     for (int ip=0; ip<np; ++ip) {
-      trace("FaultScanner3.scanF: ip/np="+ip+"/"+np);
       final float phi = (float)sp.getValue(ip);
-      for (int it=0; it<nt; ++it) {
-        final float theta = (float)st.getValue(it);
-        float[][][][] snd = _fps.apply(phi,theta);
-        final float[][][] s = fs.semblanceFromNumDen(snd);
-        loop(n3,new LoopInt() {
-        public void compute(int i3) {
-          for (int i2=0; i2<n2; ++i2) {
-            float[] s32 = s[i3][i2];
-            float[] f32 = f[i3][i2];
-            float[] p32 = p[i3][i2];
-            float[] t32 = t[i3][i2];
-            for (int i1=0; i1<n1; ++i1) {
-              float si = s32[i1]; // semblance
-              si = si*si; // semblance^2
-              si = si*si; // semblance^4
-              si = si*si; // semblance^8
-              float fi = 1.0f-si;
-              if (fi>f32[i1]) {
-                f32[i1] = fi;
-                p32[i1] = phi;
-                t32[i1] = theta;
-              }
+
+      // Range [tmin,tmax] of coarse dips for samples with likelihoods 
+      // not less than the minimum and with coarse strikes near phi.
+      float[] tmm = reduce(n3,new ReduceInt<float[]>() {
+      public float[] compute(int i3) {
+        float tmin =  Float.MAX_VALUE;
+        float tmax = -Float.MAX_VALUE;
+        for (int i2=0; i2<n2; ++i2) {
+          float[] f32 = f[i3][i2];
+          float[] p32 = p[i3][i2];
+          float[] t32 = t[i3][i2];
+          for (int i1=0; i1<n1; ++i1) {
+            if (f32[i1]>=fmin && abs(p32[i1]-phi)<=dpc) {
+              float ti = t32[i1];
+              if (ti<tmin) tmin = ti;
+              if (ti>tmax) tmax = ti;
             }
           }
-        }});
+        }
+        return new float[]{tmin,tmax};
+      }
+      public float[] combine(float[] a, float[] b) {
+        return new float[]{min(a[0],b[0]),max(a[1],b[1])};
+      }});
+      if (tmm[0]>tmm[1])
+        continue;
+
+      // Fine sampling of dips in [tmin-dtc,tmax+dtc].
+      int jt = st.indexOfNearest(tmm[0]-dtc);
+      int kt = st.indexOfNearest(tmm[1]+dtc);
+      Sampling sti = new Sampling(1+kt-jt,st.getDelta(),st.getValue(jt));
+      strikes.add(new Strike(phi,sti));
+    }
+    trace("FaultScanner3.strikes: fine scan has "+strikes.size()+" of "+np+
+      " strikes");
+    return strikes;
+  }
+
+  // Coarse sampling of angles, with every k'th angle.
+  private static Sampling coarsen(Sampling s, int k) {
+    int n = s.getCount();
+    return new Sampling(1+(n-1)/k,k*s.getDelta(),s.getFirst());
+  }
+
+  // Scans the specified strikes, and updates likelihoods, strikes and
+  // dips in fpt. Scans as many strikes concurrently as fit within the
+  // memory budget. Updates for strikes are performed in order, so that
+  // results do not depend on the number of strikes scanned concurrently.
+  private void scanStrikes(final ArrayList<Strike> strikes, float[][][][] fpt) {
+    int ns = strikes.size();
+    int ms = maxConcurrentStrikes();
+    for (int is=0; is<ns; is+=ms) {
+      final int js = is;
+      int ks = min(ms,ns-is);
+      trace("FaultScanner3.scanStrikes: is/ns="+is+"/"+ns+" ks="+ks);
+      final float[][][][][] ftps = new float[ks][][][][];
+      loop(ks,new LoopInt() {
+      public void compute(int ls) {
+        Strike strike = strikes.get(js+ls);
+        ftps[ls] = (_snd!=null) ?
+          scanStrikeS(strike.phi,strike.st) :
+          scanStrikeF(strike.phi,strike.st);
+      }});
+      for (int ls=0; ls<ks; ++ls) {
+        update(strikes.get(js+ls).phi,ftps[ls],fpt);
+        ftps[ls] = null;
       }
     }
-    return new float[][][][]{f,p,t};
+  }
+
+  // Number of strikes that may be scanned concurrently.
+  private int maxConcurrentStrikes() {
+    long nbytes = _maxBytes;
+    if (nbytes<=0) {
+      Runtime rt = Runtime.getRuntime();
+      nbytes = (rt.maxMemory()-(rt.totalMemory()-rt.freeMemory()))/2;
+    }
+    long nvol = (_snd!=null)?6:7; // number of arrays for one strike
+    long nbytesPerStrike = 4L*_n1*_n2*_n3*nvol;
+    long ms = nbytes/nbytesPerStrike;
+    int nthread = Runtime.getRuntime().availableProcessors();
+    if (ms>nthread) ms = nthread;
+    if (ms<1) ms = 1;
+    return (int)ms;
+  }
+
+  // Updates likelihoods, strikes and dips in fpt with those in the 
+  // array {f,t} of likelihoods and dips computed for one strike phi.
+  private void update(
+    final float phi, float[][][][] ft, float[][][][] fpt) 
+  {
+    final int n1 = _n1, n2 = _n2, n3 = _n3;
+    final float[][][] fp = ft[0];
+    final float[][][] tp = ft[1];
+    final float[][][] f = fpt[0];
+    final float[][][] p = fpt[1];
+    final float[][][] t = fpt[2];
+    loop(n3,new LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        float[] f32 = f[i3][i2];
+        float[] p32 = p[i3][i2];
+        float[] t32 = t[i3][i2];
+        float[] fp32 = fp[i3][i2];
+        float[] tp32 = tp[i3][i2];
+        for (int i1=0; i1<n1; ++i1) {
+          float fpi = fp32[i1];
+          float tpi = tp32[i1];
+          if (fpi<0.0f) fpi = 0.0f;
+          if (fpi>1.0f) fpi = 1.0f;
+          if (fpi>f32[i1]) {
+            f32[i1] = fpi;
+            p32[i1] = phi;
+            t32[i1] = tpi;
+          }
+        }
+      }
+    }});
   }
 
   // This scan smooths semblance numerators and denominators along fault
-  // planes by first rotating and shearing those factors before applying
-  // fast recursive axis-aligned smoothing filters.
-  private float[][][][] scanS(Sampling phiSampling, Sampling thetaSampling) {
+  // planes using Gaussian filters implemented with FFTs. Returns an array
+  // {f,t} of likelihoods and dips for one strike phi.
+  private float[][][][] scanStrikeF(float phi, Sampling thetaSampling) {
     // Algorithm: given snum,sden (semblance numerators and denominators)
-    // initialize f,p,t (fault likelihood, phi, and theta)
-    // for all phi:
-    //   rotate snum,sden so that strike vector is aligned with axis 2
-    //   smooth snum,sden along fault strike
-    //   compute fphi,tphi (fault likelihood and theta, as for 2D faults)
-    //   unrotate fphi,tphi to original coordinates
-    //   update f,p,t for maximum likelihood
-    Sampling sp = phiSampling;
+    // construct fault plane smoother for snum,sden
+    // initialize f,t (fault likelihood and theta)
+    // for all theta:
+    //   use fault plane smoother to compute semblance
+    //   compute fault likelihood from semblance
+    //   update f,t for maximum likelihood
     Sampling st = thetaSampling;
-    final int n1 = _n1, n2 = _n2, n3 = _n3;
+    FaultSemblance fs = new FaultSemblance();
+    final int n1 = _n1;
+    final int n2 = _n2;
+    final int n3 = _n3;
     final float[][][] f = new float[n3][n2][n1];
-    final float[][][] p = new float[n3][n2][n1];
     final float[][][] t = new float[n3][n2][n1];
-    int np = sp.getCount();
-    for (int ip=0; ip<np; ++ip) {
-      trace("FaultScanner3.scanS: ip/np="+ip+"/"+np);
-      final float phi = (float)sp.getValue(ip);
-      Rotator r = new Rotator(phi,n1,n2,n3);
-      float[][][][] rsnd = r.rotate(_snd);
-      smooth2(rsnd);
-      float[][][][] rftp = scanTheta(st,rsnd); rsnd = null;
-      float[][][][] ftp = r.unrotate(rftp);
-      final float[][][] fp = ftp[0];
-      final float[][][] tp = ftp[1];
+    int nt = st.getCount();
+    for (int it=0; it<nt; ++it) {
+      final float theta = (float)st.getValue(it);
+      float[][][][] snd = _fps.apply(phi,theta);
+      final float[][][] s = fs.semblanceFromNumDen(snd);
       loop(n3,new LoopInt() {
       public void compute(int i3) {
         for (int i2=0; i2<n2; ++i2) {
+          float[] s32 = s[i3][i2];
           float[] f32 = f[i3][i2];
-          float[] p32 = p[i3][i2];
           float[] t32 = t[i3][i2];
-          float[] fp32 = fp[i3][i2];
-          float[] tp32 = tp[i3][i2];
           for (int i1=0; i1<n1; ++i1) {
-            float fpi = fp32[i1];
-            float tpi = tp32[i1];
-            if (fpi<0.0f) fpi = 0.0f;
-            if (fpi>1.0f) fpi = 1.0f;
-            if (fpi>f32[i1]) {
-              f32[i1] = fpi;
-              p32[i1] = phi;
-              t32[i1] = tpi;
+            float si = s32[i1]; // semblance
+            si = si*si; // semblance^2
+            si = si*si; // semblance^4
+            si = si*si; // semblance^8
+            float fi = 1.0f-si;
+            if (fi>f32[i1]) {
+              f32[i1] = fi;
+              t32[i1] = theta;
             }
           }
         }
       }});
     }
-    return new float[][][][]{f,p,t};
+    return new float[][][][]{f,t};
+  }
+
+  // This scan smooths semblance numerators and denominators along fault
+  // planes by first rotating and shearing those factors before applying
+  // fast recursive axis-aligned smoothing filters. Returns an array {f,t}
+  // of likelihoods and dips for one strike phi.
+  private float[][][][] scanStrikeS(float phi, Sampling thetaSampling) {
+    // Algorithm: given snum,sden (semblance numerators and denominators)
+    // rotate snum,sden so that strike vector is aligned with axis 2
+    // smooth snum,sden along fault strike
+    // compute fphi,tphi (fault likelihood and theta, as for 2D faults)
+    // unrotate fphi,tphi to original coordinates
+    Rotator r = new Rotator(phi,_n1,_n2,_n3,_x3c);
+    float[][][][] rsnd = r.rotate(_snd);
+    smooth2(rsnd);
+    float[][][][] rftp = scanTheta(thetaSampling,rsnd); rsnd = null;
+    return r.unrotate(rftp);
+  }
+
+  // Number of slices added on each side of slabs scanned out of core.
+  // Smoothing filters decay exponentially with distance relative to their
+  // half-widths; beyond SLAB_PAD_SIGMAS half-widths their responses are
+  // near float precision. The horizontal extent of smoothing along strike
+  // is its half-width; that for smoothing up-down dip is its half-width
+  // times the tangent of the dip. Sinc interpolation in each rotation,
+  // shear, unshear and unrotation extends HALF_LSINC more samples.
+  private static int slabPadding(
+    double sigmaPhi, double sigmaTheta, Sampling thetaSampling)
+  {
+    double tmax = max(abs(thetaSampling.getFirst()),
+                      abs(thetaSampling.getLast()));
+    double sigma = max(sigmaPhi,sigmaTheta*tan(toRadians(min(tmax,89.0))));
+    return (int)ceil(SLAB_PAD_SIGMAS*sigma)+4*Rotator.HALF_LSINC;
+  }
+  private static final double SLAB_PAD_SIGMAS = 12.0;
+
+  // Reads big-endian floats for slices i3 = j3, j3+1, ... of a 3D array.
+  private static void readSlab(FileChannel fc, int j3, float[][][] x)
+    throws IOException
+  {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    ByteBuffer bb = ByteBuffer.allocate(4*n1*n2);
+    FloatBuffer fb = bb.asFloatBuffer();
+    for (int i3=0; i3<n3; ++i3) {
+      bb.clear();
+      long offset = 4L*n1*n2*(j3+i3);
+      while (bb.hasRemaining()) {
+        int n = fc.read(bb,offset);
+        if (n<0)
+          throw new EOFException();
+        offset += n;
+      }
+      fb.clear();
+      for (int i2=0; i2<n2; ++i2)
+        fb.get(x[i3][i2]);
+    }
+  }
+
+  // Writes big-endian floats for slices i3 = j3, j3+1, ... of a 3D array.
+  private static void writeSlab(FileChannel fc, int j3, float[][][] x)
+    throws IOException
+  {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    ByteBuffer bb = ByteBuffer.allocate(4*n1*n2);
+    FloatBuffer fb = bb.asFloatBuffer();
+    for (int i3=0; i3<n3; ++i3) {
+      fb.clear();
+      for (int i2=0; i2<n2; ++i2)
+        fb.put(x[i3][i2]);
+      bb.clear();
+      long offset = 4L*n1*n2*(j3+i3);
+      while (bb.hasRemaining())
+        offset += fc.write(bb,offset);
+    }
   }
 
   // Sampling of angles depends on extent of smoothing.
@@ -615,6 +948,13 @@ public class FaultScanner3 {
   public static class Rotator {
 
     public Rotator(double phi, int n1, int n2, int n3) {
+      this(phi,n1,n2,n3,0.5*(n3-1.0));
+    }
+
+    // When scanning a slab of a larger image, the coordinate x3c of the
+    // center of rotation is the center of that image, so that rotated
+    // samples lie on the same grid for all slabs.
+    Rotator(double phi, int n1, int n2, int n3, double x3c) {
       _n1 = n1;
 
       // angle phi in radians, cosine and sine
@@ -624,7 +964,7 @@ public class FaultScanner3 {
 
       // center of rotation
       _x2c = 0.5*(n2-1.0);
-      _x3c = 0.5*(n3-1.0);
+      _x3c = x3c;
 
       // input sampling
       _s2p = new Sampling(n2,1.0,0.0);
@@ -1,5 +1,7 @@
 package fault;
 
+import edu.mines.jtk.util.Parallel;
+
 /** 
  * A k-d tree of samples in a k-dimensional space. Provides efficient 
  * searches for samples nearest to specified query points, and for
@@ -10,11 +12,20 @@ package fault;
  * n is the number of samples. After the tree has been constructed, 
  * the average computational complexity for each search is O(log(n)). 
  * <p>
- * Storage required is O(n), not counting the storage of the k*n 
- * floats required for the sample coordinates. Those coordinates 
- * are specified in an array x[k][n] that is referenced (not copied) 
- * in the k-d tree. Searches return indices of samples stored in this
- * referenced array.
+ * Sample coordinates are specified in an array x[k][n] that is 
+ * referenced (not copied) in the k-d tree. Searches return indices of 
+ * samples stored in this referenced array. However, to reduce cache 
+ * misses during searches, the tree also stores a copy of those k*n
+ * coordinates, ordered so that samples in each leaf node are contiguous.
+ * Nodes are likewise stored in arrays, not as linked objects. Storage 
+ * required is therefore O(k*n).
+ * <p>
+ * Searches for one query point may use a {@link KdTree.Search}, which
+ * holds all temporary storage required, so that repeated searches do 
+ * not allocate memory. A search cannot be shared by multiple threads,
+ * but a k-d tree may be accessed by multiple threads, each with its own 
+ * search. Methods for batches of query points perform searches in 
+ * parallel, and store results in arrays provided by the caller.
  * <p>
  * This implementation of the k-d tree is based on that described by 
  * Friedman, Bentley and Finkel (1977), An algorithm for finding best 
@@ -81,6 +92,110 @@ public class KdTree {
     }
   }
 
+
+  /**
+   * A search within a k-d tree. A search holds the most recent query 
+   * point and all temporary storage required for searches, so that it 
+   * may be reused for many searches without allocating memory. A search 
+   * cannot be shared by multiple threads. However, a k-d tree can be 
+   * accessed by multiple threads, each with its own search.
+   */
+  public static class Search {
+
+    /**
+     * Constructs a search. Storage for the search grows as necessary.
+     */
+    public Search() {
+    }
+
+    private float[] x = new float[0]; // coordinates of query point
+    private float[] xmin = new float[0]; // current lower bounds
+    private float[] xmax = new float[0]; // current upper bounds
+    private int m; // number of nearest samples sought
+    private int nh; // number of nearest samples found so far
+    private int[] ih = new int[1]; // heap of indices of nearest samples
+    private float[] dh = new float[1]; // heap of f1sums for those samples
+    private float ds; // f1sum for m'th nearest sample, if any found
+
+    // Prepares for a search for the m samples nearest to the point x.
+    private void begin(int k, float[] xq, int m) {
+      if (x.length!=k) {
+        x = new float[k];
+        xmin = new float[k];
+        xmax = new float[k];
+      }
+      if (ih.length<m) {
+        ih = new int[m];
+        dh = new float[m];
+      }
+      for (int j=0; j<k; ++j) {
+        x[j] = xq[j];
+        xmin[j] = -Float.MAX_VALUE;
+        xmax[j] =  Float.MAX_VALUE;
+      }
+      this.m = m;
+      nh = 0;
+      ds = Float.MAX_VALUE;
+    }
+
+    // Offers a sample with index i and f1sum di to the max-heap of the
+    // m nearest samples found so far. Assumes di<ds.
+    private void offer(int i, float di) {
+      int c;
+      if (nh<m) { // if heap not yet full, sift up from new leaf
+        for (c=nh++; c>0;) {
+          int p = (c-1)/2;
+          if (dh[p]>=di) break;
+          ih[c] = ih[p];
+          dh[c] = dh[p];
+          c = p;
+        }
+      } else { // else, replace the root and sift down
+        for (c=0;;) {
+          int l = 2*c+1;
+          if (l>=nh) break;
+          int r = l+1;
+          int g = (r<nh && dh[r]>dh[l])?r:l;
+          if (dh[g]<=di) break;
+          ih[c] = ih[g];
+          dh[c] = dh[g];
+          c = g;
+        }
+      }
+      ih[c] = i;
+      dh[c] = di;
+      if (nh==m)
+        ds = dh[0];
+    }
+
+    // Removes samples from the heap, storing indices and f1sums in
+    // order of increasing distance. Returns the number of samples.
+    private int finish(int[] i, float[] d) {
+      int n = nh;
+      for (int l=n-1; l>=0; --l) {
+        i[l] = ih[0];
+        if (d!=null) 
+          d[l] = dh[0];
+        int is = ih[--nh];
+        float ds = dh[nh];
+        int c = 0;
+        for (;;) {
+          int a = 2*c+1;
+          if (a>=nh) break;
+          int b = a+1;
+          int g = (b<nh && dh[b]>dh[a])?b:a;
+          if (dh[g]<=ds) break;
+          ih[c] = ih[g];
+          dh[c] = dh[g];
+          c = g;
+        }
+        ih[c] = is;
+        dh[c] = ds;
+      }
+      return n;
+    }
+  }
+
   /**
    * Constructs a k-d tree for specified sample coordinates.
    * Uses simple Euclidean distance.
@@ -103,7 +218,17 @@ public class KdTree {
     _i = new int[_n];
     for (int i=0; i<_n; ++i)
       _i[i] = i;
-    _root = new Node(_d,_x,0,_n-1,_i);
+    int nnode = countNodes(0,_n-1);
+    _nj = new int[nnode];
+    _nx = new float[nnode];
+    _np = new int[nnode];
+    _nq = new int[nnode];
+    _nr = new int[nnode];
+    makeNode(0,0,_n-1);
+    _xt = new float[_k*_n];
+    for (int i=0,l=0; i<_n; ++i)
+      for (int j=0; j<_k; ++j,++l)
+        _xt[l] = x[j][_i[i]];
   }
 
   /**
@@ -112,9 +237,118 @@ public class KdTree {
    * @return the index of the nearest sample.
    */
   public int findNearest(float[] x) {
-    Search search = new Search(x);
-    findNearest(_root,search);
-    return search.i;
+    return findNearest(new Search(),x);
+  }
+
+  /**
+   * Returns the index of the sample nearest to the specified point.
+   * @param search the search, which holds temporary storage.
+   * @param x array {x1,x2,...,xk} of point coordinates.
+   * @return the index of the nearest sample.
+   */
+  public int findNearest(Search search, float[] x) {
+    search.begin(_k,x,1);
+    findNearest(0,search);
+    return search.ih[0];
+  }
+
+  /**
+   * Finds the m samples nearest to the specified point. Indices and 
+   * distances of samples found are stored in order of increasing 
+   * distance. Fewer than m samples are found only if this tree has 
+   * fewer than m samples.
+   * @param search the search, which holds temporary storage.
+   * @param x array {x1,x2,...,xk} of point coordinates.
+   * @param m the number of nearest samples to find.
+   * @param i array of length at least m for the sample indices.
+   * @param d array of length at least m for the distances; if null, 
+   *  distances are not stored.
+   * @return the number of samples found.
+   */
+  public int findNearest(Search search, float[] x, int m, int[] i, float[] d) {
+    search.begin(_k,x,m);
+    findNearest(0,search);
+    int nf = search.finish(i,d);
+    if (d!=null) {
+      for (int l=0; l<nf; ++l)
+        d[l] = _d.f2(d[l]);
+    }
+    return nf;
+  }
+
+  /**
+   * Finds in parallel the samples nearest to specified points.
+   * @param x array[k][m] of m points, each with k coordinates.
+   * @param i array[m] of indices of nearest samples.
+   */
+  public void findNearest(final float[][] x, final int[] i) {
+    final int m = x[0].length;
+    final int nb = 1+(m-1)/NBATCH;
+    Parallel.loop(nb,new Parallel.LoopInt() {
+      public void compute(int ib) {
+        Search search = new Search();
+        float[] xq = new float[_k];
+        int lmin = ib*NBATCH;
+        int lmax = Math.min(lmin+NBATCH,m);
+        for (int l=lmin; l<lmax; ++l) {
+          for (int j=0; j<_k; ++j)
+            xq[j] = x[j][l];
+          i[l] = findNearest(search,xq);
+        }
+      }
+    });
+  }
+
+  /**
+   * Finds in parallel the mn samples nearest to specified points. 
+   * Indices and distances of samples found for each point are stored in 
+   * order of increasing distance. If this tree has fewer than mn samples,
+   * then unused indices are -1 and unused distances are infinite.
+   * @param x array[k][m] of m points, each with k coordinates.
+   * @param mn the number of nearest samples to find for each point.
+   * @param i array[m][mn] of indices of nearest samples.
+   * @param d array[m][mn] of distances to nearest samples; if null,
+   *  distances are not stored.
+   */
+  public void findNearest(
+    final float[][] x, final int mn, final int[][] i, final float[][] d)
+  {
+    final int m = x[0].length;
+    final int nb = 1+(m-1)/NBATCH;
+    Parallel.loop(nb,new Parallel.LoopInt() {
+      public void compute(int ib) {
+        Search search = new Search();
+        float[] xq = new float[_k];
+        int lmin = ib*NBATCH;
+        int lmax = Math.min(lmin+NBATCH,m);
+        for (int l=lmin; l<lmax; ++l) {
+          for (int j=0; j<_k; ++j)
+            xq[j] = x[j][l];
+          float[] dl = (d!=null)?d[l]:null;
+          int nf = findNearest(search,xq,mn,i[l],dl);
+          for (int jn=nf; jn<mn; ++jn) {
+            i[l][jn] = -1;
+            if (dl!=null) 
+              dl[jn] = Float.MAX_VALUE;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Finds samples within a specified distance of the specified point.
+   * Stores indices of samples found, in no particular order. If the 
+   * number of samples found exceeds the length of the array of indices, 
+   * then only that many indices are stored, and the caller may search
+   * again with a larger array. 
+   * @param x array {x1,x2,...,xk} of point coordinates.
+   * @param r the distance, the radius of the search ball.
+   * @param i array of sample indices.
+   * @return the number of samples found.
+   */
+  public int findInRadius(float[] x, float r, int[] i) {
+    return findInRadius(0,x,r,i,0);
   }
 
   /**
@@ -124,9 +358,29 @@ public class KdTree {
    * @return array of sample indices.
    */
   public int[] findInRange(float[] xmin, float[] xmax) {
-    BoxSearch search = new BoxSearch(xmin,xmax);
-    findInRange(_root,search);
-    return search.ilist.trim();
+    int[] i = new int[64];
+    int n = findInRange(xmin,xmax,i);
+    if (n>i.length) {
+      i = new int[n];
+      findInRange(xmin,xmax,i);
+    }
+    int[] t = new int[n];
+    System.arraycopy(i,0,t,0,n);
+    return t;
+  }
+
+  /**
+   * Finds samples in the specified range. Stores indices of samples 
+   * found, in no particular order. If the number of samples found exceeds
+   * the length of the array of indices, then only that many indices are 
+   * stored, and the caller may search again with a larger array. 
+   * @param xmin array of lower bounds of point coordinates.
+   * @param xmax array of upper bounds of point coordinates.
+   * @param i array of sample indices.
+   * @return the number of samples found.
+   */
+  public int findInRange(float[] xmin, float[] xmax, int[] i) {
+    return findInRange(0,xmin,xmax,i,0);
   }
 
   /**
@@ -136,7 +390,10 @@ public class KdTree {
    * @return the distance.
    */
   public float distance(int i, float[] x) {
-    return _d.f2(f1sum(i,x));
+    float ds = 0.0f;
+    for (int j=0; j<_k; ++j)
+      ds += _d.f1(j,_x[j][i],x[j]);
+    return _d.f2(ds);
   }
 
   /**
@@ -159,7 +416,8 @@ public class KdTree {
    * FOR TESTING ONLY.
    */
   private int[] findInRangeSlow(float[] xmin, float[] xmax) {
-    IntList ilist = new IntList();
+    int[] ilist = new int[_n];
+    int n = 0;
     for (int i=0; i<_n; ++i) {
       boolean outside = false;
       for (int j=0; j<_k && !outside; ++j) {
@@ -167,9 +425,11 @@ public class KdTree {
         outside = xji<xmin[j] || xji>xmax[j];
       }
       if (!outside)
-        ilist.add(i);
+        ilist[n++] = i;
     }
-    return ilist.trim();
+    int[] t = new int[n];
+    System.arraycopy(ilist,0,t,0,n);
+    return t;
   }
 
   ///////////////////////////////////////////////////////////////////////////
@@ -180,17 +440,82 @@ public class KdTree {
   private float[][] _x; // array[k][n] of sample values
   private Distance _d; // measure of distance
   private int[] _i; // array of sample indices
-  private Node _root; // root node in tree
+  private float[] _xt; // array[n*k] of sample values, in tree order
+
+  // Nodes are stored in arrays in depth-first order, so that the left 
+  // child of node l (if not a leaf) is node l+1. The root node is 0.
+  private int[] _nj; // dimension split by node; -1, if leaf
+  private float[] _nx; // the split value, if not a leaf node
+  private int[] _np,_nq; // range [p:q] of indices spanned by node
+  private int[] _nr; // index of right child, if not a leaf node
 
   private static final int NLEAF = 12; // min # of samples in leaf nodes
+  private static final int NBATCH = 256; // # of query points per task
 
-  private float f1sum(int i, float[] x) {
+  private float f1sumAt(int it, float[] x) {
     float ds = 0.0f;
-    for (int j=0; j<_k; ++j)
-      ds += _d.f1(j,_x[j][i],x[j]);
+    for (int j=0,l=it*_k; j<_k; ++j,++l)
+      ds += _d.f1(j,_xt[l],x[j]);
     return ds;
   }
 
+  /**
+   * Returns the number of nodes required for samples in [p:q].
+   */
+  private static int countNodes(int p, int q) {
+    if (q-p<NLEAF)
+      return 1;
+    int m = (p+q)/2;
+    return 1+countNodes(p,m)+countNodes(m+1,q);
+  }
+
+  /**
+   * Makes node l for samples in [p:q], and recursively its children.
+   * Returns the index of the next node, after all descendants of node l.
+   */
+  private int makeNode(int l, int p, int q) {
+    _np[l] = p;
+    _nq[l] = q;
+
+    // If number of samples in [p:q] is small, this is a leaf node.
+    if (q-p<NLEAF) {
+      _nj[l] = -1;
+      return l+1;
+    }
+
+    // Determine the dimension j with maximum spread for samples in [p:q].
+    // Here, spread is simply the coordinate distance f1 between the
+    // minimum and maximum values for each of the k coordinates.
+    int[] i = _i;
+    int jsmax = 0;
+    float xsmax = 0.0f;
+    for (int j=0; j<_k; ++j) {
+      float[] xj = _x[j];
+      float xmin = xj[i[p]];
+      float xmax = xmin;
+      for (int m=p+1; m<=q; ++m) {
+        float xm = xj[i[m]];
+        if (xm<xmin) xmin = xm;
+        if (xm>xmax) xmax = xm;
+      }
+      float xs = _d.f1(j,xmin,xmax);
+      if (xs>xsmax) {
+        xsmax = xs;
+        jsmax = j;
+      }
+    }
+    _nj[l] = jsmax;
+
+    // Split samples in [p:q] by median value in j'th dimension.
+    int m = medianSplit(p,q,_x[jsmax],i);
+    _nx[l] = _x[jsmax][i[m]];
+
+    // Recursively make left and right children.
+    int r = makeNode(l+1,p,m);
+    _nr[l] = r;
+    return makeNode(r,m+1,q);
+  }
+
   /**
    * Returns true iff the search ball lies within the bounds box.
    * The bounds must contain the query point.
@@ -242,74 +567,104 @@ public class KdTree {
   }
 
   /**
-   * Returns the index of the sample nearest to a query point in a search.
-   * After searching, the index in the search equals that returned by this
-   * method.
+   * Searches recursively node l for samples in the specified range.
+   * Returns the number of samples found, including n found previously.
    */
-  private int findNearest(Search search) {
-    findNearest(_root,search);
-    return search.i;
-  }
-
-  private void findInRange(Node node, BoxSearch search) {
-    float[] xmin = search.xmin;
-    float[] xmax = search.xmax;
+  private int findInRange(
+    int l, float[] xmin, float[] xmax, int[] ilist, int n)
+  {
 
     // If leaf node, append any samples in bounds box to search result.
-    if (node.isLeaf()) {
-      int p = node._p;
-      int q = node._q;
-      for (int i=p; i<=q; ++i) {
+    int jv = _nj[l];
+    if (jv<0) {
+      int p = _np[l];
+      int q = _nq[l];
+      int ni = ilist.length;
+      for (int i=p,it=p*_k; i<=q; ++i,it+=_k) {
         boolean outside = false;
         for (int j=0; j<_k && !outside; ++j) {
-          float xji = _x[j][_i[i]];
+          float xji = _xt[it+j];
           outside = xji<xmin[j] || xji>xmax[j];
         }
-        if (!outside)
-          search.ilist.add(_i[i]);
+        if (!outside) {
+          if (n<ni)
+            ilist[n] = _i[i];
+          ++n;
+        }
       }
     }
     
     // Else if non-leaf node, search left and/or right children.
     else {
-      int jv = node._j;
-      float xv = node._x;
+      float xv = _nx[l];
       if (xmin[jv]<=xv) 
-        findInRange(node._left,search);
+        n = findInRange(l+1,xmin,xmax,ilist,n);
       if (xmax[jv]>=xv) 
-        findInRange(node._right,search);
+        n = findInRange(_nr[l],xmin,xmax,ilist,n);
+    }
+    return n;
+  }
+
+  /**
+   * Searches recursively node l for samples within distance r of x.
+   * Returns the number of samples found, including n found previously.
+   * Because distance f2 increases monotonically with its argument, and 
+   * coordinate distances f1 are non-negative, a child node need not be
+   * searched if the coordinate distance from x to its partition alone 
+   * implies a distance greater than r.
+   */
+  private int findInRadius(int l, float[] x, float r, int[] ilist, int n) {
+    int jv = _nj[l];
+    if (jv<0) {
+      int p = _np[l];
+      int q = _nq[l];
+      int ni = ilist.length;
+      for (int i=p; i<=q; ++i) {
+        if (_d.f2(f1sumAt(i,x))<=r) {
+          if (n<ni)
+            ilist[n] = _i[i];
+          ++n;
+        }
+      }
+    } else {
+      float xv = _nx[l];
+      boolean reach = _d.f2(_d.f1(jv,x[jv],xv))<=r;
+      if (x[jv]<=xv || reach) 
+        n = findInRadius(l+1,x,r,ilist,n);
+      if (x[jv]>=xv || reach) 
+        n = findInRadius(_nr[l],x,r,ilist,n);
     }
+    return n;
   }
 
   /**
    * Searches recursively the specified node.
    * Returns true if the search is complete; false, otherwise.
    */
-  private boolean findNearest(Node node, Search search) {
+  private boolean findNearest(int l, Search search) {
+    float[] x = search.x;
 
     // If leaf node, ...
-    if (node.isLeaf()) {
-      int p = node._p;
-      int q = node._q;
-      float[] x = search.x;
+    int jv = _nj[l];
+    if (jv<0) {
+      int p = _np[l];
+      int q = _nq[l];
 
-      // Examine its samples, updating nearest sample found.
+      // Examine its samples, updating nearest samples found.
       for (int i=p; i<=q; ++i) {
-        float ds = f1sum(_i[i],x);
-        if (ds<search.ds) {
-          search.ds = ds;
-          search.i = _i[i];
-        }
+        float ds = f1sumAt(i,x);
+        if (ds<search.ds) 
+          search.offer(_i[i],ds);
       }
 
       // If ball is within bounds, then done.
       return ballWithinBounds(search);
     }
 
-    // Dimension partitioned and value of non-leaf node.
-    int jv = node._j;
-    float xv = node._x;
-    float[] x = search.x;
+    // Value of non-leaf node and indices of its children.
+    float xv = _nx[l];
+    int left = l+1;
+    int right = _nr[l];
     float[] xmin = search.xmin;
     float[] xmax = search.xmax;
 
@@ -317,13 +672,13 @@ public class KdTree {
     if (x[jv]<=xv) {
       float xmaxjv = xmax[jv]; 
       xmax[jv] = xv;
-      if (findNearest(node._left,search))
+      if (findNearest(left,search))
         return true;
       xmax[jv] = xmaxjv;
     } else {
       float xminjv = xmin[jv]; 
       xmin[jv] = xv;
-      if (findNearest(node._right,search))
+      if (findNearest(right,search))
         return true;
       xmin[jv] = xminjv;
     }
@@ -332,202 +687,78 @@ public class KdTree {
     if (x[jv]<=xv) {
       float xminjv = xmin[jv];
       xmin[jv] = xv;
-      if (boundsOverlapBall(search) && findNearest(node._right,search))
+      if (boundsOverlapBall(search) && findNearest(right,search))
         return true;
       xmin[jv] = xminjv;
     } else {
       float xmaxjv = xmax[jv];
       xmax[jv] = xv;
-      if (boundsOverlapBall(search) && findNearest(node._left,search))
+      if (boundsOverlapBall(search) && findNearest(left,search))
         return true;
       xmax[jv] = xmaxjv;
     }
     return ballWithinBounds(search);
   }
 
-  /**
-   * A node in the tree.
+/**
+   * Partially sorts indices i[p:q] so that the median value in x[p:q] 
+   * is x[i[m]], where the index m of the median is = (p+q)/2.
    */
-  private static class Node {
-
-    Node(Distance d, float[][] x, int p, int q, int[] i) {
-
-      // If number of samples in [p:q] is small, ...
-      if (q-p<NLEAF) {
-
-        // This is a leaf node with no children.
-        _p = p;
-        _q = q;
-        _left = null;
-        _right = null;
-      }
-
-      // Otherwise, if the number of samples in [p:q] is not small, ...
-      else {
-
-        // Determine the dimension j with maximum spread for samples in [p:q].
-        // Here, spread is simply the coordinate distance f1 between the
-        // minimum and maximum values for each of the k coordinates.
-        int k = x.length;
-        int n = x[0].length;
-        int jsmax = 0;
-        float xsmax = 0.0f;
-        for (int j=0; j<k; ++j) {
-          float xmin = x[j][i[p]];
-          float xmax = xmin;
-          for (int m=p+1; m<=q; ++m) {
-            float xm = x[j][i[m]];
-            if (xm<xmin) xmin = xm;
-            if (xm>xmax) xmax = xm;
-          }
-          float xs = d.f1(j,xmin,xmax);
-          if (xs>xsmax) {
-            xsmax = xs;
-            jsmax = j;
-          }
-        }
-        _j = jsmax;
-
-        // Split samples in [p:q] by median value in j'th dimension.
-        int m = medianSplit(p,q,x[_j],i);
-        _x = x[_j][i[m]];
-
-        // Recursively make left and right children.
-        _left = new Node(d,x,p,m,i);
-        _right = new Node(d,x,m+1,q,i);
-      }
-    }
-
-    boolean isLeaf() {
-      return _left==null;
-    }
-
-    int _j; // dimension split by this node, if not a leaf node
-    float _x; // the split value, if not a leaf node
-    int _p,_q; // range [p:q] of indices spanned by this node
-    Node _left,_right; // left and right children; null, if leaf
-
-    /**
-     * Partially sorts indices i[p:q] so that the median value in x[p:q] 
-     * is x[i[m]], where the index m of the median is = (p+q)/2.
-     */
-    int medianSplit(int p, int q, float[] x, int[] i) {
-
-      // Index of median is halfway between p and q.
-      int m = (p+q)/2;
-
-      // Partially sort the sample indices i such that
-      // x[i[l]] <= x[i[m]], for p <= l <= m
-      // x[i[l]] >= x[i[m]], for m <= l <= q
-      while (p<q) {
-
-        // Choose a pivot element between p and q.
-        int pivot = (p+q)/2;
-        float xpivot = x[i[pivot]];
-
-        // Partition indices in the subarray i[p:q] so that there
-        // exist integers r and s with the following properties:
-        // p <= r < s <= q
-        // x[i[l]] <= xpivot, for p <= l <= r
-        // x[i[l]] == xpivot, for r <  l <  s
-        // x[i[l]] >= xpivot, for s <= l <= q
-        int s = p;
-        int r = q;
-        for (;;) {
-          while (x[i[s]]<=xpivot && s<q) ++s;
-          while (x[i[r]]>=xpivot && r>p) --r;
-          if (s<r) {
-            int is = i[s];
-            i[s++] = i[r];
-            i[r--] = is;
-          } else {
-            break;
-          }
-        }
-        if (s<pivot) {
+  private static int medianSplit(int p, int q, float[] x, int[] i) {
+
+    // Index of median is halfway between p and q.
+    int m = (p+q)/2;
+
+    // Partially sort the sample indices i such that
+    // x[i[l]] <= x[i[m]], for p <= l <= m
+    // x[i[l]] >= x[i[m]], for m <= l <= q
+    while (p<q) {
+
+      // Choose a pivot element between p and q.
+      int pivot = (p+q)/2;
+      float xpivot = x[i[pivot]];
+
+      // Partition indices in the subarray i[p:q] so that there
+      // exist integers r and s with the following properties:
+      // p <= r < s <= q
+      // x[i[l]] <= xpivot, for p <= l <= r
+      // x[i[l]] == xpivot, for r <  l <  s
+      // x[i[l]] >= xpivot, for s <= l <= q
+      int s = p;
+      int r = q;
+      for (;;) {
+        while (x[i[s]]<=xpivot && s<q) ++s;
+        while (x[i[r]]>=xpivot && r>p) --r;
+        if (s<r) {
           int is = i[s];
-          i[s++] = i[pivot];
-          i[pivot] = is;
-        } else if (pivot<r) {
-          int ir = i[r];
-          i[r--] = i[pivot];
-          i[pivot] = ir;
-        }
-
-        // If median is in lower/upper subarray, partition that
-        // subarray again; else x[i[m]] is the median value.
-        if (m<=r) {
-          q = r;
-        } else if (m>=s) {
-          p = s;
+          i[s++] = i[r];
+          i[r--] = is;
         } else {
           break;
         }
       }
-
-      // Return index of median value.
-      return m;
-    }
-  }
-
-  ///////////////////////////////////////////////////////////////////////////
-  // May someday want to make this inner class public, to enable searches for 
-  // m>1 nearest samples and/or incremental searching. For now we hide it.
-  ///////////////////////////////////////////////////////////////////////////
-  /**
-   * A search within this tree. A search consists of the coordinates of
-   * the most recent query point and search results.
-   * <p> 
-   * This class facilitates parallel (multithreaded) search within a k-d 
-   * tree. A search cannot be shared by multiple threads. However, a k-d 
-   * tree can be accessed by multiple threads, each with its own search.
-   */
-  private class Search {
-    private float[] x = null; // coordinates of query point
-    private int i = -1; // index of nearest point
-    private float ds = Float.MAX_VALUE; // f1sum for nearest point
-    private float[] xmin; // current lower bounds on coordinates
-    private float[] xmax; // current upper bounds on coordinates
-    private Search(float[] x) {
-      this.x = x;
-      this.i = -1;
-      ds = Float.MAX_VALUE;
-      if (xmin==null) {
-        xmin = new float[x.length];
-        xmax = new float[x.length];
+      if (s<pivot) {
+        int is = i[s];
+        i[s++] = i[pivot];
+        i[pivot] = is;
+      } else if (pivot<r) {
+        int ir = i[r];
+        i[r--] = i[pivot];
+        i[pivot] = ir;
       }
-      for (int j=0; j<x.length; ++j) {
-        xmin[j] = -Float.MAX_VALUE;
-        xmax[j] =  Float.MAX_VALUE;
-      }
-    }
-  }
 
-  private class BoxSearch {
-    private float[] xmin; // current lower bounds on coordinates
-    private float[] xmax; // current upper bounds on coordinates
-    private IntList ilist; // list of sample indices
-    private BoxSearch(float[] xmin, float[] xmax) {
-      this.xmin = xmin;
-      this.xmax = xmax;
-      this.ilist = new IntList();
-    }
-  }
-  private static class IntList {
-    public int n;
-    public int[] a = new int[16];
-    public void add(int i) {
-      if (n==a.length) {
-        int[] t = new int[2*n];
-        System.arraycopy(a,0,t,0,n);
-        a = t;
+      // If median is in lower/upper subarray, partition that
+      // subarray again; else x[i[m]] is the median value.
+      if (m<=r) {
+        q = r;
+      } else if (m>=s) {
+        p = s;
+      } else {
+        break;
       }
-      a[n++] = i;
-    }
-    public int[] trim() {
-      int[] t = new int[n];
-      System.arraycopy(a,0,t,0,n);
-      return t;
     }
+
+    // Return index of median value.
+    return m;
   }
 }
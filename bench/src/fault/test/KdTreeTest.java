@@ -0,0 +1,161 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fault.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import fault.KdTree;
+
+/**
+ * Tests {@link fault.KdTree}. Results of searches are compared with those
+ * of exhaustive searches over all samples.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class KdTreeTest extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(KdTreeTest.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testNearest() {
+    KdTree kt = new KdTree(_x);
+    int[] i = new int[M];
+    kt.findNearest(_y,i);
+    KdTree.Search search = new KdTree.Search();
+    float[] xq = new float[K];
+    for (int l=0; l<M; ++l) {
+      query(l,xq);
+      int is = findNearestSlow(kt,xq);
+      assertEquals(kt.distance(is,xq),kt.distance(i[l],xq));
+      assertEquals(i[l],kt.findNearest(search,xq));
+    }
+  }
+
+  public void testNearestK() {
+    KdTree kt = new KdTree(_x);
+    int[][] in = new int[M][MN];
+    float[][] dn = new float[M][MN];
+    kt.findNearest(_y,MN,in,dn);
+    float[] xq = new float[K];
+    float[] ds = new float[N];
+    for (int l=0; l<M; ++l) {
+      query(l,xq);
+      for (int i=0; i<N; ++i)
+        ds[i] = kt.distance(i,xq);
+      Arrays.sort(ds);
+      for (int jn=0; jn<MN; ++jn) {
+        assertEquals(ds[jn],dn[l][jn]);
+        assertEquals(dn[l][jn],kt.distance(in[l][jn],xq));
+      }
+    }
+  }
+
+  public void testNearestKWithFewSamples() {
+    float[][] x = {{0.0f,1.0f,2.0f}};
+    KdTree kt = new KdTree(x);
+    int[][] in = new int[1][5];
+    float[][] dn = new float[1][5];
+    kt.findNearest(new float[][]{{0.9f}},5,in,dn);
+    assertEquals(1,in[0][0]);
+    assertEquals(0,in[0][1]);
+    assertEquals(2,in[0][2]);
+    assertEquals(-1,in[0][3]);
+    assertEquals(-1,in[0][4]);
+    assertEquals(Float.MAX_VALUE,dn[0][4]);
+  }
+
+  public void testRadius() {
+    KdTree kt = new KdTree(_x);
+    float[] xq = new float[K];
+    int[] ir = new int[N];
+    for (int l=0; l<M; ++l) {
+      query(l,xq);
+      float r = 0.05f;
+      int nr = 0;
+      for (int i=0; i<N; ++i)
+        if (kt.distance(i,xq)<=r) ++nr;
+      int nf = kt.findInRadius(xq,r,ir);
+      assertEquals(nr,nf);
+      for (int jr=0; jr<nf; ++jr)
+        assertTrue(kt.distance(ir[jr],xq)<=r);
+    }
+  }
+
+  public void testRange() {
+    KdTree kt = new KdTree(_x);
+    float[] xq = new float[K];
+    float[] xmin = new float[K];
+    float[] xmax = new float[K];
+    for (int l=0; l<M; ++l) {
+      query(l,xq);
+      for (int j=0; j<K; ++j) {
+        xmin[j] = xq[j]-0.05f;
+        xmax[j] = xq[j]+0.05f;
+      }
+      int[] ia = kt.findInRange(xmin,xmax);
+      int[] ib = findInRangeSlow(xmin,xmax);
+      Arrays.sort(ia);
+      assertTrue(Arrays.equals(ib,ia));
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int K = 3; // number of coordinates
+  private static final int N = 20000; // number of samples
+  private static final int M = 200; // number of query points
+  private static final int MN = 8; // number of nearest samples
+
+  private float[][] _x = new float[K][N];
+  private float[][] _y = new float[K][M];
+
+  protected void setUp() {
+    Random r = new Random(314159);
+    for (int j=0; j<K; ++j) {
+      for (int i=0; i<N; ++i)
+        _x[j][i] = r.nextFloat();
+      for (int i=0; i<M; ++i)
+        _y[j][i] = r.nextFloat();
+    }
+  }
+
+  private void query(int l, float[] xq) {
+    for (int j=0; j<K; ++j)
+      xq[j] = _y[j][l];
+  }
+
+  private static int findNearestSlow(KdTree kt, float[] xq) {
+    int imin = 0;
+    float dmin = kt.distance(0,xq);
+    for (int i=1; i<N; ++i) {
+      float di = kt.distance(i,xq);
+      if (di<dmin) {
+        dmin = di;
+        imin = i;
+      }
+    }
+    return imin;
+  }
+
+  private int[] findInRangeSlow(float[] xmin, float[] xmax) {
+    int[] ia = new int[N];
+    int na = 0;
+    for (int i=0; i<N; ++i) {
+      boolean in = true;
+      for (int j=0; j<K && in; ++j)
+        in = xmin[j]<=_x[j][i] && _x[j][i]<=xmax[j];
+      if (in) ia[na++] = i;
+    }
+    return Arrays.copyOf(ia,na);
+  }
+}
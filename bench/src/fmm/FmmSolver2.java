@@ -75,6 +75,22 @@ public class FmmSolver2 {
     return _t;
   }
 
+  /**
+   * Sets the width of buckets in the queue of trial times.
+   * If positive, this solver uses a bucket queue, which may process
+   * samples out of order by at most this width, but for which all
+   * operations have constant (amortized) cost. If zero, the default,
+   * this solver uses a min-heap, with exact order but logarithmic cost.
+   * @param dt the bucket width; zero, for a min-heap.
+   */
+  public void setBucketWidth(float dt) {
+    if (dt>0.0f) {
+      _heap = new TimeBucket2(_n1,_n2,dt);
+    } else {
+      _heap = new TimeHeap2(TimeHeap2.Type.MIN,_n1,_n2);
+    }
+  }
+
   /**
    * Gets the array of times computed by this solver.
    * @return array of times; by reference, not by copy.
@@ -141,7 +157,7 @@ public class FmmSolver2 {
   private float[][] _t; // array of times computed by this solver
   private Tensors2 _tensors; // structure tensors
   private int[][] _mark; // samples are marked far, trial, or known
-  private TimeHeap2 _heap; // min-heap of sample indices and times 
+  private TimeQueue2 _heap; // queue of sample indices and times
   private int[] _k1,_k2,_k11,_k12,_k21,_k22; // indices of neighbor samples
   private int[][] _kt; // indices of neighbor tris
   private int _nk; // number of sample neighbors, either 4 or 8
@@ -0,0 +1,249 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fmm;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+import edu.mines.jtk.util.Check;
+
+/**
+ * An untidy min-queue of times sampled in a 2D array.
+ * This bucket (or calendar) queue is an alternative to the min-heap
+ * {@link TimeHeap2} for fast marching methods. Times are quantized into
+ * buckets of a specified width dt, and entries are removed in order of
+ * increasing bucket; within one bucket, entries are removed in no
+ * particular order. Therefore, each entry removed has a time that is
+ * at most dt larger than the smallest time in the queue.
+ * <p>
+ * Complexity for inserting new entries, for reducing the times of
+ * existing entries, and (amortized) for removing entries is O(1).
+ * Buckets are stored in a circular array that grows as required to
+ * span the range of times in the queue. This range is bounded in fast
+ * marching methods, because times in the queue never exceed the last
+ * time removed by more than the largest time between adjacent samples.
+ *
+ * @author agent
+ * @version 2026.10.17
+ */
+public class TimeBucket2 implements TimeQueue2 {
+
+  /**
+   * Constructs a queue with specified array dimensions and bucket width.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param dt width of buckets, the maximum error in order of removal.
+   */
+  public TimeBucket2(int n1, int n2, float dt) {
+    Check.argument(dt>0.0f,"dt>0");
+    _n1 = n1;
+    _n2 = n2;
+    _odt = 1.0/dt;
+    _node = fillint(-1,n1,n2);
+  }
+
+  /**
+   * Gets the number of samples in the 1st dimension.
+   * @return the number of samples.
+   */
+  public int getN1() {
+    return _n1;
+  }
+
+  /**
+   * Gets the number of samples in the 2nd dimension.
+   * @return the number of samples.
+   */
+  public int getN2() {
+    return _n2;
+  }
+
+  public void insert(int i1, int i2, float t) {
+    Check.argument(_node[i2][i1]<0,
+      "entry with indices (i1,i2) is not in the queue");
+    if (_n==0) // if queue is empty, ...
+      _bmin = _bmax = bucket(t); // begin at the bucket for this time
+    _node[i2][i1] = add(i1,i2,t);
+    ++_n;
+  }
+
+  public void reduce(int i1, int i2, float t) {
+    int k = _node[i2][i1];
+    Check.argument(k>=0,"entry with indices (i1,i2) is in the queue");
+    Check.argument(t<_kt[k],"specified time less than time in queue");
+    if (bucket(t)==_kb[k]) { // if time remains in the same bucket, ...
+      _kt[k] = t; // simply reduce the time
+    } else { // else, add a new node; the old node becomes stale
+      _node[i2][i1] = add(i1,i2,t);
+    }
+  }
+
+  /**
+   * Removes and returns an entry with time in the smallest bucket.
+   * The queue must not be empty. The entry returned is valid only
+   * until the next call to this method.
+   */
+  public TimeHeap2.Entry remove() {
+    Check.state(_n>0,"queue is not empty");
+    for (;;) {
+      int s = slot(_bmin);
+      int k = _head[s];
+      if (k<0) { // if bucket is empty, go to the next bucket
+        ++_bmin;
+        continue;
+      }
+      _head[s] = _kn[k];
+      int i1 = _k1[k];
+      int i2 = _k2[k];
+      boolean stale = _node[i2][i1]!=k;
+      free(k);
+      if (!stale) {
+        _node[i2][i1] = -1;
+        --_n;
+        _e.i1 = i1;
+        _e.i2 = i2;
+        _e.t = _kt[k];
+        return _e;
+      }
+    }
+  }
+
+  /**
+   * Determines whether this queue contains an entry with specified indices.
+   * @param i1 the sample index in 1st dimension.
+   * @param i2 the sample index in 2nd dimension.
+   * @return true, if in the queue; false, otherwise.
+   */
+  public boolean contains(int i1, int i2) {
+    return _node[i2][i1]>=0;
+  }
+
+  public void clear() {
+    int nb = _head.length;
+    for (int s=0; s<nb; ++s) {
+      for (int k=_head[s]; k>=0; k=_kn[k])
+        _node[_k2[k]][_k1[k]] = -1;
+      _head[s] = -1;
+    }
+    int nk = _kn.length;
+    for (int k=0; k<nk; ++k)
+      _kn[k] = k+1;
+    _kn[nk-1] = -1;
+    _kfree = 0;
+    _n = 0;
+  }
+
+  public int size() {
+    return _n;
+  }
+
+  public boolean isEmpty() {
+    return _n==0;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _n1,_n2; // array dimensions
+  private int _n; // number of entries in this queue
+  private double _odt; // one over the bucket width
+  private int _bmin; // smallest bucket that may contain entries
+  private int _bmax; // largest bucket that may contain entries
+  private int[][] _node; // maps array indices (i1,i2) to nodes; -1 if none
+  private int[] _head = fillint(-1,1024); // circular array of buckets
+
+  // Nodes are stored in arrays, with unused nodes in a free list. A node
+  // is stale if its indices no longer map to it, because the time for
+  // those indices was reduced to a smaller bucket. Stale nodes are freed
+  // when removed from their buckets.
+  private int[] _k1 = new int[1024]; // sample index in 1st dimension
+  private int[] _k2 = new int[1024]; // sample index in 2nd dimension
+  private int[] _kb = new int[1024]; // bucket index
+  private int[] _kn = initNext(0,1024); // index of next node; -1 if none
+  private float[] _kt = new float[1024]; // time
+  private int _kfree = 0; // index of first free node
+  private TimeHeap2.Entry _e = new TimeHeap2.Entry(); // entry removed
+
+  private static int[] initNext(int j, int n) {
+    int[] kn = new int[n];
+    for (int k=j; k<n; ++k)
+      kn[k] = k+1;
+    kn[n-1] = -1;
+    return kn;
+  }
+
+  private int bucket(float t) {
+    return (int)Math.min(t*_odt,Integer.MAX_VALUE);
+  }
+
+  private int slot(int b) {
+    int nb = _head.length;
+    int s = b%nb;
+    return (s<0)?s+nb:s;
+  }
+
+  // Adds a new node with specified indices and time to its bucket.
+  private int add(int i1, int i2, float t) {
+    int b = bucket(t);
+    if (b<_bmin) _bmin = b;
+    if (b>_bmax) _bmax = b;
+    if (_bmax-_bmin>=_head.length)
+      growBuckets(_bmax-_bmin+1);
+    int k = alloc();
+    _k1[k] = i1;
+    _k2[k] = i2;
+    _kb[k] = b;
+    _kt[k] = t;
+    int s = slot(b);
+    _kn[k] = _head[s];
+    _head[s] = k;
+    return k;
+  }
+
+  private int alloc() {
+    if (_kfree<0)
+      growNodes();
+    int k = _kfree;
+    _kfree = _kn[k];
+    return k;
+  }
+
+  private void free(int k) {
+    _kn[k] = _kfree;
+    _kfree = k;
+  }
+
+  private void growNodes() {
+    int nk = _kn.length;
+    int mk = 2*nk;
+    _k1 = copy(mk,_k1);
+    _k2 = copy(mk,_k2);
+    _kb = copy(mk,_kb);
+    _kt = copy(mk,_kt);
+    int[] kn = initNext(nk,mk);
+    System.arraycopy(_kn,0,kn,0,nk);
+    _kn = kn;
+    _kfree = nk;
+  }
+
+  // Grows the circular array of buckets to span at least nb buckets,
+  // moving all nodes to their new slots, and freeing any stale nodes.
+  private void growBuckets(int nb) {
+    int[] head = _head;
+    _head = fillint(-1,max(nb,2*head.length));
+    for (int s=0; s<head.length; ++s) {
+      for (int k=head[s],kn; k>=0; k=kn) {
+        kn = _kn[k];
+        if (_node[_k2[k]][_k1[k]]!=k) {
+          free(k);
+        } else {
+          int t = slot(_kb[k]);
+          _kn[k] = _head[t];
+          _head[t] = k;
+        }
+      }
+    }
+  }
+}
@@ -27,7 +27,7 @@ import edu.mines.jtk.util.Check;
  * @author Dave Hale, Colorado School of Mines
  * @version 2008.06.13
  */
-public class TimeHeap2 {
+public class TimeHeap2 implements TimeQueue2 {
 
   /**
    * The heap type determines whether the entry at the top has the minimum
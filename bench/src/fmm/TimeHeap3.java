@@ -27,7 +27,7 @@ import edu.mines.jtk.util.Check;
  * @author Dave Hale, Colorado School of Mines
  * @version 2008.07.07
  */
-public class TimeHeap3 {
+public class TimeHeap3 implements TimeQueue3 {
 
   /**
    * The heap type determines whether the entry at the top has the minimum
@@ -0,0 +1,57 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is 
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fmm;
+
+/**
+ * A priority queue of times sampled in a 2D array.
+ * Implementations include the binary heap {@link TimeHeap2} and the
+ * bucket queue {@link TimeBucket2}.
+ * @author agent
+ * @version 2026.10.17
+ */
+public interface TimeQueue2 {
+
+  /**
+   * Inserts a new entry into this queue with specified time and indices.
+   * The queue must not already contain an entry with those indices.
+   * @param i1 the sample index in 1st dimension.
+   * @param i2 the sample index in 2nd dimension.
+   * @param t the time.
+   */
+  public void insert(int i1, int i2, float t);
+
+  /**
+   * Reduces the time of the entry in this queue with specified indices.
+   * This queue must already contain an entry with those indices, and
+   * the specified time must be less than the time for that entry.
+   * @param i1 the sample index in 1st dimension.
+   * @param i2 the sample index in 2nd dimension.
+   * @param t the reduced time.
+   */
+  public void reduce(int i1, int i2, float t);
+
+  /**
+   * Removes and returns the entry at the top of this queue.
+   * The queue must not be empty.
+   */
+  public TimeHeap2.Entry remove();
+
+  /**
+   * Removes all entries from this queue.
+   */
+  public void clear();
+
+  /**
+   * Returns the number of entries in this queue.
+   */
+  public int size();
+
+  /**
+   * Returns true if this queue is empty; false, otherwise.
+   */
+  public boolean isEmpty();
+}
@@ -0,0 +1,179 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fmm;
+
+import edu.mines.jtk.util.Stopwatch;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Benchmarks priority queues of times for fast marching methods.
+ * Solves an isotropic eikonal equation on a 3D grid with a simple
+ * first-order fast marching method, first using the binary min-heap
+ * {@link TimeHeap3} and then using bucket queues {@link TimeBucket3}
+ * with a few bucket widths. For each queue, reports the wall time and
+ * the maximum and rms differences between times computed with that
+ * queue and with the min-heap.
+ * <p>
+ * Usage: TimeQueueBench [n1 [n2 n3]]. The default grid has 201^3 samples.
+ * A grid with 465^3 (about 10^8) samples requires a maximum Java heap
+ * size of at least 4 GB.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class TimeQueueBench {
+
+  public static void main(String[] args) {
+    int n1 = 201, n2 = 201, n3 = 201;
+    if (args.length>0)
+      n1 = n2 = n3 = Integer.parseInt(args[0]);
+    if (args.length>2) {
+      n2 = Integer.parseInt(args[1]);
+      n3 = Integer.parseInt(args[2]);
+    }
+    trace("n1="+n1+" n2="+n2+" n3="+n3);
+    float[][][] s = makeSlowness(n1,n2,n3);
+    float[][][] t = new float[n3][n2][n1];
+    float[][][] th = new float[n3][n2][n1];
+    int[][][] mark = new int[n3][n2][n1];
+    float[] dts = {0.1f,0.5f,1.0f,2.0f};
+    for (int iter=0; iter<2; ++iter) {
+      march(new TimeHeap3(TimeHeap3.Type.MIN,n1,n2,n3),s,mark,th,"heap",null);
+      for (float dt:dts) {
+        TimeQueue3 queue = new TimeBucket3(n1,n2,n3,dt);
+        march(queue,s,mark,t,"bucket dt="+dt,th);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final float INFINITY = Float.MAX_VALUE;
+  private static final int[] K1 = {-1, 1, 0, 0, 0, 0};
+  private static final int[] K2 = { 0, 0,-1, 1, 0, 0};
+  private static final int[] K3 = { 0, 0, 0, 0,-1, 1};
+
+  // Smoothly varying slowness, with contrast 1:4, so that times in the
+  // queue span a range that is much larger than one sample.
+  private static float[][][] makeSlowness(int n1, int n2, int n3) {
+    float[][][] s = new float[n3][n2][n1];
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          double a = sin(0.05*i1)*cos(0.07*i2)*sin(0.03*i3);
+          s[i3][i2][i1] = (float)(2.5+1.5*a);
+        }
+      }
+    }
+    return s;
+  }
+
+  // Computes times t from a source in the center of the grid. Samples
+  // are marked 0 (far), 1 (trial) or 2 (known). If tr is not null,
+  // compares the computed times with those reference times.
+  private static void march(
+    TimeQueue3 queue, float[][][] s, int[][][] mark, float[][][] t,
+    String name, float[][][] tr)
+  {
+    int n1 = s[0][0].length;
+    int n2 = s[0].length;
+    int n3 = s.length;
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    fillfloat(INFINITY,t);
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          mark[i3][i2][i1] = 0;
+    int j1 = n1/2, j2 = n2/2, j3 = n3/2;
+    t[j3][j2][j1] = 0.0f;
+    mark[j3][j2][j1] = 1;
+    queue.insert(j1,j2,j3,0.0f);
+    while (!queue.isEmpty()) {
+      TimeHeap3.Entry e = queue.remove();
+      int i1 = e.i1, i2 = e.i2, i3 = e.i3;
+      mark[i3][i2][i1] = 2;
+      for (int k=0; k<6; ++k) {
+        int k1 = i1+K1[k], k2 = i2+K2[k], k3 = i3+K3[k];
+        if (k1<0 || k1>=n1 || k2<0 || k2>=n2 || k3<0 || k3>=n3)
+          continue;
+        if (mark[k3][k2][k1]==2)
+          continue;
+        float tk = solve(k1,k2,k3,s[k3][k2][k1],mark,t);
+        if (mark[k3][k2][k1]==0) {
+          mark[k3][k2][k1] = 1;
+          t[k3][k2][k1] = tk;
+          queue.insert(k1,k2,k3,tk);
+        } else if (tk<t[k3][k2][k1]) {
+          t[k3][k2][k1] = tk;
+          queue.reduce(k1,k2,k3,tk);
+        }
+      }
+    }
+    sw.stop();
+    String s1 = String.format("%16s: time = %7.2f s",name,sw.time());
+    if (tr!=null) {
+      double emax = 0.0, esum = 0.0;
+      for (int i3=0; i3<n3; ++i3) {
+        for (int i2=0; i2<n2; ++i2) {
+          for (int i1=0; i1<n1; ++i1) {
+            double e = abs(t[i3][i2][i1]-tr[i3][i2][i1])/tr[i3][i2][i1];
+            if (tr[i3][i2][i1]==0.0f) e = 0.0;
+            emax = max(emax,e);
+            esum += e*e;
+          }
+        }
+      }
+      double erms = sqrt(esum/n1/n2/n3);
+      s1 += String.format("  relative error: max = %8.2e  rms = %8.2e",
+        emax,erms);
+    }
+    trace(s1);
+  }
+
+  // Returns the first-order upwind solution of the eikonal equation
+  // |grad t| = s at one sample, using only the known neighbor samples.
+  private static float solve(
+    int i1, int i2, int i3, float s, int[][][] mark, float[][][] t)
+  {
+    int n1 = t[0][0].length;
+    int n2 = t[0].length;
+    int n3 = t.length;
+    float a1 = INFINITY, a2 = INFINITY, a3 = INFINITY;
+    if (i1>0 && mark[i3][i2][i1-1]==2) a1 = t[i3][i2][i1-1];
+    if (i1<n1-1 && mark[i3][i2][i1+1]==2) a1 = min(a1,t[i3][i2][i1+1]);
+    if (i2>0 && mark[i3][i2-1][i1]==2) a2 = t[i3][i2-1][i1];
+    if (i2<n2-1 && mark[i3][i2+1][i1]==2) a2 = min(a2,t[i3][i2+1][i1]);
+    if (i3>0 && mark[i3-1][i2][i1]==2) a3 = t[i3-1][i2][i1];
+    if (i3<n3-1 && mark[i3+1][i2][i1]==2) a3 = min(a3,t[i3+1][i2][i1]);
+
+    // Sort so that a1 <= a2 <= a3.
+    float at;
+    if (a1>a2) { at = a1; a1 = a2; a2 = at; }
+    if (a2>a3) { at = a2; a2 = a3; a3 = at; }
+    if (a1>a2) { at = a1; a1 = a2; a2 = at; }
+
+    // Use one, two or three neighbors, as long as the solution is not
+    // less than the time for the next neighbor.
+    double tk = a1+s;
+    if (tk>a2) {
+      double b = a1+a2;
+      double c = a1*a1+a2*a2-s*s;
+      tk = 0.5*(b+sqrt(max(0.0,b*b-2.0*c)));
+      if (tk>a3) {
+        b = a1+a2+a3;
+        c = a1*a1+a2*a2+a3*a3-s*s;
+        tk = (b+sqrt(max(0.0,b*b-3.0*c)))/3.0;
+      }
+    }
+    return (float)tk;
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
@@ -17,6 +17,7 @@ import edu.mines.jtk.sgl.ImagePanelGroup;
 import edu.mines.jtk.sgl.World;
 import edu.mines.jtk.sgl.SimpleFrame;
 import static edu.mines.jtk.util.ArrayMath.*;
+import edu.mines.jtk.util.Parallel;
 import edu.mines.jtk.util.Stopwatch;
 
 /**
@@ -26,6 +27,15 @@ import edu.mines.jtk.util.Stopwatch;
  * <p>
  * This solver uses an iterative method to compute the solution times t.
  * Iterations are similar to those described by Jeong and Whitaker (2007).
+ * <p>
+ * With blocked concurrency, the sample grid is decomposed into blocks
+ * small enough to fit in cache, each with its own active list. Blocks
+ * with non-empty active lists are active; others have converged. Active
+ * blocks are processed until their lists are empty, and samples appended
+ * to lists of neighbor blocks reactivate those blocks. Blocks are colored
+ * by the parities of their indices, so that no two blocks of the same
+ * color are adjacent, and active blocks of one color are processed
+ * concurrently by a fork-join pool with work stealing.
  * @author Dave Hale, Colorado School of Mines
  * @version 2008.07.22
  */
@@ -36,7 +46,8 @@ public class TimeSolver3 {
    */
   public enum Concurrency {
     PARALLEL,
-    SERIAL
+    SERIAL,
+    BLOCKED
   };
 
   /**
@@ -167,6 +178,7 @@ public class TimeSolver3 {
   private Concurrency _concurrency = Concurrency.PARALLEL;
   private ArrayList<Listener> _listeners = new ArrayList<Listener>();
   private ArrayList<Sample> _stack = new ArrayList<Sample>(1024);
+  private Block[][][] _b; // blocks of samples; null until first needed
 
   private void init(int n1, int n2, int n3, float[][][] t, Tensors3 tensors) {
     _n1 = n1;
@@ -379,6 +391,8 @@ public class TimeSolver3 {
     // Complete the solve by processing the active list until it is empty.
     if (_concurrency==Concurrency.PARALLEL) {
       solveParallel(al);
+    } else if (_concurrency==Concurrency.BLOCKED) {
+      solveBlocked(al);
     } else {
       solveSerial(al);
     }
@@ -482,6 +496,144 @@ public class TimeSolver3 {
     //trace("               nratio="+(float)ntotal/(float)(_n1*_n2*_n3));
   }
 
+  // Number of samples in each dimension of blocks. Times for one block
+  // of 16^3 samples (with the neighbor samples used to compute them) and
+  // the corresponding sample objects should fit in a typical L2 cache.
+  // Blocks must have at least three samples in each dimension, so that
+  // samples read or written while processing one block are never read
+  // or written while processing another block of the same color.
+  private static final int BLOCK_SIZE = 16;
+
+  // A block of samples, with lists of samples to be processed.
+  private class Block {
+    int j1,j2,j3; // indices of first sample in this block
+    int k1,k2,k3; // indices of last sample in this block, plus one
+    int color; // in [0,8); adjacent blocks have different colors
+    ActiveList al = new ActiveList(); // samples to process in this block
+    ActiveList out = new ActiveList(); // samples to process in other blocks
+    Block(int b1, int b2, int b3) {
+      j1 = b1*BLOCK_SIZE;  k1 = min(j1+BLOCK_SIZE,_n1);
+      j2 = b2*BLOCK_SIZE;  k2 = min(j2+BLOCK_SIZE,_n2);
+      j3 = b3*BLOCK_SIZE;  k3 = min(j3+BLOCK_SIZE,_n3);
+      color = (b1%2)+2*(b2%2)+4*(b3%2);
+    }
+    boolean contains(Sample s) {
+      return j1<=s.i1 && s.i1<k1 &&
+             j2<=s.i2 && s.i2<k2 &&
+             j3<=s.i3 && s.i3<k3;
+    }
+  }
+
+  private Block blockOf(Sample s) {
+    return _b[s.i3/BLOCK_SIZE][s.i2/BLOCK_SIZE][s.i1/BLOCK_SIZE];
+  }
+
+  private void initBlocks() {
+    int nb1 = 1+(_n1-1)/BLOCK_SIZE;
+    int nb2 = 1+(_n2-1)/BLOCK_SIZE;
+    int nb3 = 1+(_n3-1)/BLOCK_SIZE;
+    _b = new Block[nb3][nb2][nb1];
+    for (int b3=0; b3<nb3; ++b3)
+      for (int b2=0; b2<nb2; ++b2)
+        for (int b1=0; b1<nb1; ++b1)
+          _b[b3][b2][b1] = new Block(b1,b2,b3);
+  }
+
+  /**
+   * Solves for times by processing active blocks of samples in parallel.
+   */
+  private void solveBlocked(ActiveList al) {
+    if (_b==null)
+      initBlocks();
+    int nb1 = _b[0][0].length;
+    int nb2 = _b[0].length;
+    int nb3 = _b.length;
+
+    // Distribute samples in the active list to their blocks.
+    int n = al.size();
+    for (int i=0; i<n; ++i) {
+      Sample s = al.get(i);
+      blockOf(s).al.append(s);
+    }
+
+    // While any blocks are active, for each color, process in parallel
+    // all active blocks with that color. Then serially move samples
+    // appended to the out lists of those blocks to the lists of the
+    // blocks that contain them.
+    final ArrayList<Block> blocks = new ArrayList<Block>();
+    for (boolean active=true; active;) {
+      active = false;
+      for (int color=0; color<8; ++color) {
+        blocks.clear();
+        for (int b3=0; b3<nb3; ++b3) {
+          for (int b2=0; b2<nb2; ++b2) {
+            for (int b1=0; b1<nb1; ++b1) {
+              Block b = _b[b3][b2][b1];
+              if (b.color==color && !b.al.isEmpty())
+                blocks.add(b);
+            }
+          }
+        }
+        int nblock = blocks.size();
+        if (nblock==0)
+          continue;
+        active = true;
+        Parallel.loop(nblock,new Parallel.LoopInt() {
+          public void compute(int ib) {
+            solveBlock(blocks.get(ib));
+          }
+        });
+        for (int ib=0; ib<nblock; ++ib) {
+          ActiveList out = blocks.get(ib).out;
+          int nout = out.size();
+          for (int i=0; i<nout; ++i) {
+            Sample s = out.get(i);
+            blockOf(s).al.append(s);
+          }
+          out.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Processes samples in one block until the block has converged.
+   * Appends samples not yet converged in other blocks to the out list.
+   */
+  private void solveBlock(Block b) {
+    float[] d = new float[6];
+
+    // The block's list may contain duplicate samples, so build a new
+    // list in which each sample appears only once.
+    ActiveList al = new ActiveList();
+    ActiveList bl = new ActiveList();
+    b.al.setAllAbsent();
+    al.appendIfAbsent(b.al);
+    b.al.clear();
+
+    // Iterate until no samples in this block remain to be processed.
+    while (!al.isEmpty()) {
+      int n = al.size();
+      for (int i=0; i<n; ++i)
+        solveOne(al.get(i),bl,d);
+      al.clear();
+      bl.setAllAbsent();
+      int m = bl.size();
+      for (int i=0; i<m; ++i) {
+        Sample s = bl.get(i);
+        if (s.absent) {
+          s.absent = false;
+          if (b.contains(s)) {
+            al.append(s);
+          } else {
+            b.out.append(s);
+          }
+        }
+      }
+      bl.clear();
+    }
+  }
+
   /**
    * Processes one sample from the A list.
    * Appends samples not yet converged to the B list.
@@ -758,6 +910,16 @@ public class TimeSolver3 {
       n1,n2,n3,i1,i2,i3,tensors,TimeSolver3.Concurrency.PARALLEL);
   }
 
+  private static float[][][] computeBlocked(
+    int n1, int n2, int n3,
+    int i1, int i2, int i3, 
+    Tensors3 tensors)
+  {
+    trace("computeBlocked:");
+    return computeTimes(
+      n1,n2,n3,i1,i2,i3,tensors,TimeSolver3.Concurrency.BLOCKED);
+  }
+
   private static float[][][] computeTimes(
     int n1, int n2, int n3,
     int i1, int i2, int i3, 
@@ -784,10 +946,15 @@ public class TimeSolver3 {
     int i1 = 2*(n1-1)/4, i2 = 2*(n2-1)/4, i3 = 2*(n3-1)/4;
     float[][][] ts = computeSerial(n1,n2,n3,i1,i2,i3,tensors);
     float[][][] tp = computeParallel(n1,n2,n3,i1,i2,i3,tensors);
+    float[][][] tb = computeBlocked(n1,n2,n3,i1,i2,i3,tensors);
     float[][][] te = div(abs(sub(tp,ts)),ts);
     te[i3][i2][i1] = 0.0f;
     float temax = max(te);
     trace("temax="+temax);
+    te = div(abs(sub(tb,ts)),ts);
+    te[i3][i2][i1] = 0.0f;
+    temax = max(temax,max(te));
+    trace("temax="+temax);
     trace("********************************************************");
     //plot(ts,ColorMap.PRISM);
     //plot(tp,ColorMap.PRISM);
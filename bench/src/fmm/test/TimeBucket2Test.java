@@ -0,0 +1,84 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fmm.test;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import edu.mines.jtk.util.ArrayMath;
+import fmm.TimeBucket2;
+import fmm.TimeHeap2;
+
+/**
+ * Tests {@link fmm.TimeBucket2}.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class TimeBucket2Test extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(TimeBucket2Test.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testQueue() {
+    testQueue(new TimeBucket2(9,11,0.01f),0.01f);
+  }
+
+  public void testQueueWithManyBuckets() {
+    // Times span more buckets than initially allocated.
+    testQueue(new TimeBucket2(19,21,0.0005f),0.0005f);
+  }
+
+  public void testClear() {
+    TimeBucket2 queue = new TimeBucket2(5,6,0.1f);
+    queue.insert(1,2,0.5f);
+    queue.insert(3,4,0.2f);
+    queue.reduce(1,2,0.1f);
+    assertEquals(2,queue.size());
+    assertTrue(queue.contains(1,2));
+    assertTrue(queue.contains(3,4));
+    queue.clear();
+    assertTrue(queue.isEmpty());
+    assertEquals(0,queue.size());
+    assertFalse(queue.contains(1,2));
+    assertFalse(queue.contains(3,4));
+    queue.insert(1,2,0.3f);
+    TimeHeap2.Entry e = queue.remove();
+    assertEquals(1,e.i1);
+    assertEquals(2,e.i2);
+    assertEquals(0.3f,e.t);
+    assertTrue(queue.isEmpty());
+  }
+
+  private static void testQueue(TimeBucket2 queue, float dt) {
+    int n1 = queue.getN1();
+    int n2 = queue.getN2();
+    int n = n1*n2;
+    float[][] t = ArrayMath.randfloat(n1,n2);
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        queue.insert(i1,i2,t[i2][i1]+0.5f);
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        queue.reduce(i1,i2,t[i2][i1]);
+    assertFalse(queue.isEmpty());
+    assertEquals(n,queue.size());
+    boolean[][] removed = new boolean[n2][n1];
+    float tmax = 0.0f;
+    for (int i=0; i<n; ++i) {
+      TimeHeap2.Entry e = queue.remove();
+      assertFalse(removed[e.i2][e.i1]);
+      removed[e.i2][e.i1] = true;
+      assertFalse(queue.contains(e.i1,e.i2));
+      assertEquals(t[e.i2][e.i1],e.t);
+      assertTrue(e.t>tmax-dt);
+      tmax = Math.max(tmax,e.t);
+    }
+    assertTrue(queue.isEmpty());
+    assertEquals(0,queue.size());
+  }
+}
@@ -0,0 +1,88 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package fmm.test;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import edu.mines.jtk.util.ArrayMath;
+import fmm.TimeBucket3;
+import fmm.TimeHeap3;
+
+/**
+ * Tests {@link fmm.TimeBucket3}.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class TimeBucket3Test extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(TimeBucket3Test.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testQueue() {
+    testQueue(new TimeBucket3(9,11,10,0.01f),0.01f);
+  }
+
+  public void testQueueWithManyBuckets() {
+    // Times span more buckets than initially allocated.
+    testQueue(new TimeBucket3(11,9,10,0.0005f),0.0005f);
+  }
+
+  public void testClear() {
+    TimeBucket3 queue = new TimeBucket3(5,6,7,0.1f);
+    queue.insert(1,2,3,0.5f);
+    queue.insert(4,5,6,0.2f);
+    queue.reduce(1,2,3,0.1f);
+    assertEquals(2,queue.size());
+    assertTrue(queue.contains(1,2,3));
+    assertTrue(queue.contains(4,5,6));
+    queue.clear();
+    assertTrue(queue.isEmpty());
+    assertEquals(0,queue.size());
+    assertFalse(queue.contains(1,2,3));
+    assertFalse(queue.contains(4,5,6));
+    queue.insert(1,2,3,0.3f);
+    TimeHeap3.Entry e = queue.remove();
+    assertEquals(1,e.i1);
+    assertEquals(2,e.i2);
+    assertEquals(3,e.i3);
+    assertEquals(0.3f,e.t);
+    assertTrue(queue.isEmpty());
+  }
+
+  private static void testQueue(TimeBucket3 queue, float dt) {
+    int n1 = queue.getN1();
+    int n2 = queue.getN2();
+    int n3 = queue.getN3();
+    int n = n1*n2*n3;
+    float[][][] t = ArrayMath.randfloat(n1,n2,n3);
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          queue.insert(i1,i2,i3,t[i3][i2][i1]+0.5f);
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        for (int i1=0; i1<n1; ++i1)
+          queue.reduce(i1,i2,i3,t[i3][i2][i1]);
+    assertFalse(queue.isEmpty());
+    assertEquals(n,queue.size());
+    boolean[][][] removed = new boolean[n3][n2][n1];
+    float tmax = 0.0f;
+    for (int i=0; i<n; ++i) {
+      TimeHeap3.Entry e = queue.remove();
+      assertFalse(removed[e.i3][e.i2][e.i1]);
+      removed[e.i3][e.i2][e.i1] = true;
+      assertFalse(queue.contains(e.i1,e.i2,e.i3));
+      assertEquals(t[e.i3][e.i2][e.i1],e.t);
+      assertTrue(e.t>tmax-dt);
+      tmax = Math.max(tmax,e.t);
+    }
+    assertTrue(queue.isEmpty());
+    assertEquals(0,queue.size());
+  }
+}
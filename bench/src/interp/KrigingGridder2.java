@@ -6,13 +6,18 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 ****************************************************************************/
 package interp;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import edu.mines.jtk.dsp.*;
 import edu.mines.jtk.interp.*;
 import edu.mines.jtk.lapack.*;
-import edu.mines.jtk.util.Check;
+import edu.mines.jtk.util.*;
 import static edu.mines.jtk.util.ArrayMath.*;
 
 import dnp.*;
+import fault.KdTree;
 
 /**
  * Gridding in 2D by tensor-guided simple kriging.
@@ -38,6 +43,18 @@ import dnp.*;
  * The data covariance matrix Cd is diagonal, with variances that
  * may be specified by one constant standard deviation or by an 
  * array of standard deviations, one for each sample of data.
+ * <p>
+ * By default, kriging weights are computed by solving one system of
+ * equations for all scattered samples. For constant tensors, this
+ * system is dense, so that time is O(n^3) and memory is O(n^2) for
+ * n samples. Optionally, the gridder may instead use neighborhoods of
+ * only the m samples nearest to each block of grid samples. For
+ * constant tensors, this neighborhood kriging solves one small system
+ * for each block, with blocks processed in parallel. For variable
+ * tensors and the smooth model covariance, neighborhoods instead
+ * determine groups of nearby samples used to construct a block-Jacobi
+ * preconditioner for the global iterative solution. In both cases,
+ * time grows nearly linearly with the number of samples.
  * 
  * @author Dave Hale, Colorado School of Mines
  * @version 2013.07.25
@@ -154,6 +171,18 @@ public class KrigingGridder2 implements Gridder2 {
     _sd = copy(sd);
   }
 
+  /**
+   * Sets the number of nearest samples used in neighborhood kriging.
+   * The default is zero, for which all samples are used in one system
+   * of equations. Neighborhood kriging is not used with Paciorek's
+   * approximation for variable tensors.
+   * @param m number of nearest samples; zero, to use all samples.
+   */
+  public void setNeighbors(int m) {
+    Check.argument(m>=0,"m>=0");
+    _m = m;
+  }
+
   /**
    * Sets the order of the polynomial trend to be fit to sample values.
    * This trend is removed before kriging and restored after kriging.
@@ -194,6 +223,8 @@ public class KrigingGridder2 implements Gridder2 {
       } else {
         q = gridForVariableTensors(s1,s2);
       }
+    } else if (_m>0) {
+      q = gridForConstantTensorsLocal(s1,s2);
     } else {
       q = gridForConstantTensors(s1,s2);
     }
@@ -214,6 +245,10 @@ public class KrigingGridder2 implements Gridder2 {
   private Covariance _cm; // model covariance
   private PolyTrend2 _trend; // polynomial trend; null, if none
   private int _order = -1; // order of poly trend; -1, if none
+  private int _m; // number of samples in neighborhoods; 0, if all
+
+  // Blocks of grid samples for neighborhood kriging are NBLOCK*NBLOCK.
+  private static final int NBLOCK = 16;
 
   /**
    * If no model covariance has been specified, this method makes a default.
@@ -277,6 +312,75 @@ public class KrigingGridder2 implements Gridder2 {
     return q;
   }
 
+  /**
+   * Neighborhood kriging for a constant tensor field. For each block of
+   * grid samples, solves for kriging weights using only the m scattered
+   * samples nearest to the center of the block. Coordinates are scaled
+   * by the Cholesky factor R of T = inv(D) = R'R, so that euclidean
+   * distances in a k-d tree are the non-euclidean distances used in
+   * kriging.
+   */
+  private float[][] gridForConstantTensorsLocal(
+    final Sampling s1, final Sampling s2) 
+  {
+    final int n1 = s1.getCount();
+    final int n2 = s2.getCount();
+    final int n = _f.length;
+    final int m = min(_m,n);
+    double det = _d11*_d22-_d12*_d12;
+    final double t11 =  _d22/det;
+    final double t12 = -_d12/det;
+    final double t22 =  _d11/det;
+    final double r11 = sqrt(t11);
+    final double r12 = t12/r11;
+    final double r22 = sqrt(t22-r12*r12);
+    float[][] y = new float[2][n];
+    for (int i=0; i<n; ++i) {
+      y[0][i] = (float)(r11*_x1[i]+r12*_x2[i]);
+      y[1][i] = (float)(r22*_x2[i]);
+    }
+    final KdTree kt = new KdTree(y);
+    final int nb1 = 1+(n1-1)/NBLOCK;
+    final int nb2 = 1+(n2-1)/NBLOCK;
+    final float[][] q = new float[n2][n1];
+    Parallel.loop(nb1*nb2,new Parallel.LoopInt() {
+    public void compute(int ib) {
+      int j1 = (ib%nb1)*NBLOCK, k1 = min(j1+NBLOCK,n1);
+      int j2 = (ib/nb1)*NBLOCK, k2 = min(j2+NBLOCK,n2);
+      double x1c = 0.5*(s1.getValue(j1)+s1.getValue(k1-1));
+      double x2c = 0.5*(s2.getValue(j2)+s2.getValue(k2-1));
+      float[] yc = {(float)(r11*x1c+r12*x2c),(float)(r22*x2c)};
+      int[] k = new int[m];
+      int nk = kt.findNearest(new KdTree.Search(),yc,m,k,null);
+      DMatrix cf = new DMatrix(nk,1);
+      DMatrix cm = new DMatrix(nk,nk);
+      for (int i=0; i<nk; ++i) {
+        double x1i = _x1[k[i]];
+        double x2i = _x2[k[i]];
+        for (int j=0; j<nk; ++j) {
+          double r = distance(t11,t12,t22,x1i,x2i,_x1[k[j]],_x2[k[j]]);
+          cm.set(i,j,_cm.evaluate(r));
+        }
+        cm.set(i,i,cm.get(i,i)+_sd[k[i]]*_sd[k[i]]);
+        cf.set(i,0,_f[k[i]]);
+      }
+      DMatrix cw = cm.solve(cf);
+      for (int i2=j2; i2<k2; ++i2) {
+        double x2i = s2.getValue(i2);
+        for (int i1=j1; i1<k1; ++i1) {
+          double x1i = s1.getValue(i1);
+          double qi = 0.0;
+          for (int j=0; j<nk; ++j) {
+            double r = distance(t11,t12,t22,x1i,x2i,_x1[k[j]],_x2[k[j]]);
+            qi += cw.get(j,0)*_cm.evaluate(r);
+          }
+          q[i2][i1] = (float)qi;
+        }
+      }
+    }});
+    return q;
+  }
+
   /**
    * Returns non-euclidean distance for specified tensor T = inv(D).
    */
@@ -424,7 +528,9 @@ public class KrigingGridder2 implements Gridder2 {
     VecArrayFloat1 vf = new VecArrayFloat1(af);
     VecArrayFloat1 vz = new VecArrayFloat1(az);
     SmoothA a = new SmoothA(x1,x2,s1,s2,_tensors,scm,sd);
-    SmoothM m = new SmoothM(x1,x2,s1,s2,_tensors,scm,sd);
+    CgSolver.A m = (_m>0) ?
+      new SmoothMLocal(x1,x2,s1,s2,_tensors,scm,sd,_m) :
+      new SmoothM(x1,x2,s1,s2,_tensors,scm,sd);
     CgSolver cgs = new CgSolver(1.0e-2,100);
     CgSolver.Info info = cgs.solve(a,m,vf,vz);
     //CgSolver.Info info = cgs.solve(a,vf,vz); # may not converge!
@@ -569,6 +675,115 @@ public class KrigingGridder2 implements Gridder2 {
     private float[][] _am;
   }
 
+  /**
+   * Applies a block-Jacobi preconditioner M that approximates the inverse
+   * of SmoothA above. Samples are partitioned recursively into groups of
+   * nearby samples, with at most m samples per group, and each diagonal
+   * block is the inverse of Paciorek's approximation for one group. Time
+   * and memory required are O(n*m^2) for n samples, not O(n^3) and
+   * O(n^2) as for SmoothM above.
+   */
+  private static class SmoothMLocal implements CgSolver.A {
+
+    SmoothMLocal(
+      final float[] x1, final float[] x2, 
+      final Sampling s1, final Sampling s2, final Tensors2 t,
+      final SmoothCovariance cm, final float[] sd, int m) 
+    {
+      int n = x1.length;
+      int[] k = rampint(0,1,n);
+      ArrayList<int[]> groups = new ArrayList<int[]>();
+      partition(x1,x2,max(1,m),k,groups);
+      final int ng = groups.size();
+      _k = groups.toArray(new int[ng][]);
+      _am = new float[ng][][];
+      Parallel.loop(ng,new Parallel.LoopInt() {
+      public void compute(int ig) {
+        int[] kg = _k[ig];
+        int mg = kg.length;
+        DMatrix am = new DMatrix(mg,mg);
+        float[] d = new float[3];
+        for (int i=0; i<mg; ++i) {
+          double x1i = x1[kg[i]];
+          double x2i = x2[kg[i]];
+          int i1 = s1.indexOfNearest(x1i);
+          int i2 = s2.indexOfNearest(x2i);
+          t.getTensor(i1,i2,d);
+          double d11i = d[0], d12i = d[1], d22i = d[2];
+          double deti = d11i*d22i-d12i*d12i;
+          for (int j=0; j<mg; ++j) {
+            double cij = evaluatePaciorek(s1,s2,t,cm,
+                                          d11i,d12i,d22i,deti,d,
+                                          x1i,x2i,x1[kg[j]],x2[kg[j]]);
+            am.set(i,j,cij);
+          }
+          am.set(i,i,am.get(i,i)+sd[kg[i]]*sd[kg[i]]);
+        }
+        am = am.inverse();
+        float[][] ag = new float[mg][mg];
+        for (int i=0; i<mg; ++i)
+          for (int j=0; j<mg; ++j)
+            ag[i][j] = (float)am.get(i,j);
+        _am[ig] = ag;
+      }});
+    }
+
+    public void apply(Vec x, Vec y) {
+      float[] ax = ((VecArrayFloat1)x).getArray();
+      float[] ay = ((VecArrayFloat1)y).getArray();
+      int ng = _k.length;
+      for (int ig=0; ig<ng; ++ig) {
+        int[] kg = _k[ig];
+        float[][] ag = _am[ig];
+        int mg = kg.length;
+        for (int i=0; i<mg; ++i) {
+          float ayi = 0.0f;
+          for (int j=0; j<mg; ++j)
+            ayi += ag[i][j]*ax[kg[j]];
+          ay[kg[i]] = ayi;
+        }
+      }
+    }
+
+    // Recursively splits the samples with indices k at the median of the
+    // coordinate with the larger extent, until groups have at most m
+    // samples.
+    private static void partition(
+      float[] x1, float[] x2, int m, int[] k, 
+      List<int[]> groups) 
+    {
+      int n = k.length;
+      if (n<=m) {
+        groups.add(k);
+        return;
+      }
+      float x1min = x1[k[0]], x1max = x1min;
+      float x2min = x2[k[0]], x2max = x2min;
+      for (int i=1; i<n; ++i) {
+        x1min = min(x1min,x1[k[i]]); x1max = max(x1max,x1[k[i]]);
+        x2min = min(x2min,x2[k[i]]); x2max = max(x2max,x2[k[i]]);
+      }
+      float[] x = (x1max-x1min>=x2max-x2min)?x1:x2;
+      float[] xk = new float[n];
+      for (int i=0; i<n; ++i)
+        xk[i] = x[k[i]];
+      int[] j = rampint(0,1,n);
+      quickIndexSort(xk,j);
+      int nl = n/2;
+      int[] kl = new int[nl];
+      int[] kr = new int[n-nl];
+      for (int i=0; i<nl; ++i)
+        kl[i] = k[j[i]];
+      for (int i=nl; i<n; ++i)
+        kr[i-nl] = k[j[i]];
+      partition(x1,x2,m,kl,groups);
+      partition(x1,x2,m,kr,groups);
+    }
+
+    private int[][] _k; // indices of samples in groups
+    private float[][][] _am; // inverse of Paciorek's matrix for groups
+  }
+
   /**
    * Applies the operator inv(Cm) + K'inv(Cd)K. This operator is related
    * to (but not equal to) the inverse of the operator SmoothA above.
@@ -632,4 +847,49 @@ public class KrigingGridder2 implements Gridder2 {
   private static void trace(String s) {
     System.out.println(s);
   }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // testing
+
+  public static void main(String[] args) {
+    benchNeighbors(new int[]{500,1000,2000,4000,8000,16000},32);
+  }
+
+  // Times neighborhood kriging with m nearest samples for increasing
+  // numbers of random samples, and, for the smaller numbers, compares
+  // with kriging that uses all samples.
+  private static void benchNeighbors(int[] ns, int m) {
+    Sampling s1 = new Sampling(401,1.0,0.0);
+    Sampling s2 = new Sampling(401,1.0,0.0);
+    Random r = new Random(314159);
+    Stopwatch sw = new Stopwatch();
+    for (int n:ns) {
+      float[] f = new float[n];
+      float[] x1 = new float[n];
+      float[] x2 = new float[n];
+      for (int i=0; i<n; ++i) {
+        x1[i] = (float)s1.getLast()*r.nextFloat();
+        x2[i] = (float)s2.getLast()*r.nextFloat();
+        f[i] = (float)(sin(0.02*x1[i])*cos(0.03*x2[i]));
+      }
+      KrigingGridder2 kg = new KrigingGridder2(f,x1,x2);
+      kg.setModelCovariance(new SmoothCovariance(1.0,1.0,20.0,2));
+      kg.setDataError(0.01);
+      kg.setNeighbors(m);
+      sw.restart();
+      float[][] qm = kg.grid(s1,s2);
+      sw.stop();
+      String s = String.format("n=%6d: neighbors time = %7.2f s",n,sw.time());
+      if (n<=2000) {
+        kg.setNeighbors(0);
+        sw.restart();
+        float[][] qa = kg.grid(s1,s2);
+        sw.stop();
+        float emax = max(abs(sub(qm,qa)));
+        s += String.format("  all time = %7.2f s  max diff = %8.2e",
+          sw.time(),emax);
+      }
+      trace(s);
+    }
+  }
 }
@@ -54,6 +54,8 @@ import static edu.mines.jtk.util.ArrayMath.*;
  * complete slabs of the 3-D array, where the minimum slab thickness 
  * equals one plus the left and right overlaps. For efficiency (to 
  * reduce wasted computation) slabs should be much thicker than this.
+ * See {@link FileFloat3Tiles} for chunks constructed by slicing all 
+ * three array dimensions, and filtered in parallel.
  *
  * @author Dave Hale, Colorado School of Mines
  * @version 2007.11.27
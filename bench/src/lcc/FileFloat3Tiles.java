@@ -0,0 +1,372 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package lcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+import edu.mines.jtk.io.ArrayFile;
+import edu.mines.jtk.util.Check;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * A parallel filter for 3-D arrays of floats in files too large to fit
+ * in memory. Like {@link FileFloat3Chunks}, this filter processes 3-D
+ * arrays in overlapping chunks, so that output arrays in files are
+ * seamless. Unlike that filter, chunks here are tiles obtained by
+ * slicing all three array dimensions, and multiple tiles are filtered
+ * concurrently by a pool of worker threads.
+ * <p>
+ * All file I/O is performed by the thread that calls the method apply.
+ * While workers filter some tiles, that thread reads input chunks for
+ * the next tile (prefetch) and writes output chunks for tiles already
+ * filtered (write-behind). Output chunks are written in the same order
+ * in which input chunks are read.
+ * <p>
+ * The number of tiles in memory at any time is at most two more than
+ * the number of worker threads, one for the tile being read and one
+ * for the tile being written. Tile dimensions are chosen so that all
+ * of these tiles, with all of their input and output chunks, fit in a
+ * specified memory budget. Among such dimensions, those chosen reduce
+ * the computation wasted in overlaps, while slicing the 3rd dimension
+ * before the 2nd, and the 2nd before the 1st, so that file I/O is as
+ * sequential as possible.
+ * <p>
+ * Because tiles are filtered concurrently, the filter must be safe for
+ * use by multiple threads. Most filters that use only their input and
+ * output chunks and no other mutable state are safe.
+ *
+ * @author agent
+ * @version 2026.10.17
+ */
+public class FileFloat3Tiles {
+
+  /**
+   * Constructs a filter.
+   * @param maxMemory the maximum number of floats in all input and output
+   *  chunks that may be in memory at any one time.
+   * @param n1 number of samples in 1st dimension of arrays in files.
+   * @param l1 number of samples of left overlap required in 1st dimension.
+   * @param r1 number of samples of right overlap required in 1st dimension.
+   * @param n2 number of samples in 2nd dimension of arrays in files.
+   * @param l2 number of samples of left overlap required in 2nd dimension.
+   * @param r2 number of samples of right overlap required in 2nd dimension.
+   * @param n3 number of samples in 3rd dimension of arrays in files.
+   * @param l3 number of samples of left overlap required in 3rd dimension.
+   * @param r3 number of samples of right overlap required in 3rd dimension.
+   */
+  public FileFloat3Tiles(
+    long maxMemory,
+    int n1, int l1, int r1,
+    int n2, int l2, int r2,
+    int n3, int l3, int r3)
+  {
+    _mm = maxMemory;
+    _n1 = n1;  _l1 = l1;  _r1 = r1;
+    _n2 = n2;  _l2 = l2;  _r2 = r2;
+    _n3 = n3;  _l3 = l3;  _r3 = r3;
+    _nthread = Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Sets the number of worker threads used to filter tiles.
+   * The default is the number of available processors.
+   * @param nthread the number of worker threads.
+   */
+  public void setThreadCount(int nthread) {
+    Check.argument(nthread>0,"nthread>0");
+    _nthread = nthread;
+  }
+
+  /**
+   * Transforms chunks in the specified files using the specified filter.
+   * Files for input chunks must not also be files for output chunks.
+   * @param filter the filter; must be safe for use by multiple threads.
+   * @param xf array of files for input chunks.
+   * @param yf array of files for output chunks.
+   * @param ip indices for which in-place chunks y[i] == x[ip[i]];
+   *  ip[i]&lt;0 indicates that chunk y[i] should be a new array of zeros.
+   * @exception IllegalArgumentException if the memory budget is too small.
+   */
+  public void apply(
+    final FileFloat3Chunks.Filter filter,
+    ArrayFile[] xf, ArrayFile[] yf, int[] ip)
+    throws IOException
+  {
+    ip = (ip!=null)?ip:fillint(-1,yf.length);
+    int nx = xf.length;
+    int ny = yf.length;
+    int nc = nx; // number of chunks per tile
+    for (int iy=0; iy<ny; ++iy)
+      if (ip[iy]<0) ++nc;
+    chooseTileSize(_mm/max(1,nc)/(_nthread+2));
+    ExecutorService es = Executors.newFixedThreadPool(_nthread);
+    ArrayDeque<Tile> tiles = new ArrayDeque<Tile>();
+    try {
+      for (int i3=0; i3<_n3; i3+=_m3) {
+        for (int i2=0; i2<_n2; i2+=_m2) {
+          for (int i1=0; i1<_n1; i1+=_m1) {
+            final Tile t = new Tile(i1,i2,i3);
+            read(t,xf,ny,ip);
+            t.future = es.submit(new Callable<Void>() {
+              public Void call() {
+                filter.apply(t.i1,t.i2,t.i3,t.x,t.y);
+                return null;
+              }
+            });
+            tiles.add(t);
+            if (tiles.size()>=_nthread)
+              write(tiles.remove(),yf);
+          }
+        }
+      }
+      while (!tiles.isEmpty())
+        write(tiles.remove(),yf);
+    } finally {
+      es.shutdownNow();
+    }
+  }
+
+  /**
+   * Transforms chunks in the specified files using the specified filter.
+   * @param filter the filter; must be safe for use by multiple threads.
+   * @param xf array of files for input chunks.
+   * @param yf array of files for output chunks.
+   */
+  public void apply(
+    FileFloat3Chunks.Filter filter, ArrayFile[] xf, ArrayFile[] yf)
+    throws IOException
+  {
+    apply(filter,xf,yf,null);
+  }
+
+  /**
+   * Gets the tile dimensions used in the most recent apply.
+   * These dimensions exclude overlaps.
+   * @return array {m1,m2,m3} of tile dimensions.
+   */
+  public int[] getTileSize() {
+    return new int[]{_m1,_m2,_m3};
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private long _mm;
+  private int _nthread;
+  private int _n1,_m1,_l1,_r1;
+  private int _n2,_m2,_l2,_r2;
+  private int _n3,_m3,_l3,_r3;
+
+  // A tile with input and output chunks, and a future for its filtering.
+  private class Tile {
+    int i1,i2,i3; // start indices of tile, excluding overlaps
+    int l1,l2,l3; // left overlaps, limited by array bounds
+    int m1,m2,m3; // tile dimensions, limited by array bounds
+    int s1,s2,s3; // chunk dimensions, including overlaps
+    float[][][][] x,y; // input and output chunks
+    Future<Void> future;
+    Tile(int i1, int i2, int i3) {
+      this.i1 = i1;  l1 = min(_l1,i1);  m1 = min(_m1,_n1-i1);
+      this.i2 = i2;  l2 = min(_l2,i2);  m2 = min(_m2,_n2-i2);
+      this.i3 = i3;  l3 = min(_l3,i3);  m3 = min(_m3,_n3-i3);
+      s1 = l1+m1+min(_r1,_n1-i1-m1);
+      s2 = l2+m2+min(_r2,_n2-i2-m2);
+      s3 = l3+m3+min(_r3,_n3-i3-m3);
+    }
+  }
+
+  private long byteOffset(int i1, int i2, int i3) {
+    return 4*((long)i1+(long)i2*_n1+(long)i3*_n1*_n2);
+  }
+
+  // Chooses tile dimensions m1, m2 and m3 such that chunks, including
+  // overlaps, have no more than mc floats. Beginning with an entire
+  // array, repeatedly halves the tile dimension for which overlaps are
+  // relatively smallest, because halving that dimension least increases
+  // the fraction of computation wasted in overlaps. Ties favor halving
+  // the 3rd dimension, and then the 2nd, for sequential file I/O.
+  private void chooseTileSize(long mc) {
+    long nmin = (1L+_l1+_r1)*(1L+_l2+_r2)*(1L+_l3+_r3);
+    Check.argument(nmin<=mc,"max memory is large enough");
+    int m1 = _n1, m2 = _n2, m3 = _n3;
+    while ((long)(_l1+m1+_r1)*(_l2+m2+_r2)*(_l3+m3+_r3)>mc) {
+      float f1 = (m1>1)?(float)m1/(1+_l1+_r1):0.0f;
+      float f2 = (m2>1)?(float)m2/(1+_l2+_r2):0.0f;
+      float f3 = (m3>1)?(float)m3/(1+_l3+_r3):0.0f;
+      if (f3>=f2 && f3>=f1) {
+        m3 = (m3+1)/2;
+      } else if (f2>=f1) {
+        m2 = (m2+1)/2;
+      } else {
+        m1 = (m1+1)/2;
+      }
+    }
+    _m1 = m1;
+    _m2 = m2;
+    _m3 = m3;
+  }
+
+  // Reads input chunks and allocates output chunks for a tile.
+  private void read(Tile t, ArrayFile[] xf, int ny, int[] ip)
+    throws IOException
+  {
+    int nx = xf.length;
+    int j1 = t.i1-t.l1;
+    int j2 = t.i2-t.l2;
+    int j3 = t.i3-t.l3;
+    t.x = new float[nx][][][];
+    t.y = new float[ny][][][];
+    for (int ix=0; ix<nx; ++ix) {
+      float[][][] xi = t.x[ix] = new float[t.s3][t.s2][t.s1];
+      if (t.s1==_n1 && t.s2==_n2) {
+        xf[ix].seek(byteOffset(0,0,j3));
+        xf[ix].readFloats(xi);
+      } else if (t.s1==_n1) {
+        for (int k3=0; k3<t.s3; ++k3) {
+          xf[ix].seek(byteOffset(0,j2,j3+k3));
+          xf[ix].readFloats(xi[k3]);
+        }
+      } else {
+        for (int k3=0; k3<t.s3; ++k3) {
+          for (int k2=0; k2<t.s2; ++k2) {
+            xf[ix].seek(byteOffset(j1,j2+k2,j3+k3));
+            xf[ix].readFloats(xi[k3][k2]);
+          }
+        }
+      }
+    }
+    for (int iy=0; iy<ny; ++iy)
+      t.y[iy] = ip[iy]<0?new float[t.s3][t.s2][t.s1]:t.x[ip[iy]];
+  }
+
+  // Waits for a tile to be filtered, and then writes its output chunks,
+  // excluding overlaps.
+  private void write(Tile t, ArrayFile[] yf) throws IOException {
+    try {
+      t.future.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+    int ny = yf.length;
+    for (int iy=0; iy<ny; ++iy) {
+      float[][][] yi = t.y[iy];
+      for (int k3=0; k3<t.m3; ++k3) {
+        if (t.m1==_n1) {
+          yf[iy].seek(byteOffset(0,t.i2,t.i3+k3));
+          for (int k2=0; k2<t.m2; ++k2)
+            yf[iy].writeFloats(yi[t.l3+k3][t.l2+k2]);
+        } else {
+          for (int k2=0; k2<t.m2; ++k2) {
+            yf[iy].seek(byteOffset(t.i1,t.i2+k2,t.i3+k3));
+            yf[iy].writeFloats(yi[t.l3+k3][t.l2+k2],t.l1,t.m1);
+          }
+        }
+      }
+    }
+    t.x = null;
+    t.y = null;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // testing
+
+  // Implements a simple moving average filter.
+  private static class TestFilter implements FileFloat3Chunks.Filter {
+    TestFilter(int l1, int r1, int l2, int r2, int l3, int r3) {
+      _l1 = l1;  _r1 = r1;
+      _l2 = l2;  _r2 = r2;
+      _l3 = l3;  _r3 = r3;
+    }
+    int _l1,_l2,_l3;
+    int _r1,_r2,_r3;
+    public void apply(
+      int i1, int i2, int i3,
+      float[][][][] x, float[][][][] y)
+    {
+      float[][][] xi = x[0];
+      float[][][] yi = y[0];
+      int n1 = xi[0][0].length;
+      int n2 = xi[0].length;
+      int n3 = xi.length;
+      for (int j3=0; j3<n3; ++j3) {
+        int k3lo = max(0,j3-_l3);
+        int k3hi = min(n3-1,j3+_r3);
+        for (int j2=0; j2<n2; ++j2) {
+          int k2lo = max(0,j2-_l2);
+          int k2hi = min(n2-1,j2+_r2);
+          for (int j1=0; j1<n1; ++j1) {
+            int k1lo = max(0,j1-_l1);
+            int k1hi = min(n1-1,j1+_r1);
+            float sum = 0.0f;
+            for (int k3=k3lo; k3<=k3hi; ++k3) {
+              for (int k2=k2lo; k2<=k2hi; ++k2) {
+                for (int k1=k1lo; k1<=k1hi; ++k1) {
+                  sum += xi[k3][k2][k1];
+                }
+              }
+            }
+            yi[j3][j2][j1] = sum;
+          }
+        }
+      }
+    }
+  }
+
+  private static void testFilter(
+    long maxMemory,
+    int n1, int l1, int r1,
+    int n2, int l2, int r2,
+    int n3, int l3, int r3)
+    throws IOException
+  {
+    float[][][] x = randfloat(n1,n2,n3);
+    float[][][] y = zerofloat(n1,n2,n3);
+    float[][][] z = zerofloat(n1,n2,n3);
+    TestFilter tf = new TestFilter(l1,r1,l2,r2,l3,r3);
+    File xfile = null;
+    File yfile = null;
+    ArrayFile xaf = null;
+    ArrayFile yaf = null;
+    try {
+      tf.apply(0,0,0,new float[][][][]{x},new float[][][][]{z});
+      xfile = File.createTempFile("junkx","dat");
+      yfile = File.createTempFile("junky","dat");
+      xaf = new ArrayFile(xfile,"rw");
+      yaf = new ArrayFile(yfile,"rw");
+      xaf.writeFloats(x);
+      FileFloat3Tiles ff3t =
+        new FileFloat3Tiles(maxMemory,n1,l1,r1,n2,l2,r2,n3,l3,r3);
+      ff3t.apply(tf,new ArrayFile[]{xaf},new ArrayFile[]{yaf});
+      yaf.seek(0);
+      yaf.readFloats(y);
+      int[] m = ff3t.getTileSize();
+      System.out.println("m1 = "+m[0]+" m2 = "+m[1]+" m3 = "+m[2]);
+      System.out.println("emax = "+max(abs(sub(y,z))));
+    } finally {
+      if (xaf!=null) xaf.close();
+      if (yaf!=null) yaf.close();
+      if (xfile!=null) xfile.delete();
+      if (yfile!=null) yfile.delete();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int n1 = 31,  l1 = 1,  r1 = 2;
+    int n2 = 29,  l2 = 2,  r2 = 3;
+    int n3 = 27,  l3 = 3,  r3 = 4;
+    int nthread = Runtime.getRuntime().availableProcessors();
+    for (int m=8; m<=32; m*=2) {
+      long maxMemory = 2L*(nthread+2)*(l1+m+r1)*(l2+m+r2)*(l3+m+r3);
+      testFilter(maxMemory,n1,l1,r1,n2,l2,r2,n3,l3,r3);
+    }
+  }
+}
@@ -0,0 +1,743 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package ldf;
+
+import edu.mines.jtk.la.DMatrix;
+import edu.mines.jtk.la.DMatrixLud;
+import edu.mines.jtk.util.*;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+import dnp.CgSolver;
+import dnp.Vec;
+import dnp.VecArrayFloat3;
+
+/**
+ * A multigrid solver for 3-D grids. Solves Ax = b, where A is a linear
+ * operator, b is a known function sampled on a 3-D grid, and x is an
+ * unknown sampled function to be computed.
+ * <p>
+ * This solver supports operators with 3x3x3 stencils, such as those of
+ * {@link LocalSpd27Filter}. For such stencils, each sample of b is coupled
+ * to 27 samples nearest to the corresponding sample of x. That is,
+ * <pre><code>
+ * b[i3][i2][i1] = sum over k1, k2, k3 = -1, 0, 1 of
+ *   a[(k1+1)+3*(k2+1)+9*(k3+1)]*x[i3+k3][i2+k2][i1+k1];
+ * </code></pre>
+ * where samples of x outside the grid are zero.
+ * <p>
+ * Coarse-grid operators are computed by Galerkin coarsening, with
+ * full-weighting restriction and trilinear interpolation. Smoothing is
+ * eight-color Gauss-Seidel relaxation. Samples of any one color are not
+ * coupled by a 27-point stencil, so that each color is relaxed in parallel,
+ * as are applications of the operator, restriction and interpolation.
+ * <p>
+ * For symmetric positive-definite operators, one cycle with zero initial
+ * solution, and with equal numbers of smoothings before and after
+ * downsampling, is a symmetric positive-definite approximate inverse of A.
+ * This solver may therefore be used as a preconditioner for conjugate
+ * gradients, for which the number of iterations required is nearly
+ * independent of the number of samples in the grid.
+ *
+ * @author agent
+ * @version 2026.10.17
+ */
+public class Multigrid3 {
+
+  /**
+   * A linear operator represented by a 3x3x3 27-point stencil.
+   */
+  public interface A333 {
+
+    /**
+     * Gets 27 stencil coefficients for specified indices.
+     * This method may be called by multiple threads.
+     * @param i1 index in 1st dimension.
+     * @param i2 index in 2nd dimension.
+     * @param i3 index in 3rd dimension.
+     * @param a array of stencil coefficients.
+     */
+    public void get(int i1, int i2, int i3, float[] a);
+  }
+
+  /**
+   * A simple implementation for 3x3x3 stencils.
+   */
+  public static class SimpleA333 implements A333 {
+
+    /**
+     * Constructs a simple 3x3x3 stencil. See description above.
+     * @param a array[n3][n2][n1][27] of stencil coefficients.
+     */
+    public SimpleA333(float[][][][] a) {
+      _a = a;
+    }
+    public void get(int i1, int i2, int i3, float[] a) {
+      copy(_a[i3][i2][i1],a);
+    }
+    private float[][][][] _a;
+  }
+
+  /**
+   * A 3x3x3 stencil for the coefficients of a local SPD filter.
+   * The 14 coefficients specified for each sample are those of the
+   * filter {@link LocalSpd27Filter}; the other 13 coefficients in each
+   * stencil are determined by symmetry.
+   */
+  public static class Spd27A333 implements A333 {
+
+    /**
+     * Constructs a stencil for specified filter coefficients.
+     * @param s arrays[14][n3][n2][n1] of coefficients; by reference.
+     *  The elements of the array s are
+     *  {s000,s00p,s0pm,s0p0,s0pp,spmm,spm0,spmp,sp0m,sp00,sp0p,sppm,spp0,sppp}.
+     */
+    public Spd27A333(float[][][][] s) {
+      _s = s;
+      _n1 = s[0][0][0].length;
+      _n2 = s[0][0].length;
+      _n3 = s[0].length;
+    }
+    public void get(int i1, int i2, int i3, float[] a) {
+      a[13] = _s[0][i3][i2][i1];
+      for (int is=1; is<14; ++is) {
+        int k1 = K1[is], k2 = K2[is], k3 = K3[is];
+        int k = 13+k1+3*k2+9*k3;
+        int j1 = i1-k1, j2 = i2-k2, j3 = i3-k3;
+        a[k] = _s[is][i3][i2][i1];
+        a[26-k] = (0<=j1 && j1<_n1 && 0<=j2 && j2<_n2 && 0<=j3 && j3<_n3) ?
+          _s[is][j3][j2][j1] :
+          0.0f;
+      }
+    }
+    private float[][][][] _s;
+    private int _n1,_n2,_n3;
+    private static final int[] K1 = {0,1,-1,0,1,-1,0,1,-1,0,1,-1,0,1};
+    private static final int[] K2 = {0,0, 1,1,1,-1,-1,-1,0,0,0,1,1,1};
+    private static final int[] K3 = {0,0, 0,0,0, 1, 1, 1,1,1,1,1,1,1};
+  }
+
+  /**
+   * Constructs a multigrid solver.
+   * @param n1 number of samples in 1st dimension of grid.
+   * @param n2 number of samples in 2nd dimension of grid.
+   * @param n3 number of samples in 3rd dimension of grid.
+   * @param a333 a 3x3x3 stencil.
+   * @param nbefore number of smoothings before downsampling.
+   * @param ncycle number of recursive cycles at each coarse grid level.
+   *  In the terminology of multigrid methods, ncycle=1 yields a V cycle,
+   *  and ncycle=2 yields a W cycle. Values greater than 2 are unusual.
+   * @param nafter number of smoothings after upsampling.
+   */
+  public Multigrid3(
+    int n1, int n2, int n3, A333 a333,
+    int nbefore, int ncycle, int nafter)
+  {
+    _n1 = n1;
+    _n2 = n2;
+    _n3 = n3;
+    _nlevel = nlevel(n1,n2,n3);
+    _nbefore = nbefore;
+    _ncycle = ncycle;
+    _nafter = nafter;
+
+    // Array of operators, for the specified grid and coarser grids.
+    _a333s = new A333[_nlevel];
+    _a333s[_nlevel-1] = a333;
+    for (int ilevel=_nlevel-2; ilevel>=0; --ilevel) {
+      _a333s[ilevel] = coarsen(n1,n2,n3,_a333s[ilevel+1]);
+      n1 = (n1+1)/2;
+      n2 = (n2+1)/2;
+      n3 = (n3+1)/2;
+    }
+
+    // LU decomposition for the coarsest grid, if not too large.
+    if (n1*n2*n3<=NDIRECT)
+      _lud = factor(n1,n2,n3,_a333s[0]);
+  }
+
+  /**
+   * Updates the multigrid solution x of Ax = b with one cycle for the
+   * finest grid level. Typically, this update corresponds to one V or
+   * W cycle. If a good initial guess is not available, the solution x
+   * may be initially zero.
+   * @param b array[n3][n2][n1] for the right-hand-side.
+   * @param x array[n3][n2][n1] for the solution to be updated.
+   */
+  public void update(float[][][] b, float[][][] x) {
+    cycleDownUp(_nlevel-1,b,x);
+  }
+
+  /**
+   * Solves Ax = b by conjugate gradient iterations preconditioned with
+   * one cycle of this multigrid solver. The operator A must be symmetric
+   * and positive-definite, and the numbers of smoothings before and
+   * after downsampling should be equal.
+   * @param tiny threshold for ratio of residuals ||r||/||b||.
+   * @param maxi maximum number of iterations to perform.
+   * @param b array[n3][n2][n1] for the right-hand-side.
+   * @param x array[n3][n2][n1] for the initial and final solution.
+   * @return information about the solution.
+   */
+  public CgSolver.Info solve(
+    double tiny, int maxi, float[][][] b, float[][][] x)
+  {
+    CgSolver cs = new CgSolver(tiny,maxi);
+    VecArrayFloat3 vb = new VecArrayFloat3(b);
+    VecArrayFloat3 vx = new VecArrayFloat3(x);
+    return cs.solve(getOperator(),getPreconditioner(),vb,vx);
+  }
+
+  /**
+   * Returns the operator A for the finest grid. This operator is useful
+   * for conjugate gradient solvers.
+   * @return the operator A.
+   */
+  public CgSolver.A getOperator() {
+    return new CgSolver.A() {
+      public void apply(Vec x, Vec y) {
+        float[][][] xa = ((VecArrayFloat3)x).getArray();
+        float[][][] ya = ((VecArrayFloat3)y).getArray();
+        Multigrid3.apply(_a333s[_nlevel-1],xa,ya);
+      }
+    };
+  }
+
+  /**
+   * Returns a preconditioner that approximates the inverse of A with one
+   * cycle of this multigrid solver, beginning with a zero solution. This
+   * preconditioner is symmetric if the numbers of smoothings before and
+   * after downsampling are equal.
+   * @return the preconditioner.
+   */
+  public CgSolver.A getPreconditioner() {
+    return new CgSolver.A() {
+      public void apply(Vec x, Vec y) {
+        float[][][] xa = ((VecArrayFloat3)x).getArray();
+        float[][][] ya = ((VecArrayFloat3)y).getArray();
+        zero(ya);
+        update(xa,ya);
+      }
+    };
+  }
+
+  /**
+   * Returns the sum of squared residuals r = b-Ax.
+   * @param b array[n3][n2][n1] for the right-hand-side.
+   * @param x array[n3][n2][n1] for the solution.
+   */
+  public float normResidual(float[][][] b, float[][][] x) {
+    float[][][] c = new float[_n3][_n2][_n1];
+    apply(_a333s[_nlevel-1],x,c);
+    return normError(b,c);
+  }
+
+  /**
+   * Returns the sum of squared errors e = x-y, where y is a known solution.
+   * Useful only for test problems for which the solution is known.
+   * @param x array[n3][n2][n1] for the estimated solution.
+   * @param y array[n3][n2][n1] for the known solution.
+   */
+  public float normError(float[][][] x, float[][][] y) {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    double sum = 0.0f;
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          float e = x[i3][i2][i1]-y[i3][i2][i1];
+          sum += e*e;
+        }
+      }
+    }
+    return (float)sum;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  // The coarsest grid is solved by LU decomposition only if it has no more
+  // than this number of samples. Otherwise, it is solved approximately by
+  // this number of symmetric pairs of smoothings.
+  private static final int NDIRECT = 1000;
+  private static final int NSMOOTH = 20;
+
+  private int _n1,_n2,_n3; // grid dimensions
+  private int _nlevel; // number of multigrid levels
+  private int _nbefore; // number of smoothings before downsampling
+  private int _ncycle; // number of recursive cycles on coarse grids
+  private int _nafter; // number of smoothings after upsampling
+  private A333[] _a333s; // array of operators, one for each level
+  private DMatrixLud _lud; // LU decomposition for the coarsest grid
+
+  // Weights of the stencil [1/2,1,1/2]x[1/2,1,1/2]x[1/2,1,1/2] for
+  // interpolation, indexed like stencil coefficients.
+  private static final float[] S = new float[27];
+  static {
+    float[] s = {0.5f,1.0f,0.5f};
+    for (int k3=0,k=0; k3<3; ++k3)
+      for (int k2=0; k2<3; ++k2)
+        for (int k1=0; k1<3; ++k1,++k)
+          S[k] = s[k1]*s[k2]*s[k3];
+  }
+
+  // Terms in Galerkin coarsening. For fine-grid sample 2*i+e nearest the
+  // coarse-grid sample i, the fine coefficient with index g contributes to
+  // the coarse coefficient with index CD[e][j] the fraction CW[e][j] when
+  // CG[e][j] = g. Only terms with non-zero fractions are stored.
+  private static final int[][] CD = new int[27][];
+  private static final int[][] CG = new int[27][];
+  private static final float[][] CW = new float[27][];
+  static {
+    int[] td = new int[27*27];
+    int[] tg = new int[27*27];
+    float[] tw = new float[27*27];
+    for (int e=0; e<27; ++e) {
+      int nt = 0;
+      for (int g=0; g<27; ++g) {
+        for (int d=0; d<27; ++d) {
+          int f1 = e%3+g%3-2*(d%3)+1;
+          int f2 = e/3%3+g/3%3-2*(d/3%3)+1;
+          int f3 = e/9+g/9-2*(d/9)+1;
+          if (0<=f1 && f1<=2 && 0<=f2 && f2<=2 && 0<=f3 && f3<=2) {
+            int f = f1+3*f2+9*f3;
+            td[nt] = d;
+            tg[nt] = g;
+            tw[nt] = 0.125f*S[e]*S[f];
+            ++nt;
+          }
+        }
+      }
+      CD[e] = copy(nt,td);
+      CG[e] = copy(nt,tg);
+      CW[e] = copy(nt,tw);
+    }
+  }
+
+  /**
+   * Computes the number of levels such that none of n1, n2 or n3 on the
+   * coarsest grid is less than 3.
+   */
+  private static int nlevel(int n1, int n2, int n3) {
+    int nlevel = 1;
+    while (n1>=5 && n2>=5 && n3>=5) {
+      n1 = (n1+1)/2;
+      n2 = (n2+1)/2;
+      n3 = (n3+1)/2;
+      ++nlevel;
+    }
+    return nlevel;
+  }
+
+  /**
+   * Returns the product of the stencil a with the 27 samples of x nearest
+   * to the sample with specified indices. Samples outside the grid are zero.
+   */
+  private static float dot(
+    float[] a, float[][][] x, int i1, int i2, int i3)
+  {
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+    boolean inside1 = 0<i1 && i1<n1-1;
+    float t = 0.0f;
+    for (int j3=i3-1,k=0; j3<=i3+1; ++j3) {
+      if (j3<0 || j3>=n3) {
+        k += 9;
+        continue;
+      }
+      for (int j2=i2-1; j2<=i2+1; ++j2,k+=3) {
+        if (j2<0 || j2>=n2)
+          continue;
+        float[] xj = x[j3][j2];
+        if (inside1) {
+          t += a[k]*xj[i1-1]+a[k+1]*xj[i1]+a[k+2]*xj[i1+1];
+        } else {
+          if (i1>0) t += a[k]*xj[i1-1];
+          t += a[k+1]*xj[i1];
+          if (i1<n1-1) t += a[k+2]*xj[i1+1];
+        }
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Applies the specified operator. Computes y = Ax.
+   */
+  private static void apply(
+    final A333 a333, final float[][][] x, final float[][][] y)
+  {
+    final int n1 = y[0][0].length;
+    final int n2 = y[0].length;
+    int n3 = y.length;
+    Parallel.loop(n3,new Parallel.LoopInt() {
+    public void compute(int i3) {
+      float[] a = new float[27];
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          a333.get(i1,i2,i3,a);
+          y[i3][i2][i1] = dot(a,x,i1,i2,i3);
+        }
+      }
+    }});
+  }
+
+  /**
+   * Computes the residual r = b-Ax.
+   */
+  private static void residual(
+    final A333 a333, final float[][][] b, final float[][][] x,
+    final float[][][] r)
+  {
+    final int n1 = x[0][0].length;
+    final int n2 = x[0].length;
+    int n3 = x.length;
+    Parallel.loop(n3,new Parallel.LoopInt() {
+    public void compute(int i3) {
+      float[] a = new float[27];
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          a333.get(i1,i2,i3,a);
+          r[i3][i2][i1] = b[i3][i2][i1]-dot(a,x,i1,i2,i3);
+        }
+      }
+    }});
+  }
+
+  /**
+   * Returns the LU decomposition of the matrix for the specified operator,
+   * which is costly unless the number of samples is small.
+   */
+  private static DMatrixLud factor(int n1, int n2, int n3, A333 a333) {
+    int n = n1*n2*n3;
+    DMatrix am = new DMatrix(n,n);
+    float[] ai = new float[27];
+    for (int i3=0,i=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1,++i) {
+          a333.get(i1,i2,i3,ai);
+          for (int k=0; k<27; ++k) {
+            int j1 = i1+k%3-1;
+            int j2 = i2+k/3%3-1;
+            int j3 = i3+k/9-1;
+            if (0<=j1 && j1<n1 && 0<=j2 && j2<n2 && 0<=j3 && j3<n3) {
+              int j = j1+j2*n1+j3*n1*n2;
+              am.set(i,j,ai[k]);
+            }
+          }
+        }
+      }
+    }
+    return new DMatrixLud(am);
+  }
+
+  /**
+   * Computes the solution x of the system Ax = b for the coarsest grid.
+   */
+  private void solve(A333 a333, float[][][] b, float[][][] x) {
+    int n1 = b[0][0].length;
+    int n2 = b[0].length;
+    int n3 = b.length;
+    if (_lud!=null) {
+      int n = n1*n2*n3;
+      DMatrix bm = new DMatrix(n,1);
+      for (int i3=0,i=0; i3<n3; ++i3)
+        for (int i2=0; i2<n2; ++i2)
+          for (int i1=0; i1<n1; ++i1,++i)
+            bm.set(i,0,b[i3][i2][i1]);
+      DMatrix xm = _lud.solve(bm);
+      for (int i3=0,i=0; i3<n3; ++i3)
+        for (int i2=0; i2<n2; ++i2)
+          for (int i1=0; i1<n1; ++i1,++i)
+            x[i3][i2][i1] = (float)xm.get(i,0);
+    } else {
+      for (int ismooth=0; ismooth<NSMOOTH; ++ismooth) {
+        smooth(a333,b,x,false);
+        smooth(a333,b,x,true);
+      }
+    }
+  }
+
+  /**
+   * Performs one cycle of the multigrid for the specified grid level.
+   * This cycle may recursively perform multiple cycles for lower levels
+   * corresponding to coarser grids. If the specified level is zero,
+   * corresponding to the coarsest grid, then this method solves this
+   * smallest system directly.
+   */
+  private void cycleDownUp(int ilevel, float[][][] b, float[][][] x) {
+    A333 a333 = _a333s[ilevel];
+    int n1 = x[0][0].length;
+    int n2 = x[0].length;
+    int n3 = x.length;
+
+    // If coarsest grid, solve the coarsest system.
+    if (ilevel==0) {
+      solve(a333,b,x);
+    }
+
+    // Else, cycle recursively on coarser grids.
+    else {
+
+      // Smooth the solution x.
+      for (int ibefore=0; ibefore<_nbefore; ++ibefore)
+        smooth(a333,b,x,false);
+
+      // Compute the residual.
+      float[][][] r = new float[n3][n2][n1];
+      residual(a333,b,x,r);
+
+      // Downsample the residual.
+      int m1 = (n1+1)/2;
+      int m2 = (n2+1)/2;
+      int m3 = (n3+1)/2;
+      float[][][] rc = new float[m3][m2][m1];
+      downsample(r,rc);
+
+      // Estimate error from downsampled residual on coarser grid.
+      float[][][] ec = new float[m3][m2][m1];
+      for (int icycle=0; icycle<_ncycle; ++icycle)
+        cycleDownUp(ilevel-1,rc,ec);
+
+      // Upsample the estimated error and accumulate in solution x.
+      upsample(ec,x);
+
+      // Smooth the solution x, with colors in reverse order.
+      for (int iafter=0; iafter<_nafter; ++iafter)
+        smooth(a333,b,x,true);
+    }
+  }
+
+  /**
+   * Eight-color Gauss-Seidel relaxation. Colors are the eight combinations
+   * of even and odd indices i1, i2 and i3. Samples of one color are not
+   * coupled, so each color is relaxed in parallel for slices i3. If
+   * reverse, colors are relaxed in reverse order, which makes the
+   * relaxation the transpose of that for colors in forward order.
+   */
+  private static void smooth(
+    final A333 a333, final float[][][] b, final float[][][] x,
+    boolean reverse)
+  {
+    final int n1 = x[0][0].length;
+    final int n2 = x[0].length;
+    int n3 = x.length;
+    for (int ic=0; ic<8; ++ic) {
+      int kc = reverse?7-ic:ic;
+      final int k1 = kc%2;
+      final int k2 = kc/2%2;
+      int k3 = kc/4;
+      Parallel.loop(k3,n3,2,new Parallel.LoopInt() {
+      public void compute(int i3) {
+        float[] a = new float[27];
+        for (int i2=k2; i2<n2; i2+=2) {
+          for (int i1=k1; i1<n1; i1+=2) {
+            a333.get(i1,i2,i3,a);
+            float ri = b[i3][i2][i1]-dot(a,x,i1,i2,i3);
+            x[i3][i2][i1] += ri/a[13];
+          }
+        }
+      }});
+    }
+  }
+
+  /**
+   * Returns a coarsened version of the specified operator.
+   * The specified operator has indices for an array[n3][n2][n1].
+   * The coarse operator has indices for an array[m3][m2][m1], where
+   * m1 = (n1+1)/2, m2 = (n2+1)/2, and m3 = (n3+1)/2.
+   */
+  private static A333 coarsen(
+    final int n1, final int n2, final int n3, final A333 a333)
+  {
+    final int m1 = (n1+1)/2;
+    final int m2 = (n2+1)/2;
+    int m3 = (n3+1)/2;
+    final float[][][][] b = new float[m3][m2][m1][27];
+    Parallel.loop(m3,new Parallel.LoopInt() {
+    public void compute(int i3) {
+      float[] aj = new float[27];
+      for (int i2=0; i2<m2; ++i2) {
+        for (int i1=0; i1<m1; ++i1) {
+          float[] bi = b[i3][i2][i1];
+          for (int e=0; e<27; ++e) {
+            int j1 = 2*i1+e%3-1;
+            int j2 = 2*i2+e/3%3-1;
+            int j3 = 2*i3+e/9-1;
+            if (0<=j1 && j1<n1 && 0<=j2 && j2<n2 && 0<=j3 && j3<n3) {
+              a333.get(j1,j2,j3,aj);
+              int[] cd = CD[e], cg = CG[e];
+              float[] cw = CW[e];
+              for (int it=0; it<cd.length; ++it)
+                bi[cd[it]] += cw[it]*aj[cg[it]];
+            }
+          }
+        }
+      }
+    }});
+    return new SimpleA333(b);
+  }
+
+  // Downsamples from [n3][n2][n1] x samples to [m3][m2][m1] y samples,
+  // where m1 = (n1+1)/2, m2 = (n2+1)/2, and m3 = (n3+1)/2. The gathering
+  // stencil is the interpolation stencil S scaled by 1/8.
+  private static void downsample(final float[][][] x, final float[][][] y) {
+    final int n1 = x[0][0].length;
+    final int n2 = x[0].length;
+    final int n3 = x.length;
+    final int m1 = y[0][0].length;
+    final int m2 = y[0].length;
+    int m3 = y.length;
+    Parallel.loop(m3,new Parallel.LoopInt() {
+    public void compute(int i3) {
+      for (int i2=0; i2<m2; ++i2) {
+        for (int i1=0; i1<m1; ++i1) {
+          float t = 0.0f;
+          for (int e=0; e<27; ++e) {
+            int j1 = 2*i1+e%3-1;
+            int j2 = 2*i2+e/3%3-1;
+            int j3 = 2*i3+e/9-1;
+            if (0<=j1 && j1<n1 && 0<=j2 && j2<n2 && 0<=j3 && j3<n3)
+              t += S[e]*x[j3][j2][j1];
+          }
+          y[i3][i2][i1] = 0.125f*t;
+        }
+      }
+    }});
+  }
+
+  // Upsamples from [m3][m2][m1] x samples to [n3][n2][n1] y samples,
+  // where m1 = (n1+1)/2, m2 = (n2+1)/2, and m3 = (n3+1)/2. The scattering
+  // stencil is the interpolation stencil S. Accumulates into the output
+  // array y. Because slices x[i3] scatter into slices y[2*i3-1:2*i3+1],
+  // even and odd slices x[i3] are scattered in two parallel loops.
+  private static void upsample(final float[][][] x, final float[][][] y) {
+    final int m1 = x[0][0].length;
+    final int m2 = x[0].length;
+    int m3 = x.length;
+    final int n1 = y[0][0].length;
+    final int n2 = y[0].length;
+    final int n3 = y.length;
+    for (int k3=0; k3<2; ++k3) {
+      Parallel.loop(k3,m3,2,new Parallel.LoopInt() {
+      public void compute(int i3) {
+        for (int i2=0; i2<m2; ++i2) {
+          for (int i1=0; i1<m1; ++i1) {
+            float xi = x[i3][i2][i1];
+            for (int e=0; e<27; ++e) {
+              int j1 = 2*i1+e%3-1;
+              int j2 = 2*i2+e/3%3-1;
+              int j3 = 2*i3+e/9-1;
+              if (0<=j1 && j1<n1 && 0<=j2 && j2<n2 && 0<=j3 && j3<n3)
+                y[j3][j2][j1] += S[e]*xi;
+            }
+          }
+        }
+      }});
+    }
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // testing
+
+  // Ensures that upsampling is the transpose of downsampling, to within
+  // the scale factor 8.
+  private static void testDownUpSampling(int n1, int n2, int n3) {
+    int m1 = (n1+1)/2, m2 = (n2+1)/2, m3 = (n3+1)/2;
+    float[][][] x = randfloat(n1,n2,n3);
+    float[][][] y = randfloat(m1,m2,m3);
+    float[][][] ax = zerofloat(m1,m2,m3);
+    float[][][] ay = zerofloat(n1,n2,n3);
+    downsample(x,ax);
+    upsample(y,ay);
+    double xay = sum(mul(x,ay));
+    double yax = 8.0*sum(mul(y,ax));
+    trace("testDownUpSampling: n1="+n1+" n2="+n2+" n3="+n3+
+          " xay="+xay+" yax="+yax);
+  }
+
+  // Solves a Poisson problem with a 27-point stencil for a few grid sizes,
+  // with multigrid cycles and with conjugate gradients, both without and
+  // with multigrid preconditioning. Numbers of cycles and preconditioned
+  // iterations should not grow with the grid size.
+  private static void testSolve(int n) {
+    int n1 = n, n2 = n, n3 = n;
+    float[][][][] s = new float[14][n3][n2][n1];
+    float[][][] y = new float[n3][n2][n1]; // known solution
+    loadPoisson(s,y);
+    A333 a333 = new Spd27A333(s);
+    Multigrid3 mg = new Multigrid3(n1,n2,n3,a333,2,1,2);
+    float[][][] b = new float[n3][n2][n1];
+    apply(a333,y,b);
+    float[][][] z = new float[n3][n2][n1];
+    float bnorm = mg.normError(b,z);
+    float ynorm = mg.normError(y,z);
+
+    // Multigrid V cycles.
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    float[][][] x = new float[n3][n2][n1];
+    int ncycle = 0;
+    for (; ncycle<50 && mg.normResidual(b,x)>1.0e-12f*bnorm; ++ncycle)
+      mg.update(b,x);
+    sw.stop();
+    trace("n="+n+" levels="+mg._nlevel);
+    trace("  multigrid: cycles="+ncycle+" time="+sw.time()+
+          " error="+sqrt(mg.normError(x,y)/ynorm));
+
+    // Conjugate gradients, without and with preconditioning.
+    VecArrayFloat3 vb = new VecArrayFloat3(b);
+    for (int ipc=0; ipc<2; ++ipc) {
+      zero(x);
+      CgSolver cs = new CgSolver(1.0e-6,10000);
+      VecArrayFloat3 vx = new VecArrayFloat3(x);
+      sw.restart();
+      CgSolver.Info info = (ipc==0) ?
+        cs.solve(mg.getOperator(),vb,vx) :
+        cs.solve(mg.getOperator(),mg.getPreconditioner(),vb,vx);
+      sw.stop();
+      trace("  cg"+((ipc==0)?"":" + multigrid")+": iterations="+info.niter+
+            " time="+sw.time());
+    }
+  }
+
+  // The 27-point stencil for Poisson's equation with trilinear finite
+  // elements, and a random known solution.
+  private static void loadPoisson(float[][][][] s, float[][][] y) {
+    java.util.Random r = new java.util.Random(314159);
+    int n1 = y[0][0].length;
+    int n2 = y[0].length;
+    int n3 = y.length;
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          s[0][i3][i2][i1] = 8.0f/3.0f; // s000
+          s[1][i3][i2][i1] = s[3][i3][i2][i1] = s[9][i3][i2][i1] = 0.0f;
+          s[2][i3][i2][i1] = s[4][i3][i2][i1] = -1.0f/6.0f; // edges
+          s[6][i3][i2][i1] = s[8][i3][i2][i1] = -1.0f/6.0f;
+          s[10][i3][i2][i1] = s[12][i3][i2][i1] = -1.0f/6.0f;
+          s[5][i3][i2][i1] = s[7][i3][i2][i1] = -1.0f/12.0f; // corners
+          s[11][i3][i2][i1] = s[13][i3][i2][i1] = -1.0f/12.0f;
+          y[i3][i2][i1] = r.nextFloat()-0.5f;
+        }
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    testDownUpSampling(17,18,19);
+    testDownUpSampling(18,17,20);
+    int[] ns = {17,33,65,129};
+    for (int n:ns)
+      testSolve(n);
+  }
+}
@@ -7,20 +7,120 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 package lss;
 
 import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import javax.swing.*;
 import edu.mines.jtk.awt.*;
 import edu.mines.jtk.dsp.*;
 import edu.mines.jtk.mosaic.*;
+import edu.mines.jtk.util.Parallel;
+import edu.mines.jtk.util.Stopwatch;
 import static edu.mines.jtk.util.ArrayMath.*;
 
 /**
  * Tests use of weighted semblance in velocity analysis.
+ * <p>
+ * Velocity spectra are computed in one pass over the traces in a gather.
+ * For each trace and each trial velocity, one NMO-corrected trace is 
+ * computed and added to sums that, after all traces have been processed,
+ * determine semblance for that velocity. NMO-corrected gathers are never
+ * stored. Spectra and velocity picks for many gathers are computed in
+ * parallel, with gathers obtained as needed, perhaps from a file.
  * @author Dave Hale, Colorado School of Mines
  * @version 2009.11.16
  */
 public class Velan {
 
+  /**
+   * A source of gathers. Gathers may be requested concurrently, by
+   * multiple threads, so implementations must be thread-safe.
+   */
+  public interface Gathers {
+
+    /**
+     * Returns the number of gathers.
+     * @return the number of gathers.
+     */
+    public int getCount();
+
+    /**
+     * Returns the specified gather.
+     * @param ig index of the gather.
+     * @return array[nx][nt] of trace samples.
+     */
+    public float[][] getGather(int ig);
+  }
+
+  /**
+   * Gathers read as needed from a file. The file contains a sequence of
+   * gathers, each with nx traces of nt big-endian floats, as written by
+   * an array output stream for an array[ng][nx][nt]. 
+   */
+  public static class FileGathers implements Gathers {
+
+    /**
+     * Constructs gathers in the specified file.
+     * @param fileName the file name.
+     * @param nt number of time samples per trace.
+     * @param nx number of traces per gather.
+     */
+    public FileGathers(String fileName, int nt, int nx) {
+      try {
+        _file = new RandomAccessFile(fileName,"r");
+        _channel = _file.getChannel();
+        _nt = nt;
+        _nx = nx;
+        _ng = (int)(_file.length()/(4L*nt*nx));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    public int getCount() {
+      return _ng;
+    }
+
+    public float[][] getGather(int ig) {
+      int nxt = _nx*_nt;
+      ByteBuffer bb = ByteBuffer.allocate(4*nxt);
+      long pos = 4L*nxt*ig;
+      try {
+        while (bb.hasRemaining()) {
+          if (_channel.read(bb,pos+bb.position())<0)
+            throw new EOFException();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      bb.flip();
+      FloatBuffer fb = bb.asFloatBuffer();
+      float[][] p = new float[_nx][_nt];
+      for (int ix=0; ix<_nx; ++ix)
+        fb.get(p[ix]);
+      return p;
+    }
+
+    /**
+     * Closes the file of gathers.
+     */
+    public void close() {
+      try {
+        _file.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private RandomAccessFile _file;
+    private FileChannel _channel; // positioned reads are thread-safe
+    private int _nt,_nx,_ng;
+  }
+
   public static float[][] velocitySpectrum(
     Sampling st, Sampling sx, float[][] p, 
     Sampling sv, double tsigma, boolean weighted)
@@ -33,20 +133,103 @@ public class Velan {
     float[][] b)
   {
     int nv = sv.getCount();
+    float[][][] a = sums(st,sx,p,sv,weighted);
     float[][] s = new float[nv][];
     for (int iv=0; iv<nv; ++iv) {
-      double v = sv.getValue(iv);
-      float[][] q = nmo(v,st,sx,p);
+      float[][] aiv = a[iv];
       if (weighted) {
         float[] biv = (b!=null)?b[iv]:null;
-        s[iv] = semblance(st,sx,v,tsigma,q,biv);
+        s[iv] = semblanceFromSums(tsigma,aiv,biv);
       } else {
-        s[iv] = semblance(tsigma,q);
+        s[iv] = semblance(tsigma,aiv[1],aiv[2],aiv[0]);
       }
     }
     return s;
   }
 
+  /**
+   * Computes velocity spectra for all gathers, in parallel.
+   * @param st sampling of time.
+   * @param sx sampling of offset.
+   * @param gathers the gathers.
+   * @param sv sampling of velocity.
+   * @param tsigma half-width of smoothing in time, in samples.
+   * @param weighted true, for weighted semblance; false, otherwise.
+   * @return array[ng][nv][nt] of velocity spectra.
+   */
+  public static float[][][] velocitySpectra(
+    final Sampling st, final Sampling sx, final Gathers gathers,
+    final Sampling sv, final double tsigma, final boolean weighted)
+  {
+    int ng = gathers.getCount();
+    final float[][][] s = new float[ng][][];
+    Parallel.loop(ng,new Parallel.LoopInt() {
+    public void compute(int ig) {
+      float[][] p = gathers.getGather(ig);
+      s[ig] = velocitySpectrum(st,sx,p,sv,tsigma,weighted);
+    }});
+    return s;
+  }
+
+  /**
+   * Picks NMO velocities for all gathers, in parallel. For each gather,
+   * the velocity spectrum is computed, picked, and then discarded, so
+   * that memory required does not grow with the number of gathers.
+   * @param st sampling of time.
+   * @param sx sampling of offset.
+   * @param gathers the gathers.
+   * @param sv sampling of velocity.
+   * @param tsigma half-width of smoothing in time, in samples.
+   * @param weighted true, for weighted semblance; false, otherwise.
+   * @return array[ng][nt] of picked velocities.
+   */
+  public static float[][] pickVelocities(
+    final Sampling st, final Sampling sx, final Gathers gathers,
+    final Sampling sv, final double tsigma, final boolean weighted)
+  {
+    int ng = gathers.getCount();
+    final float[][] vp = new float[ng][];
+    Parallel.loop(ng,new Parallel.LoopInt() {
+    public void compute(int ig) {
+      float[][] p = gathers.getGather(ig);
+      float[][] s = velocitySpectrum(st,sx,p,sv,tsigma,weighted);
+      vp[ig] = pickVelocities(sv,s);
+    }});
+    return vp;
+  }
+
+  /**
+   * Picks NMO velocities from a velocity spectrum. For each time, the 
+   * velocity picked is that with maximum semblance, refined by fitting
+   * a parabola to the maximum and its two neighbors.
+   * @param sv sampling of velocity.
+   * @param s array[nv][nt] velocity spectrum.
+   * @return array[nt] of picked velocities.
+   */
+  public static float[] pickVelocities(Sampling sv, float[][] s) {
+    int nv = s.length;
+    int nt = s[0].length;
+    float[] vp = new float[nt];
+    for (int it=0; it<nt; ++it) {
+      int jv = 0;
+      for (int iv=1; iv<nv; ++iv) {
+        if (s[iv][it]>s[jv][it])
+          jv = iv;
+      }
+      double dv = 0.0;
+      if (0<jv && jv<nv-1) {
+        double sm = s[jv-1][it];
+        double s0 = s[jv  ][it];
+        double sp = s[jv+1][it];
+        double den = sm-2.0*s0+sp;
+        if (den<0.0)
+          dv = 0.5*(sm-sp)/den;
+      }
+      vp[it] = (float)(sv.getValue(jv)+dv*sv.getDelta());
+    }
+    return vp;
+  }
+
   public static float[] semblance(
     Sampling st, Sampling sx, double vnmo, double tsigma, float[][] q)
   {
@@ -179,6 +362,17 @@ public class Velan {
         bqq[it] += ui*qq;
       }
     }
+    return semblance(tsigma,arr,arq,aqq,brr,brq,bqq,bs);
+  }
+
+  // Weighted semblance from sums arr, arq, ..., bqq over traces.
+  private static float[] semblance(
+    double tsigma,
+    float[] arr, float[] arq, float[] aqq,
+    float[] brr, float[] brq, float[] bqq,
+    float[] bs)
+  {
+    int nt = arr.length;
     esmooth(tsigma,arr,arr);
     esmooth(tsigma,arq,arq);
     esmooth(tsigma,aqq,aqq);
@@ -256,6 +450,15 @@ public class Velan {
         sx[it] += 1.0f;
       }
     }
+    return semblance(tsigma,sn,sd,sx);
+  }
+
+  // Semblance from sums sn of amplitudes, sd of squared amplitudes, and
+  // sx of counts of non-zero amplitudes. Modifies the arrays of sums.
+  private static float[] semblance(
+    double tsigma, float[] sn, float[] sd, float[] sx)
+  {
+    int nt = sn.length;
     mul(sn,sn,sn);
     esmooth(tsigma,sn,sn);
     esmooth(tsigma,sd,sd);
@@ -268,6 +471,96 @@ public class Velan {
     return s;
   }
 
+  // Sums over all traces in a gather p of NMO-corrected amplitudes q, 
+  // for all velocities, in one pass over the traces. For each velocity, 
+  // the sums are {c,sq,sqq} or, if weighted, {c,sq,sqq,su,suq,suqq}, 
+  // where c is the count of non-zero q, and u is the weight used in 
+  // weighted semblance. These sums determine all other sums required
+  // to compute semblance, without storing the NMO-corrected gathers.
+  private static float[][][] sums(
+    Sampling st, Sampling sx, float[][] p, Sampling sv, boolean weighted)
+  {
+    int nt = st.getCount();
+    double dt = st.getDelta();
+    double ft = st.getFirst();
+    int nx = sx.getCount();
+    int nv = sv.getCount();
+    float xxsum = 0.0f;
+    for (int ix=0; ix<nx; ++ix) {
+      float x = (float)sx.getValue(ix);
+      xxsum += x*x;
+    }
+    float xxscl = 0.1f*xxsum/nx;
+    float[][][] a = new float[nv][weighted?6:3][nt];
+    float[] t = new float[nt];
+    float[] q = new float[nt];
+    SincInterpolator si = new SincInterpolator();
+    for (int ix=0; ix<nx; ++ix) {
+      double x = sx.getValue(ix);
+      float xx = (float)(x*x);
+      for (int iv=0; iv<nv; ++iv) {
+        double v = sv.getValue(iv);
+        double xxg = (x*x)/(v*v);
+        for (int it=0; it<nt; ++it) {
+          double t0 = st.getValue(it);
+          t[it] = (float)sqrt(t0*t0+xxg); 
+        }
+        si.interpolate(nt,dt,ft,p[ix],nt,t,q);
+        float[] c = a[iv][0];
+        float[] sq = a[iv][1];
+        float[] sqq = a[iv][2];
+        if (!weighted) {
+          for (int it=0; it<nt; ++it) {
+            float qi = q[it];
+            if (qi==0.0f) continue;
+            c[it] += 1.0f;
+            sq[it] += qi;
+            sqq[it] += qi*qi;
+          }
+        } else {
+          float[] su = a[iv][3];
+          float[] suq = a[iv][4];
+          float[] suqq = a[iv][5];
+          for (int it=0; it<nt; ++it) {
+            float qi = q[it];
+            if (qi==0.0f) continue;
+            float t0 = (float)(ft+it*dt);
+            float ui = (xx*t0)/(t[it]*xxscl);
+            float uq = ui*qi;
+            c[it] += 1.0f;
+            sq[it] += qi;
+            sqq[it] += qi*qi;
+            su[it] += ui;
+            suq[it] += uq;
+            suqq[it] += uq*qi;
+          }
+        }
+      }
+    }
+    return a;
+  }
+
+  // Weighted semblance from sums {c,sq,sqq,su,suq,suqq} computed for one
+  // velocity. The stack r equals sq, so that, for example, the sum of r*q
+  // is r*r, and the sum of u*r*r is r*r*su. Modifies the arrays of sums.
+  private static float[] semblanceFromSums(
+    double tsigma, float[][] a, float[] bs) 
+  {
+    float[] c = a[0], sq = a[1], sqq = a[2];
+    float[] su = a[3], suq = a[4], suqq = a[5];
+    int nt = c.length;
+    float[] arr = c, arq = sq, brr = su, brq = suq;
+    for (int it=0; it<nt; ++it) {
+      float ri = sq[it];
+      float rr = ri*ri;
+      arr[it] = rr*c[it];
+      arq[it] = rr;
+      brr[it] = rr*su[it];
+      brq[it] = ri*suq[it];
+    }
+    return semblance(tsigma,arr,arq,sqq,brr,brq,suqq,bs);
+  }
+
   public static float[][] nmo(
     double vnmo, Sampling st, Sampling sx, float[][] p)
   {
@@ -523,7 +816,72 @@ public class Velan {
     }
   }
 
+  // Velocity spectrum computed as it was before sums were computed in
+  // one pass, with one NMO-corrected gather for each velocity.
+  private static float[][] velocitySpectrumByNmo(
+    Sampling st, Sampling sx, float[][] p, 
+    Sampling sv, double tsigma, boolean weighted)
+  {
+    int nv = sv.getCount();
+    float[][] s = new float[nv][];
+    for (int iv=0; iv<nv; ++iv) {
+      double v = sv.getValue(iv);
+      float[][] q = nmo(v,st,sx,p);
+      if (weighted) {
+        s[iv] = semblance(st,sx,v,tsigma,q,null);
+      } else {
+        s[iv] = semblance(tsigma,q);
+      }
+    }
+    return s;
+  }
+
+  // Compares times and spectra computed in one pass with those computed
+  // with NMO-corrected gathers, and times for picking many gathers.
+  private static void benchSpectrum() {
+    Sampling st = new Sampling(1001,0.004,0.000); 
+    Sampling sx = new Sampling(60,0.050,0.050);
+    Sampling sv = new Sampling(101,0.020,1.5,2.5);
+    double tsigma = 5.0;
+    float[] vp = makeLinearVelocity(2.0,3.0,st);
+    float[][] p = makeRickerGather(25.0,vp,st,sx);
+    Stopwatch sw = new Stopwatch();
+    for (int iter=0; iter<3; ++iter) {
+      for (boolean weighted:new boolean[]{false,true}) {
+        sw.restart();
+        float[][] sr = velocitySpectrumByNmo(st,sx,p,sv,tsigma,weighted);
+        sw.stop();
+        double tr = sw.time();
+        sw.restart();
+        float[][] s = velocitySpectrum(st,sx,p,sv,tsigma,weighted);
+        sw.stop();
+        double ts = sw.time();
+        trace((weighted?"weighted":"   plain")+
+          ": by nmo = "+tr+" s  one pass = "+ts+" s"+
+          "  speedup = "+tr/ts+"  dmax = "+max(abs(sub(s,sr))));
+      }
+    }
+    final float[][] pf = p;
+    Gathers gathers = new Gathers() {
+      public int getCount() { return 16; }
+      public float[][] getGather(int ig) { return pf; }
+    };
+    sw.restart();
+    float[][] vps = pickVelocities(st,sx,gathers,sv,tsigma,true);
+    sw.stop();
+    float[] ve = pickVelocities(sv,velocitySpectrum(st,sx,p,sv,tsigma,true));
+    float dmax = 0.0f;
+    for (int ig=0; ig<vps.length; ++ig)
+      dmax = max(dmax,max(abs(sub(vps[ig],ve))));
+    trace("picked "+vps.length+" gathers in "+sw.time()+" s"+
+      "  dmax = "+dmax);
+  }
+
   public static void main(String[] args) {
+    if (args.length>0 && args[0].equals("bench")) {
+      benchSpectrum();
+      return;
+    }
     SwingUtilities.invokeLater(new Runnable() {
       public void run() {
         testGather();
@@ -1,5 +1,15 @@
 package segy;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Conversions of IBM and IEEE floats to Java floats.
+ * This class is shared by all readers of SEG-Y traces, which should
+ * decode IBM floats directly from byte buffers, using the method
+ * {@link #ibmToFloat(ByteBuffer,int,float[])}. The byte order of
+ * those buffers, either big or little endian, determines the order
+ * in which bytes are combined into IBM floats.
+ */
 public class IbmIeee {
   public static void shortToFloat(short[] s, float[] f) {
     int n = s.length;
@@ -16,24 +26,60 @@ public class IbmIeee {
     for (int i=0; i<n; ++i)
       f[i] = ibmToFloat(ibm[i]);
   }
+
+  /**
+   * Converts IBM floats in a byte buffer to Java floats.
+   * Uses absolute gets, so that the buffer position is unchanged,
+   * and one buffer may be used concurrently by multiple threads.
+   * @param ibm buffer with IBM floats in the buffer's byte order.
+   * @param k index of the first byte of the first IBM float.
+   * @param f array to fill with f.length Java floats.
+   */
+  public static void ibmToFloat(ByteBuffer ibm, int k, float[] f) {
+    int n = f.length;
+    for (int i=0; i<n; ++i,k+=4)
+      f[i] = ibmToFloat(ibm.getInt(k));
+  }
+
+  /**
+   * Converts IEEE floats in a byte buffer to Java floats.
+   * Uses absolute gets, so that the buffer position is unchanged.
+   * @param ieee buffer with IEEE floats in the buffer's byte order.
+   * @param k index of the first byte of the first IEEE float.
+   * @param f array to fill with f.length Java floats.
+   */
+  public static void ieeeToFloat(ByteBuffer ieee, int k, float[] f) {
+    int n = f.length;
+    for (int i=0; i<n; ++i,k+=4)
+      f[i] = ieee.getFloat(k);
+  }
+
   public static float ieeeToFloat(int ieee) {
     return Float.intBitsToFloat(ieee);
   }
+
   public static float ibmToFloat(int ibm) {
     // 1) Extract sign bit, exponent, and mantissa.
     // 2) Convert exponent: subtract 64, multiply by 4, subtract 1, add 127
-    // 3) Convert mantissa:
-    //    while high mantissa bit is zero {
-    //      shift mantissa left (low order bits are zeroed)
-    //      decrement exponent
+    // 3) Normalize mantissa: shift left by the number of leading zeros
+    //    in its 24 bits (24 if zero), and decrement exponent by the same
+    //    number. This replaces the loop in ibmToFloatLoop below, and
+    //    numberOfLeadingZeros is an intrinsic, so there are no branches
+    //    other than conditional moves in the selects at the end.
     // 4) Put sign and exponent bits back in number
-    // 5) Reverse order of bytes?
-    /*
-    ibm = ((ibm    )     )<<24 |
-          ((ibm>> 8)&0xff)<<16 |
-          ((ibm>>16)&0xff)<< 8 |
-          ((ibm>>24)&0xff);
-    */
+    int s = 0x80000000&ibm; // sign bit
+    int m = 0x00ffffff&ibm; // mantissa
+    int z = Integer.numberOfLeadingZeros(m)-8; // leading zeros in mantissa
+    int e = ((ibm>>>22)&0x1fc)-130-z; // = ((e>>24)-64)*4 - 1 + 127 - z
+    int ieee = s|(e<<23)|((m<<z)&0x007fffff);
+    ieee = (e>=255)?s|0x7f7fffff:ieee;
+    ieee = (m==0 || e<=0)?0:ieee;
+    return Float.intBitsToFloat(ieee);
+  }
+
+  // The original conversion, with a loop to normalize the mantissa.
+  // Retained for benchmarks of the conversion above.
+  static float ibmToFloatLoop(int ibm) {
     int s = 0x80000000&ibm; // sign bit
     int e = 0x7f000000&ibm; // exponent
     int m = 0x00ffffff&ibm; // mantissa
@@ -52,15 +98,11 @@ public class IbmIeee {
         ieee = s|(e<<23)|(m&0x007fffff);
       }
     }
-    /*
-    ieee = ((ieee    )     )<<24 |
-           ((ieee>> 8)&0xff)<<16 |
-           ((ieee>>16)&0xff)<< 8 |
-           ((ieee>>24)&0xff);
-    */
     return Float.intBitsToFloat(ieee);
   }
-  private static float ibmToFloatSu(int ibm) {
+
+  // The conversion in Seismic Unix, which also swaps bytes.
+  static float ibmToFloatSu(int ibm) {
     int fconv = ((ibm    )     )<<24 |
                 ((ibm>> 8)&0xff)<<16 |
                 ((ibm>>16)&0xff)<< 8 |
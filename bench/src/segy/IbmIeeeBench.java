@@ -0,0 +1,129 @@
+package segy;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import edu.mines.jtk.util.Stopwatch;
+
+/**
+ * Benchmarks conversions of IBM floats to Java floats. Compares the
+ * original conversion with a loop to normalize mantissas, the Seismic
+ * Unix conversion, and the branch-free conversions of int arrays and
+ * of byte buffers in both big and little endian byte orders. Traces
+ * have lengths typical of SEG-Y files, and samples are random values
+ * with a wide range of exponents, so that mantissas require different
+ * numbers of shifts.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class IbmIeeeBench {
+
+  public static void main(String[] args) {
+    int[] nts = {751,1501,3001,6001};
+    for (int i=0; i<3; ++i) {
+      for (int nt:nts)
+        bench(nt);
+    }
+  }
+
+  private static final double MAXTIME = 2.0;
+
+  private static void bench(int nt) {
+    int[] ibm = makeIbmTrace(nt);
+    float[] f = new float[nt];
+    ByteBuffer bbb = ByteBuffer.allocate(4*nt).order(ByteOrder.BIG_ENDIAN);
+    ByteBuffer bbl = ByteBuffer.allocate(4*nt).order(ByteOrder.LITTLE_ENDIAN);
+    ByteBuffer bbd = ByteBuffer.allocateDirect(4*nt);
+    ByteBuffer bbs = ByteBuffer.allocate(4*nt).order(ByteOrder.BIG_ENDIAN);
+    bbb.asIntBuffer().put(ibm);
+    bbl.asIntBuffer().put(ibm);
+    bbd.asIntBuffer().put(ibm);
+    bbs.asIntBuffer().put(ibm);
+    bbs.order(ByteOrder.LITTLE_ENDIAN); // Seismic Unix swaps bytes
+    trace("nt = "+nt);
+    Stopwatch sw = new Stopwatch();
+    int nloop,rate;
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop) {
+      for (int it=0; it<nt; ++it)
+        f[it] = IbmIeee.ibmToFloatLoop(ibm[it]);
+    }
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("         loop: rate = "+rate+" msamples/s  sum = "+sum(f));
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop) {
+      for (int it=0; it<nt; ++it)
+        f[it] = IbmIeee.ibmToFloatSu(bbs.getInt(4*it));
+    }
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("           su: rate = "+rate+" msamples/s  sum = "+sum(f));
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop)
+      IbmIeee.ibmToFloat(ibm,f);
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("          int: rate = "+rate+" msamples/s  sum = "+sum(f));
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop)
+      IbmIeee.ibmToFloat(bbb,0,f);
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("   big endian: rate = "+rate+" msamples/s  sum = "+sum(f));
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop)
+      IbmIeee.ibmToFloat(bbl,0,f);
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("little endian: rate = "+rate+" msamples/s  sum = "+sum(f));
+
+    for (nloop=0,sw.restart(); sw.time()<MAXTIME; ++nloop)
+      IbmIeee.ibmToFloat(bbd,0,f);
+    sw.stop();
+    rate = (int)(1.0e-6*nloop*nt/sw.time());
+    trace("       direct: rate = "+rate+" msamples/s  sum = "+sum(f));
+  }
+
+  // Returns a trace of IBM floats with random signs and exponents.
+  private static int[] makeIbmTrace(int nt) {
+    Random r = new Random(314159);
+    int[] ibm = new int[nt];
+    for (int it=0; it<nt; ++it) {
+      double f = r.nextGaussian()*Math.pow(10.0,r.nextInt(13)-6);
+      ibm[it] = floatToIbm(f);
+    }
+    return ibm;
+  }
+
+  // Converts a double to an IBM float, with mantissa truncated.
+  private static int floatToIbm(double f) {
+    if (f==0.0)
+      return 0;
+    int s = (f<0.0)?0x80000000:0;
+    double a = Math.abs(f);
+    int e = 64;
+    while (a>=1.0) {
+      a /= 16.0;
+      ++e;
+    }
+    while (a<0.0625) {
+      a *= 16.0;
+      --e;
+    }
+    int m = (int)(a*0x01000000);
+    return s|(e<<24)|m;
+  }
+
+  private static float sum(float[] f) {
+    float s = 0.0f;
+    for (float fi:f)
+      s += fi;
+    return s;
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
@@ -9,7 +9,12 @@ package segy;
 
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.*;
 
 import edu.mines.jtk.dsp.*;
 import edu.mines.jtk.io.*;
@@ -42,6 +47,22 @@ import static edu.mines.jtk.util.ArrayMath.*;
  */
 public class SegyImage {
 
+  /**
+   * A listener for progress in writing traces.
+   */
+  public interface Listener {
+
+    /**
+     * Called after each slice of traces has been written.
+     * @param ntrace number of traces written so far.
+     * @param mtrace total number of traces to be written.
+     * @param mbps number of MB written per second.
+     * @param tps number of traces written per second.
+     */
+    public void tracesWritten(
+      long ntrace, long mtrace, double mbps, double tps);
+  }
+
   /**
    * Constructs an image with specified SEG-Y file name.
    * Assumes byte order is BIG_ENDIAN, which is the SEG-Y standard.
@@ -69,6 +90,8 @@ public class SegyImage {
    */
   public void close() {
     closeArrayFile();
+    _mapped = false;
+    _mbuf = null;
   }
 
   /**
@@ -289,6 +312,8 @@ public class SegyImage {
     } else {
       throw new RuntimeException("unknown data format: "+_format);
     }
+    if (_mapped)
+      mapTraces();
   }
 
   /**
@@ -308,6 +333,21 @@ public class SegyImage {
     _i3hi = (inlineByte-1)/4;
   }
 
+  /**
+   * Sets whether an index file is used for trace header information.
+   * If used, the index file has the name of the SEG-Y file with suffix
+   * ".idx". Reading trace headers in a large SEG-Y file may take a long
+   * time, so the indices and coordinates read are saved in the index 
+   * file, and are read from that file instead, if it is current. The
+   * index file is current if the length and modification time of the 
+   * SEG-Y file and the parameters used to read trace headers have not
+   * changed since the index file was written. The default is true.
+   * @param useIndexFile true, to use an index file; false, otherwise.
+   */
+  public void setUseIndexFile(boolean useIndexFile) {
+    _useIndexFile = useIndexFile;
+  }
+
   /**
    * Returns a guess for the format code, if a guess is possible.
    * Currently attempts to guess only if either IBM or IEEE floats.
@@ -526,11 +566,15 @@ public class SegyImage {
   public void getTrace(int i, float[] f) {
     loadBinaryHeaderInfo();
     checkTraceIndex(i);
+    if (_mapped) {
+      getMappedTrace(i,f);
+      return;
+    }
     try {
       _af.seek(traceOffset(i));
       if (_format==1) { // 4-byte IBM floats
         _af.readInts(_ibuf);
-        ibmToFloat(_ibuf,f);
+        IbmIeee.ibmToFloat(_ibuf,f);
       } else if (_format==2) { // 4-byte integers
         _af.readInts(_ibuf);
         intToFloat(_ibuf,f);
@@ -568,6 +612,62 @@ public class SegyImage {
     }
   }
 
+  /**
+   * Gets traces for specified ranges of grid indices.
+   * If a trace does not exist for some indices, all samples are zero.
+   * If traces are memory-mapped, they are read in parallel.
+   * @param i2min minimum index in 2nd dimension.
+   * @param i2max maximum index in 2nd dimension.
+   * @param i3min minimum index in 3rd dimension.
+   * @param i3max maximum index in 3rd dimension.
+   * @param f output array[1+i3max-i3min][1+i2max-i2min][n1] of samples.
+   */
+  public void getTraces(
+    final int i2min, final int i2max,
+    final int i3min, final int i3max,
+    final float[][][] f)
+  {
+    loadTraceHeaderInfo();
+    checkGridIndices(i2min,i3min);
+    checkGridIndices(i2max,i3max);
+    Check.argument(i2min<=i2max,"i2min<=i2max");
+    Check.argument(i3min<=i3max,"i3min<=i3max");
+    int m3 = 1+i3max-i3min;
+    if (_mapped) {
+      Parallel.loop(m3,new Parallel.LoopInt() {
+      public void compute(int j3) {
+        for (int i2=i2min; i2<=i2max; ++i2)
+          getTrace(i2,i3min+j3,f[j3][i2-i2min]);
+      }});
+    } else {
+      for (int j3=0; j3<m3; ++j3)
+        for (int i2=i2min; i2<=i2max; ++i2)
+          getTrace(i2,i3min+j3,f[j3][i2-i2min]);
+    }
+  }
+
+  /**
+   * Sets whether traces are read from a memory-mapped file.
+   * When mapped, trace samples are decoded directly from the mapped
+   * file, without seeks or reads, and the methods that get traces may
+   * be called concurrently from multiple threads. Files larger than
+   * 2 GB are mapped in multiple windows, each containing whole traces.
+   * <p>
+   * Enabling this mode loads all binary and trace header information,
+   * so that no information is loaded lazily while getting traces.
+   * The default is not mapped.
+   * @param mapped true, for memory-mapped reads; false, otherwise.
+   */
+  public void setMapped(boolean mapped) {
+    if (mapped && !_mapped) {
+      loadTraceHeaderInfo();
+      mapTraces();
+    } else if (!mapped) {
+      _mbuf = null;
+    }
+    _mapped = mapped;
+  }
+
   /**
    * Determines if a trace exists with specified grid indices.
    * @param i2 index in 2nd dimension.
@@ -740,6 +840,10 @@ public class SegyImage {
    * Writes a subset of this image to a simple file of floats.
    * Writes zeros for any missing traces; however, all minimum and 
    * maximum sample indices must be in the bounds for the grid.
+   * <p>
+   * Traces are read and scaled in parallel from the memory-mapped file,
+   * while previously scaled traces are written. Progress is reported to 
+   * any listeners after each slice of traces is written.
    * @param fileName the file name.
    * @param scaleFactor scaling applied to each sample.
    * @param i1min minimum sample index in 1st dimension.
@@ -764,39 +868,87 @@ public class SegyImage {
     Check.argument(i1min<=i1max,"i1min<=i1max");
     Check.argument(i2min<=i2max,"i2min<=i2max");
     Check.argument(i3min<=i3max,"i3min<=i3max");
+    final int j1 = i1min;
+    final int j2 = i2min;
+    final int j3 = i3min;
+    final int m1 = 1+i1max-i1min;
+    final int m2 = 1+i2max-i2min;
+    final int m3 = 1+i3max-i3min;
+    final float s = (float)scaleFactor;
+
+    // Traces are read, decoded and scaled in parallel, one slice of m2 
+    // traces per task, from the memory-mapped file. Slices are written 
+    // in order by this thread, while at most nbuf slices are in flight, 
+    // so that memory required is bounded by a few slices.
+    boolean mapped = _mapped;
+    setMapped(true);
+    int nthread = Runtime.getRuntime().availableProcessors();
+    int nbuf = 2*nthread;
+    ExecutorService es = Executors.newFixedThreadPool(nthread);
+    ArrayDeque<Future<float[][]>> fs = new ArrayDeque<Future<float[][]>>();
     try {
       ArrayOutputStream aos = new ArrayOutputStream(fileName);
-      int m1 = 1+i1max-i1min;
-      int m2 = 1+i2max-i2min;
-      int m3 = 1+i3max-i3min;
-      int mb = (int)(0.5+4.0*m1*m2*m3/1.0e6);
-      System.out.print(
-        "writing "+m1+"*"+m2+"*"+m3+" floats ("+mb+" MB) ");
-      float[] f = new float[_n1];
-      float[] g = new float[m1];
-      float s = (float)scaleFactor;
-      for (int i3=i3min; i3<=i3max; ++i3) {
-        if (i3min<i3max && (i3-i3min)%((i3max-i3min)/10)==0) {
-          double perc = (int)((i3-i3min)*100.0/(i3max-i3min));
-          System.out.print(".");
-        }
-        for (int i2=i2min; i2<=i2max; ++i2) {
-          getTrace(i2,i3,f);
-          copy(m1,i1min,f,0,g);
-          if (s!=1.0f) {
-            for (int i1=0; i1<m1; ++i1)
-              g[i1] *= s;
+      try {
+        long ntrace = 0;
+        long nbyte = 0;
+        long mtrace = (long)m2*m3;
+        long start = System.nanoTime();
+        for (int k3=0,i3=0; i3<m3; ++i3) {
+          for (; k3<m3 && fs.size()<nbuf; ++k3) {
+            final int l3 = j3+k3;
+            fs.add(es.submit(new Callable<float[][]>() {
+              public float[][] call() {
+                float[] f = new float[_n1];
+                float[][] g = new float[m2][m1];
+                for (int i2=0; i2<m2; ++i2) {
+                  getTrace(j2+i2,l3,f);
+                  copy(m1,j1,f,0,g[i2]);
+                  if (s!=1.0f) {
+                    for (int i1=0; i1<m1; ++i1)
+                      g[i2][i1] *= s;
+                  }
+                }
+                return g;
+              }
+            }));
           }
-          aos.writeFloats(g);
+          aos.writeFloats(fs.remove().get());
+          ntrace += m2;
+          nbyte += 4L*m1*m2;
+          double seconds = (System.nanoTime()-start)*1.0e-9;
+          fireTracesWritten(ntrace,mtrace,nbyte,seconds);
         }
+      } finally {
+        aos.close();
       }
-      aos.close();
-      System.out.println(" done");
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("cannot read trace ("+e.getCause()+")");
     } catch (IOException e) {
       throw new RuntimeException("cannot write trace ("+e+")");
+    } finally {
+      es.shutdownNow();
+      setMapped(mapped);
     }
   }
 
+  /**
+   * Adds the specified listener.
+   * @param listener the listener.
+   */
+  public void addListener(Listener listener) {
+    _listeners.add(listener);
+  }
+
+  /**
+   * Removes the specified listener.
+   * @param listener the listener.
+   */
+  public void removeListener(Listener listener) {
+    _listeners.remove(listener);
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // private
 
@@ -837,6 +989,20 @@ public class SegyImage {
   private boolean _infoTH; // true, if trace header info has been loaded
   private int _i2hi = 48; // index in trace header of integer xline number
   private int _i3hi = 47; // index in trace header of integer iline number
+  private boolean _mapped; // true, if traces are read from mapped file
+  private ByteBuffer[] _mbuf; // windows of whole traces in mapped file
+  private int _ntpw; // number of traces per mapped window
+  private boolean _useIndexFile = true; // true, to use an index file
+  private ArrayList<Listener> _listeners = new ArrayList<Listener>();
+
+  private void fireTracesWritten(
+    long ntrace, long mtrace, long nbyte, double seconds)
+  {
+    double mbps = (seconds>0.0)?nbyte/1.0e6/seconds:0.0;
+    double tps = (seconds>0.0)?ntrace/seconds:0.0;
+    for (Listener listener:_listeners)
+      listener.tracesWritten(ntrace,mtrace,mbps,tps);
+  }
 
   private static String[] _binaryHeaderFields = {
     "3201-3204: job identification number",
@@ -996,6 +1162,53 @@ public class SegyImage {
     _af = null;
   }
 
+  // Maps the file into windows of whole traces, each smaller than 2 GB,
+  // so that no trace straddles two windows. Samples are then decoded 
+  // with absolute gets, which do not change buffer positions, so that
+  // traces can be decoded concurrently without synchronization.
+  private void mapTraces() {
+    long nbpt = 240L+_bytesPerSample*_n1; // number of bytes per trace
+    _ntpw = (int)(Integer.MAX_VALUE/nbpt);
+    int nw = 1+(_ntrace-1)/_ntpw;
+    _mbuf = new ByteBuffer[nw];
+    try {
+      RandomAccessFile raf = new RandomAccessFile(_fileName,"r");
+      FileChannel fc = raf.getChannel();
+      for (int iw=0; iw<nw; ++iw) {
+        int itrace = iw*_ntpw;
+        int mtrace = min(_ntpw,_ntrace-itrace);
+        _mbuf[iw] = fc.map(
+          FileChannel.MapMode.READ_ONLY,headerOffset(itrace),mtrace*nbpt);
+        _mbuf[iw].order(_byteOrder);
+      }
+      raf.close(); // mapped buffers remain valid after close
+    } catch (IOException e) {
+      throw new RuntimeException("cannot map SEG-Y file "+_fileName);
+    }
+  }
+
+  private void getMappedTrace(int i, float[] f) {
+    ByteBuffer bb = _mbuf[i/_ntpw];
+    int k = (int)(traceOffset(i%_ntpw)-3600L);
+    int n1 = _n1;
+    if (_format==1) { // 4-byte IBM floats
+      IbmIeee.ibmToFloat(bb,k,f);
+    } else if (_format==2) { // 4-byte integers
+      for (int i1=0; i1<n1; ++i1,k+=4)
+        f[i1] = bb.getInt(k);
+    } else if (_format==3) { // 2-byte integers
+      for (int i1=0; i1<n1; ++i1,k+=2)
+        f[i1] = bb.getShort(k);
+    } else if (_format==4) { // 4-byte fixed-point with gain (obsolete)
+      Check.state(_format!=4,"data sample format != 4 (obsolete)");
+    } else if (_format==5) { // 4-byte IEEE floats
+      IbmIeee.ieeeToFloat(bb,k,f);
+    } else if (_format==8) { // 1-byte integers
+      for (int i1=0; i1<n1; ++i1,++k)
+        f[i1] = bb.get(k);
+    }
+  }
+
   private void loadBinaryHeaderInfo() {
     if (_infoBH) 
       return;
@@ -1088,6 +1301,16 @@ public class SegyImage {
       return;
     _infoTH = true;
     loadBinaryHeaderInfo();
+
+    // Read indices (i2,i3) and coordinates (x,y) from the index file,
+    // if it is current, or from trace headers, in parallel.
+    if (!_useIndexFile || !readIndexFile()) {
+      readTraceHeaders();
+      if (_useIndexFile)
+        writeIndexFile();
+    }
+
+    // Bounds on indices and coordinates.
     _i2min =  Integer.MAX_VALUE;
     _i2max = -Integer.MAX_VALUE;
     _i3min =  Integer.MAX_VALUE;
@@ -1096,52 +1319,19 @@ public class SegyImage {
     _xmax = -Double.MAX_VALUE;
     _ymin =  Double.MAX_VALUE;
     _ymax = -Double.MAX_VALUE;
-    double uxy = 0.001*(_feet?0.3048:1.0);
-
-    // Read indices (i2,i3) and coordinates (x,y) from trace headers.
-    _i2s = new int[_ntrace];
-    _i3s = new int[_ntrace];
-    _xs = new double[_ntrace];
-    _ys = new double[_ntrace];
-    try {
-      _af.seek(3600); // skip text and binary file headers
-      int[] hi = new int[240/4]; // 240-byte trace header as 4-byte ints
-      System.out.print("reading "+_ntrace+" trace headers ");
-      for (int itrace=0; itrace<_ntrace; ++itrace) {
-        if ((itrace%(_ntrace/10))==0) {
-          int perc = (int)(itrace*100.0/_ntrace);
-          System.out.print(".");
-        }
-        _af.readInts(hi); // read the trace header
-        _af.skipBytes(_n1*_bytesPerSample); // skip the trace samples
-        double sxy = uxy; // scale factor for x and y
-        int pxy = l2(hi[17]); // scale factor is a short
-        if (pxy>0) // if positive, multiply
-          sxy *= pxy;
-        else if (pxy<0) // if negative, divide
-          sxy /= -pxy;
-        double x = hi[45]*sxy; // x coordinate
-        double y = hi[46]*sxy; // y coordinate
-        int i2 = hi[_i2hi]; // xline number
-        if (i2==0) // if no xline number, ... 
-          i2 = hi[5]; // try the CDP number
-        int i3 = hi[_i3hi]; // iline number
-        if (x<_xmin) _xmin = x;
-        if (x>_xmax) _xmax = x;
-        if (y<_ymin) _ymin = y;
-        if (y>_ymax) _ymax = y;
-        if (i2<_i2min) _i2min = i2;
-        if (i2>_i2max) _i2max = i2;
-        if (i3<_i3min) _i3min = i3;
-        if (i3>_i3max) _i3max = i3;
-        _xs[itrace] = x;
-        _ys[itrace] = y;
-        _i2s[itrace] = i2;
-        _i3s[itrace] = i3;
-      }
-      System.out.println(" done");
-    } catch (IOException e) {
-      throw new RuntimeException("cannot read trace headers");
+    for (int itrace=0; itrace<_ntrace; ++itrace) {
+      double x = _xs[itrace];
+      double y = _ys[itrace];
+      int i2 = _i2s[itrace];
+      int i3 = _i3s[itrace];
+      if (x<_xmin) _xmin = x;
+      if (x>_xmax) _xmax = x;
+      if (y<_ymin) _ymin = y;
+      if (y>_ymax) _ymax = y;
+      if (i2<_i2min) _i2min = i2;
+      if (i2>_i2max) _i2max = i2;
+      if (i3<_i3min) _i3min = i3;
+      if (i3>_i3max) _i3max = i3;
     }
 
     // Build mapping from grid indices to trace indices. With these
@@ -1219,6 +1409,127 @@ public class SegyImage {
     }
   }
   
+  // Reads indices (i2,i3) and coordinates (x,y) from all trace headers.
+  // Ranges of traces are read in parallel, each with its own array file.
+  private void readTraceHeaders() {
+    final double uxy = 0.001*(_feet?0.3048:1.0);
+    _i2s = new int[_ntrace];
+    _i3s = new int[_ntrace];
+    _xs = new double[_ntrace];
+    _ys = new double[_ntrace];
+    final int nr = 64; // number of ranges of traces
+    final int mr = 1+(_ntrace-1)/nr; // number of traces per range
+    Parallel.loop(nr,new Parallel.LoopInt() {
+    public void compute(int ir) {
+      int jtrace = ir*mr;
+      int ktrace = min(jtrace+mr,_ntrace);
+      if (jtrace>=ktrace)
+        return;
+      try {
+        ArrayFile af = new ArrayFile(_fileName,"r",_byteOrder,_byteOrder);
+        try {
+          af.seek(headerOffset(jtrace));
+          int[] hi = new int[240/4]; // 240-byte trace header as 4-byte ints
+          for (int itrace=jtrace; itrace<ktrace; ++itrace) {
+            af.readInts(hi); // read the trace header
+            af.skipBytes(_n1*_bytesPerSample); // skip the trace samples
+            double sxy = uxy; // scale factor for x and y
+            int pxy = l2(hi[17]); // scale factor is a short
+            if (pxy>0) // if positive, multiply
+              sxy *= pxy;
+            else if (pxy<0) // if negative, divide
+              sxy /= -pxy;
+            int i2 = hi[_i2hi]; // xline number
+            if (i2==0) // if no xline number, ... 
+              i2 = hi[5]; // try the CDP number
+            _xs[itrace] = hi[45]*sxy; // x coordinate
+            _ys[itrace] = hi[46]*sxy; // y coordinate
+            _i2s[itrace] = i2;
+            _i3s[itrace] = hi[_i3hi]; // iline number
+          }
+        } finally {
+          af.close();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("cannot read trace headers");
+      }
+    }});
+  }
+
+  // The index file contains everything read from trace headers, as well
+  // as the length and modification time of the SEG-Y file and all other
+  // parameters that determine what was read. The index file is current 
+  // only if all of these match the values for this image.
+  private static final int INDEX_MAGIC = 0x53474958; // "SGIX"
+  private static final int INDEX_VERSION = 1;
+  private String indexFileName() {
+    return _fileName+".idx";
+  }
+  private void writeIndexHeader(DataOutput out) throws IOException {
+    out.writeInt(INDEX_MAGIC);
+    out.writeInt(INDEX_VERSION);
+    out.writeLong(_nbyte);
+    out.writeLong(new File(_fileName).lastModified());
+    out.writeInt(_ntrace);
+    out.writeInt(_n1);
+    out.writeInt(_bytesPerSample);
+    out.writeInt(_i2hi);
+    out.writeInt(_i3hi);
+    out.writeBoolean(_feet);
+    out.writeBoolean(_byteOrder==ByteOrder.BIG_ENDIAN);
+  }
+  private boolean readIndexFile() {
+    File file = new File(indexFileName());
+    if (!file.exists())
+      return false;
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      writeIndexHeader(new DataOutputStream(bos));
+      byte[] hexpected = bos.toByteArray();
+      byte[] hactual = new byte[hexpected.length];
+      ArrayInputStream ais = new ArrayInputStream(file);
+      try {
+        ais.readBytes(hactual);
+        if (!Arrays.equals(hactual,hexpected))
+          return false;
+        int[] i2s = new int[_ntrace];
+        int[] i3s = new int[_ntrace];
+        double[] xs = new double[_ntrace];
+        double[] ys = new double[_ntrace];
+        ais.readInts(i2s);
+        ais.readInts(i3s);
+        ais.readDoubles(xs);
+        ais.readDoubles(ys);
+        _i2s = i2s;
+        _i3s = i3s;
+        _xs = xs;
+        _ys = ys;
+      } finally {
+        ais.close();
+      }
+      return true;
+    } catch (IOException e) {
+      return false; // if cannot read, then read trace headers
+    }
+  }
+  private void writeIndexFile() {
+    File file = new File(indexFileName());
+    try {
+      ArrayOutputStream aos = new ArrayOutputStream(file);
+      try {
+        writeIndexHeader(aos);
+        aos.writeInts(_i2s);
+        aos.writeInts(_i3s);
+        aos.writeDoubles(_xs);
+        aos.writeDoubles(_ys);
+      } finally {
+        aos.close();
+      }
+    } catch (IOException e) {
+      file.delete(); // if cannot write, then no index file
+    }
+  }
+  
   private static float computeRatio(float[] a) {
     int len = a.length;
     float hSum  = 0;
@@ -1256,68 +1567,4 @@ public class SegyImage {
     for (int j=0; j<n; ++j)
       f[j] = i[j];
   }
-  private static void ieeeToFloat(int[] ieee, float[] f) {
-    int n = ieee.length;
-    for (int i=0; i<n; ++i)
-      f[i] = ieeeToFloat(ieee[i]);
-  }
-  private static void ibmToFloat(int[] ibm, float[] f) {
-    int n = ibm.length;
-    for (int i=0; i<n; ++i)
-      f[i] = ibmToFloat(ibm[i]);
-  }
-  private static float ieeeToFloat(int ieee) {
-    return Float.intBitsToFloat(ieee);
-  }
-  private static float ibmToFloat(int ibm) {
-    // 1) Extract sign bit, exponent, and mantissa.
-    // 2) Convert exponent: subtract 64, multiply by 4, subtract 1, add 127
-    // 3) Convert mantissa:
-    //    while high mantissa bit is zero {
-    //      shift mantissa left (low order bits are zeroed)
-    //      decrement exponent
-    // 4) Put sign and exponent bits back in number
-    // 5) Reverse order of bytes?
-    int s = 0x80000000&ibm; // sign bit
-    int e = 0x7f000000&ibm; // exponent
-    int m = 0x00ffffff&ibm; // mantissa
-    int ieee = 0;
-    if (m!=0) {
-      e = (e>>22)-130; // = ((e>>24)-64)*4 - 1 + 127
-      while ((m&0x00800000)==0) {
-        m <<= 1;
-        --e;
-      }
-      if (e<=0) {
-        ieee = 0;
-      } else if (e>=255) {
-        ieee = s|0x7f7fffff;
-      } else {
-        ieee = s|(e<<23)|(m&0x007fffff);
-      }
-    }
-    return Float.intBitsToFloat(ieee);
-  }
-  private static float ibmToFloatFromSuCurrentlyUnused(int ibm) {
-    int fconv = ((ibm    )     )<<24 |
-                ((ibm>> 8)&0xff)<<16 |
-                ((ibm>>16)&0xff)<< 8 |
-                ((ibm>>24)&0xff);
-    int fmant = 0x00ffffff&fconv;
-    if (fconv!=0 && fmant!=0) {
-      int t = ((0x7f000000&fconv)>>>22)-130;
-      while ((fmant&0x00800000)==0) {
-        --t;
-        fmant <<= 1;
-      }
-      if (t>254) {
-        fconv = (0x80000000&fconv)|0x7f7fffff;
-      } else if (t<=0) {
-        fconv = 0;
-      } else {
-        fconv = (0x80000000&fconv)|(t<<23)|(0x007fffff&fmant);
-      }
-    }
-    return Float.intBitsToFloat(fconv);
-  }
 }
@@ -0,0 +1,142 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package segy.test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import segy.IbmIeee;
+
+/**
+ * Tests {@link segy.IbmIeee}. Conversions of IBM floats must be
+ * bit-identical to those of the original conversion, which used a loop
+ * to normalize mantissas.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class IbmIeeeTest extends TestCase {
+  public static void main(String[] args) {
+    TestSuite suite = new TestSuite(IbmIeeeTest.class);
+    junit.textui.TestRunner.run(suite);
+  }
+
+  public void testEdgeCases() {
+    int[] mantissas = {
+      0x000000, // zero
+      0x000001, // smallest, 23 leading zeros
+      0x00000f,
+      0x000010, // one hex digit, 19 leading zeros
+      0x0fffff,
+      0x100000, // normalized, 3 leading zeros
+      0x7fffff,
+      0x800000, // no leading zeros
+      0xffffff, // largest
+    };
+    for (int s=0; s<2; ++s) {
+      for (int e=0; e<128; ++e) {
+        for (int m:mantissas) {
+          int ibm = (s<<31)|(e<<24)|m;
+          assertSame(ibm,IbmIeee.ibmToFloat(ibm));
+        }
+      }
+    }
+  }
+
+  public void testSpecialValues() {
+    assertEquals(0.0f,IbmIeee.ibmToFloat(0x00000000),0.0f);
+    assertEquals(0.0f,IbmIeee.ibmToFloat(0x80000000),0.0f); // -0 to +0
+    assertEquals(1.0f,IbmIeee.ibmToFloat(0x41100000),0.0f);
+    assertEquals(-1.0f,IbmIeee.ibmToFloat(0xc1100000),0.0f);
+    assertEquals(0.5f,IbmIeee.ibmToFloat(0x40800000),0.0f);
+    assertEquals(-118.625f,IbmIeee.ibmToFloat(0xc276a000),0.0f);
+    assertEquals(Float.MAX_VALUE,IbmIeee.ibmToFloat(0x7fffffff),0.0f);
+    assertEquals(-Float.MAX_VALUE,IbmIeee.ibmToFloat(0xffffffff),0.0f);
+    assertEquals(0.0f,IbmIeee.ibmToFloat(0x00000001),0.0f); // underflow
+    assertEquals(0.0f,IbmIeee.ibmToFloat(0x80000001),0.0f);
+  }
+
+  public void testAllExponentsAndSigns() {
+    // All exponents and signs, and all mantissas with hex digits that
+    // are either 0, 1, 7, 8 or f, so that every number of leading zeros
+    // and every carry into the exponent is tested.
+    int[] digits = {0x0,0x1,0x7,0x8,0xf};
+    int nd = digits.length;
+    int nm = 1;
+    for (int i=0; i<6; ++i)
+      nm *= nd;
+    for (int se=0; se<256; ++se) {
+      for (int im=0; im<nm; ++im) {
+        int m = 0;
+        for (int i=0,j=im; i<6; ++i,j/=nd)
+          m = (m<<4)|digits[j%nd];
+        int ibm = (se<<24)|m;
+        assertSame(ibm,IbmIeee.ibmToFloat(ibm));
+      }
+    }
+  }
+
+  public void testByteBuffers() {
+    int n = 4096;
+    int[] ibm = new int[n];
+    java.util.Random r = new java.util.Random(11235);
+    for (int i=0; i<n; ++i)
+      ibm[i] = r.nextInt();
+    ByteOrder[] orders = {ByteOrder.BIG_ENDIAN,ByteOrder.LITTLE_ENDIAN};
+    for (ByteOrder order:orders) {
+      ByteBuffer bb = ByteBuffer.allocate(4+4*n).order(order);
+      for (int i=0; i<n; ++i)
+        bb.putInt(4+4*i,ibm[i]);
+      float[] f = new float[n];
+      IbmIeee.ibmToFloat(bb,4,f);
+      assertEquals(0,bb.position());
+      for (int i=0; i<n; ++i)
+        assertSame(ibm[i],f[i]);
+    }
+    float[] f = new float[n];
+    IbmIeee.ibmToFloat(ibm,f);
+    for (int i=0; i<n; ++i)
+      assertSame(ibm[i],f[i]);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static void assertSame(int ibm, float f) {
+    int e = Float.floatToRawIntBits(ibmToFloatLoop(ibm));
+    int a = Float.floatToRawIntBits(f);
+    assertTrue("ibm=0x"+Integer.toHexString(ibm)+
+               " ieee=0x"+Integer.toHexString(a)+
+               " expected 0x"+Integer.toHexString(e),a==e);
+  }
+
+  // The original conversion, copied here so that this test does not
+  // depend on the implementation being tested.
+  private static float ibmToFloatLoop(int ibm) {
+    int s = 0x80000000&ibm; // sign bit
+    int e = 0x7f000000&ibm; // exponent
+    int m = 0x00ffffff&ibm; // mantissa
+    int ieee = 0;
+    if (m!=0) {
+      e = (e>>22)-130; // = ((e>>24)-64)*4 - 1 + 127
+      while ((m&0x00800000)==0) {
+        m <<= 1;
+        --e;
+      }
+      if (e<=0) {
+        ieee = 0;
+      } else if (e>=255) {
+        ieee = s|0x7f7fffff;
+      } else {
+        ieee = s|(e<<23)|(m&0x007fffff);
+      }
+    }
+    return Float.intBitsToFloat(ieee);
+  }
+}
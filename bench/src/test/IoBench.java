@@ -1,153 +1,271 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
 package test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
 
 import edu.mines.jtk.io.ArrayFile;
 import edu.mines.jtk.util.Stopwatch;
 import static edu.mines.jtk.util.ArrayMath.*;
 
+/**
+ * Benchmarks access paths for 3-D arrays of floats in files.
+ * Compares reads with an ArrayFile, with a FileChannel and a direct
+ * ByteBuffer, and from a memory-mapped file, for access patterns
+ * typical of SegyImage and FileFloat3Chunks. These patterns are:
+ * sequential traces, inline slices (traces with constant i3), crossline
+ * slices (traces with constant i2), time slices (samples with constant
+ * i1), and traces in random order.
+ * <p>
+ * Usage: IoBench [directory [n1 n2 n3]]. The default directory is
+ * java.io.tmpdir, and the default array is 1000*200*200 floats. For
+ * results not dominated by the file system cache, the array size should
+ * exceed the amount of memory not used by Java.
+ * @author agent
+ * @version 2026.10.17
+ */
 public class IoBench {
-  public static void main(String[] args) {
-    //benchCopy();
-    benchReadWrite(23);
-    //benchReadWrite(32);
+
+  public static void main(String[] args) throws IOException {
+    String dir = System.getProperty("java.io.tmpdir");
+    if (args.length>0)
+      dir = args[0];
+    if (args.length>3) {
+      n1 = Integer.parseInt(args[1]);
+      n2 = Integer.parseInt(args[2]);
+      n3 = Integer.parseInt(args[3]);
+    }
+    File file = new File(dir,"junk.dat");
+    makeFile(file);
+    try {
+      Reader[] readers = {
+        new ArrayFileReader(file),
+        new ChannelReader(file),
+        new MappedReader(file),
+      };
+      for (int iter=0; iter<3; ++iter) {
+        for (Reader reader:readers) {
+          benchSequential(reader);
+          benchInline(reader);
+          benchCrossline(reader);
+          benchTimeSlice(reader);
+          benchRandom(reader);
+        }
+      }
+      for (Reader reader:readers)
+        reader.close();
+    } finally {
+      file.delete();
+    }
   }
 
-  private static void benchReadWrite(int order) {
-    String file;
-    for(int iter=0; iter<3; ++iter) {
-      file = dira+"junk.dat"; 
-      remove(file);
-      makeFile(file);
-      benchReadWrite(file,order);
-      file = dirb+"junk.dat"; 
-      remove(file);
-      makeFile(file);
-      benchReadWrite(file,order);
+  ///////////////////////////////////////////////////////////////////////////
+  // readers
+
+  // Reads n floats beginning at a specified byte offset in the file.
+  private interface Reader {
+    public String name();
+    public void read(long offset, float[] f, int n) throws IOException;
+    public void close() throws IOException;
+  }
+
+  private static class ArrayFileReader implements Reader {
+    ArrayFileReader(File file) throws IOException {
+      _af = new ArrayFile(file,"r");
+    }
+    public String name() {
+      return "ArrayFile";
+    }
+    public void read(long offset, float[] f, int n) throws IOException {
+      _af.seek(offset);
+      _af.readFloats(f,0,n);
     }
+    public void close() throws IOException {
+      _af.close();
+    }
+    private ArrayFile _af;
   }
-  private static void benchReadWrite(String file, int order) {
-    trace("benchReadWrite: file="+file+" order="+order);
-    Stopwatch sw = new Stopwatch();
-    sw.start();
-    readWrite(file,order);
-    sw.stop();
-    int rate = (int)(nbytes*1.0e-6/sw.time());
-    trace("time = "+sw.time()+" s rate = "+rate+" MB/s");
+
+  private static class ChannelReader implements Reader {
+    ChannelReader(File file) throws IOException {
+      _raf = new RandomAccessFile(file,"r");
+      _fc = _raf.getChannel();
+      _bb = ByteBuffer.allocateDirect(4*n1).order(ByteOrder.BIG_ENDIAN);
+      _fb = _bb.asFloatBuffer();
+    }
+    public String name() {
+      return "FileChannel";
+    }
+    public void read(long offset, float[] f, int n) throws IOException {
+      _bb.clear().limit(4*n);
+      while (_bb.hasRemaining()) {
+        if (_fc.read(_bb,offset+_bb.position())<0)
+          throw new IOException("unexpected end of file");
+      }
+      _fb.clear();
+      _fb.get(f,0,n);
+    }
+    public void close() throws IOException {
+      _raf.close();
+    }
+    private RandomAccessFile _raf;
+    private FileChannel _fc;
+    private ByteBuffer _bb;
+    private FloatBuffer _fb;
   }
 
-  private static void benchCopy() {
-    String afile,bfile;
-    for(int iter=0; iter<3; ++iter) {
-      /*
-      afile = dira+"junka.dat"; 
-      bfile = dira+"junkb.dat"; 
-      remove(afile);
-      remove(bfile);
-      makeFile(afile);
-      benchCopy(afile,bfile);
-      */
-      afile = dirb+"junk.dat"; 
-      bfile = dirc+"junk.dat"; 
-      //remove(afile);
-      //remove(bfile);
-      //makeFile(afile);
-      benchCopy(afile,bfile);
+  private static class MappedReader implements Reader {
+    MappedReader(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file,"r");
+      FileChannel fc = raf.getChannel();
+      long nbyte = fc.size();
+      long nbpt = 4L*n1; // bytes per trace; windows contain whole traces
+      _nbpw = (Integer.MAX_VALUE/nbpt)*nbpt;
+      int nw = (int)(1+(nbyte-1)/_nbpw);
+      _fb = new FloatBuffer[nw];
+      for (int iw=0; iw<nw; ++iw) {
+        long offset = iw*_nbpw;
+        long size = Math.min(_nbpw,nbyte-offset);
+        MappedByteBuffer mb = fc.map(FileChannel.MapMode.READ_ONLY,offset,size);
+        _fb[iw] = mb.order(ByteOrder.BIG_ENDIAN).asFloatBuffer();
+      }
+      raf.close();
+    }
+    public String name() {
+      return "Mapped";
+    }
+    public void read(long offset, float[] f, int n) throws IOException {
+      FloatBuffer fb = _fb[(int)(offset/_nbpw)];
+      fb.position((int)(offset%_nbpw)/4);
+      fb.get(f,0,n);
+    }
+    public void close() {
+      _fb = null;
     }
+    private long _nbpw; // number of bytes per window
+    private FloatBuffer[] _fb;
   }
-  private static void benchCopy(String afile, String bfile) {
-    trace("benchCopy: afile="+afile+" bfile="+bfile);
+
+  ///////////////////////////////////////////////////////////////////////////
+  // benchmarks
+
+  private static final double MAXTIME = 5.0;
+  private static int n1 = 1000;
+  private static int n2 = 200;
+  private static int n3 = 200;
+
+  private static long offset(int i1, int i2, int i3) {
+    return 4L*(i1+n1*(i2+(long)n2*i3));
+  }
+
+  // All traces, in the order in which they are stored.
+  private static void benchSequential(Reader r) throws IOException {
+    float[] f = new float[n1];
     Stopwatch sw = new Stopwatch();
     sw.start();
-    copy(afile,bfile);
+    for (int i3=0; i3<n3; ++i3)
+      for (int i2=0; i2<n2; ++i2)
+        r.read(offset(0,i2,i3),f,n1);
     sw.stop();
-    int rate = (int)(nbytes*1.0e-6/sw.time());
-    trace("time = "+sw.time()+" s rate = "+rate+" MB/s");
+    report(r,"sequential",n2*n3,4L*n1*n2*n3,sw.time());
   }
 
-  private static void benchRandom() {
-    // TODO
+  // Traces in slices with constant i3, cycling through i3.
+  private static void benchInline(Reader r) throws IOException {
+    float[] f = new float[n1];
+    Stopwatch sw = new Stopwatch();
+    long nread = 0;
+    sw.start();
+    for (int i3=0; sw.time()<MAXTIME && i3<n3; i3+=max(1,n3/10)) {
+      for (int i2=0; i2<n2; ++i2)
+        r.read(offset(0,i2,i3),f,n1);
+      nread += n2;
+    }
+    sw.stop();
+    report(r,"inline",nread,4L*n1*nread,sw.time());
   }
 
-  private static final String dira = "/data/tmp/";
-  private static final String dirb = "/data/tmp/";
-  private static final String dirc = "/data/tmp/";
-  private static final int n1 = 1000;
-  private static final int n2 = 100;
-  private static final int n3 = 100;
-  private static final long nbytes = n1*n2*n3*4L;
-
-  private static void makeFile(String name) {
-    trace("makeFile: begin");
-    try {
-      ArrayFile af = new ArrayFile(name,"rw");
-      float[] a = randfloat(n1);
-      for (int i3=0; i3<n3; ++i3) {
-        for (int i2=0; i2<n2; ++i2) {
-          af.writeFloats(a);
-        }
-      }
-      af.close();
-    } catch(IOException e) {
-      throw new RuntimeException(e);
+  // Traces in slices with constant i2, cycling through i2.
+  private static void benchCrossline(Reader r) throws IOException {
+    float[] f = new float[n1];
+    Stopwatch sw = new Stopwatch();
+    long nread = 0;
+    sw.start();
+    for (int i2=0; sw.time()<MAXTIME && i2<n2; i2+=max(1,n2/10)) {
+      for (int i3=0; i3<n3; ++i3)
+        r.read(offset(0,i2,i3),f,n1);
+      nread += n3;
     }
-    trace("done");
+    sw.stop();
+    report(r,"crossline",nread,4L*n1*nread,sw.time());
   }
 
-  private static void copy(String afile, String bfile) {
-    try {
-      ArrayFile afa = new ArrayFile(afile,"r");
-      ArrayFile afb = new ArrayFile(bfile,"rw");
-      float[] a = new float[n1];
-      for (int i3=0; i3<n3; ++i3) {
-        if (i3%100==0)
-          trace("copy: i3="+i3);
-        for (int i2=0; i2<n2; ++i2) {
-          afa.readFloats(a);
-          afb.writeFloats(a);
-        }
-      }
-      afa.close();
-      afb.close();
-    } catch(IOException e) {
-      throw new RuntimeException(e);
+  // Single samples in slices with constant i1, cycling through i1.
+  private static void benchTimeSlice(Reader r) throws IOException {
+    float[] f = new float[1];
+    Stopwatch sw = new Stopwatch();
+    long nread = 0;
+    sw.start();
+    for (int i1=0; sw.time()<MAXTIME && i1<n1; i1+=max(1,n1/10)) {
+      for (int i3=0; i3<n3; ++i3)
+        for (int i2=0; i2<n2; ++i2)
+          r.read(offset(i1,i2,i3),f,1);
+      nread += (long)n2*n3;
     }
+    sw.stop();
+    report(r,"time slice",nread,4L*nread,sw.time());
   }
 
-  private static void readWrite(String file, int order) {
-    try {
-      ArrayFile af = new ArrayFile(file,"rw");
-      float[] a = new float[n1];
-      if (order==23) {
-        for (int i3=0; i3<n3; ++i3) {
-          for (int i2=0; i2<n2; ++i2) {
-            af.seek(4*n1*i2*i3);
-            af.readFloats(a);
-            af.seek(4*n1*i2*i3);
-            af.writeFloats(a);
-          }
-        }
-      } else if (order==32) {
-        for (int i2=0; i2<n2; ++i2) {
-          for (int i3=0; i3<n3; ++i3) {
-            af.seek(4*n1*i2*i3);
-            af.readFloats(a);
-            af.seek(4*n1*i2*i3);
-            af.writeFloats(a);
-          }
-        }
+  // Traces in random order.
+  private static void benchRandom(Reader r) throws IOException {
+    float[] f = new float[n1];
+    Random random = new Random(314159);
+    Stopwatch sw = new Stopwatch();
+    long nread = 0;
+    for (sw.start(); sw.time()<MAXTIME; nread+=100) {
+      for (int iread=0; iread<100; ++iread) {
+        int i2 = random.nextInt(n2);
+        int i3 = random.nextInt(n3);
+        r.read(offset(0,i2,i3),f,n1);
       }
-      af.close();
-    } catch(IOException e) {
-      throw new RuntimeException(e);
     }
+    sw.stop();
+    report(r,"random",nread,4L*n1*nread,sw.time());
   }
 
-  private static void remove(String fileName) {
-    File file = new File(fileName);
+  private static void report(
+    Reader r, String pattern, long nread, long nbyte, double time)
+  {
+    int mbps = (int)(nbyte*1.0e-6/time);
+    int rps = (int)(nread/time);
+    trace(String.format("%11s %10s: rate = %6d MB/s %9d reads/s",
+      r.name(),pattern,mbps,rps));
+  }
+
+  private static void makeFile(File file) throws IOException {
+    trace("makeFile: "+file+" n1="+n1+" n2="+n2+" n3="+n3);
     if (file.exists())
       file.delete();
+    ArrayFile af = new ArrayFile(file,"rw");
+    float[] a = randfloat(n1);
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        af.writeFloats(a);
+      }
+    }
+    af.close();
   }
 
   private static void trace(String s) {
@@ -2,6 +2,8 @@ package tp;
 
 import java.io.*;
 import static java.lang.Math.abs;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,6 +40,20 @@ public class WellLog {
 
   /**
    * A collection of well log data.
+   * <p>
+   * Well log data may be stored in an indexed binary file, with a table
+   * of headers followed by curves. Each header contains the well id,
+   * coordinates, number of samples, the curves present, and the bounds of
+   * well-bore coordinates (x1,x2,x3). The curves for each log are stored
+   * contiguously, in the order z, v, d, g, p (only those present), x1,
+   * x2, x3, so that any one curve can be read with one positioned read.
+   * <p>
+   * Well log data opened from an indexed file initially contain only the
+   * table of headers. Curves are read from the file only when logs are
+   * requested, and logs read are not retained by these data, so that
+   * memory required does not grow as logs are used. Queries by curve and
+   * by location use only the headers to select logs, and read only the
+   * curves required.
    */
   public static class Data {
 
@@ -150,11 +166,101 @@ public class WellLog {
       }
     }
 
+    /**
+     * Writes these well log data to an indexed binary file.
+     * Logs in these data that were not yet read from an indexed file
+     * are read one at a time, as they are written.
+     * @param fileName the file name.
+     */
+    public void writeIndexed(String fileName) {
+      List<Entry> entries = new ArrayList<Entry>();
+      long offset = 12L+ENTRY_BYTES*size();
+      for (WellLog log:_data.values()) {
+        Entry e = new Entry(log,offset);
+        entries.add(e);
+        offset += e.bytes();
+      }
+      for (Entry f:_entries.values()) {
+        Entry e = new Entry(f,offset);
+        entries.add(e);
+        offset += e.bytes();
+      }
+      try {
+        ArrayOutputStream aos = new ArrayOutputStream(fileName);
+        aos.writeInt(INDEXED_MAGIC);
+        aos.writeInt(INDEXED_VERSION);
+        aos.writeInt(entries.size());
+        for (Entry e:entries)
+          e.write(aos);
+        for (Entry e:entries) {
+          WellLog log = get(e.id);
+          aos.writeFloats(log.z);
+          if (log.v!=null) aos.writeFloats(log.v);
+          if (log.d!=null) aos.writeFloats(log.d);
+          if (log.g!=null) aos.writeFloats(log.g);
+          if (log.p!=null) aos.writeFloats(log.p);
+          aos.writeFloats(log.x1);
+          aos.writeFloats(log.x2);
+          aos.writeFloats(log.x3);
+        }
+        aos.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Opens well log data in an indexed binary file. Reads only the table
+     * of headers; curves are read later, only as logs are requested. The
+     * file remains open until these data are closed.
+     * @param fileName the file name.
+     * @return the well log data.
+     */
+    public static Data openIndexed(String fileName) {
+      Data data = new Data();
+      try {
+        ArrayInputStream ais = new ArrayInputStream(fileName);
+        int magic = ais.readInt();
+        int version = ais.readInt();
+        Check.argument(magic==INDEXED_MAGIC && version==INDEXED_VERSION,
+          fileName+" is an indexed file of well log data");
+        int nlog = ais.readInt();
+        for (int ilog=0; ilog<nlog; ++ilog) {
+          Entry e = new Entry(ais);
+          data._entries.put(e.id,e);
+        }
+        ais.close();
+        data._file = new RandomAccessFile(fileName,"r");
+        data._channel = data._file.getChannel();
+        return data;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Closes any indexed file opened for these well log data. After 
+     * closing, only logs not in that indexed file remain in these data.
+     */
+    public void close() {
+      if (_file!=null) {
+        try {
+          _file.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        _file = null;
+        _channel = null;
+        _entries.clear();
+      }
+    }
+
     /**
      * Adds the specified well log.
      * @param log the well log.
      */
     public void add(WellLog log) {
+      _entries.remove(log.id);
       _data.put(log.id,log);
     }
 
@@ -163,7 +269,7 @@ public class WellLog {
      * @return the number of well logs.
      */
     public int size() {
-      return _data.size();
+      return _data.size()+_entries.size();
     }
 
     /**
@@ -189,6 +295,12 @@ public class WellLog {
           data.put(id,log);
       }
       _data = data;
+      Map<Long,Entry> entries = new HashMap<Long,Entry>();
+      for (Entry e:_entries.values()) {
+        if (f2<=e.x2min && e.x2max<=l2 && f3<=e.x3min && e.x3max<=l3)
+          entries.put(e.id,e);
+      }
+      _entries = entries;
     }
 
     /**
@@ -197,7 +309,13 @@ public class WellLog {
      * @return the well log; null, if none.
      */
     public WellLog get(long id) {
-      return _data.get(id);
+      WellLog log = _data.get(id);
+      if (log==null) {
+        Entry e = _entries.get(id);
+        if (e!=null)
+          log = read(e,ALL_CURVES);
+      }
+      return log;
     }
 
     /**
@@ -205,11 +323,16 @@ public class WellLog {
      * @return list of logs.
      */
     public List<WellLog> getAll() {
-      return new ArrayList<WellLog>(_data.values());
+      List<WellLog> list = new ArrayList<WellLog>(_data.values());
+      for (Entry e:_entries.values())
+        list.add(read(e,ALL_CURVES));
+      return list;
     }
 
     /**
      * Gets well logs with the specified curve.
+     * For logs in an indexed file, other curves (except for depths z
+     * and coordinates x1, x2 and x3) are not read and are null.
      * @param curve the well log curve.
      * @return list of logs.
      */
@@ -219,6 +342,78 @@ public class WellLog {
         if (log.getCurve(curve)!=null)
           list.add(log);
       }
+      int bit = curveBit(curve);
+      for (Entry e:_entries.values()) {
+        if ((e.vdgp&bit)!=0)
+          list.add(read(e,bit));
+      }
+      return list;
+    }
+
+    /**
+     * Gets well logs with the specified curve and with any samples
+     * inside the bounds of the specified samplings. Logs are selected
+     * by the bounds of their coordinates, so some logs returned may
+     * have no samples inside the sampling bounds. For logs in an indexed
+     * file, other curves are not read, as for {@link #getLogsWith(String)}.
+     * @param curve the well log curve.
+     * @param s1 sampling in 1st dimension; null, if unbounded.
+     * @param s2 sampling in 2nd dimension; null, if unbounded.
+     * @param s3 sampling in 3rd dimension; null, if unbounded.
+     * @return list of logs.
+     */
+    public List<WellLog> getLogsInside(
+      String curve, Sampling s1, Sampling s2, Sampling s3) 
+    {
+      List<WellLog> list = new ArrayList<WellLog>();
+      for (WellLog log:_data.values()) {
+        if (log.getCurve(curve)!=null && 
+            new Entry(log,0L).overlaps(s1,s2,s3))
+          list.add(log);
+      }
+      int bit = curveBit(curve);
+      for (Entry e:_entries.values()) {
+        if ((e.vdgp&bit)!=0 && e.overlaps(s1,s2,s3))
+          list.add(read(e,bit));
+      }
+      return list;
+    }
+
+    /**
+     * Gets well logs with the specified curve that are nearest to the 
+     * specified point (x2,x3). Distances are horizontal distances to
+     * the bounds of coordinates (x2,x3) for each well bore, and are 
+     * zero for well bores with bounds that contain the point. For logs
+     * in an indexed file, other curves are not read.
+     * @param curve the well log curve.
+     * @param x2 coordinate in 2nd dimension.
+     * @param x3 coordinate in 3rd dimension.
+     * @param nlog maximum number of logs.
+     * @return list of logs, sorted by increasing distance.
+     */
+    public List<WellLog> getLogsNearest(
+      String curve, final double x2, final double x3, int nlog) 
+    {
+      int bit = curveBit(curve);
+      List<Entry> entries = new ArrayList<Entry>();
+      for (WellLog log:_data.values()) {
+        if (log.getCurve(curve)!=null)
+          entries.add(new Entry(log,-1L));
+      }
+      for (Entry e:_entries.values()) {
+        if ((e.vdgp&bit)!=0)
+          entries.add(e);
+      }
+      Collections.sort(entries,new Comparator<Entry>() {
+        public int compare(Entry ea, Entry eb) {
+          return Double.compare(ea.distance(x2,x3),eb.distance(x2,x3));
+        }
+      });
+      List<WellLog> list = new ArrayList<WellLog>();
+      for (int ilog=0; ilog<nlog && ilog<entries.size(); ++ilog) {
+        Entry e = entries.get(ilog);
+        list.add((e.offset<0)?_data.get(e.id):read(e,bit));
+      }
       return list;
     }
 
@@ -377,13 +572,19 @@ public class WellLog {
       int nd = 0;
       int ng = 0;
       int np = 0;
-      for (WellLog log:getAll()) {
+      for (WellLog log:_data.values()) {
         if (log.v!=null) ++nv;
         if (log.d!=null) ++nd;
         if (log.g!=null) ++ng;
         if (log.p!=null) ++np;
       }
-      System.out.println("number of logs = "+_data.size());
+      for (Entry e:_entries.values()) {
+        if ((e.vdgp&1)!=0) ++nv;
+        if ((e.vdgp&2)!=0) ++nd;
+        if ((e.vdgp&4)!=0) ++ng;
+        if ((e.vdgp&8)!=0) ++np;
+      }
+      System.out.println("number of logs = "+size());
       System.out.println("number of velocity logs   = "+nv);
       System.out.println("number of density logs    = "+nd);
       System.out.println("number of gamma ray logs  = "+ng);
@@ -391,6 +592,156 @@ public class WellLog {
     }
 
     private Map<Long,WellLog> _data = new HashMap<Long,WellLog>();
+    private Map<Long,Entry> _entries = new HashMap<Long,Entry>();
+    private RandomAccessFile _file; // indexed file, if open
+    private FileChannel _channel; // for positioned reads of curves
+
+    private static final int INDEXED_MAGIC = 0x574c4458; // "WLDX"
+    private static final int INDEXED_VERSION = 1;
+    private static final int ENTRY_BYTES = 72;
+    private static final int ALL_CURVES = 15;
+
+    // Bits (as in the binary files) for curves v, d, g and p.
+    private static int curveBit(String curve) {
+      if (curve.startsWith("v")) return 1;
+      if (curve.startsWith("d")) return 2;
+      if (curve.startsWith("g")) return 4;
+      if (curve.startsWith("p")) return 8;
+      return 0;
+    }
+
+    // One header in the table of an indexed file.
+    private static class Entry {
+      long id; // well id
+      double xe,yn,ze; // easting, northing, elevation
+      int n; // number of samples
+      int vdgp; // bits for curves present
+      float x1min,x1max,x2min,x2max,x3min,x3max; // bounds of coordinates
+      long offset; // file position of first curve z
+      Entry(WellLog log, long offset) {
+        this.id = log.id;
+        this.xe = log.xe;
+        this.yn = log.yn;
+        this.ze = log.ze;
+        this.n = log.n;
+        if (log.v!=null) this.vdgp |= 1;
+        if (log.d!=null) this.vdgp |= 2;
+        if (log.g!=null) this.vdgp |= 4;
+        if (log.p!=null) this.vdgp |= 8;
+        this.x1min = min(log.x1); this.x1max = max(log.x1);
+        this.x2min = min(log.x2); this.x2max = max(log.x2);
+        this.x3min = min(log.x3); this.x3max = max(log.x3);
+        this.offset = offset;
+      }
+      Entry(Entry e, long offset) {
+        this.id = e.id;
+        this.xe = e.xe;
+        this.yn = e.yn;
+        this.ze = e.ze;
+        this.n = e.n;
+        this.vdgp = e.vdgp;
+        this.x1min = e.x1min; this.x1max = e.x1max;
+        this.x2min = e.x2min; this.x2max = e.x2max;
+        this.x3min = e.x3min; this.x3max = e.x3max;
+        this.offset = offset;
+      }
+      Entry(ArrayInputStream ais) throws IOException {
+        this.id = ais.readLong();
+        this.xe = ais.readDouble();
+        this.yn = ais.readDouble();
+        this.ze = ais.readDouble();
+        this.n = ais.readInt();
+        this.vdgp = ais.readInt();
+        this.x1min = ais.readFloat(); this.x1max = ais.readFloat();
+        this.x2min = ais.readFloat(); this.x2max = ais.readFloat();
+        this.x3min = ais.readFloat(); this.x3max = ais.readFloat();
+        this.offset = ais.readLong();
+      }
+      void write(ArrayOutputStream aos) throws IOException {
+        aos.writeLong(id);
+        aos.writeDouble(xe);
+        aos.writeDouble(yn);
+        aos.writeDouble(ze);
+        aos.writeInt(n);
+        aos.writeInt(vdgp);
+        aos.writeFloat(x1min); aos.writeFloat(x1max);
+        aos.writeFloat(x2min); aos.writeFloat(x2max);
+        aos.writeFloat(x3min); aos.writeFloat(x3max);
+        aos.writeLong(offset);
+      }
+      int ncurve() {
+        return 4+Integer.bitCount(vdgp);
+      }
+      long bytes() {
+        return 4L*n*ncurve();
+      }
+      // File position of the curve with the specified bit; for bit = 0,
+      // the position of z; for bit = 16, the position of x1.
+      long position(int bit) {
+        int icurve = (bit==0)?0:1+Integer.bitCount(vdgp&(bit-1));
+        return offset+4L*n*icurve;
+      }
+      boolean overlaps(Sampling s1, Sampling s2, Sampling s3) {
+        return overlaps(s1,x1min,x1max) && 
+               overlaps(s2,x2min,x2max) &&
+               overlaps(s3,x3min,x3max);
+      }
+      static boolean overlaps(Sampling s, float xmin, float xmax) {
+        if (s==null)
+          return true;
+        double d = s.getDelta();
+        return s.getFirst()-0.5*d<=xmax && xmin<=s.getLast()+0.5*d;
+      }
+      double distance(double x2, double x3) {
+        double d2 = (x2<x2min)?x2min-x2:(x2>x2max)?x2-x2max:0.0;
+        double d3 = (x3<x3min)?x3min-x3:(x3>x3max)?x3-x3max:0.0;
+        return d2*d2+d3*d3;
+      }
+    }
+
+    // Reads a log from the indexed file, with depths z, coordinates x1,
+    // x2 and x3, and only those curves with the specified bits.
+    private WellLog read(Entry e, int vdgp) {
+      int n = e.n;
+      WellLog log = new WellLog();
+      log.id = e.id;
+      log.xe = e.xe;
+      log.yn = e.yn;
+      log.ze = e.ze;
+      log.n = n;
+      log.z = readFloats(e.position(0),n);
+      vdgp &= e.vdgp;
+      if ((vdgp&1)!=0) log.v = readFloats(e.position(1),n);
+      if ((vdgp&2)!=0) log.d = readFloats(e.position(2),n);
+      if ((vdgp&4)!=0) log.g = readFloats(e.position(4),n);
+      if ((vdgp&8)!=0) log.p = readFloats(e.position(8),n);
+      float[] x = readFloats(e.position(16),3*n);
+      log.x1 = copy(n,0,x);
+      log.x2 = copy(n,n,x);
+      log.x3 = copy(n,2*n,x);
+      return log;
+    }
+
+    // Reads n floats from the indexed file, beginning at position pos.
+    // Uses positioned reads, which do not change the channel position,
+    // so that logs may be read by concurrent threads.
+    private float[] readFloats(long pos, int n) {
+      Check.state(_channel!=null,"indexed file is open");
+      ByteBuffer bb = ByteBuffer.allocate(4*n);
+      try {
+        while (bb.hasRemaining()) {
+          if (_channel.read(bb,pos+bb.position())<0)
+            throw new EOFException();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      bb.flip();
+      float[] f = new float[n];
+      bb.asFloatBuffer().get(f);
+      return f;
+    }
+
     private static void load(
       File wlDir, WellHeader.Data whdata, DirectionalSurvey.Data dsdata,
       WellLog.Data wldata, ArrayList<Long> wldup)
@@ -1,11 +1,28 @@
 package tp;
 
+import java.util.HashMap;
+
 import edu.mines.jtk.dsp.Sampling;
+import edu.mines.jtk.util.Parallel;
 import static edu.mines.jtk.util.ArrayMath.*;
 
 /**
  * Simple griding for well logs.
  * Assumes that wells are predominately aligned with the x1 axis.
+ * <p>
+ * Where more than one log has a gridded sample for the same grid sample,
+ * the gridded value by default is that for the log inserted last. If
+ * averaging is enabled, the gridded value is instead the average of the
+ * gridded samples for all of those logs. The gridded samples of all logs
+ * are retained for only grid samples with values, so that logs may be
+ * inserted and removed incrementally, without regridding any other logs.
+ * For example, in cross-validation, one log may be removed, and later
+ * reinserted, while the gridded values for all other logs are unchanged.
+ * <p>
+ * Many logs may be gridded together, in parallel. Each log is binned
+ * independently, and the gridded samples for all logs are then combined
+ * in the order specified, so that results are the same as those for logs
+ * inserted one at a time.
  * @author Dave Hale, Colorado School of Mines
  * @version 2010.04.20
  */
@@ -22,12 +39,36 @@ public class WellLogGridder {
     _s1 = s1;
     _s2 = s2;
     _s3 = s3;
+    _fnull = fnull;
     int n1 = _s1.getCount();
     int n2 = _s2.getCount();
     int n3 = _s3.getCount();
     _g = fillfloat(fnull,n1,n2,n3);
   }
 
+  /**
+   * Sets whether gridded values are averages of gridded samples for logs.
+   * If true, the value for any grid sample is the average of the gridded
+   * samples for all logs inserted for that sample. Otherwise, the value is
+   * the gridded sample for the log inserted last. The default is false.
+   * Gridded values for logs already inserted are updated accordingly.
+   * @param averaging true, for averaging; false, otherwise.
+   */
+  public void setAveraging(boolean averaging) {
+    if (_averaging!=averaging) {
+      _averaging = averaging;
+      int n1 = _s1.getCount();
+      int n2 = _s2.getCount();
+      for (Long k:_cells.keySet()) {
+        long l = k;
+        int i1 = (int)(l%n1); l /= n1;
+        int i2 = (int)(l%n2); l /= n2;
+        int i3 = (int)l;
+        _g[i3][i2][i1] = _cells.get(k).value(_averaging);
+      }
+    }
+  }
+
   /**
    * Sets gridded values for one well log.
    * @param f array of log sample values f(x1,x2,x3).
@@ -36,22 +77,60 @@ public class WellLogGridder {
    * @param x3 array of log sample x3 coordinates.
    */
   public void insertWellLog(float[] f, float[] x1, float[] x2, float[] x3) {
-    float[][] gs = getGriddedSamples(f,x1,x2,x3);
-    float[] fg = gs[0];
-    float[] x1g = gs[1];
-    float[] x2g = gs[2];
-    float[] x3g = gs[3];
-    int ng = fg.length;
-    for (int ig=0; ig<ng; ++ig) {
-      int i1 = _s1.indexOfNearest(x1g[ig]);
-      int i2 = _s2.indexOfNearest(x2g[ig]);
-      int i3 = _s3.indexOfNearest(x3g[ig]);
-      _g[i3][i2][i1] = fg[ig];
-    }
+    accumulate(1,getGriddedSamples(f,x1,x2,x3));
+  }
+
+  /**
+   * Sets gridded values for many well logs, binned in parallel.
+   * @param f array of arrays of log sample values, one array per log.
+   * @param x1 array of arrays of log sample x1 coordinates.
+   * @param x2 array of arrays of log sample x2 coordinates.
+   * @param x3 array of arrays of log sample x3 coordinates.
+   */
+  public void insertWellLogs(
+    float[][] f, float[][] x1, float[][] x2, float[][] x3) 
+  {
+    float[][][] gs = getGriddedSamples(f,x1,x2,x3);
+    for (int il=0; il<gs.length; ++il)
+      accumulate(1,gs[il]);
+  }
+
+  /**
+   * Removes gridded values for one well log that was inserted previously.
+   * Gridded values for any other logs are unchanged; where other logs
+   * share grid samples with the log removed, the gridded values become
+   * those for the other logs, as if the removed log had never been
+   * inserted.
+   * @param f array of log sample values f(x1,x2,x3).
+   * @param x1 array of log sample x1 coordinates.
+   * @param x2 array of log sample x2 coordinates.
+   * @param x3 array of log sample x3 coordinates.
+   */
+  public void removeWellLog(float[] f, float[] x1, float[] x2, float[] x3) {
+    accumulate(-1,getGriddedSamples(f,x1,x2,x3));
+  }
+
+  /**
+   * Removes gridded values for many well logs inserted previously.
+   * @param f array of arrays of log sample values, one array per log.
+   * @param x1 array of arrays of log sample x1 coordinates.
+   * @param x2 array of arrays of log sample x2 coordinates.
+   * @param x3 array of arrays of log sample x3 coordinates.
+   */
+  public void removeWellLogs(
+    float[][] f, float[][] x1, float[][] x2, float[][] x3) 
+  {
+    float[][][] gs = getGriddedSamples(f,x1,x2,x3);
+    for (int il=0; il<gs.length; ++il)
+      accumulate(-1,gs[il]);
   }
 
   /**
    * Sets to null gridded values for one well log.
+   * Because log sample values are not specified, this method also sets
+   * to null any gridded values for other logs that share grid samples
+   * with this log. To remove only the values for this log, specify its
+   * sample values as well.
    * @param x1 array of log sample x1 coordinates.
    * @param x2 array of log sample x2 coordinates.
    * @param x3 array of log sample x3 coordinates.
@@ -67,9 +146,33 @@ public class WellLogGridder {
       int i2 = _s2.indexOfNearest(x2g[ig]);
       int i3 = _s3.indexOfNearest(x3g[ig]);
       _g[i3][i2][i1] = _fnull;
+      _cells.remove(index(i1,i2,i3));
     }
   }
 
+  /**
+   * Gets gridded sample values and coordinates for many well logs.
+   * Logs are binned in parallel. Does not modify any of the
+   * uniformly-sampled gridded values.
+   * @param f array of arrays of log sample values, one array per log.
+   * @param x1 array of arrays of log sample x1 coordinates.
+   * @param x2 array of arrays of log sample x2 coordinates.
+   * @param x3 array of arrays of log sample x3 coordinates.
+   * @return array of arrays {f,x1,x2,x3} of gridded samples, one per log.
+   */
+  public float[][][] getGriddedSamples(
+    final float[][] f, final float[][] x1, 
+    final float[][] x2, final float[][] x3) 
+  {
+    int nl = f.length;
+    final float[][][] gs = new float[nl][][];
+    Parallel.loop(nl,new Parallel.LoopInt() {
+    public void compute(int il) {
+      gs[il] = getGriddedSamples(f[il],x1[il],x2[il],x3[il]);
+    }});
+    return gs;
+  }
+
   /**
    * Gets gridded sample values and coordinates for one well log.
    * Does not modify any of the uniformly-sampled gridded values.
@@ -261,5 +364,79 @@ public class WellLogGridder {
   private Sampling _s1,_s2,_s3;
   private float _fnull;
   private float[][][] _g;
+  private boolean _averaging;
+
+  // Gridded samples of logs for one grid sample, in order inserted.
+  private static class Cell {
+    int n;
+    float[] fs = new float[1];
+    void add(float f) {
+      if (n==fs.length) {
+        float[] t = new float[2*n];
+        System.arraycopy(fs,0,t,0,n);
+        fs = t;
+      }
+      fs[n++] = f;
+    }
+    void remove(float f) { // removes the last sample equal to f, if any
+      for (int i=n-1; i>=0; --i) {
+        if (fs[i]==f) {
+          System.arraycopy(fs,i+1,fs,i,n-i-1);
+          --n;
+          return;
+        }
+      }
+    }
+    float value(boolean averaging) {
+      if (!averaging)
+        return fs[n-1];
+      double fsum = 0.0;
+      for (int i=0; i<n; ++i)
+        fsum += fs[i];
+      return (float)(fsum/n);
+    }
+  }
+
+  // Cells for only those grid samples with values, keyed by index.
+  private HashMap<Long,Cell> _cells = new HashMap<Long,Cell>();
+
+  private long index(int i1, int i2, int i3) {
+    int n1 = _s1.getCount();
+    int n2 = _s2.getCount();
+    return i1+n1*(i2+(long)n2*i3);
+  }
+
+  // Adds (s = 1) or subtracts (s = -1) gridded samples {f,x1,x2,x3}
+  // for one log, and updates the gridded values for those samples.
+  private void accumulate(int s, float[][] gs) {
+    float[] fg = gs[0];
+    float[] x1g = gs[1];
+    float[] x2g = gs[2];
+    float[] x3g = gs[3];
+    int ng = fg.length;
+    for (int ig=0; ig<ng; ++ig) {
+      int i1 = _s1.indexOfNearest(x1g[ig]);
+      int i2 = _s2.indexOfNearest(x2g[ig]);
+      int i3 = _s3.indexOfNearest(x3g[ig]);
+      Long k = index(i1,i2,i3);
+      Cell c = _cells.get(k);
+      if (c==null) {
+        if (s<0) continue; // nothing to remove
+        c = new Cell();
+        _cells.put(k,c);
+      }
+      if (s>0) {
+        c.add(fg[ig]);
+      } else {
+        c.remove(fg[ig]);
+      }
+      if (c.n>0) {
+        _g[i3][i2][i1] = c.value(_averaging);
+      } else {
+        _g[i3][i2][i1] = _fnull;
+        _cells.remove(k);
+      }
+    }
+  }
 }
 
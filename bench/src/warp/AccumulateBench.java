@@ -0,0 +1,158 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package warp;
+
+import edu.mines.jtk.util.Parallel;
+import edu.mines.jtk.util.Stopwatch;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Benchmarks non-linear accumulation of alignment errors.
+ * Compares a reference kernel, with index clamping and summation of
+ * errors inside the loop over lags, with the kernel used in
+ * {@link DynamicWarpingX}, which has no branches in its inner loop.
+ * Errors are accumulated for 1D, 2D and 3D images, with traces of 2D
+ * and 3D images accumulated in parallel, as in the methods that smooth
+ * alignment errors. For each kernel and strain limit b, reports rates
+ * in millions of samples per second and the maximum difference between
+ * accumulated errors computed with the two kernels.
+ * <p>
+ * Usage: AccumulateBench [n1 nl [n2 n3]]. The defaults are n1 = 1001,
+ * nl = 101, n2 = 101 and n3 = 51.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class AccumulateBench {
+
+  public static void main(String[] args) {
+    int n1 = 1001, nl = 101, n2 = 101, n3 = 51;
+    if (args.length>1) {
+      n1 = Integer.parseInt(args[0]);
+      nl = Integer.parseInt(args[1]);
+    }
+    if (args.length>3) {
+      n2 = Integer.parseInt(args[2]);
+      n3 = Integer.parseInt(args[3]);
+    }
+    trace("n1="+n1+" nl="+nl+" n2="+n2+" n3="+n3);
+    float[][][][] e = new float[n3][n2][][];
+    float[][][][] dr = new float[n3][n2][][];
+    float[][][][] dn = new float[n3][n2][][];
+    for (int i3=0; i3<n3; ++i3) {
+      for (int i2=0; i2<n2; ++i2) {
+        e[i3][i2] = randfloat(nl,n1);
+        dr[i3][i2] = new float[n1][nl];
+        dn[i3][i2] = new float[n1][nl];
+      }
+    }
+    int[] bs = {1,2,4};
+    for (int iter=0; iter<3; ++iter) {
+      for (int b:bs) {
+        bench("1D",b,1,1,e,dr,dn);
+        bench("2D",b,n2,1,e,dr,dn);
+        bench("3D",b,n2,n3,e,dr,dn);
+      }
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final double MAXTIME = 2.0;
+
+  private static void bench(
+    String name, final int b, final int n2, final int n3,
+    final float[][][][] e, final float[][][][] dr, final float[][][][] dn)
+  {
+    int n1 = e[0][0].length;
+    int nl = e[0][0][0].length;
+    final int n23 = n2*n3;
+    double rr = rate(true,b,n2,n23,e,dr);
+    double rn = rate(false,b,n2,n23,e,dn);
+    float dmax = 0.0f;
+    for (int i23=0; i23<n23; ++i23) {
+      float[][] dri = dr[i23/n2][i23%n2];
+      float[][] dni = dn[i23/n2][i23%n2];
+      for (int i1=0; i1<n1; ++i1)
+        for (int il=0; il<nl; ++il)
+          dmax = max(dmax,abs(dri[i1][il]-dni[i1][il]));
+    }
+    trace(String.format(
+      "%s b=%d: reference = %7.1f  new = %7.1f  Msamples/s  dmax = %g",
+      name,b,rr*1.0e-6,rn*1.0e-6,dmax));
+  }
+
+  // Returns the number of samples per second accumulated in both forward
+  // and reverse directions for n23 traces, each an array[n1][nl].
+  private static double rate(
+    final boolean reference, final int b, final int n2, final int n23,
+    final float[][][][] e, final float[][][][] d)
+  {
+    int n1 = e[0][0].length;
+    int nl = e[0][0][0].length;
+    Stopwatch sw = new Stopwatch();
+    int nloop;
+    sw.start();
+    for (nloop=0; sw.time()<MAXTIME; ++nloop) {
+      Parallel.loop(n23,new Parallel.LoopInt() {
+        public void compute(int i23) {
+          float[][] ei = e[i23/n2][i23%n2];
+          float[][] di = d[i23/n2][i23%n2];
+          for (int dir=-1; dir<=1; dir+=2) {
+            if (reference) {
+              accumulateReference(dir,b,ei,di);
+            } else {
+              DynamicWarpingX.accumulate(dir,b,ei,di);
+            }
+          }
+        }
+      });
+    }
+    sw.stop();
+    return 2.0*nloop*n1*nl*n23/sw.time();
+  }
+
+  // The reference kernel, with branches and summation of errors for
+  // previous samples inside the loop over lags.
+  private static void accumulateReference(
+    int dir, int b, float[][] e, float[][] d)
+  {
+    int nl = e[0].length;
+    int nlm1 = nl-1;
+    int ni = e.length;
+    int nim1 = ni-1;
+    int ib = (dir>0)?0:nim1;
+    int ie = (dir>0)?ni:-1;
+    int is = (dir>0)?1:-1;
+    for (int il=0; il<nl; ++il)
+      d[ib][il] = 0.0f;
+    for (int ii=ib; ii!=ie; ii+=is) {
+      int ji = max(0,min(nim1,ii-is));
+      int jb = max(0,min(nim1,ii-is*b));
+      for (int il=0; il<nl; ++il) {
+        int ilm1 = il-1; if (ilm1==-1) ilm1 = 0;
+        int ilp1 = il+1; if (ilp1==nl) ilp1 = nlm1;
+        float dm = d[jb][ilm1];
+        float di = d[ji][il  ];
+        float dp = d[jb][ilp1];
+        for (int kb=ji; kb!=jb; kb-=is) {
+          dm += e[kb][ilm1];
+          dp += e[kb][ilp1];
+        }
+        d[ii][il] = min3(dm,di,dp)+e[ii][il];
+      }
+    }
+  }
+
+  private static float min3(float a, float b, float c) {
+    return b<=a?(b<=c?b:c):(a<=c?a:c);
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
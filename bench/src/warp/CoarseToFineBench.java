@@ -0,0 +1,167 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package warp;
+
+import java.util.Random;
+
+import edu.mines.jtk.dsp.*;
+import edu.mines.jtk.util.Stopwatch;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Benchmarks finding shifts from coarse to fine with DynamicWarpingR.
+ * For synthetic 1D sequences and 2D images related by large, smoothly
+ * varying shifts, finds shifts by searching all shifts and then from
+ * coarse to fine with a few decimation factors. For each factor, reports
+ * the time, the speedup, and differences between shifts found from
+ * coarse to fine and those found by searching all shifts. Differences
+ * are reported in samples: maximum, rms, and the fraction of samples for
+ * which the absolute difference does not exceed one sample.
+ * <p>
+ * Usage: CoarseToFineBench [n1 n2 smax]. The defaults are n1 = 2001,
+ * n2 = 51 and smax = 100 samples.
+ * @author agent
+ * @version 2026.10.17
+ */
+public class CoarseToFineBench {
+
+  public static void main(String[] args) {
+    int n1 = 2001, n2 = 51;
+    double smax = 100.0;
+    if (args.length>2) {
+      n1 = Integer.parseInt(args[0]);
+      n2 = Integer.parseInt(args[1]);
+      smax = Double.parseDouble(args[2]);
+    }
+    trace("n1="+n1+" n2="+n2+" smax="+smax);
+    Sampling s1 = new Sampling(n1,1.0,0.0);
+    Sampling s2 = new Sampling(n2,1.0,0.0);
+    float[][] f = makeImage(n1,n2);
+    float[][] g = makeShiftedImage(s1,smax,f);
+    int[] kcs = {2,4,8};
+    for (int iter=0; iter<2; ++iter) {
+      bench1(s1,smax,f[0],g[0],kcs);
+      bench2(s1,s2,smax,f,g,kcs);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static void bench1(
+    Sampling s1, double smax, float[] f, float[] g, int[] kcs)
+  {
+    DynamicWarpingR dw = makeWarping(s1,null,smax);
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    float[] ue = dw.findShifts(s1,f,s1,g);
+    sw.stop();
+    double te = sw.time();
+    report("1D all",te,te,null,null);
+    for (int kc:kcs) {
+      dw.setCoarseToFine(kc,2.0*kc*s1.getDelta());
+      sw.restart();
+      float[] u = dw.findShifts(s1,f,s1,g);
+      sw.stop();
+      report("1D kc="+kc,sw.time(),te,new float[][]{ue},new float[][]{u});
+    }
+  }
+
+  private static void bench2(
+    Sampling s1, Sampling s2, double smax,
+    float[][] f, float[][] g, int[] kcs)
+  {
+    DynamicWarpingR dw = makeWarping(s1,s2,smax);
+    Stopwatch sw = new Stopwatch();
+    sw.start();
+    float[][] ue = dw.findShifts(s1,f,s1,g);
+    sw.stop();
+    double te = sw.time();
+    report("2D all",te,te,null,null);
+    for (int kc:kcs) {
+      dw.setCoarseToFine(kc,2.0*kc*s1.getDelta());
+      sw.restart();
+      float[][] u = dw.findShifts(s1,f,s1,g);
+      sw.stop();
+      report("2D kc="+kc,sw.time(),te,ue,u);
+    }
+  }
+
+  private static DynamicWarpingR makeWarping(
+    Sampling s1, Sampling s2, double smax)
+  {
+    double d1 = s1.getDelta();
+    DynamicWarpingR dw = new DynamicWarpingR(-smax*d1,smax*d1,s1,s2);
+    dw.setStrainLimits(-0.5,0.5,-0.5,0.5);
+    dw.setSmoothness(20.0*d1,4.0);
+    return dw;
+  }
+
+  // Reports time, speedup and differences in samples between shifts u
+  // and reference shifts ue.
+  private static void report(
+    String name, double time, double timeAll, float[][] ue, float[][] u)
+  {
+    String s = String.format("%10s: time = %6.2f s  speedup = %5.1f",
+      name,time,timeAll/time);
+    if (u!=null) {
+      int n1 = u[0].length;
+      int n2 = u.length;
+      double dmax = 0.0, dsum = 0.0;
+      int nclose = 0;
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1) {
+          double d = abs(u[i2][i1]-ue[i2][i1]);
+          dmax = max(dmax,d);
+          dsum += d*d;
+          if (d<=1.0) ++nclose;
+        }
+      }
+      s += String.format("  diff: max = %6.2f  rms = %6.3f  close = %5.1f%%",
+        dmax,sqrt(dsum/n1/n2),100.0*nclose/n1/n2);
+    }
+    trace(s);
+  }
+
+  // Smoothed random traces, laterally correlated.
+  private static float[][] makeImage(int n1, int n2) {
+    Random r = new Random(314159);
+    float[] a = new float[n1];
+    for (int i1=0; i1<n1; ++i1)
+      a[i1] = r.nextFloat()-0.5f;
+    float[][] f = new float[n2][n1];
+    for (int i2=0; i2<n2; ++i2)
+      for (int i1=0; i1<n1; ++i1)
+        f[i2][i1] = a[i1]+0.2f*(r.nextFloat()-0.5f);
+    new RecursiveExponentialFilter(1.0).apply1(f,f);
+    return f;
+  }
+
+  // Image g such that f(x1,x2) ~ g(x1+u(x1,x2),x2), for shifts u with
+  // magnitudes that do not exceed 0.8*smax samples.
+  private static float[][] makeShiftedImage(
+    Sampling s1, double smax, float[][] f)
+  {
+    int n1 = f[0].length;
+    int n2 = f.length;
+    double d1 = s1.getDelta();
+    SincInterpolator si = new SincInterpolator();
+    float[][] g = new float[n2][n1];
+    for (int i2=0; i2<n2; ++i2) {
+      for (int i1=0; i1<n1; ++i1) {
+        double x1 = s1.getValue(i1);
+        double u = 0.8*smax*d1*sin(2.0*PI*i1/n1)*(1.0-0.1*i2/n2);
+        g[i2][i1] = si.interpolate(s1,f[i2],x1-u);
+      }
+    }
+    return g;
+  }
+
+  private static void trace(String s) {
+    System.out.println(s);
+  }
+}
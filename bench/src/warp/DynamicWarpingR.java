@@ -47,6 +47,18 @@ import edu.mines.jtk.mosaic.*;
  * ms sampling grid. However, strains on this coarse grid would be sampled 50
  * times more finely. After initially computing shifts on the coarse grid,
  * shifts are interpolated onto the finer grid.
+ * <p>
+ * For large ranges of shifts, most of the cost of dynamic warping is in
+ * computing and accumulating alignment errors for all shifts at every
+ * sample. Optionally, shifts may be found from coarse to fine. Shifts
+ * are first found for sequences or images decimated in the 1st dimension,
+ * for which both the number of samples and the number of shifts are
+ * reduced by the decimation factor. Alignment errors are then computed
+ * and accumulated for only those shifts within a band of specified
+ * half-width centered on the interpolated coarse shifts. Shifts found
+ * from coarse to fine may differ from those found by searching all
+ * shifts where the coarse shifts are not within that half-width of
+ * the shifts that would be found by an exhaustive search.
  *
  * @author Dave Hale, Colorado School of Mines
  * @version 2012.12.18
@@ -239,6 +251,28 @@ public class DynamicWarpingR {
     _k3min = max(1,(int)ceil(d3min/d3));
   }
 
+  /**
+   * Sets the decimation factor and tolerance for finding shifts from
+   * coarse to fine. Shifts are first found for sequences or images that
+   * are decimated by the specified factor in the 1st dimension. Shifts
+   * are then found for the original sequences or images, but only
+   * for shifts within the specified tolerance of the coarse shifts.
+   * <p>
+   * The tolerance should be not less than the shift sampling interval
+   * for the decimated sequences, which is the factor times the sampling
+   * interval in the 1st dimension. The default factor is one, for which
+   * all shifts are searched.
+   * @param kc decimation factor; one, to search all shifts.
+   * @param tol tolerance, in units of shift, for differences between
+   *  coarse and fine shifts.
+   */
+  public void setCoarseToFine(int kc, double tol) {
+    Check.argument(kc>=1,"kc>=1");
+    Check.argument(tol>0.0,"tol>0.0");
+    _kc = kc;
+    _tol = tol;
+  }
+
   /**
    * Returns shifts computed for specified 1D sequences.
    * @param sf sampling of 1st dimension for the seqeunce f.
@@ -251,6 +285,8 @@ public class DynamicWarpingR {
     Sampling sf, float[] f,
     Sampling sg, float[] g)
   {
+    if (_kc>1)
+      return findShiftsCoarseToFine(sf,f,sg,g);
     float[][] e = computeErrors(sf,f,sg,g);
     return findShifts(e);
   }
@@ -283,12 +319,23 @@ public class DynamicWarpingR {
     trace("k1s:"); dump(k1s);
     trace("k2s:"); dump(k2s);
 
+    // If finding shifts from coarse to fine, coarse shifts.
+    final float[][] uc = (_kc>1)?findCoarseShifts(sf,f,sg,g):null;
+
     trace("findShifts: smoothing in 1st dimension ...");
     final float[][][] ek = new float[n2][][];
     Parallel.loop(n2,new Parallel.LoopInt() {
     public void compute(int i2) {
-      float[][] e1 = computeErrors(sf,f[i2],sg,g[i2]);
-      ek[i2] = subsampleErrors(_r1min,_r1max,k1s,ss,s1,e1);
+      if (uc==null) {
+        float[][] e1 = computeErrors(sf,f[i2],sg,g[i2]);
+        ek[i2] = subsampleErrors(_r1min,_r1max,k1s,ss,s1,e1,null,null);
+      } else {
+        int[] isb = new int[n1];
+        int[] ise = new int[n1];
+        bandOfShifts(uc[i2],isb,ise);
+        float[][] e1 = computeErrors(sf,f[i2],sg,g[i2],isb,ise);
+        ek[i2] = subsampleErrors(_r1min,_r1max,k1s,ss,s1,e1,isb,ise);
+      }
     }});
     normalizeErrors(ek);
 
@@ -300,7 +347,7 @@ public class DynamicWarpingR {
       for (int i2=0; i2<n2; ++i2)
         for (int is=0; is<ns; ++is)
           e2[i2][is] = ek[i2][ik1][is];
-      float[][] ek2 = subsampleErrors(_r2min,_r2max,k2s,ss,s2,e2);
+      float[][] ek2 = subsampleErrors(_r2min,_r2max,k2s,ss,s2,e2,null,null);
       for (int ik2=0; ik2<nk2; ++ik2)
         for (int is=0; is<ns; ++is)
           ekk[ik2][ik1][is] = ek2[ik2][is];
@@ -393,7 +440,7 @@ public class DynamicWarpingR {
     int[] i1k = subsample(n1,k1min);
     //dump(i1k);
     int n1k = i1k.length;
-    return findShiftsFromErrors(_r1min,_r1max,i1k,_ss,_s1,e);
+    return findShiftsFromErrors(_r1min,_r1max,i1k,_ss,_s1,e,null,null);
   }
 
   /**
@@ -439,6 +486,8 @@ public class DynamicWarpingR {
   private int _k1min,_k2min,_k3min;
   private SincInterpolator _si;
   private float _epow = 2.0f;
+  private int _kc = 1; // decimation factor for coarse-to-fine shifts
+  private double _tol; // tolerance for coarse-to-fine shifts
 
   private static CubicInterpolator makeInterpolator1(
     float[] x, float[] y) 
@@ -465,6 +514,170 @@ public class DynamicWarpingR {
     return pow(abs(f-g),_epow);
   }
 
+  /**
+   * Returns alignment errors computed for specified sequences, for only
+   * those shifts within a band. For shifts outside the band, errors are
+   * the largest error computed for shifts inside the band.
+   * @param sf sampling of 1st dimension for the seqeunce f.
+   * @param f array of values for sequence f.
+   * @param sg sampling of 1st dimension for the seqeunce g.
+   * @param g array of values for sequence g.
+   * @param isb array[ne] of first shift indices in band.
+   * @param ise array[ne] of last+1 shift indices in band.
+   * @return array of alignment errors.
+   */
+  private float[][] computeErrors(
+    Sampling sf, float[] f,
+    Sampling sg, float[] g,
+    int[] isb, int[] ise)
+  {
+    Sampling ss = _ss;
+    Sampling se = _s1;
+    int ns = ss.getCount();
+    int ne = se.getCount();
+    float[][] e = new float[ne][ns];
+    float[] fi = new float[ne];
+    _si.interpolate(sf,f,se,fi);
+    float emax = 0.0f;
+    for (int ie=0; ie<ne; ++ie) {
+      double xe = se.getValue(ie);
+      for (int is=isb[ie]; is<ise[ie]; ++is) {
+        float gi = _si.interpolate(sg,g,xe+ss.getValue(is));
+        float ei = e[ie][is] = error(fi[ie],gi);
+        if (ei>emax) emax = ei;
+      }
+    }
+    for (int ie=0; ie<ne; ++ie) {
+      for (int is=0; is<isb[ie]; ++is)
+        e[ie][is] = emax;
+      for (int is=ise[ie]; is<ns; ++is)
+        e[ie][is] = emax;
+    }
+    return e;
+  }
+
+  /**
+   * Returns shifts found from coarse to fine for specified sequences.
+   */
+  private float[] findShiftsCoarseToFine(
+    Sampling sf, float[] f,
+    Sampling sg, float[] g)
+  {
+    DynamicWarpingR dwc = makeCoarseWarping();
+    float[] uc = dwc.findShifts(
+      decimate(sf),decimate(f),
+      decimate(sg),decimate(g));
+    float[] u = upsampleShifts(dwc._s1,uc,_s1);
+    int n1 = _s1.getCount();
+    int[] isb = new int[n1];
+    int[] ise = new int[n1];
+    bandOfShifts(u,isb,ise);
+    float[][] e = computeErrors(sf,f,sg,g,isb,ise);
+    int k1min = min(_k1min,n1-1);
+    int[] k1s = subsample(n1,k1min);
+    return findShiftsFromErrors(_r1min,_r1max,k1s,_ss,_s1,e,isb,ise);
+  }
+
+  /**
+   * Returns shifts found for decimated images, upsampled to the sampling
+   * of the 1st dimension for this warping.
+   */
+  private float[][] findCoarseShifts(
+    Sampling sf, float[][] f,
+    Sampling sg, float[][] g)
+  {
+    trace("findShifts: finding coarse shifts ...");
+    DynamicWarpingR dwc = makeCoarseWarping();
+    float[][] uc = dwc.findShifts(
+      decimate(sf),decimate(f),
+      decimate(sg),decimate(g));
+    int n2 = uc.length;
+    float[][] u = new float[n2][];
+    for (int i2=0; i2<n2; ++i2)
+      u[i2] = upsampleShifts(dwc._s1,uc[i2],_s1);
+    return u;
+  }
+
+  /**
+   * Returns a warping like this one, but for sequences or images that
+   * are decimated in the 1st dimension. This coarse warping searches
+   * all shifts.
+   */
+  private DynamicWarpingR makeCoarseWarping() {
+    DynamicWarpingR dw = new DynamicWarpingR(
+      _ss.getFirst(),_ss.getLast(),decimate(_s1),_s2,_s3);
+    dw.setStrainLimits(_r1min,_r1max,_r2min,_r2max,_r3min,_r3max);
+    dw._k1min = max(1,(_k1min+_kc-1)/_kc);
+    dw._k2min = _k2min;
+    dw._k3min = _k3min;
+    dw._epow = _epow;
+    return dw;
+  }
+
+  private Sampling decimate(Sampling s) {
+    int n = s.getCount();
+    return new Sampling(1+(n-1)/_kc,s.getDelta()*_kc,s.getFirst());
+  }
+  private float[] decimate(float[] f) {
+    int n = f.length;
+    int m = 1+(n-1)/_kc;
+    float[] g = new float[n];
+    new RecursiveExponentialFilter(0.5*_kc).apply(f,g); // anti-alias
+    float[] h = new float[m];
+    for (int i=0,j=0; i<m; ++i,j+=_kc)
+      h[i] = g[j];
+    return h;
+  }
+  private float[][] decimate(float[][] f) {
+    int n = f.length;
+    float[][] h = new float[n][];
+    for (int i=0; i<n; ++i)
+      h[i] = decimate(f[i]);
+    return h;
+  }
+
+  /**
+   * Linearly interpolates coarse shifts uc to the fine sampling s.
+   */
+  private static float[] upsampleShifts(
+    Sampling sc, float[] uc, Sampling s)
+  {
+    int nc = sc.getCount();
+    int n = s.getCount();
+    double dc = sc.getDelta();
+    double fc = sc.getFirst();
+    float[] u = new float[n];
+    if (nc==1) {
+      fill(uc[0],u);
+    } else {
+      for (int i=0; i<n; ++i) {
+        double xc = (s.getValue(i)-fc)/dc;
+        int jc = max(0,min(nc-2,(int)xc));
+        float w = (float)max(0.0,min(1.0,xc-jc));
+        u[i] = (1.0f-w)*uc[jc]+w*uc[jc+1];
+      }
+    }
+    return u;
+  }
+
+  /**
+   * Computes for shifts u a band of shift indices [isb,ise) for which
+   * shifts are within the tolerance of u. Each band contains at least
+   * one shift index.
+   */
+  private void bandOfShifts(float[] u, int[] isb, int[] ise) {
+    int ns = _ss.getCount();
+    double ds = _ss.getDelta();
+    double fs = _ss.getFirst();
+    int ne = u.length;
+    for (int ie=0; ie<ne; ++ie) {
+      int jsb = (int) ceil((u[ie]-_tol-fs)/ds);
+      int jse = (int)floor((u[ie]+_tol-fs)/ds)+1;
+      isb[ie] = max(0,min(ns-1,jsb));
+      ise[ie] = max(isb[ie]+1,min(ns,jse));
+    }
+  }
+
   /**
    * Returns an approximately uniformly-sampled subset of indices in [0,n).
    * Indices in the subset are chosen to be approximately uniform, with the
@@ -554,25 +767,50 @@ public class DynamicWarpingR {
    * @param ss uniform sampling of ns shifts.
    * @param se uniform sampling of ne errors.
    * @param e input array[ne][ns] of alignment errors.
+   * @param isb array[ne] of first shift indices in band; or null.
+   * @param ise array[ne] of last+1 shift indices in band; or null.
    * @return array[nke][ns] of subsampled errors.
    */
   private static float[][] subsampleErrors(
     double rmin, double rmax, int[] kes, 
-    Sampling ss, Sampling se, float[][] e) 
+    Sampling ss, Sampling se, float[][] e, int[] isb, int[] ise) 
   {
     int ns = ss.getCount();
     int ne = se.getCount();
     int nke = kes.length;
     float[][] df = new float[nke][ns];
     float[][] dr = new float[nke][ns];
-    accumulate( 1,rmin,rmax,kes,ss,se,e,df,null);
-    accumulate(-1,rmin,rmax,kes,ss,se,e,dr,null);
+    accumulate( 1,rmin,rmax,kes,ss,se,e,df,null,isb,ise);
+    accumulate(-1,rmin,rmax,kes,ss,se,e,dr,null,isb,ise);
     float[][] d = df;
     float scale = 1.0f/ne;
-    for (int ike=0; ike<nke; ++ike) {
-      int ke = kes[ike];
-      for (int is=0; is<ns; ++is) {
-        d[ike][is] = scale*(df[ike][is]+dr[ike][is]-e[ke][is]);
+    if (isb==null) {
+      for (int ike=0; ike<nke; ++ike) {
+        int ke = kes[ike];
+        for (int is=0; is<ns; ++is) {
+          d[ike][is] = scale*(df[ike][is]+dr[ike][is]-e[ke][is]);
+        }
+      }
+    } else {
+      // Within a band, some shifts may be unreachable. For those shifts,
+      // use the largest subsampled error for shifts that are reachable.
+      for (int ike=0; ike<nke; ++ike) {
+        int ke = kes[ike];
+        float dmax = 0.0f;
+        for (int is=0; is<ns; ++is) {
+          float dfi = df[ike][is];
+          float dri = dr[ike][is];
+          if (dfi<Float.MAX_VALUE && dri<Float.MAX_VALUE) {
+            d[ike][is] = scale*(dfi+dri-e[ke][is]);
+            dmax = max(dmax,d[ike][is]);
+          } else {
+            d[ike][is] = -1.0f;
+          }
+        }
+        for (int is=0; is<ns; ++is) {
+          if (d[ike][is]<0.0f)
+            d[ike][is] = dmax;
+        }
       }
     }
     return d;
@@ -626,17 +864,19 @@ public class DynamicWarpingR {
    * @param ss uniform sampling of ns shifts.
    * @param se uniform sampling of ne errors.
    * @param e input array[ne][ns] of alignment errors.
+   * @param isb array[ne] of first shift indices in band; or null.
+   * @param ise array[ne] of last+1 shift indices in band; or null.
    * @return array[ne] of shifts.
    */
   private static float[] findShiftsFromErrors(
     double rmin, double rmax, int[] kes,
-    Sampling ss, Sampling se, float[][] e) 
+    Sampling ss, Sampling se, float[][] e, int[] isb, int[] ise) 
   {
     int nke = kes.length;
     int ns = ss.getCount();
     float[][] d = new float[nke][ns];
     int[][] m = new int[nke][ns];
-    accumulate(1,rmin,rmax,kes,ss,se,e,d,m);
+    accumulate(1,rmin,rmax,kes,ss,se,e,d,m,isb,ise);
     float[] uke = backtrackForShifts(kes,ss,se,d[nke-1],m);
     return interpolateShifts(se,kes,uke);
   }
@@ -674,10 +914,13 @@ public class DynamicWarpingR {
    * @param e input array[ne][ns] of alignment errors.
    * @param d output array[nke][ns] of accumulated errors.
    * @param m output array[nke][ns] of minimizing moves; or null.
+   * @param isb array[ne] of first shift indices in band; or null.
+   * @param ise array[ne] of last+1 shift indices in band; or null.
    */
   private static void accumulate(
     int dir, double rmin, double rmax, int[] kes, 
-    Sampling ss, Sampling se, float[][] e, float[][] d, int[][] m) 
+    Sampling ss, Sampling se, float[][] e, float[][] d, int[][] m,
+    int[] isb, int[] ise) 
   {
     int ns = ss.getCount();
     double ds = ss.getDelta();
@@ -705,16 +948,18 @@ public class DynamicWarpingR {
         trace("ie="+ie+" je="+je+" me="+me+" msmin="+msmin+" msmax="+msmax);
       }
       assert msmin<=msmax:"msmin<=msmax";
+      int jslo = (isb!=null)?isb[ie]:0;
+      int jshi = (ise!=null)?ise[ie]:ns;
       fill(Float.MAX_VALUE,d[ike]);
       for (int ms=msmin; ms<=msmax; ++ms) {
-        int islo = max(0,-ms);
-        int ishi = min(ns,ns-ms);
+        int islo = max(jslo,-ms);
+        int ishi = min(jshi,ns-ms);
         for (int is=islo; is<ishi; ++is)
           dprev[is] = d[ike-iked][is+ms];
         if (m!=null)
-          updateSumsOfErrors(ie,je,ms,e,dprev,d[ike],m[ike]);
+          updateSumsOfErrors(ie,je,ms,islo,ishi,e,dprev,d[ike],m[ike]);
         else
-          updateSumsOfErrors(ie,je,ms,e,dprev,d[ike],null);
+          updateSumsOfErrors(ie,je,ms,islo,ishi,e,dprev,d[ike],null);
       }
     }
   }
@@ -762,7 +1007,7 @@ public class DynamicWarpingR {
         int ishi = min(ns,ns-ms);
         for (int is=islo; is<ishi; ++is)
           dprev[is] = d[ie-ied][is+ms];
-        updateSumsOfErrors(ie,je,ms,e,dprev,d[ie],null);
+        updateSumsOfErrors(ie,je,ms,islo,ishi,e,dprev,d[ie],null);
       }
     }
   }
@@ -780,17 +1025,17 @@ public class DynamicWarpingR {
    * @param ie error sample index at which to begin sum.
    * @param je error sample index at which to end (not) sum.
    * @param ms change in shift at error sample index je, not in sum.
+   * @param islo lowest shift index to update, not less than max(0,-ms).
+   * @param ishi highest+1 shift index to update, not more than ns-ms.
    * @param e[ne][ns] input array of alignment errors.
    * @param d[ns] input/output array in which to accumulate errors.
    * @param dmin[ns] input/output array of minimum accumulated errors.
    * @param mmin[ns] input/output array of minimizing moves; or null.
    */
   private static void updateSumsOfErrors(
-    int ie, int je, int ms, float[][] e, float[] d, float[] dmin, int[] mmin) 
+    int ie, int je, int ms, int islo, int ishi, 
+    float[][] e, float[] d, float[] dmin, int[] mmin) 
   {
-    int ns = d.length;
-    int islo = max(0,-ms); // update only for is >= islo
-    int ishi = min(ns,ns-ms); // update only for is < ishi
     for (int is=islo; is<ishi; ++is)
       d[is] += e[ie][is];
     int me = ie-je;
@@ -860,23 +1105,37 @@ public class DynamicWarpingR {
         msmin = (int) ceil(-rmin*me*de/ds);
         msmax = (int)floor(-rmax*me*de/ds);
       }
-      for (int is=0; is<ns; ++is) {
-        float dmin = Float.MAX_VALUE;
-        int mmin = -1;
-        for (int ms=msmin; ms<=msmax; ++ms) {
-          int js = is+ms;
-          if (0<=js && js<ns) {
-            float dj = dprev[js];
-            if (dj<dmin) {
-              dmin = dj;
-              mmin = ms;
+      // For each move, loop over only those shifts for which the move is
+      // valid, so that the loop has no branches other than that required
+      // to record the minimizing move. Moves are tested in increasing
+      // order, so that ties are resolved in favor of the smallest move.
+      float[] dike = d[ike];
+      float[] eike = e[ike];
+      int[] mike = (m!=null)?m[ike]:null;
+      for (int is=0; is<ns; ++is)
+        dike[is] = Float.MAX_VALUE;
+      if (mike!=null) {
+        for (int is=0; is<ns; ++is)
+          mike[is] = -1;
+      }
+      for (int ms=msmin; ms<=msmax; ++ms) {
+        int isb = max(0,-ms);
+        int ise = min(ns,ns-ms);
+        if (mike!=null) {
+          for (int is=isb; is<ise; ++is) {
+            float dj = dprev[is+ms];
+            if (dj<dike[is]) {
+              dike[is] = dj;
+              mike[is] = ms;
             }
           }
-          d[ike][is] = dmin+e[ike][is];
-          if (m!=null)
-            m[ike][is] = mmin;
+        } else {
+          for (int is=isb; is<ise; ++is)
+            dike[is] = Math.min(dike[is],dprev[is+ms]);
         }
       }
+      for (int is=0; is<ns; ++is)
+        dike[is] += eike[is];
     }
   }
 
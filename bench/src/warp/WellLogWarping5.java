@@ -6,22 +6,29 @@ available at http://www.eclipse.org/legal/cpl-v10.html
 ****************************************************************************/
 package warp;
 
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Random;
 
 import edu.mines.jtk.dsp.*;
 import edu.mines.jtk.interp.CubicInterpolator;
+import edu.mines.jtk.io.ArrayInputStream;
+import edu.mines.jtk.io.ArrayOutputStream;
 import edu.mines.jtk.util.*;
 import static edu.mines.jtk.util.ArrayMath.*;
 
 // TESTING ONLY!
 import java.awt.*;
 import edu.mines.jtk.awt.*;
-import edu.mines.jtk.lapack.*;
 import edu.mines.jtk.mosaic.*;
 
 import dnp.CgSolver;
+import dnp.LsqrSolver;
 import dnp.Vec;
+import dnp.VecArrayDouble1;
 import dnp.VecArrayDouble2;
+import fault.KdTree;
 
 /**
  * Dynamic warping for alignment of well logs. 
@@ -105,6 +112,47 @@ public class WellLogWarping5 {
     _vnull = vnull;
   }
 
+  /**
+   * Sets well locations used to warp only pairs of nearby logs.
+   * If specified, each log is warped only with the logs for its k nearest
+   * wells, instead of with all other logs. The number of pairs of logs
+   * warped then grows linearly, not quadratically, with the number of
+   * logs. The default is to warp all pairs of logs.
+   * @param k the number of nearest wells; if zero, warp all pairs.
+   * @param x array of x coordinates of well locations; may be null.
+   * @param y array of y coordinates of well locations; may be null.
+   */
+  public void setNearestWells(int k, double[] x, double[] y) {
+    Check.argument(k==0 || x!=null && y!=null && x.length==y.length,
+      "well coordinates are specified for k>0");
+    _kwell = k;
+    _xwell = x;
+    _ywell = y;
+  }
+
+  /**
+   * Sets a directory in which to cache warpings of pairs of logs.
+   * Each cached warping is stored in a file with a name computed from
+   * the values in both logs and the parameters that affect warping:
+   * the maximum shift, the exponent for errors, and the null error and
+   * value. When pairs of logs are again warped with the same parameters,
+   * their warpings are read from the cache instead of being recomputed,
+   * so that, for example, after adding one log only the pairs that
+   * include that log are warped. Warpings that cannot be written to the
+   * cache are simply recomputed when next needed. The default is no cache.
+   * @param dirName name of the cache directory; null, for no cache.
+   */
+  public void setCacheDirectory(String dirName) {
+    if (dirName!=null) {
+      File dir = new File(dirName);
+      if (!dir.isDirectory() && !dir.mkdirs())
+        throw new RuntimeException("cannot create directory "+dirName);
+      _cacheDir = dir;
+    } else {
+      _cacheDir = null;
+    }
+  }
+
   /**
    * Returns an array of alignment errors e[k,l] for two sequences.
    * @param f array of values f[i] in 1st log sequence.
@@ -477,16 +525,14 @@ public class WellLogWarping5 {
   public Pairs[] computePairs(final float[][] fs) {
     int nl = fs.length;
 
-    // Log index pairs (I,J).
-    int np = nl*(nl-1)/2; // number of pairs of logs
-    final int[] ils = new int[np]; // indices for log I
-    final int[] jls = new int[np]; // indices for log J
-    for (int il=0,ip=0; il<nl; ++il) {
-      for (int jl=il+1; jl<nl; ++jl,++ip) {
-        ils[ip] = il;
-        jls[ip] = jl;
-      }
-    }
+    // Log index pairs (I,J), for all logs or only for nearest wells.
+    int[][] ijls = (_kwell>0)?nearestLogPairs(nl):allLogPairs(nl);
+    final int[] ils = ijls[0]; // indices for log I
+    final int[] jls = ijls[1]; // indices for log J
+    int np = ils.length; // number of pairs of logs
+
+    // Digests of logs, if warpings of pairs of logs are cached.
+    final byte[][] dls = (_cacheDir!=null)?digestLogs(fs):null;
 
     // Use dynamic warping to find pairs of corresponding depths.
     final Pairs[] ps = new Pairs[np];
@@ -496,10 +542,16 @@ public class WellLogWarping5 {
       int jl = jls[ip];
       float[] fi = fs[il];
       float[] gj = fs[jl];
-      float[][] e = computeErrors(fi,gj);
-      float[][] d = accumulateErrors(e);
-      int[][] kl = findWarping(d);
-      int[][] ij = convertWarping(kl,fi,gj);
+      File file = (dls!=null)?cacheFile(dls[il],dls[jl]):null;
+      int[][] ij = (file!=null)?readCachedPair(file):null;
+      if (ij==null) {
+        float[][] e = computeErrors(fi,gj);
+        float[][] d = accumulateErrors(e);
+        int[][] kl = findWarping(d);
+        ij = convertWarping(kl,fi,gj);
+        if (file!=null)
+          writeCachedPair(file,ij);
+      }
       ps[ip] = new Pairs(il,jl,ij[0],ij[1]);
     }});
 
@@ -509,39 +561,230 @@ public class WellLogWarping5 {
     return ps;
   }
 
+  // Cached warpings of pairs of logs. Names of cache files are hex strings
+  // for SHA-1 digests of the parameters that affect warping and digests
+  // of the two logs. Files contain the number n of pairs of depth indices
+  // (i,j), followed by n indices i and n indices j. Files are written
+  // first to a temporary file and then renamed, so that a partially
+  // written file is never read.
+  private static final int CACHE_VERSION = 1;
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[][] digestLogs(final float[][] fs) {
+    final int nl = fs.length;
+    final byte[][] dls = new byte[nl][];
+    Parallel.loop(nl,new Parallel.LoopInt() {
+    public void compute(int il) {
+      float[] f = fs[il];
+      int nz = f.length;
+      byte[] b = new byte[4*nz];
+      for (int iz=0,ib=0; iz<nz; ++iz) {
+        int v = Float.floatToIntBits(f[iz]);
+        b[ib++] = (byte)(v>>>24);
+        b[ib++] = (byte)(v>>>16);
+        b[ib++] = (byte)(v>>> 8);
+        b[ib++] = (byte)(v     );
+      }
+      dls[il] = newDigest().digest(b);
+    }});
+    return dls;
+  }
+
+  private File cacheFile(byte[] dli, byte[] dlj) {
+    MessageDigest md = newDigest();
+    String p = CACHE_VERSION+" "+_lmax+" "+
+      Float.floatToIntBits(_epow)+" "+
+      Float.floatToIntBits(_enull)+" "+
+      Float.floatToIntBits(_vnull);
+    md.update(p.getBytes());
+    md.update(dli);
+    md.update(dlj);
+    StringBuilder sb = new StringBuilder();
+    for (byte b:md.digest())
+      sb.append(String.format("%02x",b&0xff));
+    return new File(_cacheDir,sb.toString());
+  }
+
+  private static int[][] readCachedPair(File file) {
+    if (!file.isFile())
+      return null;
+    try {
+      ArrayInputStream ais = new ArrayInputStream(file.getPath());
+      try {
+        int n = ais.readInt();
+        int[] is = new int[n];
+        int[] js = new int[n];
+        ais.readInts(is);
+        ais.readInts(js);
+        return new int[][]{is,js};
+      } finally {
+        ais.close();
+      }
+    } catch (IOException e) {
+      return null; // if not readable, simply recompute
+    }
+  }
+
+  private static void writeCachedPair(File file, int[][] ij) {
+    File temp = null;
+    try {
+      temp = File.createTempFile("pair",".tmp",file.getParentFile());
+      ArrayOutputStream aos = new ArrayOutputStream(temp.getPath());
+      try {
+        aos.writeInt(ij[0].length);
+        aos.writeInts(ij[0]);
+        aos.writeInts(ij[1]);
+      } finally {
+        aos.close();
+      }
+      if (!temp.renameTo(file))
+        temp.delete();
+    } catch (IOException e) {
+      // The cache is only an optimization, so skip caching this pair.
+      if (temp!=null)
+        temp.delete();
+    }
+  }
+
+  // Indices (il,jl) of all pairs of logs, with il<jl.
+  private static int[][] allLogPairs(int nl) {
+    int np = nl*(nl-1)/2;
+    int[] ils = new int[np];
+    int[] jls = new int[np];
+    for (int il=0,ip=0; il<nl; ++il) {
+      for (int jl=il+1; jl<nl; ++jl,++ip) {
+        ils[ip] = il;
+        jls[ip] = jl;
+      }
+    }
+    return new int[][]{ils,jls};
+  }
+
+  // Indices (il,jl) of pairs of logs, with il<jl, for which either well
+  // is one of the k wells nearest to the other. Pairs are sorted as for
+  // all pairs of logs, and each pair appears only once.
+  private int[][] nearestLogPairs(int nl) {
+    Check.argument(_xwell.length==nl,"number of wells equals number of logs");
+    int kw = min(_kwell+1,nl); // + 1, because nearest well is itself
+    float[][] xy = new float[2][nl];
+    for (int il=0; il<nl; ++il) {
+      xy[0][il] = (float)_xwell[il];
+      xy[1][il] = (float)_ywell[il];
+    }
+    KdTree kt = new KdTree(xy);
+    KdTree.Search search = new KdTree.Search();
+    float[] xyi = new float[2];
+    int[] ks = new int[kw];
+    long[] keys = new long[nl*kw];
+    int nkey = 0;
+    for (int il=0; il<nl; ++il) {
+      xyi[0] = xy[0][il];
+      xyi[1] = xy[1][il];
+      int nk = kt.findNearest(search,xyi,kw,ks,null);
+      for (int ik=0; ik<nk; ++ik) {
+        int jl = ks[ik];
+        if (jl!=il)
+          keys[nkey++] = (long)min(il,jl)*nl+max(il,jl);
+      }
+    }
+    java.util.Arrays.sort(keys,0,nkey);
+    IntList ill = new IntList();
+    IntList jll = new IntList();
+    for (int ikey=0; ikey<nkey; ++ikey) {
+      if (ikey==0 || keys[ikey]!=keys[ikey-1]) {
+        ill.add((int)(keys[ikey]/nl));
+        jll.add((int)(keys[ikey]%nl));
+      }
+    }
+    //trace("nearestLogPairs: nl="+nl+" np="+ill.n);
+    if (ill.n==0) // trim returns null for empty lists
+      return new int[][]{new int[0],new int[0]};
+    return new int[][]{ill.trim(),jll.trim()};
+  }
+
+  // Least-squares constant shifts s[il] such that s[il]-s[jl] ~ jz-iz for
+  // all pairs of depths (iz,jz) in all pairs of logs (il,jl), and the sum
+  // of shifts is zero. All equations for one pair of logs have the same
+  // unknowns, so they are equivalent (in the least-squares sense) to one
+  // equation with a weight that is the root-sum-square of their weights.
+  // The resulting sparse system, with one equation for each pair of logs,
+  // is solved by LSQR.
   private float[] findConstantShifts(int nz, int nl, Pairs[] ps) {
     int np = ps.length;
-    int ne = 1;
-    for (int ip=0; ip<np; ++ip)
-      ne += ps[ip].nzp;
-    DMatrix a = new DMatrix(ne,nl);
-    DMatrix b = new DMatrix(ne,1);
-    for (int il=0; il<nl; ++il)
-      a.set(0,il,1.0);
-    for (int ip=0,ie=1; ip<np; ++ip) {
+    double[] cs = new double[np];
+    double[] b = new double[1+np];
+    for (int ip=0; ip<np; ++ip) {
       Pairs p = ps[ip];
-      int il = p.il;
-      int jl = p.jl;
       int nzp = p.nzp;
       int[] izs = p.izs;
       int[] jzs = p.jzs;
       float[] ws = p.ws;
-      for (int kzp=0; kzp<nzp; ++kzp,++ie) {
-        int iz = izs[kzp];
-        int jz = jzs[kzp];
-        float w = ws[kzp];
-        b.set(ie,0,w*(jz-iz));
-        a.set(ie,il, w);
-        a.set(ie,jl,-w);
+      double wwsum = 0.0;
+      double wwdsum = 0.0;
+      for (int kzp=0; kzp<nzp; ++kzp) {
+        double ww = ws[kzp]*ws[kzp];
+        wwsum += ww;
+        wwdsum += ww*(jzs[kzp]-izs[kzp]);
+      }
+      if (wwsum>0.0) {
+        cs[ip] = sqrt(wwsum);
+        b[1+ip] = wwdsum/cs[ip];
       }
     }
-    DMatrix x = a.solve(b);
+    double[] x = new double[nl];
+    LsqrSolver ls = new LsqrSolver(1.0e-6,1.0e-6,1.0e-8,max(100,10*nl));
+    LsqrSolver.Info info = ls.solve(new ConstantShiftsA(ps,cs),0.0,
+      new VecArrayDouble1(b),new VecArrayDouble1(x));
+    //trace("findConstantShifts: np="+np+" niter="+info.niter+
+    //      " stop="+info.stop);
     float[] s = new float[nl];
     for (int il=0; il<nl; ++il)
-      s[il] = (float)x.get(il,0);
+      s[il] = (float)x[il];
     return s;
   }
 
+  // Sparse operator for constant shifts. The first equation constrains
+  // the sum of shifts; each remaining equation corresponds to one pair of
+  // logs (il,jl) and has only two non-zero coefficients c and -c.
+  private static class ConstantShiftsA implements LsqrSolver.A {
+    ConstantShiftsA(Pairs[] ps, double[] cs) {
+      _ps = ps;
+      _cs = cs;
+    }
+    public void apply(Vec vx, Vec vy) {
+      double[] x = ((VecArrayDouble1)vx).getArray();
+      double[] y = ((VecArrayDouble1)vy).getArray();
+      int nl = x.length;
+      int np = _ps.length;
+      for (int il=0; il<nl; ++il)
+        y[0] += x[il];
+      for (int ip=0; ip<np; ++ip)
+        y[1+ip] += _cs[ip]*(x[_ps[ip].il]-x[_ps[ip].jl]);
+    }
+    public void applyTranspose(Vec vy, Vec vx) {
+      double[] y = ((VecArrayDouble1)vy).getArray();
+      double[] x = ((VecArrayDouble1)vx).getArray();
+      int nl = x.length;
+      int np = _ps.length;
+      for (int il=0; il<nl; ++il)
+        x[il] += y[0];
+      for (int ip=0; ip<np; ++ip) {
+        double cy = _cs[ip]*y[1+ip];
+        x[_ps[ip].il] += cy;
+        x[_ps[ip].jl] -= cy;
+      }
+    }
+    private Pairs[] _ps;
+    private double[] _cs;
+  }
+
   private void computeWeights(float[][] f, Pairs[] ps) {
     int np = ps.length;
     float[] wp = new float[np];
@@ -869,6 +1112,9 @@ public class WellLogWarping5 {
   private float _epow = 1.0f;
   private float _enull = -FLT_MIN;
   private float _vnull = -999.2500f;
+  private int _kwell; // number of nearest wells; zero for all pairs
+  private File _cacheDir; // directory for cached warpings; null, if none
+  private double[] _xwell,_ywell; // well coordinates, if _kwell>0
 
   /**
    * Arrays of pairs of depth sample indices (iz,jz) with weights w. The